@@ -83,6 +83,14 @@ public final class Constants {
         return new File(Teeto.getRunDirectory() + "/config/audio.config.json");
     }
 
+    /**
+     * @return the audio index file, kept next to
+     * the audio config file.
+     */
+    public static File getAudioIndexFile(){
+        return new File(Teeto.getRunDirectory() + "/config/audio.index.json");
+    }
+
     /**
      * @return the audio folder where audio files are kept.
      */
@@ -90,10 +98,49 @@ public final class Constants {
         return new File(Teeto.getRunDirectory() + "/audio/");
     }
 
+    /**
+     * @return the folder where transcoded audio clips
+     * are kept.
+     */
+    public static File getAudioClipFolder(){
+        return new File(getAudioFolder() + "/clips/");
+    }
+
+    /**
+     * @return the folder where remote audio
+     * files are cached.
+     */
+    public static File getRemoteCacheFolder(){
+        return new File(Teeto.getRunDirectory() + "/cache/remote/");
+    }
+
+    /**
+     * @return the file listing the guilds with schedules,
+     * so only their settings are read on startup.
+     */
+    public static File getScheduleIndexFile(){
+        return new File(Teeto.getAbsoluteRunDirectory() + "/schedules.index.json");
+    }
+
     /**
      * @return the folder where guild settings are kept.
      */
     public static File getSettingsFolder(){
         return new File(Teeto.getAbsoluteRunDirectory() + "/guild_settings/");
     }
+
+    /**
+     * @return the folder where the guild settings log is kept.
+     */
+    public static File getSettingsLogFolder(){
+        return new File(getSettingsFolder() + "/log/");
+    }
+
+    /**
+     * @return the folder guild settings are exported to
+     * as json files.
+     */
+    public static File getSettingsExportFolder(){
+        return new File(getSettingsFolder() + "/export/");
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores guild settings as one json file per guild
+ * ({@code <guild id>.json}) in a folder.
+ * <p>
+ * Writes go to a temporary file which is synced to disk
+ * and then atomically renamed over the guilds file, so a
+ * crash mid-write never leaves a half written file behind.
+ */
+class FileSettingsStore implements SettingsStore {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Folder where guild settings files are kept.
+     */
+    private final File settingsFolder;
+
+    /**
+     * Constructs a new file settings store.
+     *
+     * @param settingsFolder the folder where settings files are kept.
+     */
+    FileSettingsStore(File settingsFolder){
+        this.settingsFolder = settingsFolder;
+        //noinspection ResultOfMethodCallIgnored
+        settingsFolder.mkdirs();
+    }
+
+    /**
+     * Loads all settings files in the folder. Files that
+     * fail to load are logged and skipped.
+     *
+     * @return the json settings to guild IDs.
+     */
+    @Override
+    public Map<Long, JsonObject> loadAll() {
+        Map<Long, JsonObject> map = new HashMap<>();
+        File[] files = settingsFolder.listFiles();
+
+        if(files == null){
+            LOG.warn("Settings folder not listing files. Skipping loading of guild settings...");
+            return map;
+        }
+
+        for(File f : files){
+            if(!f.getName().endsWith(".json"))
+                continue;
+
+            try {
+                JsonObject settings = load(f);
+                map.put(settings.get("id").getAsLong(), settings);
+            } catch (IOException e) {
+                LOG.error("Failed to load guild settings: " + f.getAbsoluteFile());
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Reads the guilds settings file if it exists.
+     *
+     * @param guildId the guilds ID.
+     * @return the json settings or {@code null} if the
+     * guild has no settings file.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public JsonObject load(long guildId) throws IOException {
+        File f = new File(settingsFolder, guildId + ".json");
+        return f.exists() ? load(f) : null;
+    }
+
+    /**
+     * @return {@code true} if the folder contains any
+     * guild settings files.
+     */
+    boolean isEmpty(){
+        File[] files = settingsFolder.listFiles((dir, name) -> name.endsWith(".json"));
+        return files == null || files.length == 0;
+    }
+
+    /**
+     * Writes the guild settings to a temporary file,
+     * syncs it and renames it over the guilds file.
+     *
+     * @param guildId the guilds ID.
+     * @param settings the json settings.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public void write(long guildId, JsonObject settings) throws IOException {
+        Path target = settingsFolder.toPath().resolve(guildId + ".json");
+        Path temp = settingsFolder.toPath().resolve(guildId + ".json.tmp");
+
+        LOG.info("Saving guild settings: " + target);
+        ByteBuffer data = ByteBuffer.wrap(
+                Teeto.GSON.toJson(settings, JsonObject.class).getBytes(StandardCharsets.UTF_8));
+
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(data.hasRemaining())
+                channel.write(data);
+
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the guild settings from file.
+     *
+     * @param f the file to get the settings from.
+     * @return the json settings.
+     * @throws IOException reason for failure if any.
+     */
+    private JsonObject load(File f) throws IOException {
+        LOG.info("Loading guild settings: " + f.getAbsoluteFile());
+        try(FileReader reader = new FileReader(f)){
+            return Teeto.GSON.fromJson(reader, JsonObject.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed guild settings: " + f.getAbsoluteFile(), e);
+        }
+    }
+}
@@ -16,20 +16,47 @@
  */
 package net.lmelaia.teeto;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import net.dv8tion.jda.core.entities.Guild;
+import net.lmelaia.teeto.schedule.Schedule;
+import net.lmelaia.teeto.util.JsonUtil;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nonnull;
-import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Represents settings for a guild stored on file.
+ * <p>
+ * The settings are kept in two forms: the backing json
+ * object, which is what gets written to file, and an
+ * immutable typed {@link Snapshot} decoded from it. Reads
+ * should go through the snapshot. Every change replaces
+ * both (copy-on-write), bumps the snapshot version and
+ * notifies any registered {@link ChangeListener}s.
+ * <p>
+ * Settings are loaded from the store the first time a
+ * guild is accessed. Guilds that haven't been accessed
+ * for a while, or the least recently accessed guilds once
+ * too many are cached, are evicted after their unsaved
+ * settings are flushed. A {@link SettingsStore#isShared()
+ * shared} store is instead loaded in full at startup and
+ * kept up to date by the other processes changes, so reads
+ * never go over the network.
  */
 public class GuildSettings {
 
@@ -39,35 +66,86 @@ public class GuildSettings {
     private static final Logger LOG = LogManager.getLogger();
 
     /**
-     * Settings object to guild id map.
+     * Cached settings objects to guild id map.
      */
-    private static final Map<Long, GuildSettings> GUILD_SETTINGS_HASH_MAP = new HashMap<>();
+    private static final Map<Long, GuildSettings> GUILD_SETTINGS_HASH_MAP = new ConcurrentHashMap<>();
 
     /**
-     * File IO for settings objects.
+     * Listeners notified when any guilds settings change.
      */
-    private static final SettingsIO IO;
+    private static final List<ChangeListener> CHANGE_LISTENERS = new CopyOnWriteArrayList<>();
+
+    /**
+     * How long saves of the same guild are coalesced
+     * for before being written, in milliseconds.
+     */
+    private static final long SAVE_COALESCE_WINDOW = 2000;
+
+    /**
+     * Longest a durable save waits for its write, in milliseconds.
+     */
+    private static final long DURABLE_SAVE_TIMEOUT = 10000;
+
+    /**
+     * The store settings are loaded from and saved to.
+     */
+    private static final SettingsStore STORE;
+
+    /**
+     * Writes saved settings to file in the background.
+     */
+    private static final SettingsPersister PERSISTER;
+
+    /**
+     * How often cached settings are checked for eviction, in seconds.
+     */
+    private static final long EVICTION_INTERVAL = 60;
+
+    /**
+     * Evicts inactive settings from the cache.
+     */
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "settings-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * The backing json object that stores the settings.
+     * Never modified once published, only replaced.
      */
-    private final JsonObject backingObject;
+    private volatile JsonObject backingObject;
 
-    /*
-     * Initializes IO and loads all files.
+    /**
+     * Typed snapshot decoded from the backing object.
      */
-    static{
-        IO = new SettingsIO(Constants.getSettingsFolder(), GUILD_SETTINGS_HASH_MAP);
-    }
+    private volatile Snapshot snapshot;
 
     /**
-     * Creates new guild settings object with unique ID.
-     *
-     * @param g the guild the settings are for.
+     * Time the settings were last accessed, in milliseconds.
+     */
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    /*
+     * Initializes the store. Settings in a shared store are
+     * all loaded now and kept in memory. Otherwise they are
+     * loaded per guild on first access and the evictor is
+     * started.
      */
-    private GuildSettings(Guild g){
-        backingObject = new JsonObject();
-        backingObject.add(Settings.ID.getProperty(), new JsonPrimitive(g.getIdLong()));
+    static{
+        TeetoConfig config = TeetoConfig.getConfig();
+        STORE = createStore(config);
+        PERSISTER = new SettingsPersister(STORE, SAVE_COALESCE_WINDOW);
+        STORE.setRemoteChangeListener(new RemoteListener());
+
+        if(STORE.isShared()){
+            preload();
+        } else {
+            long idleTime = TimeUnit.MINUTES.toMillis(config.getSettingsIdleMinutes());
+            int cacheSize = config.getSettingsCacheSize();
+            EVICTOR.scheduleWithFixedDelay(() -> evictInactive(idleTime, cacheSize),
+                    EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -78,26 +156,57 @@ public class GuildSettings {
      */
     private GuildSettings(JsonObject jo){
         this.backingObject = jo;
+        this.snapshot = new Snapshot(jo, 0);
     }
 
     /**
      * Returns a setting from guilds settings.
+     * <p>
+     * The returned element is a copy and can be
+     * modified freely. Prefer {@link #getSnapshot()}
+     * for the built in {@link Settings}.
      *
      * @param s the settings "key".
      * @return the value of the setting.
      */
     public JsonElement getSetting(Setting s){
-        return backingObject.get(s.getProperty());
+        JsonElement element = backingObject.get(s.getProperty());
+        return (element == null) ? null : element.deepCopy();
     }
 
     /**
      * Sets the value of a setting in the guild settings.
+     * <p>
+     * Replaces the backing object and snapshot with updated
+     * copies and notifies the change listeners.
      *
      * @param s the setting to set.
      * @param value the value to set.
      */
     public void setSetting(Setting s, JsonElement value){
-        backingObject.add(s.getProperty(), value);
+        Snapshot previous;
+        Snapshot current;
+
+        synchronized (this){
+            JsonObject updated = backingObject.deepCopy();
+            updated.add(s.getProperty(), value);
+
+            previous = snapshot;
+            current = new Snapshot(updated, previous.getVersion() + 1);
+
+            backingObject = updated;
+            snapshot = current;
+        }
+
+        for(ChangeListener listener : CHANGE_LISTENERS)
+            listener.onSettingsChanged(previous, current);
+    }
+
+    /**
+     * @return the current typed, immutable view of the settings.
+     */
+    public Snapshot getSnapshot(){
+        return snapshot;
     }
 
     /**
@@ -110,16 +219,45 @@ public class GuildSettings {
         return backingObject.has(s.getProperty());
     }
 
+    /**
+     * Saves the settings to file in the background.
+     * Returns without waiting for the write.
+     *
+     * @return {@code true} once the save is queued.
+     */
+    public boolean save(){
+        return save(Durability.WRITE_BEHIND);
+    }
+
     /**
      * Saves the settings to file.
+     * <p>
+     * {@link Durability#WAIT_FOR_DISK} writes the settings
+     * straight away instead of after the coalesce window and
+     * waits up to {@link #DURABLE_SAVE_TIMEOUT} for the write.
      *
+     * @param durability whether to wait for the settings
+     *                   to be written to disk.
      * @return {@code true} if successful.
      */
-    public boolean save(){
+    public boolean save(Durability durability){
+        if(durability == Durability.WRITE_BEHIND){
+            PERSISTER.markDirty(snapshot.getGuildId(), backingObject);
+            return true;
+        }
+
+        CompletableFuture<Void> write = PERSISTER.writeNow(snapshot.getGuildId(), backingObject);
+
         try {
-            IO.save(this);
-        } catch (IOException e) {
-            LOG.error("Failed to save guild settings: " + getSetting(Settings.ID).getAsString(), e);
+            write.get(DURABLE_SAVE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LOG.error("Failed to save guild settings: " + snapshot.getGuildId(), e.getCause());
+            return false;
+        } catch (TimeoutException e) {
+            LOG.error("Timed out saving guild settings: " + snapshot.getGuildId());
             return false;
         }
 
@@ -128,113 +266,607 @@ public class GuildSettings {
 
     /**
      * Returns the guild settings object for the given guild.
+     * <p>
+     * Settings that aren't cached are loaded outside the map
+     * so the store isn't read while holding a map lock.
+     * If two threads load the same guild, the first one
+     * cached wins.
+     * <p>
+     * The access time is set inside the map, so the evictor
+     * can't remove settings between them being found and
+     * touched.
      *
      * @param g the given guild.
      * @return the guild settings object.
      */
     public static GuildSettings getGuildSettings(Guild g){
-        if(GUILD_SETTINGS_HASH_MAP.containsKey(g.getIdLong()))
-            return GUILD_SETTINGS_HASH_MAP.get(g.getIdLong());
+        long now = System.currentTimeMillis();
+        GuildSettings settings = GUILD_SETTINGS_HASH_MAP.computeIfPresent(g.getIdLong(), (id, cached) -> {
+            cached.lastAccess = now;
+            return cached;
+        });
+
+        if(settings == null){
+            GuildSettings loaded = load(g.getIdLong());
+            loaded.lastAccess = now;
+            settings = GUILD_SETTINGS_HASH_MAP.merge(g.getIdLong(), loaded, (cached, ignored) -> {
+                cached.lastAccess = now;
+                return cached;
+            });
+        }
 
-        GuildSettings newSettings = new GuildSettings(g);
-        GUILD_SETTINGS_HASH_MAP.put(g.getIdLong(), newSettings);
+        return settings;
+    }
 
-        return newSettings;
+    /**
+     * @return {@code true} if the settings store is shared
+     * between processes, so every guilds settings are
+     * already in memory.
+     */
+    public static boolean isStoreShared(){
+        return STORE.isShared();
     }
 
     /**
-     * Handles file read and writes for the settings.
+     * Opens the settings store. Called once at startup so a
+     * shared store is loaded before any commands run,
+     * instead of on the first thread to touch the settings.
      */
-    private static class SettingsIO {
+    static void init(){
+        LOG.info("Guild settings store: " + STORE.getClass().getSimpleName() + ", cached: "
+                + GUILD_SETTINGS_HASH_MAP.size());
+    }
+
+    /**
+     * Registers a listener to be notified whenever
+     * any guilds settings change.
+     *
+     * @param listener the listener.
+     */
+    public static void addChangeListener(ChangeListener listener){
+        CHANGE_LISTENERS.add(listener);
+    }
+
+    /**
+     * @param listener the listener to stop notifying.
+     */
+    public static void removeChangeListener(ChangeListener listener){
+        CHANGE_LISTENERS.remove(listener);
+    }
+
+    /**
+     * Writes all unsaved settings to disk, stops
+     * the background writer and closes the store.
+     */
+    static void shutdown(){
+        EVICTOR.shutdownNow();
+        PERSISTER.shutdown();
+
+        try {
+            STORE.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close settings store", e);
+        }
+    }
+
+    /**
+     * Writes every guilds settings as one json file per
+     * guild to the given folder.
+     *
+     * @param folder the folder to export to.
+     * @return the number of guilds exported.
+     * @throws IOException reason for failure if any.
+     */
+    public static int exportSettings(File folder) throws IOException {
+        PERSISTER.flushAll();
+        return SettingsStore.copy(STORE, new FileSettingsStore(folder));
+    }
+
+    /**
+     * Loads the settings for a guild. Unsaved settings
+     * from before the guild was evicted are used over
+     * the stored settings.
+     * <p>
+     * A shared store is never read here: every guild it
+     * has was loaded at startup or arrived as a remote
+     * change, so a guild that isn't cached has no settings.
+     *
+     * @param guildId the guilds ID.
+     * @return the guilds settings, empty if the guild
+     * has none.
+     */
+    private static GuildSettings load(long guildId){
+        JsonObject settings = PERSISTER.getPending(guildId);
+
+        if(settings == null && !STORE.isShared()){
+            try {
+                settings = STORE.load(guildId);
+            } catch (IOException e) {
+                LOG.error("Failed to load guild settings: " + guildId, e);
+            }
+        }
+
+        if(settings == null){
+            settings = new JsonObject();
+            settings.add(Settings.ID.getProperty(), new JsonPrimitive(guildId));
+        }
+
+        return new GuildSettings(settings);
+    }
+
+    /**
+     * Loads every guild in the store into the cache. Guilds
+     * already cached by a remote change that arrived during
+     * the load are kept.
+     */
+    private static void preload(){
+        long start = System.currentTimeMillis();
+
+        try {
+            for(Map.Entry<Long, JsonObject> entry : STORE.loadAll().entrySet())
+                GUILD_SETTINGS_HASH_MAP.putIfAbsent(entry.getKey(), new GuildSettings(entry.getValue()));
+        } catch (IOException e) {
+            LOG.error("Failed to preload guild settings", e);
+        }
+
+        LOG.info("Preloaded " + GUILD_SETTINGS_HASH_MAP.size() + " guild settings in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Evicts settings not accessed within the idle time, then
+     * the least recently accessed settings until no more than
+     * the cache size remain.
+     *
+     * @param idleTime how long settings can go unaccessed
+     *                 before eviction, in milliseconds.
+     * @param cacheSize the most settings to keep cached.
+     */
+    private static void evictInactive(long idleTime, int cacheSize){
+        long now = System.currentTimeMillis();
+        //Access times as first seen, so accesses during the pass don't change the order.
+        Map<GuildSettings, Long> seen = new IdentityHashMap<>();
+        List<GuildSettings> remaining = new ArrayList<>();
+        int evicted = 0;
+
+        for(GuildSettings settings : GUILD_SETTINGS_HASH_MAP.values()){
+            long lastAccess = settings.lastAccess;
+
+            if(now - lastAccess > idleTime){
+                if(evict(settings, lastAccess))
+                    evicted++;
+            } else {
+                seen.put(settings, lastAccess);
+                remaining.add(settings);
+            }
+        }
+
+        if(remaining.size() > cacheSize){
+            remaining.sort(Comparator.comparingLong(seen::get));
+
+            for(GuildSettings settings : remaining.subList(0, remaining.size() - cacheSize)){
+                if(evict(settings, seen.get(settings)))
+                    evicted++;
+            }
+        }
+
+        if(evicted > 0)
+            LOG.info("Evicted " + evicted + " guild settings. Cached: " + GUILD_SETTINGS_HASH_MAP.size());
+    }
+
+    /**
+     * Removes the guilds settings from the cache, then flushes
+     * any unsaved settings for it.
+     * <p>
+     * Removing first means a reload can only happen once the
+     * settings are out of the cache. Until the flush finishes,
+     * the persister holds them as pending or in flight, and
+     * {@link #load(long)} takes them from there, so a reload
+     * never reads settings older than the dirty copy from
+     * the store.
+     * <p>
+     * If the flush fails, the settings are put back in the
+     * cache while the persister retries the write.
+     * <p>
+     * Settings accessed since they were chosen for eviction
+     * are kept. This is checked inside the map, where
+     * {@link #getGuildSettings(Guild)} sets the access time,
+     * so a caller is never handed settings that are then
+     * evicted from under it.
+     *
+     * @param settings the settings to evict.
+     * @param lastAccess the access time the settings were
+     *                   chosen for eviction with.
+     * @return {@code true} if the settings were evicted.
+     */
+    private static boolean evict(GuildSettings settings, long lastAccess){
+        long guildId = settings.snapshot.getGuildId();
+        boolean[] removed = new boolean[1];
+
+        GUILD_SETTINGS_HASH_MAP.computeIfPresent(guildId, (id, cached) -> {
+            if(cached != settings || cached.lastAccess != lastAccess)
+                return cached;
+
+            removed[0] = true;
+            return null;
+        });
+
+        if(!removed[0])
+            return false;
+
+        if(!PERSISTER.flush(guildId)){
+            //A reload meanwhile took the unsaved settings from the persister, so either copy is current.
+            GUILD_SETTINGS_HASH_MAP.putIfAbsent(guildId, settings);
+            return false;
+        }
+
+        for(ChangeListener listener : CHANGE_LISTENERS)
+            listener.onSettingsEvicted(guildId);
+
+        return true;
+    }
+
+    /**
+     * Creates the settings store named in the bot config.
+     * <p>
+     * {@code "log"} creates a {@link LogSettingsStore}. The
+     * first time it's created any existing per-guild json
+     * files are imported into it. {@code "redis"} creates a
+     * {@link RedisSettingsStore} connected to the configured
+     * URI. A fully qualified class name creates an instance
+     * of that class. Anything else, or a store that fails to
+     * open, creates a {@link FileSettingsStore}.
+     *
+     * @param config the bot config.
+     * @return the settings store.
+     */
+    private static SettingsStore createStore(TeetoConfig config){
+        FileSettingsStore fileStore = new FileSettingsStore(Constants.getSettingsFolder());
+        String name = config.getSettingsStore();
+
+        switch (name){
+            case "file":
+                return fileStore;
+            case "log":
+                try {
+                    LogSettingsStore logStore = new LogSettingsStore(Constants.getSettingsLogFolder());
+
+                    if(logStore.isEmpty() && !fileStore.isEmpty())
+                        LOG.info("Imported " + SettingsStore.copy(fileStore, logStore) + " guild settings files into log");
+
+                    return logStore;
+                } catch (IOException e) {
+                    LOG.error("Failed to open settings log. Falling back to json files.", e);
+                    return fileStore;
+                }
+            case "redis":
+                try {
+                    return new RedisSettingsStore(URI.create(config.getSettingsStoreUri()));
+                } catch (IOException | IllegalArgumentException e) {
+                    LOG.error("Failed to connect to settings store. Falling back to json files.", e);
+                    return fileStore;
+                }
+            default:
+                try {
+                    return (SettingsStore) Class.forName(name).getConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    LOG.error("Failed to create settings store: " + name + ". Falling back to json files.", e);
+                    return fileStore;
+                }
+        }
+    }
+
+    /**
+     * Replaces the settings with ones changed by another
+     * process. The settings aren't saved again. Does
+     * nothing if they haven't changed (e.g. on a resync).
+     *
+     * @param settings the new json settings.
+     */
+    private void replace(JsonObject settings){
+        Snapshot previous;
+        Snapshot current;
+
+        synchronized (this){
+            if(settings.equals(backingObject))
+                return;
+
+            previous = snapshot;
+            current = new Snapshot(settings, previous.getVersion() + 1);
+
+            backingObject = settings;
+            snapshot = current;
+        }
+
+        for(ChangeListener listener : CHANGE_LISTENERS)
+            listener.onSettingsChanged(previous, current);
+    }
+
+    /**
+     * Keeps the cached settings up to date with changes made
+     * to a shared store by other processes. Runs on the
+     * stores subscriber thread, never on a command thread.
+     */
+    private static final class RemoteListener implements SettingsStore.RemoteChangeListener {
 
         /**
-         * Folder where guild settings files are kept.
+         * Replaces the guilds cached settings, or caches them
+         * if the guild is new, unless this process has unsaved
+         * changes for it.
+         *
+         * @param guildId the guilds ID.
+         * @param settings the new json settings.
          */
-        private final File settingsFolder;
+        @Override
+        public void onRemoteChange(long guildId, JsonObject settings) {
+            if(PERSISTER.getPending(guildId) != null)
+                return;
+
+            GuildSettings cached = GUILD_SETTINGS_HASH_MAP.putIfAbsent(guildId, new GuildSettings(settings));
+
+            if(cached != null)
+                cached.replace(settings);
+        }
 
         /**
-         * Creates new settings io instance.
-         *
-         * @param settingsFolder the folder where settings files are kept.
-         * @param map the map of settings objects to guild IDs.
+         * Reloads every guilds settings from the store in one
+         * pass, after changes may have been missed.
          */
-        private SettingsIO(File settingsFolder, Map<Long, GuildSettings> map) {
-            this.settingsFolder = settingsFolder;
-            //noinspection ResultOfMethodCallIgnored
-            settingsFolder.mkdirs();
-            loadAll(map);
+        @Override
+        public void onResync() {
+            LOG.info("Resyncing " + GUILD_SETTINGS_HASH_MAP.size() + " cached guild settings");
+
+            try {
+                for(Map.Entry<Long, JsonObject> entry : STORE.loadAll().entrySet())
+                    onRemoteChange(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                LOG.error("Failed to resync guild settings", e);
+            }
         }
+    }
+
+    /**
+     * Immutable, typed view of a guilds settings at a
+     * given version.
+     * <p>
+     * Values are decoded once from json when the snapshot
+     * is created so reads don't walk the json tree.
+     */
+    public static final class Snapshot {
+
+        /**
+         * Value of an ID setting that has not been set.
+         */
+        public static final long NONE = 0L;
 
         /**
-         * Saves the guild settings object to file..
+         * The guilds ID.
+         */
+        private final long guildId;
+
+        /**
+         * Incremented on every change to the settings.
+         */
+        private final long version;
+
+        /**
+         * ID of the hell channel or {@link #NONE}.
+         */
+        private final long hellChannel;
+
+        /**
+         * Interned name of the hell song or {@code null}.
+         */
+        private final String hellSong;
+
+        /**
+         * ID of the bot channel or {@link #NONE}.
+         */
+        private final long botChannel;
+
+        /**
+         * Unmodifiable list of bot command prefixes.
+         */
+        private final List<String> botCommands;
+
+        /**
+         * Unmodifiable list of playlist song names.
+         */
+        private final List<String> playlist;
+
+        /**
+         * {@code true} if the playlist is shuffled.
+         */
+        private final boolean shuffled;
+
+        /**
+         * Unmodifiable list of schedules.
+         */
+        private final List<Schedule> schedules;
+
+        /**
+         * Decodes a snapshot from the given json settings.
          *
-         * @param g the guild settings object.
-         * @throws IOException reason for failure if any.
+         * @param jo the json settings.
+         * @param version the version of the settings.
          */
-        public void save(GuildSettings g) throws IOException {
-            File gf = getGuildFile(g.getSetting(Settings.ID).getAsLong());
+        private Snapshot(JsonObject jo, long version){
+            this.version = version;
+            this.guildId = getLong(jo, Settings.ID);
+            this.hellChannel = getLong(jo, Settings.HELL_CHANNEL);
+            this.botChannel = getLong(jo, Settings.BOT_CHANNEL);
+
+            JsonElement song = jo.get(Settings.HELL_SONG.getProperty());
+            this.hellSong = (song == null || song.isJsonNull()) ? null : song.getAsString().intern();
+
+            JsonElement commands = jo.get(Settings.BOT_COMMANDS.getProperty());
+            this.botCommands = (commands == null || !commands.isJsonArray())
+                    ? Collections.emptyList()
+                    : Collections.unmodifiableList(
+                            Arrays.asList(JsonUtil.jsonArrayToStringArray(commands.getAsJsonArray())));
+
+            JsonElement playlist = jo.get(Settings.PLAYLIST.getProperty());
+            this.playlist = (playlist == null || !playlist.isJsonArray())
+                    ? Collections.emptyList()
+                    : Collections.unmodifiableList(
+                            Arrays.asList(JsonUtil.jsonArrayToStringArray(playlist.getAsJsonArray())));
+
+            JsonElement shuffle = jo.get(Settings.SHUFFLE.getProperty());
+            this.shuffled = shuffle != null && !shuffle.isJsonNull() && shuffle.getAsBoolean();
+
+            JsonElement schedules = jo.get(Settings.SCHEDULES.getProperty());
+            this.schedules = (schedules == null || !schedules.isJsonArray())
+                    ? Collections.emptyList()
+                    : Collections.unmodifiableList(parseSchedules(schedules.getAsJsonArray()));
+        }
 
-            LOG.info("Saving guild settings: " + gf.getAbsoluteFile());
-            FileWriter writer = new FileWriter(gf);
-            writer.write(Teeto.GSON.toJson(g.backingObject, JsonObject.class));
-            writer.flush();
-            writer.close();
+        /**
+         * @return the guilds ID.
+         */
+        public long getGuildId() {
+            return guildId;
         }
 
         /**
-         * Reads the guild settings from file.
-         *
-         * @param f the file to get the settings from.
-         * @return the guild settings object.
-         * @throws FileNotFoundException reason for failure if any.
+         * @return the version of these settings. Starts
+         * at zero when loaded.
          */
-        private GuildSettings load(File f) throws FileNotFoundException {
-            LOG.info("Loading guild settings: " + f.getAbsoluteFile());
-            return new GuildSettings(Teeto.GSON.fromJson(new FileReader(f), JsonObject.class));
+        public long getVersion() {
+            return version;
         }
 
         /**
-         * Loads all settings files to the given map.
-         *
-         * @param map the given map.
+         * @return {@code true} if a hell channel is set.
          */
-        private void loadAll(Map<Long, GuildSettings> map) {
-            if(settingsFolder.listFiles() == null){
-                LOG.warn("Settings folder not listing files. Skipping loading of guild settings...");
-                return;
-            }
+        public boolean hasHellChannel(){
+            return hellChannel != NONE;
+        }
 
-            for(File f : Objects.requireNonNull(settingsFolder.listFiles())){
-                if(!f.getName().endsWith(".json"))
-                    continue;
+        /**
+         * @return the hell channel ID or {@link #NONE}.
+         */
+        public long getHellChannel() {
+            return hellChannel;
+        }
 
-                GuildSettings fileValue;
-                try {
-                    fileValue = load(f);
-                    map.put(fileValue.getSetting(Settings.ID).getAsLong(), fileValue);
-                } catch (FileNotFoundException e) {
-                    LOG.error("Failed to load guild settings: " + f.getAbsoluteFile());
-                }
-            }
+        /**
+         * @return the name of the hell song or {@code null}
+         * if not set.
+         */
+        public String getHellSong() {
+            return hellSong;
+        }
+
+        /**
+         * @return {@code true} if a bot channel is set.
+         */
+        public boolean hasBotChannel(){
+            return botChannel != NONE;
+        }
+
+        /**
+         * @return the bot channel ID or {@link #NONE}.
+         */
+        public long getBotChannel() {
+            return botChannel;
+        }
+
+        /**
+         * @return the unmodifiable list of bot command prefixes.
+         */
+        public List<String> getBotCommands() {
+            return botCommands;
         }
 
         /**
-         * @param id the guilds ID.
-         * @return the guild settings file for the given guilds ID.
-         * @throws IOException reason for failure if any.
+         * @return the unmodifiable list of playlist song names.
+         * Empty if the guild has no playlist.
          */
-        @SuppressWarnings("ResultOfMethodCallIgnored")
-        private File getGuildFile(long id) throws IOException {
-            File guildFile = new File(settingsFolder.getAbsolutePath() + "/" + id + ".json");
+        public List<String> getPlaylist() {
+            return playlist;
+        }
 
-            if(!guildFile.exists()){
-                guildFile.createNewFile();
+        /**
+         * @return {@code true} if the playlist is shuffled.
+         */
+        public boolean isShuffled() {
+            return shuffled;
+        }
+
+        /**
+         * @return the unmodifiable list of schedules.
+         */
+        public List<Schedule> getSchedules() {
+            return schedules;
+        }
+
+        /**
+         * @param array the json schedules.
+         * @return the well formed schedules.
+         */
+        private static List<Schedule> parseSchedules(JsonArray array){
+            List<Schedule> schedules = new ArrayList<>(array.size());
+
+            for(JsonElement element : array){
+                Schedule schedule = element.isJsonObject() ? Schedule.fromJson(element.getAsJsonObject()) : null;
+
+                if(schedule != null)
+                    schedules.add(schedule);
             }
 
-            return new File(settingsFolder.getAbsolutePath() + "/" + id + ".json");
+            return schedules;
+        }
+
+        /**
+         * @param jo the json settings.
+         * @param s the setting.
+         * @return the setting as a long or {@link #NONE}
+         * if not set.
+         */
+        private static long getLong(JsonObject jo, Setting s){
+            JsonElement element = jo.get(s.getProperty());
+            return (element == null || element.isJsonNull()) ? NONE : element.getAsLong();
         }
     }
 
+    /**
+     * Listener notified when a guilds settings change.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called after the settings have been replaced.
+         *
+         * @param previous the settings before the change.
+         * @param current the settings after the change.
+         */
+        void onSettingsChanged(Snapshot previous, Snapshot current);
+
+        /**
+         * Called after a guilds settings are evicted from
+         * the cache. Anything derived from them can be dropped.
+         *
+         * @param guildId the guilds ID.
+         */
+        default void onSettingsEvicted(long guildId){}
+    }
+
+    /**
+     * How long {@link #save(Durability)} waits for
+     * the settings to be written.
+     */
+    public enum Durability {
+        /**
+         * Queue the write and return immediately.
+         */
+        WRITE_BEHIND,
+
+        /**
+         * Wait until the settings are synced to disk.
+         */
+        WAIT_FOR_DISK
+    }
+
     /**
      * Enum list of all settings for the guilds.
      */
@@ -257,7 +889,22 @@ public class GuildSettings {
         /**
          * List of command prefixes for bots in the guild.
          */
-        BOT_COMMANDS("bcommands");
+        BOT_COMMANDS("bcommands"),
+
+        /**
+         * List of songs played in turn instead of the hell song.
+         */
+        PLAYLIST("playlist"),
+
+        /**
+         * Whether the playlist is shuffled.
+         */
+        SHUFFLE("shuffle"),
+
+        /**
+         * List of scheduled actions (see {@link Schedule}).
+         */
+        SCHEDULES("schedules");
 
         /**
          * String used as the property for the value in the backing json object.
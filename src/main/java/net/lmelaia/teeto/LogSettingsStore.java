@@ -0,0 +1,593 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Stores guild settings in a log of append-only segment
+ * files instead of one file per guild.
+ * <p>
+ * Each write appends a record to the active segment:
+ * {@code [int length][long guild id][int crc32][length bytes of json]}.
+ * Once the active segment grows past the segment size
+ * a new one is started. Loading replays every segment in
+ * order, later records replacing earlier ones, so a cold
+ * start is one sequential read.
+ * <p>
+ * Sealed segments are compacted in the background: they
+ * are merged into a single segment holding only the latest
+ * record for each guild, which replaces the last of them.
+ * A torn record at the end of the active segment (crash
+ * mid-append) is cut off when the log is opened.
+ * <p>
+ * Opening the log only reads record headers to build an
+ * index of where each guilds latest record lives, so single
+ * guilds can be {@link #load(long) loaded} on demand without
+ * parsing the whole log.
+ */
+class LogSettingsStore implements SettingsStore {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Default size, in bytes, after which a new segment is started.
+     */
+    private static final long SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Number of sealed segments that triggers a compaction.
+     */
+    private static final int COMPACTION_THRESHOLD = 4;
+
+    /**
+     * How often to check if compaction is needed, in seconds.
+     */
+    private static final long COMPACTION_INTERVAL = 60;
+
+    /**
+     * Size of a record header in bytes.
+     */
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+
+    /**
+     * Number of bits of a packed location used for the offset.
+     */
+    private static final int OFFSET_BITS = 40;
+
+    /**
+     * Mask of the offset bits in a packed location.
+     */
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    /**
+     * Segment file name pattern. The group is the segment number.
+     */
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    /**
+     * Folder the segment files are kept in.
+     */
+    private final Path logFolder;
+
+    /**
+     * Size, in bytes, after which a new segment is started.
+     */
+    private final long segmentSize;
+
+    /**
+     * Segment numbers in order, the last being the active segment.
+     */
+    private final List<Long> segments = new ArrayList<>();
+
+    /**
+     * Location of each guilds latest record to guild IDs. The
+     * segment number and offset are packed into one long:
+     * {@code segment << OFFSET_BITS | offset}.
+     */
+    private final Map<Long, Long> index = new HashMap<>();
+
+    /**
+     * Runs background compaction.
+     */
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "settings-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The active segment being appended to.
+     */
+    private FileChannel active;
+
+    /**
+     * Opens (or creates) the settings log in the given folder.
+     *
+     * @param logFolder the folder the segment files are kept in.
+     * @throws IOException reason for failure if any.
+     */
+    LogSettingsStore(File logFolder) throws IOException {
+        this(logFolder, SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens (or creates) the settings log in the given folder.
+     *
+     * @param logFolder the folder the segment files are kept in.
+     * @param segmentSize size, in bytes, after which a new
+     *                    segment is started.
+     * @throws IOException reason for failure if any.
+     */
+    LogSettingsStore(File logFolder, long segmentSize) throws IOException {
+        this.logFolder = logFolder.toPath();
+        this.segmentSize = segmentSize;
+        Files.createDirectories(this.logFolder);
+
+        File[] files = logFolder.listFiles();
+        if(files != null){
+            for(File f : files){
+                Matcher matcher = SEGMENT_NAME.matcher(f.getName());
+                if(matcher.matches())
+                    segments.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+
+        Collections.sort(segments);
+
+        if(segments.isEmpty())
+            segments.add(1L);
+
+        openActive();
+
+        for(long segment : segments)
+            indexSegment(segment);
+
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Replays every segment in order.
+     * <p>
+     * The active segment is only read up to its length when
+     * the replay starts, so a record being appended meanwhile
+     * is never seen half written.
+     *
+     * @return the latest json settings to guild IDs.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public Map<Long, JsonObject> loadAll() throws IOException {
+        Map<Long, byte[]> records = new HashMap<>();
+        List<Long> segments;
+        long activeLength;
+
+        synchronized (this){
+            segments = new ArrayList<>(this.segments);
+            activeLength = active.size();
+        }
+
+        for(int i = 0; i < segments.size(); i++)
+            readSegment(segmentPath(segments.get(i)), records, (i == segments.size() - 1) ? activeLength : -1);
+
+        Map<Long, JsonObject> settings = new HashMap<>(records.size() * 4 / 3 + 1);
+
+        for(Map.Entry<Long, byte[]> record : records.entrySet())
+            settings.put(record.getKey(), Teeto.GSON.fromJson(
+                    new String(record.getValue(), StandardCharsets.UTF_8), JsonObject.class));
+
+        LOG.info("Loaded settings log: " + settings.size() + " guilds, " + segments.size() + " segments");
+        return settings;
+    }
+
+    /**
+     * Reads the guilds latest record using the index.
+     *
+     * @param guildId the guilds ID.
+     * @return the json settings or {@code null} if the
+     * log has no record for the guild.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized JsonObject load(long guildId) throws IOException {
+        Long location = index.get(guildId);
+
+        if(location == null)
+            return null;
+
+        Path segment = segmentPath(location >>> OFFSET_BITS);
+        long offset = location & OFFSET_MASK;
+
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, offset);
+            header.flip();
+
+            int size = header.getInt();
+            long recordGuildId = header.getLong();
+            int checksum = header.getInt();
+
+            if(recordGuildId != guildId || size < 0 || offset + HEADER_SIZE + size > channel.size())
+                throw new IOException("Corrupt settings record for guild " + guildId + " in " + segment
+                        + " at " + offset + " (record is for guild " + recordGuildId + ")");
+
+            ByteBuffer json = ByteBuffer.allocate(size);
+            readFully(channel, json, offset + HEADER_SIZE);
+
+            CRC32 crc = new CRC32();
+            crc.update(json.array(), 0, size);
+            if((int) crc.getValue() != checksum)
+                throw new IOException("Corrupt settings record for guild " + guildId + " in " + segment);
+
+            return Teeto.GSON.fromJson(new String(json.array(), StandardCharsets.UTF_8), JsonObject.class);
+        }
+    }
+
+    /**
+     * @return {@code true} if nothing has been written to
+     * the log.
+     * @throws IOException reason for failure if any.
+     */
+    synchronized boolean isEmpty() throws IOException {
+        return segments.size() == 1 && active.size() == 0;
+    }
+
+    /**
+     * Appends the guilds settings to the active segment and
+     * syncs it to disk.
+     *
+     * @param guildId the guilds ID.
+     * @param settings the json settings.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized void write(long guildId, JsonObject settings) throws IOException {
+        byte[] json = Teeto.GSON.toJson(settings, JsonObject.class).getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(json, 0, json.length);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + json.length);
+        record.putInt(json.length).putLong(guildId).putInt((int) crc.getValue()).put(json);
+        record.flip();
+
+        long offset = active.size();
+
+        while(record.hasRemaining())
+            active.write(record);
+
+        active.force(false);
+        index.put(guildId, pack(segments.get(segments.size() - 1), offset));
+
+        if(active.size() >= segmentSize)
+            roll();
+    }
+
+    /**
+     * Stops background compaction and closes the active segment.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        compactor.shutdownNow();
+        active.close();
+    }
+
+    /**
+     * Merges the sealed segments into one if there are
+     * enough of them.
+     */
+    void compactIfNeeded(){
+        List<Long> sealed;
+
+        synchronized (this){
+            sealed = new ArrayList<>(segments.subList(0, segments.size() - 1));
+        }
+
+        if(sealed.size() < COMPACTION_THRESHOLD)
+            return;
+
+        try {
+            compact(sealed);
+        } catch (IOException e) {
+            LOG.error("Failed to compact settings log", e);
+        }
+    }
+
+    /**
+     * Merges the given sealed segments into a single segment
+     * holding only the latest record for each guild. The
+     * merged segment replaces the last of the given segments
+     * and the others are deleted.
+     * <p>
+     * If interrupted before the deletes, replaying the old
+     * segments followed by the merged one gives the same
+     * result, so the log stays consistent. The merged segment
+     * is moved into place and the index pointed at it under
+     * the lock, so {@link #load(long)} never reads an old
+     * offset from the new file.
+     *
+     * @param sealed the sealed segment numbers, in order.
+     * @throws IOException reason for failure if any.
+     */
+    private void compact(List<Long> sealed) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<Long, byte[]> records = new LinkedHashMap<>();
+
+        for(long segment : sealed)
+            readSegment(segmentPath(segment), records, -1);
+
+        long last = sealed.get(sealed.size() - 1);
+        Path temp = logFolder.resolve("segment-" + last + ".log.compact");
+        Map<Long, Long> locations = new HashMap<>(records.size() * 4 / 3 + 1);
+
+        try(FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(out)))){
+            CRC32 crc = new CRC32();
+            long offset = 0;
+
+            for(Map.Entry<Long, byte[]> record : records.entrySet()){
+                locations.put(record.getKey(), pack(last, offset));
+                offset += HEADER_SIZE + record.getValue().length;
+
+                crc.reset();
+                crc.update(record.getValue(), 0, record.getValue().length);
+                stream.writeInt(record.getValue().length);
+                stream.writeLong(record.getKey());
+                stream.writeInt((int) crc.getValue());
+                stream.write(record.getValue());
+            }
+
+            stream.flush();
+            out.force(true);
+        }
+
+        synchronized (this){
+            try {
+                Files.move(temp, segmentPath(last), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, segmentPath(last), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            segments.removeAll(sealed.subList(0, sealed.size() - 1));
+
+            //Guilds written since the compaction started point at the active segment. Leave them be.
+            for(Map.Entry<Long, Long> location : locations.entrySet()){
+                Long current = index.get(location.getKey());
+                if(current != null && sealed.contains(current >>> OFFSET_BITS))
+                    index.put(location.getKey(), location.getValue());
+            }
+        }
+
+        for(long segment : sealed.subList(0, sealed.size() - 1))
+            Files.deleteIfExists(segmentPath(segment));
+
+        LOG.info("Compacted " + sealed.size() + " settings segments into " + records.size()
+                + " records in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Reads every record in the segment into the given map,
+     * replacing any earlier record for the same guild.
+     * <p>
+     * Reading stops at the first torn or corrupt record. The
+     * segment is never changed: torn records in the active
+     * segment are only cut off when the log is opened, as
+     * cutting one off here could drop a record being written.
+     *
+     * @param segment the segment file.
+     * @param records the map of json records to guild IDs.
+     * @param length the length to read up to or -1 to read
+     *               the whole segment.
+     * @throws IOException reason for failure if any.
+     */
+    private void readSegment(Path segment, Map<Long, byte[]> records, long length) throws IOException {
+        long goodLength = 0;
+        CRC32 crc = new CRC32();
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(segment, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            //Deleted by a compaction, which moved its records into a later segment.
+            return;
+        }
+
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024))){
+            if(length < 0)
+                length = channel.size();
+
+            while(goodLength + HEADER_SIZE <= length){
+                int size = in.readInt();
+                long guildId = in.readLong();
+                int checksum = in.readInt();
+
+                if(size < 0 || goodLength + HEADER_SIZE + size > length)
+                    break;
+
+                byte[] json = new byte[size];
+                in.readFully(json);
+
+                crc.reset();
+                crc.update(json, 0, size);
+                if((int) crc.getValue() != checksum)
+                    break;
+
+                records.remove(guildId);//Keeps insertion order by latest write.
+                records.put(guildId, json);
+                goodLength += HEADER_SIZE + size;
+            }
+        }
+
+        if(goodLength != length)
+            LOG.warn("Torn or corrupt record in settings segment: " + segment + " at " + goodLength);
+    }
+
+    /**
+     * Adds the location of every record in the segment to
+     * the index. Records are checksummed but not parsed.
+     * <p>
+     * Like {@link #readSegment(Path, Map, long)}, stops at
+     * the first torn or corrupt record. If that happens in
+     * the active segment, the segment is cut back to the last
+     * good record. Only called while the log is opened.
+     *
+     * @param segment the segment number.
+     * @throws IOException reason for failure if any.
+     */
+    private void indexSegment(long segment) throws IOException {
+        Path path = segmentPath(segment);
+
+        if(!Files.exists(path))
+            return;
+
+        long offset = 0;
+        long length = Files.size(path);
+        CRC32 crc = new CRC32();
+        byte[] json = new byte[4096];
+
+        try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 64 * 1024))){
+            while(offset + HEADER_SIZE <= length){
+                int size = in.readInt();
+                long guildId = in.readLong();
+                int checksum = in.readInt();
+
+                if(size < 0 || offset + HEADER_SIZE + size > length)
+                    break;
+
+                if(json.length < size)
+                    json = new byte[Math.max(size, json.length * 2)];
+
+                in.readFully(json, 0, size);
+
+                crc.reset();
+                crc.update(json, 0, size);
+                if((int) crc.getValue() != checksum)
+                    break;
+
+                index.put(guildId, pack(segment, offset));
+                offset += HEADER_SIZE + size;
+            }
+        }
+
+        if(offset != length){
+            LOG.warn("Torn or corrupt record in settings segment: " + path + " at " + offset);
+            truncateIfActive(path, offset);
+        }
+    }
+
+    /**
+     * Cuts the active segment back to the given length.
+     * Does nothing for sealed segments.
+     *
+     * @param segment the segment file.
+     * @param length the length to cut back to.
+     * @throws IOException reason for failure if any.
+     */
+    private synchronized void truncateIfActive(Path segment, long length) throws IOException {
+        if(!segment.equals(segmentPath(segments.get(segments.size() - 1))))
+            return;
+
+        active.truncate(length);
+        active.force(true);
+    }
+
+    /**
+     * Seals the active segment and starts a new one.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    private void roll() throws IOException {
+        active.close();
+        segments.add(segments.get(segments.size() - 1) + 1);
+        openActive();
+    }
+
+    /**
+     * Opens the last segment for appending.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    private void openActive() throws IOException {
+        active = FileChannel.open(segmentPath(segments.get(segments.size() - 1)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Fills the buffer from the channel starting at the given position.
+     *
+     * @param channel the channel to read from.
+     * @param buffer the buffer to fill.
+     * @param position the position in the channel to start at.
+     * @throws IOException if the end of the channel is reached first.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+
+            if(read < 0)
+                throw new EOFException("Unexpected end of settings segment");
+
+            position += read;
+        }
+    }
+
+    /**
+     * @param segment the segment number.
+     * @param offset the offset in the segment.
+     * @return the segment and offset packed into one long.
+     */
+    private static long pack(long segment, long offset){
+        return segment << OFFSET_BITS | offset;
+    }
+
+    /**
+     * @param segment the segment number.
+     * @return the path of the segment file.
+     */
+    private Path segmentPath(long segment){
+        return logFolder.resolve("segment-" + segment + ".log");
+    }
+}
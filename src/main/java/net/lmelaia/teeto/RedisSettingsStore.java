@@ -0,0 +1,350 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores guild settings in a networked key-value store
+ * speaking the Redis protocol, so several bot processes
+ * can share them.
+ * <p>
+ * Each guild is kept under {@code teeto:settings:<guild id>}.
+ * Every write is also published on {@code teeto:settings:changes}
+ * as {@code <process id> <guild id> <json>}. A background
+ * subscriber passes changes made by other processes to the
+ * {@link SettingsStore.RemoteChangeListener}, so each process
+ * can keep serving settings from memory. If the subscription
+ * drops it is re-established with backoff and the listener
+ * is told to resync.
+ */
+class RedisSettingsStore implements SettingsStore {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Prefix of each guilds key.
+     */
+    private static final String KEY_PREFIX = "teeto:settings:";
+
+    /**
+     * Channel changes are published on.
+     */
+    private static final String CHANGES_CHANNEL = "teeto:settings:changes";
+
+    /**
+     * Timeout for commands, in milliseconds.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * Longest wait between subscriber reconnect attempts, in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Identifies this process in published changes.
+     */
+    private final String processId = UUID.randomUUID().toString();
+
+    /**
+     * The server URI.
+     */
+    private final URI uri;
+
+    /**
+     * Thread holding the subscription.
+     */
+    private final Thread subscriber;
+
+    /**
+     * Connection commands are sent on. Reconnected on failure.
+     */
+    private RespConnection connection;
+
+    /**
+     * Told about changes made by other processes.
+     */
+    private volatile RemoteChangeListener listener;
+
+    /**
+     * Connection the subscription is on.
+     */
+    private volatile RespConnection subscription;
+
+    /**
+     * Set once the store is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Counted down once the first subscription is confirmed.
+     */
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+
+    /**
+     * Cleared by whichever comes first: the first subscription
+     * being confirmed or the constructor giving up waiting
+     * for it. If the constructor gives up first, changes may
+     * be missed until the subscription is confirmed, so the
+     * listener is told to resync then.
+     */
+    private final AtomicBoolean awaitingSubscription = new AtomicBoolean(true);
+
+    /**
+     * Connects to the server, starts the subscriber and waits
+     * for it to subscribe, so no change made after this
+     * returns is missed by a {@link #loadAll()} that follows.
+     *
+     * @param uri the server URI ({@code redis://[:password@]host[:port][/db]}).
+     * @throws IOException if the server can't be reached.
+     */
+    RedisSettingsStore(URI uri) throws IOException {
+        this.uri = uri;
+        this.connection = new RespConnection(uri, TIMEOUT);
+
+        subscriber = new Thread(this::subscribe, "settings-subscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
+
+        try {
+            subscribed.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if(awaitingSubscription.compareAndSet(true, false))
+            LOG.warn("Settings subscription not confirmed after " + TIMEOUT + "ms. Resyncing once it is.");
+    }
+
+    /**
+     * Reads every guilds settings, scanning the keys
+     * in batches and fetching each batch with one
+     * {@code MGET}.
+     *
+     * @return the json settings to guild IDs.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized Map<Long, JsonObject> loadAll() throws IOException {
+        Map<Long, JsonObject> settings = new HashMap<>();
+        String cursor = "0";
+
+        do {
+            List<?> reply = (List<?>) call("SCAN", cursor, "MATCH", KEY_PREFIX + "[0-9]*", "COUNT", "1000");
+            cursor = RespConnection.asString(reply.get(0));
+            List<?> keys = (List<?>) reply.get(1);
+
+            if(keys.isEmpty())
+                continue;
+
+            String[] mget = new String[keys.size() + 1];
+            mget[0] = "MGET";
+            for(int i = 0; i < keys.size(); i++)
+                mget[i + 1] = RespConnection.asString(keys.get(i));
+
+            List<?> values = (List<?>) call(mget);
+
+            for(int i = 0; i < keys.size(); i++){
+                JsonObject guild = parse(RespConnection.asString(values.get(i)));
+
+                if(guild != null)
+                    settings.put(Long.parseLong(mget[i + 1].substring(KEY_PREFIX.length())), guild);
+            }
+        } while(!"0".equals(cursor));
+
+        return settings;
+    }
+
+    /**
+     * @param guildId the guilds ID.
+     * @return the json settings or {@code null} if the
+     * guild has none.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized JsonObject load(long guildId) throws IOException {
+        return parse(RespConnection.asString(call("GET", KEY_PREFIX + guildId)));
+    }
+
+    /**
+     * Sets the guilds key and publishes the change.
+     *
+     * @param guildId the guilds ID.
+     * @param settings the json settings.
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized void write(long guildId, JsonObject settings) throws IOException {
+        String json = Teeto.GSON.toJson(settings, JsonObject.class);
+        call("SET", KEY_PREFIX + guildId, json);
+        call("PUBLISH", CHANGES_CHANNEL, processId + " " + guildId + " " + json);
+    }
+
+    /**
+     * @return {@code true}, the store is shared between processes.
+     */
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    /**
+     * @param listener told about changes made by other processes.
+     */
+    @Override
+    public void setRemoteChangeListener(RemoteChangeListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Closes the connections and stops the subscriber.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        subscriber.interrupt();
+
+        RespConnection sub = subscription;
+        if(sub != null)
+            sub.close();
+
+        if(connection != null)
+            connection.close();
+    }
+
+    /**
+     * Sends a command on the command connection, reconnecting
+     * first if the last command failed.
+     *
+     * @param args the command and its arguments.
+     * @return the reply.
+     * @throws IOException reason for failure if any.
+     */
+    private Object call(String... args) throws IOException {
+        if(connection == null)
+            connection = new RespConnection(uri, TIMEOUT);
+
+        try {
+            return connection.call(args);
+        } catch (IOException e) {
+            connection.close();
+            connection = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Subscriber thread body. Holds the subscription open and
+     * passes on changes from other processes, reconnecting with
+     * exponential backoff if it drops.
+     */
+    private void subscribe(){
+        long backoff = 500;
+        boolean resync = false;
+
+        while(!closed){
+            try(RespConnection sub = new RespConnection(uri, 0)){
+                subscription = sub;
+                sub.send("SUBSCRIBE", CHANGES_CHANNEL);
+                sub.read();//Subscribe confirmation.
+                backoff = 500;
+
+                boolean late = !awaitingSubscription.compareAndSet(true, false);
+
+                if((resync || late) && listener != null)
+                    listener.onResync();
+                resync = true;
+                subscribed.countDown();
+
+                while(!closed){
+                    List<?> message = (List<?>) sub.read();
+
+                    if("message".equals(RespConnection.asString(message.get(0))))
+                        onMessage(RespConnection.asString(message.get(2)));
+                }
+            } catch (IOException | RuntimeException e) {
+                if(closed)
+                    return;
+
+                LOG.warn("Settings subscription lost. Retrying in " + backoff + "ms", e);
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    /**
+     * Passes a published change on to the listener unless it
+     * came from this process.
+     *
+     * @param message the published message.
+     */
+    private void onMessage(String message){
+        int first = message.indexOf(' ');
+        int second = message.indexOf(' ', first + 1);
+
+        if(first < 0 || second < 0 || message.substring(0, first).equals(processId))
+            return;
+
+        RemoteChangeListener listener = this.listener;
+        JsonObject settings = parse(message.substring(second + 1));
+
+        if(listener != null && settings != null)
+            listener.onRemoteChange(Long.parseLong(message.substring(first + 1, second)), settings);
+    }
+
+    /**
+     * @param json json settings or {@code null}.
+     * @return the parsed settings or {@code null} if
+     * missing or malformed.
+     */
+    private static JsonObject parse(String json){
+        if(json == null)
+            return null;
+
+        try {
+            return Teeto.GSON.fromJson(json, JsonObject.class);
+        } catch (JsonParseException e) {
+            LOG.error("Malformed guild settings in store", e);
+            return null;
+        }
+    }
+}
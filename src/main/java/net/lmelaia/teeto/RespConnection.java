@@ -0,0 +1,214 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal client connection speaking the Redis
+ * serialization protocol (RESP).
+ * <p>
+ * Replies are returned as: {@code String} (simple strings),
+ * {@code Long} (integers), {@code byte[]} (bulk strings),
+ * {@code List<Object>} (arrays) or {@code null} (null bulk
+ * strings and arrays). Error replies are thrown as
+ * {@link IOException}s.
+ */
+class RespConnection implements Closeable {
+
+    /**
+     * Default port when the URI has none.
+     */
+    private static final int DEFAULT_PORT = 6379;
+
+    /**
+     * The underlying socket.
+     */
+    private final Socket socket;
+
+    /**
+     * Buffered socket input.
+     */
+    private final InputStream in;
+
+    /**
+     * Buffered socket output.
+     */
+    private final OutputStream out;
+
+    /**
+     * Connects to the server at the given URI, authenticating
+     * and selecting the database if the URI has them
+     * ({@code redis://[:password@]host[:port][/db]}).
+     *
+     * @param uri the server URI.
+     * @param timeout connect and read timeout in milliseconds.
+     *                Zero for no read timeout.
+     * @throws IOException reason for failure if any.
+     */
+    RespConnection(URI uri, int timeout) throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(uri.getHost(),
+                (uri.getPort() == -1) ? DEFAULT_PORT : uri.getPort()), (timeout == 0) ? 5000 : timeout);
+        socket.setSoTimeout(timeout);
+        socket.setTcpNoDelay(true);
+
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+
+        if(uri.getUserInfo() != null){
+            String password = uri.getUserInfo().substring(uri.getUserInfo().indexOf(':') + 1);
+            call("AUTH", password);
+        }
+
+        if(uri.getPath() != null && uri.getPath().length() > 1)
+            call("SELECT", uri.getPath().substring(1));
+    }
+
+    /**
+     * Sends a command and reads its reply.
+     *
+     * @param args the command and its arguments.
+     * @return the reply.
+     * @throws IOException reason for failure if any.
+     */
+    synchronized Object call(String... args) throws IOException {
+        send(args);
+        return read();
+    }
+
+    /**
+     * Sends a command without reading a reply.
+     *
+     * @param args the command and its arguments.
+     * @throws IOException reason for failure if any.
+     */
+    synchronized void send(String... args) throws IOException {
+        out.write(('*' + String.valueOf(args.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        for(String arg : args){
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            out.write(('$' + String.valueOf(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Reads the next reply.
+     *
+     * @return the reply.
+     * @throws IOException reason for failure if any.
+     */
+    Object read() throws IOException {
+        int type = in.read();
+
+        if(type == -1)
+            throw new EOFException("Connection closed by server");
+
+        String line = readLine();
+
+        switch (type){
+            case '+':
+                return line;
+            case '-':
+                throw new IOException("Server error: " + line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+
+                if(length < 0)
+                    return null;
+
+                byte[] data = new byte[length];
+                int read = 0;
+
+                while(read < length){
+                    int count = in.read(data, read, length - read);
+                    if(count == -1)
+                        throw new EOFException("Connection closed by server");
+                    read += count;
+                }
+
+                readLine();//Trailing CRLF.
+                return data;
+            }
+            case '*': {
+                int length = Integer.parseInt(line);
+
+                if(length < 0)
+                    return null;
+
+                List<Object> array = new ArrayList<>(length);
+                for(int i = 0; i < length; i++)
+                    array.add(read());
+
+                return array;
+            }
+            default:
+                throw new IOException("Unknown reply type: " + (char) type);
+        }
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * @param reply a bulk string reply.
+     * @return the reply as a UTF-8 string or {@code null}.
+     */
+    static String asString(Object reply){
+        return (reply == null) ? null : new String((byte[]) reply, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the next CRLF terminated line, without the CRLF.
+     * @throws IOException reason for failure if any.
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while((c = in.read()) != '\r'){
+            if(c == -1)
+                throw new EOFException("Connection closed by server");
+            line.append((char) c);
+        }
+
+        if(in.read() != '\n')
+            throw new IOException("Malformed reply line");
+
+        return line.toString();
+    }
+}
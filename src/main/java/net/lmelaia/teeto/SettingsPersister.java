@@ -0,0 +1,338 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Write-behind persister for guild settings.
+ * <p>
+ * Saving marks a guild as dirty and schedules a write
+ * after a short window. Any saves for the same guild
+ * within the window are coalesced into the one write
+ * of the latest settings to the {@link SettingsStore}.
+ * <p>
+ * A write that fails is put back as dirty, unless newer
+ * settings are already waiting, and retried with backoff.
+ * <p>
+ * All writes happen on a single background thread.
+ */
+class SettingsPersister {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Delay before retrying a failed write, in milliseconds.
+     * Doubled after each further failure.
+     */
+    private static final long RETRY_DELAY = 1000;
+
+    /**
+     * Longest delay before retrying a failed write,
+     * in milliseconds.
+     */
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    /**
+     * The store settings are written to.
+     */
+    private final SettingsStore store;
+
+    /**
+     * How long to wait for further changes before writing
+     * a dirty guild, in milliseconds.
+     */
+    private final long coalesceWindow;
+
+    /**
+     * Delay before retrying a failed write, in milliseconds.
+     */
+    private final long retryDelay;
+
+    /**
+     * Pending writes to guild IDs.
+     */
+    private final Map<Long, PendingWrite> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * Settings currently being written to guild IDs.
+     */
+    private final Map<Long, JsonObject> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Thread the writes happen on.
+     */
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "settings-persister");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a new settings persister.
+     *
+     * @param store the store settings are written to.
+     * @param coalesceWindow how long to wait for further changes
+     *                       before writing, in milliseconds.
+     */
+    SettingsPersister(SettingsStore store, long coalesceWindow){
+        this(store, coalesceWindow, RETRY_DELAY);
+    }
+
+    /**
+     * Constructs a new settings persister.
+     *
+     * @param store the store settings are written to.
+     * @param coalesceWindow how long to wait for further changes
+     *                       before writing, in milliseconds.
+     * @param retryDelay delay before retrying a failed write,
+     *                   in milliseconds.
+     */
+    SettingsPersister(SettingsStore store, long coalesceWindow, long retryDelay){
+        this.store = store;
+        this.coalesceWindow = coalesceWindow;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Marks the guild as dirty and schedules a write of
+     * the given settings if one isn't already scheduled.
+     * Otherwise the scheduled write is updated to write
+     * these settings instead.
+     *
+     * @param guildId the guilds ID.
+     * @param settings the settings to write. Must not be
+     *                 modified after being passed in.
+     * @return future completed once the settings, or newer
+     * settings, are on disk. Failed writes are retried, so
+     * it's only completed exceptionally if the writer is
+     * shut down.
+     */
+    CompletableFuture<Void> markDirty(long guildId, JsonObject settings){
+        PendingWrite write = dirty.compute(guildId, (id, pending) -> {
+            if(pending == null){
+                PendingWrite created = new PendingWrite(settings);
+                writer.schedule(() -> write(id), coalesceWindow, TimeUnit.MILLISECONDS);
+                return created;
+            }
+
+            pending.settings = settings;
+            return pending;
+        });
+
+        return write.future;
+    }
+
+    /**
+     * Marks the guild as dirty and writes it now instead
+     * of waiting out the coalesce window.
+     *
+     * @param guildId the guilds ID.
+     * @param settings the settings to write. Must not be
+     *                 modified after being passed in.
+     * @return future completed once the settings are on disk.
+     */
+    CompletableFuture<Void> writeNow(long guildId, JsonObject settings){
+        CompletableFuture<Void> future = markDirty(guildId, settings);
+
+        try {
+            writer.execute(() -> write(guildId));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * @param guildId the guilds ID.
+     * @return the guilds settings that are waiting to be
+     * written, or {@code null} if there are none.
+     */
+    JsonObject getPending(long guildId){
+        PendingWrite write = dirty.get(guildId);
+
+        if(write != null)
+            return write.settings;
+
+        return inFlight.get(guildId);
+    }
+
+    /**
+     * Writes the guild now if it's dirty and waits for the
+     * write to finish.
+     *
+     * @param guildId the guilds ID.
+     * @return {@code true} if the guild has nothing left to
+     * write, {@code false} if the write failed and will be
+     * retried or the guild was saved again meanwhile.
+     */
+    boolean flush(long guildId){
+        if(getPending(guildId) == null)
+            return true;
+
+        try {
+            writer.submit(() -> write(guildId)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            LOG.error("Failed to flush guild settings: " + guildId, e);
+        }
+
+        return getPending(guildId) == null;
+    }
+
+    /**
+     * Writes every dirty guild now and waits for the writes
+     * to finish.
+     */
+    void flushAll(){
+        try {
+            writer.submit(() -> {
+                //A copy, as failed writes are put back.
+                for(Long id : new ArrayList<>(dirty.keySet()))
+                    write(id);
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            LOG.error("Failed to flush guild settings", e);
+        }
+    }
+
+    /**
+     * Flushes every dirty guild and stops the writer thread.
+     * The store is left open.
+     */
+    void shutdown(){
+        LOG.info("Flushing guild settings: " + dirty.size() + " dirty");
+        flushAll();
+        //Everything is written, so the delayed writes have nothing left to do.
+        writer.shutdownNow();
+
+        if(!dirty.isEmpty())
+            LOG.error("Failed to save the settings of " + dirty.size() + " guilds before shutting down");
+    }
+
+    /**
+     * Writes the pending settings for the given guild
+     * if there are any.
+     *
+     * @param guildId the guilds ID.
+     */
+    private void write(long guildId){
+        //Moved to in flight before leaving dirty so getPending never misses it.
+        PendingWrite[] taken = new PendingWrite[1];
+        dirty.computeIfPresent(guildId, (id, pending) -> {
+            inFlight.put(id, pending.settings);
+            taken[0] = pending;
+            return null;
+        });
+
+        PendingWrite write = taken[0];
+
+        if(write == null)
+            return;//Already written by a flush.
+
+        boolean written = false;
+
+        try {
+            store.write(guildId, write.settings);
+            written = true;
+        } catch (IOException e) {
+            long delay = Math.min(retryDelay << Math.min(write.failures++, 16), MAX_RETRY_DELAY);
+            LOG.error("Failed to save guild settings: " + guildId + ". Retrying in " + delay + "ms", e);
+            retry(guildId, write, delay);
+        } finally {
+            inFlight.remove(guildId, write.settings);
+        }
+
+        //Completed after leaving in flight so waiters never see it pending.
+        if(written)
+            write.future.complete(null);
+    }
+
+    /**
+     * Puts a failed write back as dirty and schedules it
+     * again. If newer settings are already waiting, they're
+     * written instead and complete the failed writes future.
+     *
+     * @param guildId the guilds ID.
+     * @param failed the failed write.
+     * @param delay how long to wait before writing,
+     *              in milliseconds.
+     */
+    private void retry(long guildId, PendingWrite failed, long delay){
+        dirty.compute(guildId, (id, pending) -> {
+            if(pending != null){
+                pending.future.whenComplete((result, error) -> {
+                    if(error == null)
+                        failed.future.complete(null);
+                    else
+                        failed.future.completeExceptionally(error);
+                });
+                return pending;
+            }
+
+            try {
+                writer.schedule(() -> write(id), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                failed.future.completeExceptionally(e);
+            }
+
+            return failed;
+        });
+    }
+
+    /**
+     * A scheduled write for a dirty guild.
+     */
+    private static class PendingWrite {
+
+        /**
+         * Completed once the settings are on disk.
+         */
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * The latest settings to write.
+         */
+        private volatile JsonObject settings;
+
+        /**
+         * Times writing these settings has failed. Only
+         * used on the writer thread.
+         */
+        private int failures;
+
+        /**
+         * @param settings the settings to write.
+         */
+        private PendingWrite(JsonObject settings){
+            this.settings = settings;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage for guild settings.
+ * <p>
+ * {@link GuildSettings} keeps every guild it has loaded in
+ * memory and only goes to the store on first access, on save
+ * (in the background) and on eviction. Stores shared between
+ * several bot processes report changes made by the other
+ * processes through a {@link RemoteChangeListener} so the
+ * in-memory settings can be updated without a round trip.
+ * Every guild in a {@link #isShared() shared} store is loaded
+ * into memory at startup and kept there, so reading settings
+ * never waits on the network.
+ * <p>
+ * The store is picked with {@code settingsStore} in the bot
+ * config: {@code file}, {@code log}, {@code redis} or the fully
+ * qualified name of an implementation with a public no
+ * argument constructor.
+ */
+public interface SettingsStore {
+
+    /**
+     * Reads the settings of every guild in the store.
+     *
+     * @return the json settings to guild IDs.
+     * @throws IOException reason for failure if any.
+     */
+    Map<Long, JsonObject> loadAll() throws IOException;
+
+    /**
+     * Reads the settings of a single guild.
+     *
+     * @param guildId the guilds ID.
+     * @return the json settings or {@code null} if the
+     * store has no settings for the guild.
+     * @throws IOException reason for failure if any.
+     */
+    JsonObject load(long guildId) throws IOException;
+
+    /**
+     * Writes the settings of a single guild. Once this
+     * returns the settings are durable.
+     *
+     * @param guildId the guilds ID.
+     * @param settings the json settings.
+     * @throws IOException reason for failure if any.
+     */
+    void write(long guildId, JsonObject settings) throws IOException;
+
+    /**
+     * @return {@code true} if the store is shared between
+     * several processes and reports their changes through
+     * the {@link RemoteChangeListener}. Shared stores are
+     * loaded in full at startup and never read on access.
+     */
+    default boolean isShared() {
+        return false;
+    }
+
+    /**
+     * Sets the listener told about changes made to the store
+     * by other processes. Stores only used by this process
+     * can ignore it.
+     *
+     * @param listener the listener.
+     */
+    default void setRemoteChangeListener(RemoteChangeListener listener) {}
+
+    /**
+     * Releases any resources held by the store.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    default void close() throws IOException {}
+
+    /**
+     * Copies every guilds settings from one store to another.
+     *
+     * @param from the store to read from.
+     * @param to the store to write to.
+     * @return the number of guilds copied.
+     * @throws IOException reason for failure if any.
+     */
+    static int copy(SettingsStore from, SettingsStore to) throws IOException {
+        Map<Long, JsonObject> settings = from.loadAll();
+
+        for(Map.Entry<Long, JsonObject> entry : settings.entrySet())
+            to.write(entry.getKey(), entry.getValue());
+
+        return settings.size();
+    }
+
+    /**
+     * Listener for changes made to a shared store by
+     * other processes.
+     */
+    interface RemoteChangeListener {
+
+        /**
+         * Called when another process writes a guilds settings.
+         *
+         * @param guildId the guilds ID.
+         * @param settings the new json settings.
+         */
+        void onRemoteChange(long guildId, JsonObject settings);
+
+        /**
+         * Called when changes may have been missed (e.g. after
+         * reconnecting to the store). Any settings held in
+         * memory should be reloaded.
+         */
+        void onResync();
+    }
+}
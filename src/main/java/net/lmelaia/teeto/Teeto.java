@@ -29,6 +29,7 @@ import net.lmelaia.teeto.aud.AudioManager;
 import net.lmelaia.teeto.command.CommandManager;
 import net.lmelaia.teeto.messaging.BotMessageHandler;
 import net.lmelaia.teeto.messaging.Responses;
+import net.lmelaia.teeto.schedule.Scheduler;
 import net.lmelaia.teeto.util.FileUtil;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
@@ -92,6 +93,11 @@ public class Teeto {
      */
     private final AudioManager audioManager;
 
+    /**
+     * Runs the guild schedules.
+     */
+    private final Scheduler scheduler;
+
     /**
      * Configuration options for the bot. File: config/teeto.json
      */
@@ -134,7 +140,10 @@ public class Teeto {
             throw e;
         }
 
-        this.audioManager = AudioManager.init();
+        GuildSettings.init();
+        this.audioManager = AudioManager.init(teetoConfig);
+        javaDiscordAPI.addEventListener(audioManager.getVoiceListener());
+        this.scheduler = Scheduler.init(javaDiscordAPI, audioManager, teetoConfig);
         this.commandManager = CommandManager.init(javaDiscordAPI, teetoConfig.getCommandPrefixes());
         BotMessageHandler.init(javaDiscordAPI);
     }
@@ -176,6 +185,13 @@ public class Teeto {
         return this.audioManager;
     }
 
+    /**
+     * @return The scheduler running the guild schedules.
+     */
+    public Scheduler getScheduler(){
+        return this.scheduler;
+    }
+
     /**
      * Disconnects the bot from all voice channels.
      */
@@ -221,10 +237,13 @@ public class Teeto {
             LOG.log(Level.DEBUG, "Bot not running. Skipping disconnect");
         } else {
             LOG.log(Level.DEBUG, "Shutting down bot...");
+            TEETO.scheduler.shutdown();
             TEETO.disconnectAllBotsFromVoice();
             TEETO.javaDiscordAPI.shutdown();
         }
 
+        GuildSettings.shutdown();
+
         TEETO.javaDiscordAPI = null;
         TEETO = null;
     }
@@ -56,6 +56,65 @@ public class TeetoConfig {
      */
     private String helpCommand;
 
+    /**
+     * The store guild settings are kept in:
+     * {@code "file"}, {@code "log"}, {@code "redis"}
+     * or a store class name.
+     */
+    private String settingsStore;
+
+    /**
+     * URI of the networked settings store.
+     */
+    private String settingsStoreUri;
+
+    /**
+     * Minutes a guilds settings can go unaccessed
+     * before being evicted from memory.
+     */
+    private int settingsIdleMinutes;
+
+    /**
+     * The most guild settings to keep in memory.
+     */
+    private int settingsCacheSize;
+
+    /**
+     * Minutes a disconnected guilds audio player can
+     * go unused before being destroyed.
+     */
+    private int audioPlayerIdleMinutes;
+
+    /**
+     * Most megabytes of remote audio
+     * to cache on disk.
+     */
+    private int remoteCacheMegabytes;
+
+    /**
+     * Seconds a playing guilds voice channel can
+     * be without listeners before playback is
+     * suspended.
+     */
+    private int audioSuspendSeconds;
+
+    /**
+     * Seconds playback can be stuck before the
+     * guilds player is recovered.
+     */
+    private int audioStallSeconds;
+
+    /**
+     * Time zone guild schedules are in.
+     */
+    private String scheduleTimeZone;
+
+    /**
+     * Longest random delay added to each
+     * scheduled run, in seconds.
+     */
+    private int scheduleJitterSeconds;
+
     //Private constructor.
     private TeetoConfig(){}
 
@@ -103,4 +162,88 @@ public class TeetoConfig {
     public String getHelpCommand() {
         return helpCommand;
     }
+
+    /**
+     * @return the store guild settings are kept in:
+     * {@code "file"} (one json file per guild, the
+     * default), {@code "log"} (single settings log),
+     * {@code "redis"} (networked store shared between
+     * processes) or the class name of a store.
+     */
+    public String getSettingsStore() {
+        return (settingsStore == null) ? "file" : settingsStore;
+    }
+
+    /**
+     * @return URI of the networked settings store.
+     * Defaults to {@code redis://localhost:6379}.
+     */
+    public String getSettingsStoreUri() {
+        return (settingsStoreUri == null) ? "redis://localhost:6379" : settingsStoreUri;
+    }
+
+    /**
+     * @return minutes a guilds settings can go unaccessed
+     * before being evicted from memory. Defaults to 30.
+     */
+    public int getSettingsIdleMinutes() {
+        return (settingsIdleMinutes <= 0) ? 30 : settingsIdleMinutes;
+    }
+
+    /**
+     * @return the most guild settings to keep in memory.
+     * Defaults to 5000.
+     */
+    public int getSettingsCacheSize() {
+        return (settingsCacheSize <= 0) ? 5000 : settingsCacheSize;
+    }
+
+    /**
+     * @return minutes a disconnected guilds audio player
+     * can go unused before being destroyed. Defaults to 10.
+     */
+    public int getAudioPlayerIdleMinutes() {
+        return (audioPlayerIdleMinutes <= 0) ? 10 : audioPlayerIdleMinutes;
+    }
+
+    /**
+     * @return most megabytes of remote audio to
+     * cache on disk. Defaults to 512.
+     */
+    public int getRemoteCacheMegabytes() {
+        return (remoteCacheMegabytes <= 0) ? 512 : remoteCacheMegabytes;
+    }
+
+    /**
+     * @return seconds a playing guilds voice channel
+     * can be without listeners before playback is
+     * suspended. Defaults to 30.
+     */
+    public int getAudioSuspendSeconds() {
+        return (audioSuspendSeconds <= 0) ? 30 : audioSuspendSeconds;
+    }
+
+    /**
+     * @return seconds playback can be stuck before the
+     * guilds player is recovered. Defaults to 15.
+     */
+    public int getAudioStallSeconds() {
+        return (audioStallSeconds <= 0) ? 15 : audioStallSeconds;
+    }
+
+    /**
+     * @return name of the time zone guild schedules
+     * are in, or {@code null} for the system zone.
+     */
+    public String getScheduleTimeZone() {
+        return scheduleTimeZone;
+    }
+
+    /**
+     * @return longest random delay added to each
+     * scheduled run, in seconds. Defaults to 30.
+     */
+    public int getScheduleJitterSeconds() {
+        return (scheduleJitterSeconds <= 0) ? 30 : scheduleJitterSeconds;
+    }
 }
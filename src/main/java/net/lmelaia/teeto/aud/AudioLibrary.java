@@ -0,0 +1,600 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import net.lmelaia.teeto.LogManager;
+import net.lmelaia.teeto.Teeto;
+import net.lmelaia.teeto.util.JsonUtil;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, sorted index of the audio library.
+ * <p>
+ * Audio files come from the {@code audioFiles} array of the
+ * audio config and from scanning the audio folder. A scanned
+ * file takes its metadata from a {@code <file name>.json}
+ * sidecar ({@code id}, {@code displayName} and {@code names},
+ * all optional) and otherwise uses its base name. Only the
+ * folder listing and the sidecars are read, never the audio
+ * files themselves. What each sidecar held is kept in an
+ * index file in the audio folder, so a sidecar is only read
+ * again when its modification time or size changes.
+ * <p>
+ * Aliases are kept lower case in one sorted array, so
+ * lookups and prefix searches are binary searches. Every
+ * other suffix of every alias is kept in a second sorted
+ * array, so substring searches are binary searches too. Files
+ * are listed in ID order and pages are resumed from the
+ * last ID seen, so a cursor stays valid when files are
+ * added or removed.
+ */
+final class AudioLibrary {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Extension of metadata sidecar files.
+     */
+    static final String SIDECAR_EXTENSION = ".json";
+
+    /**
+     * Name of the index file in the audio folder. Hidden,
+     * so it's skipped when scanning.
+     */
+    static final String INDEX_FILE_NAME = ".library.json";
+
+    /**
+     * Every alias, lower case and sorted.
+     */
+    private final String[] aliases;
+
+    /**
+     * The audio file of each alias.
+     */
+    private final AudioFile[] aliasFiles;
+
+    /**
+     * Every suffix of every alias, except the aliases
+     * themselves, sorted. Each is packed as the index of its
+     * alias in the high 32 bits and its offset in the low 32.
+     */
+    private final long[] suffixes;
+
+    /**
+     * Every audio file, sorted by ID.
+     */
+    private final AudioFile[] files;
+
+    /**
+     * Map of audio files to their IDs.
+     */
+    private final Map<String, AudioFile> idMap;
+
+    /**
+     * Constructs the index.
+     *
+     * @param files the audio files. IDs must be unique.
+     */
+    private AudioLibrary(List<AudioFile> files){
+        this.files = files.toArray(new AudioFile[0]);
+        Arrays.sort(this.files, Comparator.comparing(AudioFile::getId));
+        this.idMap = new HashMap<>(this.files.length * 2);
+
+        Map<String, AudioFile> aliasMap = new HashMap<>();
+
+        for(AudioFile file : this.files){
+            idMap.put(file.getId(), file);
+
+            for(String alias : file.getAliases()){
+                AudioFile existing = aliasMap.putIfAbsent(normalize(alias), file);
+
+                if(existing != null && existing != file)
+                    LOG.warn("Duplicate audio alias: " + alias + " (" + existing.getId() + ", " + file.getId()
+                            + "). Keeping " + existing.getId());
+            }
+        }
+
+        this.aliases = aliasMap.keySet().toArray(new String[0]);
+        Arrays.sort(this.aliases);
+        this.aliasFiles = new AudioFile[aliases.length];
+
+        for(int i = 0; i < aliases.length; i++)
+            aliasFiles[i] = aliasMap.get(aliases[i]);
+
+        this.suffixes = sortSuffixes(aliases);
+    }
+
+    /**
+     * Builds the index from the audio config entries and
+     * the files in the audio folder. Configured entries win
+     * over scanned files with the same file name or ID.
+     *
+     * @param configured the {@code audioFiles} array of the
+     *                   audio config or {@code null}.
+     * @param audioFolder the audio folder.
+     * @return the index.
+     */
+    static AudioLibrary scan(JsonArray configured, File audioFolder){
+        List<AudioFile> files = new ArrayList<>();
+        Set<String> ids = new LinkedHashSet<>();
+        Set<String> fileNames = new LinkedHashSet<>();
+
+        if(configured != null){
+            for(JsonElement audioElement : configured){
+                JsonObject element = audioElement.getAsJsonObject();
+                File file = new File(audioFolder, element.get("fileName").getAsString());
+
+                if(!file.exists()){
+                    LOG.error("Missing audio file: " + file + ". Skipping audio file...");
+                    continue;
+                }
+
+                AudioFile audioFile = new AudioFile(
+                        element.get("id").getAsString(),
+                        element.get("displayName").getAsString(),
+                        file,
+                        JsonUtil.jsonArrayToStringArray(element.get("names").getAsJsonArray())
+                );
+
+                if(ids.add(audioFile.getId())){
+                    fileNames.add(file.getName());
+                    files.add(audioFile);
+                }
+            }
+        }
+
+        File[] listing = audioFolder.listFiles();
+        File indexFile = new File(audioFolder, INDEX_FILE_NAME);
+        JsonObject cached = readIndex(indexFile);
+        JsonObject index = new JsonObject();
+        int scanned = 0;
+        int read = 0;
+
+        for(File file : (listing == null) ? new File[0] : listing){
+            String name = file.getName();
+
+            if(!file.isFile() || name.startsWith(".") || name.endsWith(SIDECAR_EXTENSION)
+                    || name.endsWith(".tmp") || fileNames.contains(name))
+                continue;
+
+            File sidecar = new File(audioFolder, name + SIDECAR_EXTENSION);
+            long modified = sidecar.lastModified();
+            long size = sidecar.length();
+            JsonObject entry = cached.has(name) ? cached.getAsJsonObject(name) : null;
+            AudioFile audioFile = (entry == null) ? null : fromEntry(file, entry, modified, size);
+
+            if(audioFile == null){
+                audioFile = fromSidecar(file);
+                read++;
+
+                if(audioFile == null)
+                    continue;
+
+                entry = toEntry(audioFile, modified, size);
+            }
+
+            index.add(name, entry);
+
+            if(!ids.add(audioFile.getId())){
+                LOG.warn("Duplicate audio ID: " + audioFile.getId() + " (" + file + "). Skipping audio file...");
+                continue;
+            }
+
+            files.add(audioFile);
+            scanned++;
+        }
+
+        if(!index.equals(cached)){
+            try {
+                writeIndex(indexFile, index);
+            } catch (IOException e) {
+                LOG.warn("Failed to write audio library index: " + indexFile, e);
+            }
+        }
+
+        LOG.info("Audio library: " + files.size() + " files (" + scanned + " found by scanning "
+                + audioFolder + ", " + read + " sidecars read)");
+        return new AudioLibrary(files);
+    }
+
+    /**
+     * @param id an audio file ID.
+     * @return the audio file or {@code null} if there's none.
+     */
+    AudioFile getById(String id){
+        return (id == null) ? null : idMap.get(id);
+    }
+
+    /**
+     * @param alias an alias of an audio file, in any case.
+     * @return the audio file or {@code null} if there's none.
+     */
+    AudioFile getByAlias(String alias){
+        if(alias == null)
+            return null;
+
+        int index = Arrays.binarySearch(aliases, normalize(alias));
+        return (index < 0) ? null : aliasFiles[index];
+    }
+
+    /**
+     * @return every audio file, sorted by ID.
+     */
+    AudioFile[] getFiles(){
+        return files.clone();
+    }
+
+    /**
+     * @return the number of audio files.
+     */
+    int size(){
+        return files.length;
+    }
+
+    /**
+     * Finds audio files by alias, in any case. Files with an
+     * alias starting with the query come first, in alias
+     * order, followed by files with an alias containing it.
+     *
+     * @param query the text to search for.
+     * @param limit the most files to return.
+     * @return the matching files.
+     */
+    List<AudioFile> search(String query, int limit){
+        String text = normalize(query);
+        Set<AudioFile> found = new LinkedHashSet<>();
+
+        if(text.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        for(int i = lowerBound(aliases, text); i < aliases.length && aliases[i].startsWith(text); i++){
+            found.add(aliasFiles[i]);
+
+            if(found.size() >= limit)
+                return new ArrayList<>(found);
+        }
+
+        //Aliases containing the text, in alias order.
+        BitSet containing = new BitSet(aliases.length);
+
+        for(int i = lowerBound(suffixes, text); i < suffixes.length && startsWith(suffixes[i], text); i++)
+            containing.set((int) (suffixes[i] >>> 32));
+
+        for(int i = containing.nextSetBit(0); i >= 0; i = containing.nextSetBit(i + 1)){
+            found.add(aliasFiles[i]);
+
+            if(found.size() >= limit)
+                break;
+        }
+
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Lists audio files in ID order.
+     *
+     * @param after the ID of the last file on the previous
+     *              page or {@code null} for the first page.
+     *              Doesn't need to still exist.
+     * @param limit the most files to return.
+     * @return the files following the given ID.
+     */
+    List<AudioFile> page(String after, int limit){
+        List<AudioFile> page = new ArrayList<>(Math.min(limit, files.length));
+        int start = 0;
+
+        if(after != null){
+            start = lowerBound(files, after);
+
+            if(start < files.length && files[start].getId().equals(after))
+                start++;
+        }
+
+        for(int i = start; i < files.length && page.size() < limit; i++)
+            page.add(files[i]);
+
+        return page;
+    }
+
+    /**
+     * @param file the last file on a page.
+     * @return {@code true} if there are files after it.
+     */
+    boolean hasAfter(AudioFile file){
+        return !files[files.length - 1].getId().equals(file.getId());
+    }
+
+    /**
+     * Creates an audio file from a scanned file and its
+     * sidecar, if it has one.
+     *
+     * @param file the scanned audio file.
+     * @return the audio file or {@code null} if its sidecar
+     * is malformed.
+     */
+    private static AudioFile fromSidecar(File file){
+        String name = file.getName();
+        String baseName = (name.lastIndexOf('.') > 0) ? name.substring(0, name.lastIndexOf('.')) : name;
+        File sidecar = new File(file.getParentFile(), name + SIDECAR_EXTENSION);
+        JsonObject meta = new JsonObject();
+
+        if(sidecar.exists()){
+            try(Reader reader = new FileReader(sidecar)){
+                meta = Teeto.GSON.fromJson(reader, JsonObject.class);
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                LOG.error("Malformed audio sidecar: " + sidecar + ". Skipping audio file...", e);
+                return null;
+            }
+        }
+
+        if(meta == null)
+            meta = new JsonObject();
+
+        return new AudioFile(
+                meta.has("id") ? meta.get("id").getAsString() : "." + baseName,
+                meta.has("displayName") ? meta.get("displayName").getAsString() : baseName,
+                file,
+                meta.has("names") ? JsonUtil.jsonArrayToStringArray(meta.getAsJsonArray("names"))
+                        : new String[]{baseName}
+        );
+    }
+
+    /**
+     * Creates an audio file from its index entry.
+     *
+     * @param file the scanned audio file.
+     * @param entry the index entry.
+     * @param modified modification time of the sidecar,
+     *                 0 if there's none.
+     * @param size size of the sidecar, 0 if there's none.
+     * @return the audio file or {@code null} if the entry
+     * is out of date or malformed.
+     */
+    private static AudioFile fromEntry(File file, JsonObject entry, long modified, long size){
+        try {
+            if(entry.get("modified").getAsLong() != modified || entry.get("size").getAsLong() != size)
+                return null;
+
+            return new AudioFile(
+                    entry.get("id").getAsString(),
+                    entry.get("displayName").getAsString(),
+                    file,
+                    JsonUtil.jsonArrayToStringArray(entry.getAsJsonArray("names"))
+            );
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param audioFile a scanned audio file.
+     * @param modified modification time of its sidecar,
+     *                 0 if there's none.
+     * @param size size of its sidecar, 0 if there's none.
+     * @return the index entry of the audio file.
+     */
+    private static JsonObject toEntry(AudioFile audioFile, long modified, long size){
+        JsonObject entry = new JsonObject();
+        JsonArray names = new JsonArray();
+
+        for(String alias : audioFile.getAliases())
+            names.add(alias);
+
+        entry.addProperty("modified", modified);
+        entry.addProperty("size", size);
+        entry.addProperty("id", audioFile.getId());
+        entry.addProperty("displayName", audioFile.getDisplayName());
+        entry.add("names", names);
+        return entry;
+    }
+
+    /**
+     * @param indexFile the index file.
+     * @return the index entries to audio file names, empty if
+     * there's no index or it can't be read.
+     */
+    private static JsonObject readIndex(File indexFile){
+        if(!indexFile.exists())
+            return new JsonObject();
+
+        try(Reader reader = new FileReader(indexFile)){
+            JsonObject index = Teeto.GSON.fromJson(reader, JsonObject.class);
+            return (index == null) ? new JsonObject() : index;
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            LOG.warn("Failed to read audio library index: " + indexFile + ". Rebuilding it.", e);
+            return new JsonObject();
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it
+     * over the index file.
+     *
+     * @param indexFile the index file.
+     * @param index the index entries to audio file names.
+     * @throws IOException reason for failure if any.
+     */
+    private static void writeIndex(File indexFile, JsonObject index) throws IOException {
+        Path target = indexFile.toPath();
+        //Unique, so a transcoder scanning at the same time doesn't write over it.
+        Path temp = Files.createTempFile(target.getParent(), INDEX_FILE_NAME, ".tmp");
+        Files.write(temp, Teeto.GSON.toJson(index).getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param aliases the aliases, sorted.
+     * @return every suffix of every alias except the
+     * aliases themselves, packed and sorted.
+     */
+    private static long[] sortSuffixes(String[] aliases){
+        List<Long> packed = new ArrayList<>();
+
+        for(int alias = 0; alias < aliases.length; alias++)
+            for(int offset = 1; offset < aliases[alias].length(); offset++)
+                packed.add(((long) alias << 32) | offset);
+
+        packed.sort((a, b) -> compare(aliases[(int) (a >>> 32)], (int) (long) a,
+                aliases[(int) (b >>> 32)], (int) (long) b));
+
+        long[] suffixes = new long[packed.size()];
+
+        for(int i = 0; i < suffixes.length; i++)
+            suffixes[i] = packed.get(i);
+
+        return suffixes;
+    }
+
+    /**
+     * Compares two strings from the given offsets,
+     * without copying them.
+     *
+     * @param a the first string.
+     * @param aOffset where to start in the first string.
+     * @param b the second string.
+     * @param bOffset where to start in the second string.
+     * @return less than, equal to or greater than zero as
+     * the first suffix is less than, equal to or greater
+     * than the second.
+     */
+    private static int compare(String a, int aOffset, String b, int bOffset){
+        int length = Math.min(a.length() - aOffset, b.length() - bOffset);
+
+        for(int i = 0; i < length; i++){
+            int difference = a.charAt(aOffset + i) - b.charAt(bOffset + i);
+
+            if(difference != 0)
+                return difference;
+        }
+
+        return (a.length() - aOffset) - (b.length() - bOffset);
+    }
+
+    /**
+     * @param suffix a packed suffix.
+     * @param text the text.
+     * @return {@code true} if the suffix starts with the text.
+     */
+    private boolean startsWith(long suffix, String text){
+        return aliases[(int) (suffix >>> 32)].startsWith(text, (int) suffix);
+    }
+
+    /**
+     * @param sorted packed suffixes in order.
+     * @param key the key.
+     * @return the index of the first suffix not less than the key.
+     */
+    private int lowerBound(long[] sorted, String key){
+        int low = 0;
+        int high = sorted.length;
+
+        while(low < high){
+            int mid = (low + high) >>> 1;
+
+            if(compare(aliases[(int) (sorted[mid] >>> 32)], (int) sorted[mid], key, 0) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * @param sorted aliases in order.
+     * @param key the key.
+     * @return the index of the first alias not less than the key.
+     */
+    private static int lowerBound(String[] sorted, String key){
+        int low = 0;
+        int high = sorted.length;
+
+        while(low < high){
+            int mid = (low + high) >>> 1;
+
+            if(sorted[mid].compareTo(key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * @param sorted files in ID order.
+     * @param id the ID.
+     * @return the index of the first file with an ID not
+     * less than the given one.
+     */
+    private static int lowerBound(AudioFile[] sorted, String id){
+        int low = 0;
+        int high = sorted.length;
+
+        while(low < high){
+            int mid = (low + high) >>> 1;
+
+            if(sorted[mid].getId().compareTo(id) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * @param alias an alias.
+     * @return the alias as stored in the index.
+     */
+    private static String normalize(String alias){
+        return alias.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -19,13 +19,24 @@ package net.lmelaia.teeto.aud;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.events.guild.voice.GenericGuildVoiceEvent;
+import net.dv8tion.jda.core.hooks.EventListener;
 import net.lmelaia.teeto.Constants;
 import net.lmelaia.teeto.LogManager;
+import net.lmelaia.teeto.TeetoConfig;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Manages audio players and audio files.
@@ -47,15 +58,100 @@ public class AudioManager {
     private static AudioManager instance;
 
     /**
-     * The list of initialized guild audio players.
+     * Duration of a single audio frame, in milliseconds.
      */
-    private final Map<Long, AudioPlayer> audioPlayers = new HashMap<>();
+    private static final long FRAME_DURATION = 20;
+
+    /**
+     * How often idle audio players are checked for, in seconds.
+     */
+    private static final long REAP_INTERVAL = 60;
+
+    /**
+     * How often audio players are checked for stalls, in seconds.
+     */
+    private static final long WATCH_INTERVAL = 5;
+
+    /**
+     * The initialized guild audio players to guild IDs.
+     */
+    private final Map<Long, AudioPlayer> audioPlayers = new ConcurrentHashMap<>();
+
+    /**
+     * Number of stalled audio players recovered, by cause.
+     */
+    private final AtomicLongArray recoveries = new AtomicLongArray(StallCause.values().length);
+
+    /**
+     * Number of audio players created.
+     */
+    private final AtomicLong createdPlayers = new AtomicLong();
+
+    /**
+     * Number of idle audio players destroyed.
+     */
+    private final AtomicLong reapedPlayers = new AtomicLong();
+
+    /**
+     * Playback health of every reaped audio player combined,
+     * so it isn't lost with the player. Only added to by the
+     * reaper.
+     */
+    private final PlaybackMetrics retiredMetrics = new PlaybackMetrics();
+
+    /**
+     * Broadcasts being decoded to their identifiers.
+     */
+    private final Map<String, Broadcast> broadcasts = new ConcurrentHashMap<>();
+
+    /**
+     * Polls every broadcast decoder for its next frame.
+     */
+    private final ScheduledExecutorService broadcaster = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "audio-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Watches audio players and tracks for leaks.
+     */
+    private final LeakDetector leakDetector = new LeakDetector();
+
+    /**
+     * Destroys idle audio players.
+     */
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "audio-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Prepares the next track of guild playlists.
+     */
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "audio-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * How long a players channel can be without listeners
+     * before playback is suspended, in milliseconds.
+     */
+    private final long suspendGracePeriod;
 
     /**
      * Map of audio files to IDs and names.
      */
     private final AudioMap audioFileMap;
 
+    /**
+     * Disk cache of remote audio files.
+     */
+    private final RemoteTrackCache remoteCache;
+
     /**
      * Audio player manager.
      */
@@ -63,14 +159,47 @@ public class AudioManager {
 
     /**
      * Constructs a new audio manager.
+     *
+     * @param config the bot config.
      */
-    AudioManager(){
-        LOG.info("Initializing audio manager.");
-        this.audioFileMap = new AudioMap(Constants.getAudioConfigFile(), Constants.getAudioFolder());
-        playerManager = new DefaultAudioPlayerManager();
+    AudioManager(TeetoConfig config){
+        this(config, new DefaultAudioPlayerManager(),
+                new AudioMap(Constants.getAudioConfigFile(), Constants.getAudioFolder()),
+                new RemoteTrackCache(Constants.getRemoteCacheFolder(), config.getRemoteCacheMegabytes() * 1024L * 1024L));
+
+        audioFileMap.getProfile().apply(playerManager);
+        LOG.info("Using audio profile: " + audioFileMap.getProfile());
 
         AudioSourceManagers.registerRemoteSources(playerManager);
         AudioSourceManagers.registerLocalSource(playerManager);
+        audioFileMap.loadIndex(playerManager, Constants.getAudioIndexFile());
+        audioFileMap.loadClips(Constants.getAudioClipFolder());
+    }
+
+    /**
+     * Constructs a new audio manager around the given player
+     * manager and starts its background tasks. Nothing is
+     * registered with the player manager, so it can be a
+     * stand-in (e.g. in a soak test).
+     *
+     * @param config the bot config.
+     * @param playerManager the audio player manager.
+     * @param audioFileMap the audio files.
+     * @param remoteCache the disk cache of remote audio files.
+     */
+    AudioManager(TeetoConfig config, AudioPlayerManager playerManager, AudioMap audioFileMap,
+                 RemoteTrackCache remoteCache){
+        LOG.info("Initializing audio manager.");
+        this.playerManager = playerManager;
+        this.audioFileMap = audioFileMap;
+        this.remoteCache = remoteCache;
+
+        long idleTime = TimeUnit.MINUTES.toMillis(config.getAudioPlayerIdleMinutes());
+        suspendGracePeriod = TimeUnit.SECONDS.toMillis(config.getAudioSuspendSeconds());
+        long stallWindow = TimeUnit.SECONDS.toMillis(config.getAudioStallSeconds());
+        reaper.scheduleWithFixedDelay(() -> reapIdlePlayers(idleTime), REAP_INTERVAL, REAP_INTERVAL, TimeUnit.SECONDS);
+        reaper.scheduleWithFixedDelay(() -> watchPlayers(stallWindow), WATCH_INTERVAL, WATCH_INTERVAL, TimeUnit.SECONDS);
+        broadcaster.scheduleAtFixedRate(this::tickBroadcasts, FRAME_DURATION, FRAME_DURATION, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -97,6 +226,34 @@ public class AudioManager {
         return audioFileMap.getAudioFileFromName(name);
     }
 
+    /**
+     * @param audioFile the audio file.
+     * @return the shared encoded clip of the audio file
+     * or {@code null} if it isn't encoded (yet).
+     */
+    OpusClip getClip(AudioFile audioFile){
+        return audioFileMap.getClip(audioFile);
+    }
+
+    /**
+     * @param audioFile the audio file.
+     * @return the indexed prototype track of the audio
+     * file or {@code null} if it has none.
+     */
+    AudioTrack getPrototype(AudioFile audioFile){
+        return audioFileMap.getPrototype(audioFile);
+    }
+
+    /**
+     * Runs the given task on the playlist prefetch thread,
+     * off the frame thread.
+     *
+     * @param task the task.
+     */
+    void prefetch(Runnable task){
+        prefetcher.execute(task);
+    }
+
     /**
      * @param guild the guild to get an audio player for.
      * @return the audio player for the given guild.
@@ -105,6 +262,146 @@ public class AudioManager {
         return getGuildAudioPlayer(guild);
     }
 
+    /**
+     * @return the number of audio players currently alive.
+     */
+    public int getLivePlayerCount(){
+        return audioPlayers.size();
+    }
+
+    /**
+     * @return the number of audio players suspended
+     * because nobody is listening.
+     */
+    public int getSuspendedPlayerCount(){
+        int suspended = 0;
+
+        for(AudioPlayer player : audioPlayers.values()){
+            if(player.isSuspended())
+                suspended++;
+        }
+
+        return suspended;
+    }
+
+    /**
+     * @return listener that suspends and resumes guild
+     * players as people join, leave and move between
+     * voice channels. Must be added to JDA.
+     */
+    public EventListener getVoiceListener(){
+        return event -> {
+            if(event instanceof GenericGuildVoiceEvent)
+                onVoiceUpdate(((GenericGuildVoiceEvent) event).getGuild());
+        };
+    }
+
+    /**
+     * @return the number of audio players created since startup.
+     */
+    public long getCreatedPlayerCount(){
+        return createdPlayers.get();
+    }
+
+    /**
+     * @return the number of idle audio players destroyed
+     * since startup.
+     */
+    public long getReapedPlayerCount(){
+        return reapedPlayers.get();
+    }
+
+    /**
+     * @param cause the cause of the stalls.
+     * @return the number of stalled audio players
+     * recovered since startup for the given cause.
+     */
+    public long getRecoveryCount(StallCause cause){
+        return recoveries.get(cause.ordinal());
+    }
+
+    /**
+     * @return the playback health of every audio player
+     * since startup combined, reaped players included.
+     */
+    public PlaybackMetrics getPlaybackMetrics(){
+        PlaybackMetrics total = new PlaybackMetrics();
+        total.add(retiredMetrics);
+
+        for(AudioPlayer player : audioPlayers.values())
+            total.add(player.getPlaybackMetrics());
+
+        return total;
+    }
+
+    /**
+     * @return the number of remote plays served
+     * from the disk cache.
+     */
+    public long getRemoteCacheHits(){
+        return remoteCache.getHits();
+    }
+
+    /**
+     * @return the number of remote plays that
+     * weren't in the disk cache.
+     */
+    public long getRemoteCacheMisses(){
+        return remoteCache.getMisses();
+    }
+
+    /**
+     * @return bytes not downloaded thanks to
+     * the disk cache.
+     */
+    public long getRemoteCacheBytesSaved(){
+        return remoteCache.getBytesSaved();
+    }
+
+    /**
+     * @return bytes of remote audio cached on disk.
+     */
+    public long getRemoteCacheSize(){
+        return remoteCache.getSize();
+    }
+
+    /**
+     * @return the number of broadcasts being decoded.
+     */
+    public int getBroadcastCount(){
+        return broadcasts.size();
+    }
+
+    /**
+     * @return the number of audio tracks still in memory
+     * long after they stopped playing.
+     */
+    public int getRetainedTrackCount(){
+        return leakDetector.getRetainedCount(LeakDetector.Kind.TRACK);
+    }
+
+    /**
+     * @return the number of destroyed audio players still
+     * in memory long after being destroyed.
+     */
+    public int getRetainedPlayerCount(){
+        return leakDetector.getRetainedCount(LeakDetector.Kind.PLAYER);
+    }
+
+    /**
+     * @return the disk cache of remote audio files.
+     */
+    RemoteTrackCache getRemoteCache(){
+        return remoteCache;
+    }
+
+    /**
+     * @return the leak detector watching audio objects.
+     */
+    LeakDetector getLeakDetector(){
+        return leakDetector;
+    }
+
     /**
      * @return an array of the registered audio files.
      */
@@ -112,6 +409,48 @@ public class AudioManager {
         return audioFileMap.getAudioFiles();
     }
 
+    /**
+     * @return the number of registered audio files.
+     */
+    public int getAudioFileCount(){
+        return audioFileMap.getLibrary().size();
+    }
+
+    /**
+     * Finds audio files by name, in any case. Files with a
+     * name starting with the query come first, followed by
+     * files with a name containing it.
+     *
+     * @param query the text to search for.
+     * @param limit the most audio files to return.
+     * @return the matching audio files.
+     */
+    public List<AudioFile> searchAudioFiles(String query, int limit){
+        return audioFileMap.getLibrary().search(query, limit);
+    }
+
+    /**
+     * Lists a page of audio files in ID order.
+     *
+     * @param after the ID of the last audio file on the
+     *              previous page or {@code null} for the
+     *              first page. It doesn't need to still exist.
+     * @param limit the most audio files to return.
+     * @return the audio files following the given ID.
+     */
+    public List<AudioFile> listAudioFiles(String after, int limit){
+        return audioFileMap.getLibrary().page(after, limit);
+    }
+
+    /**
+     * @param audioFile an audio file.
+     * @return {@code true} if there are audio files
+     * listed after it.
+     */
+    public boolean hasAudioFilesAfter(AudioFile audioFile){
+        return audioFileMap.getLibrary().hasAfter(audioFile);
+    }
+
     /**
      * @param name any one of the audio files names.
      * @return {@code true} if the audio file with
@@ -124,10 +463,12 @@ public class AudioManager {
     /**
      * Initializes the singleton audio manager. Does
      * nothing if already initialized.
+     *
+     * @param config the bot config.
      */
-    public static AudioManager init(){
+    public static AudioManager init(TeetoConfig config){
         if(instance == null)
-            instance = new AudioManager();
+            instance = new AudioManager(config);
         else
             throw new IllegalStateException("Audio manager already initialized");
 
@@ -136,21 +477,155 @@ public class AudioManager {
 
     /**
      * Constructs or returns the audio player for the given guild.
+     * <p>
+     * Lookups of existing players don't lock the registry. A
+     * player destroyed by the reaper between the lookup and its
+     * use is replaced by a new one.
      *
      * @param guild the guild to get an audio player for.
      * @return the guilds audio player.
      */
-    private synchronized AudioPlayer getGuildAudioPlayer(Guild guild) {
-        long guildId = Long.parseLong(guild.getId());
-        AudioPlayer audioPlayer = audioPlayers.get(guildId);
+    private AudioPlayer getGuildAudioPlayer(Guild guild) {
+        long guildId = guild.getIdLong();
+        AudioPlayer audioPlayer;
 
-        if (audioPlayer == null) {
-            audioPlayer = new AudioPlayer(this, playerManager, guild);
-            audioPlayers.put(guildId, audioPlayer);
-        }
+        do {
+            audioPlayer = audioPlayers.get(guildId);
 
-        guild.getAudioManager().setSendingHandler(audioPlayer.getSendHandler());
+            if (audioPlayer == null) {
+                audioPlayer = audioPlayers.computeIfAbsent(guildId, id -> {
+                    LOG.info("Audio player count: " + createdPlayers.incrementAndGet());
+                    return new AudioPlayer(this, playerManager, guild);
+                });
+            }
+        } while (!audioPlayer.touch());
+
+        //Only install the send handler once (or again if JDA lost it).
+        if (guild.getAudioManager().getSendingHandler() != audioPlayer.getSendHandler())
+            guild.getAudioManager().setSendingHandler(audioPlayer.getSendHandler());
 
         return audioPlayer;
     }
+
+    /**
+     * Subscribes to the broadcast of the given resource,
+     * starting a decoder for it if there isn't one.
+     *
+     * @param identifier the identifier of the resource.
+     * @return a cursor at the live position of the broadcast.
+     */
+    Broadcast.Cursor subscribe(String identifier){
+        Broadcast.Cursor[] cursor = new Broadcast.Cursor[1];
+
+        broadcasts.compute(identifier, (id, broadcast) -> {
+            if(broadcast == null)
+                broadcast = new Broadcast(playerManager, id);
+
+            cursor[0] = broadcast.subscribe();
+            return broadcast;
+        });
+
+        return cursor[0];
+    }
+
+    /**
+     * Unsubscribes from a broadcast, stopping its decoder
+     * if no subscribers remain.
+     *
+     * @param cursor the cursor returned when subscribing.
+     */
+    void unsubscribe(Broadcast.Cursor cursor){
+        Broadcast broadcast = cursor.getBroadcast();
+
+        broadcasts.computeIfPresent(broadcast.getIdentifier(), (id, current) -> {
+            if(current != broadcast || !current.unsubscribe())
+                return current;
+
+            current.stop();
+            return null;
+        });
+    }
+
+    /**
+     * Polls every broadcast decoder for its next frame.
+     */
+    private void tickBroadcasts(){
+        for(Broadcast broadcast : broadcasts.values()){
+            try {
+                broadcast.tick();
+            } catch (RuntimeException e) {
+                LOG.error("Broadcast failed: " + broadcast.getIdentifier(), e);
+            }
+        }
+    }
+
+    /**
+     * Checks who is listening to a guilds player after a
+     * voice change in the guild, scheduling a suspension
+     * check for when the grace period is up if nobody is.
+     *
+     * @param guild the guild.
+     */
+    private void onVoiceUpdate(Guild guild){
+        AudioPlayer player = audioPlayers.get(guild.getIdLong());
+
+        if(player != null && player.updateListeners())
+            reaper.schedule(() -> player.suspendIfUnheard(suspendGracePeriod),
+                    suspendGracePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Recovers audio players whose playback has been stuck
+     * for the stall window, one guild at a time. Recoveries
+     * don't block, so a stuck guild can't hold up the others.
+     *
+     * @param stallWindow how long playback can be stuck before
+     *                    the player is recovered, in milliseconds.
+     */
+    private void watchPlayers(long stallWindow){
+        for(AudioPlayer player : audioPlayers.values()){
+            StallCause cause;
+
+            try {
+                cause = player.checkStalled(stallWindow);
+            } catch (RuntimeException e) {
+                LOG.error("Failed to check audio player for stalls", e);
+                continue;
+            }
+
+            if(cause == null)
+                continue;
+
+            recoveries.incrementAndGet(cause.ordinal());
+            player.recover(cause);
+        }
+    }
+
+    /**
+     * Destroys and removes audio players of guilds that are
+     * disconnected and have been idle past the idle time.
+     *
+     * @param idleTime how long a player can go unused before
+     *                 being destroyed, in milliseconds.
+     */
+    void reapIdlePlayers(long idleTime){
+        int reaped = 0;
+
+        for(Map.Entry<Long, AudioPlayer> entry : audioPlayers.entrySet()){
+            //Catches channels emptied without an event reaching us.
+            entry.getValue().updateListeners();
+            entry.getValue().suspendIfUnheard(suspendGracePeriod);
+
+            if(entry.getValue().destroyIfIdle(idleTime)){
+                retiredMetrics.add(entry.getValue().getPlaybackMetrics());
+                audioPlayers.remove(entry.getKey(), entry.getValue());
+                reaped++;
+            }
+        }
+
+        if(reaped > 0){
+            reapedPlayers.addAndGet(reaped);
+            LOG.info("Reaped " + reaped + " idle audio players. Live: " + audioPlayers.size());
+        }
+    }
 }
@@ -19,16 +19,41 @@ package net.lmelaia.teeto.aud;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDescriptor;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
 import net.lmelaia.teeto.LogManager;
 import net.lmelaia.teeto.Teeto;
-import net.lmelaia.teeto.util.JsonUtil;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileReader;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Maps audio files to their names and ID.
@@ -41,14 +66,95 @@ class AudioMap {
     private static final Logger LOG = LogManager.getLogger();
 
     /**
-     * Map of audio files to their IDs.
+     * Container or codec that couldn't be determined.
      */
-    private final Map<String, AudioFile> idAudioFileMap = new HashMap<>();
+    static final String UNKNOWN = "unknown";
 
     /**
-     * Map of audio file IDs to their multiple names.
+     * Bytes at the start of an audio file searched
+     * for a codec marker.
      */
-    private final Map<String, String> nameIDMap = new HashMap<>();
+    private static final int CODEC_SEARCH_SIZE = 64 * 1024;
+
+    /**
+     * Codec markers (Ogg identification headers, Matroska
+     * codec IDs and MP4 sample entries) to codecs.
+     */
+    private static final String[][] CODEC_MARKERS = {
+            {"OpusHead", "opus"},
+            {"\u0001vorbis", "vorbis"},
+            {"\u007fFLAC", "flac"},
+            {"A_OPUS", "opus"},
+            {"A_VORBIS", "vorbis"},
+            {"A_AAC", "aac"},
+            {"mp4a", "aac"},
+            {"alac", "alac"},
+            {"Opus", "opus"}
+    };
+
+    /**
+     * Index of the audio files by ID and alias.
+     */
+    private AudioLibrary library;
+
+    /**
+     * Map of encoded clips to audio file IDs. Filled in
+     * as clips are first used.
+     */
+    private final Map<String, OpusClip> idClipMap = new ConcurrentHashMap<>();
+
+    /**
+     * Map of loaded prototype tracks to audio file IDs. Clones
+     * of these are played instead of loading the file again.
+     * Filled in as prototypes are first used.
+     */
+    private final Map<String, AudioTrack> idPrototypeMap = new ConcurrentHashMap<>();
+
+    /**
+     * Map of up to date index entries to audio file IDs.
+     */
+    private final Map<String, JsonObject> idIndexMap = new ConcurrentHashMap<>();
+
+    /**
+     * IDs of audio files queued for probing or encoding.
+     */
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Probes and encodes audio files and writes the
+     * index in the background, one at a time.
+     */
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "audio-library");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Set while an index write is queued.
+     */
+    private final AtomicBoolean indexDirty = new AtomicBoolean();
+
+    /**
+     * Player manager used to decode, probe and encode
+     * audio files. Set by {@link #loadIndex}.
+     */
+    private AudioPlayerManager manager;
+
+    /**
+     * The index file. Set by {@link #loadIndex}.
+     */
+    private File indexFile;
+
+    /**
+     * The folder clip files are kept in. Set by {@link #loadClips}.
+     */
+    private File clipFolder;
+
+    /**
+     * The audio profile selected in the audio config.
+     */
+    private AudioProfile profile = AudioProfile.DEFAULT;
 
     /**
      * The folder where audio files are kept.
@@ -73,11 +179,12 @@ class AudioMap {
     }
 
     /**
-     * @param name one of the names of the audio file.
+     * @param name one of the names of the audio file, in any case.
      * @return the audio files ID from its name.
      */
     public String getIDFromName(String name){
-        return nameIDMap.get(name);
+        AudioFile audioFile = library.getByAlias(name);
+        return (audioFile == null) ? null : audioFile.getId();
     }
 
     /**
@@ -85,19 +192,170 @@ class AudioMap {
      * @return an audio file from its ID.
      */
     public AudioFile getAudioFileFromID(String ID){
-        return idAudioFileMap.get(ID);
+        return library.getById(ID);
     }
 
     /**
-     * @param name one of the names of the audio file.
+     * @param name one of the names of the audio file, in any case.
      * @return an audio file from one its names.
      */
     public AudioFile getAudioFileFromName(String name){
-        return getAudioFileFromID(getIDFromName(name));
+        return library.getByAlias(name);
     }
 
+    /**
+     * @return every audio file, sorted by ID.
+     */
     public AudioFile[] getAudioFiles(){
-        return this.idAudioFileMap.values().toArray(new AudioFile[0]);
+        return library.getFiles();
+    }
+
+    /**
+     * @return the audio library index.
+     */
+    AudioLibrary getLibrary(){
+        return library;
+    }
+
+    /**
+     * Gets the encoded clip of an audio file, memory mapping
+     * its clip file on first use. Audio files without an up
+     * to date clip file are queued to be encoded on the heap
+     * in the background.
+     *
+     * @param audioFile the audio file.
+     * @return the encoded clip of the audio file or
+     * {@code null} if it isn't encoded (yet).
+     */
+    public OpusClip getClip(AudioFile audioFile){
+        OpusClip clip = idClipMap.get(audioFile.getId());
+
+        if(clip != null || clipFolder == null)
+            return clip;
+
+        File clipFile = ClipTranscoder.getClipFile(clipFolder, audioFile.getAudioFile().getName());
+
+        if(clipFile.lastModified() >= audioFile.getAudioFile().lastModified()){
+            try {
+                clip = OpusClip.map(clipFile);
+                OpusClip existing = idClipMap.putIfAbsent(audioFile.getId(), clip);
+                return (existing == null) ? clip : existing;
+            } catch (IOException e) {
+                LOG.error("Failed to map audio clip: " + clipFile, e);
+            }
+        }
+
+        if(queued.add("clip:" + audioFile.getId())){
+            LOG.warn("Audio file has no up to date clip file: " + audioFile.getId()
+                    + ". Encoding it in memory. Run the transcodeAudio task to avoid this.");
+            worker.execute(() -> encodeClip(audioFile));
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the audio profile selected in the audio config.
+     */
+    AudioProfile getProfile(){
+        return profile;
+    }
+
+    /**
+     * Gets the prototype track of an audio file, decoding
+     * it from its index entry on first use. Audio files
+     * without an up to date entry are queued to be probed
+     * and indexed in the background.
+     *
+     * @param audioFile the audio file.
+     * @return the loaded track of the audio file or
+     * {@code null} if it isn't indexed (yet). Must be
+     * cloned before being played.
+     */
+    public AudioTrack getPrototype(AudioFile audioFile){
+        AudioTrack prototype = idPrototypeMap.get(audioFile.getId());
+
+        if(prototype != null || manager == null)
+            return prototype;
+
+        JsonObject entry = idIndexMap.get(audioFile.getId());
+
+        if(entry != null){
+            try {
+                prototype = decodeTrack(manager, entry.get("track").getAsString());
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Bad audio index entry: " + audioFile.getId() + ". Probing file again.", e);
+                idIndexMap.remove(audioFile.getId());
+            }
+        }
+
+        if(prototype != null){
+            prototype.setUserData(audioFile.getAudioFile().getAbsolutePath());
+            AudioTrack existing = idPrototypeMap.putIfAbsent(audioFile.getId(), prototype);
+            return (existing == null) ? prototype : existing;
+        }
+
+        if(queued.add("probe:" + audioFile.getId()))
+            worker.execute(() -> probeIndex(audioFile));
+
+        return null;
+    }
+
+    /**
+     * Reads the index of prototype tracks.
+     * <p>
+     * Prototypes are kept in an index file along with the
+     * size and modification time of the audio file they came
+     * from. Only the index is read here: entries of unchanged
+     * files are kept and decoded when first used, so no audio
+     * file is read or probed at startup. New or changed files
+     * are probed in the background when first used, after
+     * which the index is rewritten.
+     *
+     * @param manager the player manager used to load tracks.
+     * @param indexFile the index file.
+     */
+    void loadIndex(AudioPlayerManager manager, File indexFile){
+        JsonObject index = readIndex(indexFile);
+        this.manager = manager;
+        this.indexFile = indexFile;
+
+        for(AudioFile audioFile : library.getFiles()){
+            File file = audioFile.getAudioFile();
+            JsonElement element = index.get(audioFile.getId());
+
+            if(element == null || !element.isJsonObject())
+                continue;
+
+            JsonObject entry = element.getAsJsonObject();
+
+            try {
+                if(entry.get("size").getAsLong() == file.length()
+                        && entry.get("modified").getAsLong() == file.lastModified() && entry.has("track")
+                        && entry.has("container") && entry.has("codec"))
+                    idIndexMap.put(audioFile.getId(), entry);
+            } catch (RuntimeException e) {
+                LOG.warn("Bad audio index entry: " + audioFile.getId() + ". Probing file again.", e);
+            }
+        }
+
+        LOG.info("Indexed " + idIndexMap.size() + " of " + library.size() + " audio files");
+
+        if(idIndexMap.size() != index.size())
+            queueIndexWrite();
+    }
+
+    /**
+     * Sets the folder clip files are kept in. Clip files
+     * are memory mapped when first used, and audio files
+     * without an up to date one are encoded in the
+     * background. Each file is encoded once and the clip
+     * is shared by every guild playing it.
+     *
+     * @param clipFolder the folder clip files are kept in.
+     */
+    void loadClips(File clipFolder){
+        this.clipFolder = clipFolder;
     }
 
     /**
@@ -106,12 +364,270 @@ class AudioMap {
      * given name exists.
      */
     public boolean has(String name){
-        return this.nameIDMap.containsKey(name);
+        return library.getByAlias(name) != null;
+    }
+
+    /**
+     * Encodes an audio file into a clip on the heap.
+     * Run on the worker.
+     *
+     * @param audioFile the audio file.
+     */
+    private void encodeClip(AudioFile audioFile){
+        try {
+            AudioTrack prototype = getPrototype(audioFile);
+            OpusClip clip = OpusClip.fromFrames((prototype != null)
+                    ? ClipTranscoder.encode(manager, prototype.makeClone())
+                    : ClipTranscoder.encode(manager, audioFile.getAudioFile()));
+            idClipMap.put(audioFile.getId(), clip);
+            LOG.info("Encoded audio clip: " + audioFile.getId() + " (" + clip.getFrameCount()
+                    + " frames, " + clip.getSilentFrameCount() + " silent, " + clip.getSize() / 1024 + "KB)");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.error("Failed to encode audio clip: " + audioFile.getId(), e);
+        }
+    }
+
+    /**
+     * Probes an audio file, adds it to the index and queues
+     * the index to be written. Run on the worker.
+     *
+     * @param audioFile the audio file.
+     */
+    private void probeIndex(AudioFile audioFile){
+        File file = audioFile.getAudioFile();
+
+        try {
+            AudioTrack prototype = probe(manager, file);
+            JsonObject entry = new JsonObject();
+            entry.addProperty("fileName", file.getName());
+            entry.addProperty("size", file.length());
+            entry.addProperty("modified", file.lastModified());
+            String container = getContainer(prototype);
+            entry.addProperty("container", container);
+            entry.addProperty("codec", detectCodec(container, file));
+            entry.addProperty("duration", prototype.getDuration());
+            entry.addProperty("title", prototype.getInfo().title);
+            entry.addProperty("track", encodeTrack(manager, prototype));
+
+            prototype.setUserData(file.getAbsolutePath());
+            idPrototypeMap.put(audioFile.getId(), prototype);
+            idIndexMap.put(audioFile.getId(), entry);
+            queueIndexWrite();
+        } catch (Exception e) {
+            LOG.error("Failed to load audio file: " + file, e);
+        } finally {
+            queued.remove("probe:" + audioFile.getId());
+        }
+    }
+
+    /**
+     * Queues the index to be written on the worker, unless
+     * a write is already queued.
+     */
+    private void queueIndexWrite(){
+        if(!indexDirty.compareAndSet(false, true))
+            return;
+
+        worker.execute(() -> {
+            indexDirty.set(false);
+            JsonObject index = new JsonObject();
+
+            for(AudioFile audioFile : library.getFiles()){
+                JsonObject entry = idIndexMap.get(audioFile.getId());
+
+                if(entry != null)
+                    index.add(audioFile.getId(), entry);
+            }
+
+            try {
+                writeIndex(indexFile, index);
+            } catch (IOException e) {
+                LOG.error("Failed to write audio index: " + indexFile, e);
+            }
+        });
+    }
+
+    /**
+     * @param indexFile the index file.
+     * @return the index entries to audio file IDs, empty if
+     * there's no index or it can't be read.
+     */
+    private static JsonObject readIndex(File indexFile){
+        if(!indexFile.exists())
+            return new JsonObject();
+
+        try(FileReader reader = new FileReader(indexFile)){
+            JsonObject index = Teeto.GSON.fromJson(reader, JsonObject.class);
+            return (index == null) ? new JsonObject() : index;
+        } catch (IOException | JsonParseException e) {
+            LOG.warn("Failed to read audio index: " + indexFile + ". Rebuilding it.", e);
+            return new JsonObject();
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it
+     * over the index file.
+     *
+     * @param indexFile the index file.
+     * @param index the index entries to audio file IDs.
+     * @throws IOException reason for failure if any.
+     */
+    private static void writeIndex(File indexFile, JsonObject index) throws IOException {
+        Path target = indexFile.toPath();
+        Path temp = target.resolveSibling(indexFile.getName() + ".tmp");
+        Files.write(temp, Teeto.GSON.toJson(index).getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads a track from an audio file, probing its container.
+     *
+     * @param manager the player manager.
+     * @param file the audio file.
+     * @return the loaded track.
+     * @throws Exception reason for failure if any.
+     */
+    private static AudioTrack probe(AudioPlayerManager manager, File file) throws Exception {
+        AudioTrack[] track = new AudioTrack[1];
+        FriendlyException[] failure = new FriendlyException[1];
+
+        manager.loadItem(file.getAbsolutePath(), new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack loaded) {
+                track[0] = loaded;
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {}
+
+            @Override
+            public void noMatches() {}
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                failure[0] = exception;
+            }
+        }).get();
+
+        if(failure[0] != null)
+            throw failure[0];
+
+        if(track[0] == null)
+            throw new IOException("No track found in: " + file);
+
+        return track[0];
+    }
+
+    /**
+     * @param track a track loaded from a local file.
+     * @return the name of the container lavaplayer detected
+     * when probing the track, e.g. {@code mp3} or
+     * {@code matroska/webm}, or {@code unknown}.
+     */
+    private static String getContainer(AudioTrack track){
+        if(track instanceof LocalAudioTrack){
+            MediaContainerDescriptor descriptor = ((LocalAudioTrack) track).getContainerTrackFactory();
+
+            if(descriptor != null && descriptor.probe != null)
+                return descriptor.probe.getName();
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Finds the codec of an audio file from its container.
+     * Containers that can hold more than one codec have the
+     * start of the file searched for the codecs marker, as
+     * lavaplayer only tells them apart when decoding.
+     *
+     * @param container the container name.
+     * @param file the audio file.
+     * @return the codec, e.g. {@code opus} or {@code mp3},
+     * or {@code unknown}.
+     */
+    static String detectCodec(String container, File file){
+        switch (container){
+            case "mp3":
+                return "mp3";
+            case "flac":
+                return "flac";
+            case "wav":
+                return "pcm";
+            case "adts":
+            case "mpegts":
+                return "aac";
+            case "mp4":
+            case "ogg":
+            case "matroska/webm":
+                break;
+            default:
+                return UNKNOWN;
+        }
+
+        String header;
+
+        try(InputStream in = new FileInputStream(file)){
+            byte[] bytes = new byte[CODEC_SEARCH_SIZE];
+            int read = 0;
+            int count;
+
+            while(read < bytes.length && (count = in.read(bytes, read, bytes.length - read)) != -1)
+                read += count;
+
+            //Latin-1 keeps one char per byte, so markers are found as is.
+            header = new String(bytes, 0, read, StandardCharsets.ISO_8859_1);
+        } catch (IOException e) {
+            LOG.warn("Failed to read audio file header: " + file, e);
+            return UNKNOWN;
+        }
+
+        for(String[] marker : CODEC_MARKERS){
+            if(header.contains(marker[0]))
+                return marker[1];
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * @param manager the player manager.
+     * @param track the track.
+     * @return the track encoded as base64.
+     * @throws IOException reason for failure if any.
+     */
+    private static String encodeTrack(AudioPlayerManager manager, AudioTrack track) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageOutput output = new MessageOutput(out);
+        manager.encodeTrack(output, track);
+        output.finish();
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * @param manager the player manager.
+     * @param encoded the track encoded as base64.
+     * @return the decoded track or {@code null} if the
+     * encoded track isn't recognized.
+     * @throws IOException reason for failure if any.
+     */
+    private static AudioTrack decodeTrack(AudioPlayerManager manager, String encoded) throws IOException {
+        MessageInput input = new MessageInput(new ByteArrayInputStream(Base64.getDecoder().decode(encoded)));
+        DecodedTrackHolder holder = manager.decodeTrack(input);
+        return (holder == null) ? null : holder.decodedTrack;
     }
 
     /**
      * Loads the audio config settings from file
-     * and gets all audio files.
+     * and scans the audio library.
      *
      * @param audioConfig the audio config file.
      */
@@ -128,30 +644,12 @@ class AudioMap {
         assert commandsConfig != null;
         JsonArray audioFiles = commandsConfig.getAsJsonArray("audioFiles");
 
-        for (JsonElement audioElement : audioFiles) {
-            JsonObject element = audioElement.getAsJsonObject();
-
-            File file = new File(audioFolder + "/" + element.get("fileName").getAsString());
-
-            if(!file.exists()){
-                LOG.error("Missing audio file: " + file + ". Skipping audio file...");
-                continue;
-            }
-
-            AudioFile audioFile = new AudioFile(
-                    element.get("id").getAsString(),
-                    element.get("displayName").getAsString(),
-                    file,
-                    JsonUtil.jsonArrayToStringArray(element.get("names").getAsJsonArray())
-            );
-
-            for (String name: JsonUtil.jsonArrayToStringArray(element.get("names").getAsJsonArray())) {
-                nameIDMap.put(name, audioFile.getId());
-            }
-
-            idAudioFileMap.put(audioFile.getId(), audioFile);
-
-            LOG.info("Added audio file: " + audioFile.getId() + " -> " + audioFile.getAudioFile());
+        try {
+            profile = AudioProfile.fromConfig(commandsConfig);
+        } catch (RuntimeException e) {
+            LOG.error("Invalid audio profile. Using defaults.", e);
         }
+
+        library = AudioLibrary.scan(audioFiles, audioFolder);
     }
 }
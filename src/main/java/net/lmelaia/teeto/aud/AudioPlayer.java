@@ -22,13 +22,18 @@ import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import net.dv8tion.jda.core.audio.hooks.ConnectionStatus;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.managers.AudioManager;
 import net.lmelaia.teeto.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Audio player for a guild.
  *
@@ -46,14 +51,27 @@ public class AudioPlayer {
     private static final Logger LOG = LogManager.getLogger();
 
     /**
-     * Number of created audio players.
+     * Most overlays played at once.
+     */
+    static final int MAX_OVERLAYS = 4;
+
+    /**
+     * Most recoveries in a row without a frame being sent
+     * before the watchdog gives up on the player.
      */
-    private static int playerCount = 0;
+    private static final int MAX_RECOVERIES = 3;
 
     /**
-     * Internal audio player API.
+     * Internal audio player API. Replaced when the
+     * player is recovered.
      */
-    private com.sedmelluq.discord.lavaplayer.player.AudioPlayer internalPlayer;
+    private volatile com.sedmelluq.discord.lavaplayer.player.AudioPlayer internalPlayer;
+
+    /**
+     * Listeners added to the internal player, added
+     * again when it's replaced.
+     */
+    private final List<AudioEventAdapter> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * The audio manager.
@@ -67,6 +85,132 @@ public class AudioPlayer {
 
     private final net.lmelaia.teeto.aud.AudioManager imanager;
 
+    /**
+     * The send handler feeding this player to discord.
+     * Created once and kept for the life of the player.
+     */
+    private final JDAAudioSendHandler sendHandler;
+
+    /**
+     * Identifier of the track being looped or
+     * {@code null} if not looping.
+     */
+    private volatile String loopIdentifier;
+
+    /**
+     * Loaded track cloned to restart the loop. Never
+     * played itself. Its user data is the identifier
+     * it was loaded from.
+     */
+    private volatile AudioTrack loopPrototype;
+
+    /**
+     * Position within the shared clip being looped or
+     * {@code null} if not looping a clip.
+     */
+    private volatile OpusClip.Cursor clipCursor;
+
+    /**
+     * Position within the broadcast being listened to or
+     * {@code null} if not listening to a broadcast.
+     */
+    private volatile Broadcast.Cursor broadcastCursor;
+
+    /**
+     * The guilds playlist being played or {@code null}.
+     */
+    private volatile Playlist playlist;
+
+    /**
+     * Set while playback is suspended because
+     * nobody is listening.
+     */
+    private volatile boolean suspended;
+
+    /**
+     * Time the connected channel was first seen without
+     * listeners, in milliseconds, or 0 if it has listeners.
+     */
+    private long emptySince;
+
+    /**
+     * Set if the internal player was paused by suspending.
+     */
+    private boolean pausedBySuspend;
+
+    /**
+     * Identifier of the broadcast left while suspended,
+     * rejoined on resume, or {@code null}.
+     */
+    private String suspendedBroadcast;
+
+    /**
+     * Starts again whatever was last played, or {@code null}
+     * if playback was stopped. Used to recover the player.
+     */
+    private volatile Runnable replay;
+
+    /**
+     * Frames sent at the last watchdog check.
+     */
+    private long watchedFrames;
+
+    /**
+     * Cause of the stall seen by the watchdog
+     * or {@code null} if playback is healthy.
+     */
+    private StallCause stallCause;
+
+    /**
+     * Time the stall was first seen, in milliseconds.
+     */
+    private long stalledSince;
+
+    /**
+     * Recoveries since a frame was last sent.
+     */
+    private int failedRecoveries;
+
+    /**
+     * Set while the player is being recovered.
+     */
+    private volatile boolean recovering;
+
+    /**
+     * Overlays playing over the guild players audio.
+     */
+    private final List<Overlay> overlays = new CopyOnWriteArrayList<>();
+
+    /**
+     * The guilds voice connection.
+     */
+    private final VoiceConnection connection;
+
+    /**
+     * Time the player was last looked up, in milliseconds.
+     */
+    private long lastAccess = System.currentTimeMillis();
+
+    /**
+     * Set once the player has been destroyed.
+     */
+    private boolean destroyed;
+
+    /**
+     * Playback health of this player.
+     */
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+
+    /**
+     * Leak detector handle of this player.
+     */
+    private final LeakDetector.Handle playerHandle;
+
+    /**
+     * Leak detector handle of the last played track.
+     */
+    private volatile LeakDetector.Handle trackHandle;
+
     /**
      * Constructs a new guild audio player.
      *
@@ -74,13 +218,15 @@ public class AudioPlayer {
      * @param guild the guild.
      */
     AudioPlayer(net.lmelaia.teeto.aud.AudioManager imanager, AudioPlayerManager manager, Guild guild){
-        playerCount++;
         LOG.info("Creating new audio player for guild: " + guild.getName());
-        LOG.info("Audio player count: " + playerCount);
         this.imanager = imanager;
         this.internalPlayer = manager.createPlayer();
         this.audioPlayerManager = manager;
         this.guild = guild;
+        this.internalPlayer.addListener(new LoopListener());
+        this.sendHandler = new JDAAudioSendHandler(internalPlayer, this);
+        this.connection = new VoiceConnection(guild);
+        this.playerHandle = imanager.getLeakDetector().track(this, LeakDetector.Kind.PLAYER);
     }
 
     /**
@@ -90,51 +236,54 @@ public class AudioPlayer {
      * @param adapter the audio adapter.
      */
     public void addListener(AudioEventAdapter adapter){
+        this.listeners.add(adapter);
         this.internalPlayer.addListener(adapter);
     }
 
     /**
      * Connects the bot to the given voice channel
+     * without blocking. Playback is stopped once a
+     * connection attempt is actually started.
      *
      * @param channel the voice channel in the guild.
      * @param force if the bot should disconnect and
      *              reconnect if the bot is already
      *              connect to a voice channel.
-     * @return {@code true} if the bot successfully connected.
+     * @return a future completed with the channel once
+     * connected, or with the current channel if already
+     * connected or connecting and not forced. Completed
+     * exceptionally if the connection can't be made.
      */
     @SuppressWarnings("UnusedReturnValue")
-    public boolean connectToVoice(VoiceChannel channel, boolean force){
-        if(getAudioManager().isAttemptingToConnect()){
-            LOG.warn("Attempt to connect to voice channel while already attempting to connect. Connect ignored.");
-            return false;
-        }
-
-        if(getAudioManager().isConnected()){
-            LOG.warn("Attempting to connect to voice while already connected.");
+    public CompletableFuture<VoiceChannel> connectToVoice(VoiceChannel channel, boolean force){
+        VoiceConnection.State state = connection.getState();
 
-            if(force){
-                LOG.info("Force enabled. Forcing disconnect and reconnect...");
-                disconnectFromVoice();
-                internalConnect(channel);
-            } else {
-                LOG.info("Skipping connect");
-                return false;
-            }
+        if(!force && state != VoiceConnection.State.IDLE && state != VoiceConnection.State.DRAINING){
+            LOG.info("Already connected or connecting to voice in: " + guild.getName() + ". Skipping connect");
+            return CompletableFuture.completedFuture(getConnectedChannel());
         }
 
-        internalConnect(channel);
-        return getAudioManager().isConnected() || getAudioManager().isAttemptingToConnect();
+        clearShared();
+        internalPlayer.stopTrack();
+        return force ? connection.reconnect(channel) : connection.connect(channel);
     }
 
     /**
      * Disconnects the bot from the audio channel
-     * it is in. If the bot is not connected,
-     * nothing will happen.
+     * it is in without blocking. If the bot is not
+     * connected, nothing will happen.
+     *
+     * @return a future completed once disconnected.
      */
-    public void disconnectFromVoice(){
+    @SuppressWarnings("UnusedReturnValue")
+    public CompletableFuture<Void> disconnectFromVoice(){
         LOG.info("Disconnecting from voice in: " + guild.getName());
+        replay = null;
+        clearShared();
+        clearSuspension();
+        closeOverlays();
         internalPlayer.stopTrack();
-        getAudioManager().closeAudioConnection();
+        return connection.disconnect();
     }
 
     /**
@@ -149,6 +298,7 @@ public class AudioPlayer {
             return;
         }
 
+        pausedBySuspend = false;
         internalPlayer.setPaused(paused);
     }
 
@@ -163,23 +313,374 @@ public class AudioPlayer {
             LOG.warn("Attempt to play song when not connected to voice channel. Going ahead anyway");
         }
 
+        replay = () -> play(identifier);
+        loopIdentifier = null;
+        clearShared();
+        metrics.onPlay();
         load(identifier);
     }
 
+    /**
+     * Plays the given audio file over and over until
+     * stopped or something else is played.
+     * <p>
+     * If the audio file has been encoded, its shared clip
+     * is sent as is and the internal player isn't used.
+     * Otherwise the file is looped with {@link #loop(String)},
+     * starting from its indexed prototype track if it has one.
+     *
+     * @param audioFile the audio file.
+     */
+    public void loop(AudioFile audioFile){
+        OpusClip clip = imanager.getClip(audioFile);
+
+        if(clip == null || clip.getFrameCount() == 0){
+            AudioTrack prototype = imanager.getPrototype(audioFile);
+
+            //Indexed prototypes let the loop start without probing the file.
+            if(prototype != null)
+                loopPrototype = prototype;
+
+            loop(audioFile.getAudioFile().getAbsolutePath());
+            replay = () -> loop(audioFile);
+            return;
+        }
+
+        LOG.debug("Looping audio clip: " + audioFile.getId());
+        replay = () -> loop(audioFile);
+        loopIdentifier = null;
+        internalPlayer.stopTrack();
+        clearShared();
+        metrics.onPlay();
+        clipCursor = clip.cursor();
+    }
+
+    /**
+     * Plays the given audio track file over and over
+     * until stopped or something else is played.
+     * <p>
+     * The track is only loaded once. Each time it ends a
+     * clone of the loaded track is played, so the file
+     * isn't probed again. Looping the track that is
+     * already looped restarts it without loading it.
+     *
+     * @param identifier the absolute path to the audio
+     *                   file or audio resource.
+     */
+    public void loop(String identifier){
+        if(!getAudioManager().isConnected()){
+            LOG.warn("Attempt to loop song when not connected to voice channel. Going ahead anyway");
+        }
+
+        replay = () -> loop(identifier);
+        loopIdentifier = identifier;
+        clearShared();
+        metrics.onPlay();
+        AudioTrack prototype = loopPrototype;
+
+        if(prototype != null && identifier.equals(prototype.getUserData())){
+            internalPlay(prototype.makeClone());
+            return;
+        }
+
+        //Cached remote files are loaded from disk, but the loop is still keyed by the identifier.
+        String resolved = imanager.getRemoteCache().resolve(identifier);
+
+        audioPlayerManager.loadItemOrdered(this, resolved, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                //Another track was played while this one loaded.
+                if(!identifier.equals(loopIdentifier))
+                    return;
+
+                LOG.debug("Looping audio track: " + track.getIdentifier());
+                track.setUserData(identifier);
+                loopPrototype = track;
+                internalPlay(track.makeClone());
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                LOG.warn("Cannot loop playlist: " + identifier);
+            }
+
+            @Override
+            public void noMatches() {
+                LOG.warn("Audio resource not found: " + identifier);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                LOG.error("Failed to loop audio resource: " + identifier, exception);
+            }
+        });
+    }
+
     /**
      * Stops the currently playing song.
      */
     public void stop(){
         LOG.info("Stopping track in guild: " + guild);
+        replay = null;
+        loopIdentifier = null;
+        clearShared();
+        clearSuspension();
+        closeOverlays();
         internalPlayer.stopTrack();
     }
 
+    /**
+     * Plays the given audio file over whatever is playing,
+     * without stopping it.
+     *
+     * @param audioFile the audio file.
+     * @return {@code false} if too many overlays are
+     * already playing.
+     */
+    public boolean overlay(AudioFile audioFile){
+        if(overlays.size() >= MAX_OVERLAYS)
+            return false;
+
+        AudioTrack prototype = imanager.getPrototype(audioFile);
+
+        if(prototype != null){
+            overlays.add(new Overlay(audioPlayerManager, prototype.makeClone()));
+            return true;
+        }
+
+        String identifier = audioFile.getAudioFile().getAbsolutePath();
+        audioPlayerManager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                if(overlays.size() < MAX_OVERLAYS)
+                    overlays.add(new Overlay(audioPlayerManager, track));
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                LOG.warn("Cannot overlay playlist: " + identifier);
+            }
+
+            @Override
+            public void noMatches() {
+                LOG.warn("Audio resource not found: " + identifier);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                LOG.error("Failed to overlay audio resource: " + identifier, exception);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the audio player is
+     * looping a track, clip or playlist.
+     */
+    public boolean isLooping(){
+        return loopIdentifier != null || clipCursor != null || broadcastCursor != null || playlist != null;
+    }
+
     /**
      * @return {@code true} if the audio player is
      * playing a track.
      */
     public boolean isPlaying(){
-        return internalPlayer.getPlayingTrack() != null;
+        return clipCursor != null || broadcastCursor != null || playlist != null
+                || internalPlayer.getPlayingTrack() != null
+                || !overlays.isEmpty() || suspendedBroadcast != null;
+    }
+
+    /**
+     * @return {@code true} if playback is suspended
+     * because nobody is listening.
+     */
+    public boolean isSuspended(){
+        return suspended;
+    }
+
+    /**
+     * Checks who is listening after someone joins, leaves
+     * or moves voice channel. Resumes playback straight
+     * away if anyone is.
+     *
+     * @return {@code true} if the channel has just been
+     * found without listeners, so should be checked again
+     * after the grace period.
+     */
+    synchronized boolean updateListeners(){
+        if(destroyed)
+            return false;
+
+        if(!isConnected() || hasListeners()){
+            emptySince = 0;
+
+            if(suspended)
+                resume();
+
+            return false;
+        }
+
+        if(emptySince != 0)
+            return false;
+
+        emptySince = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Suspends playback if the connected channel has been
+     * without listeners for the grace period. Nothing is
+     * decoded or sent while suspended.
+     *
+     * @param gracePeriod how long the channel can be without
+     *                    listeners, in milliseconds.
+     * @return {@code true} if playback was suspended.
+     */
+    synchronized boolean suspendIfUnheard(long gracePeriod){
+        if(destroyed || suspended || emptySince == 0 || !isPlaying()
+                || System.currentTimeMillis() - emptySince < gracePeriod)
+            return false;
+
+        //Listeners might have joined without an event reaching us.
+        if(!isConnected() || hasListeners()){
+            emptySince = 0;
+            return false;
+        }
+
+        LOG.info("Suspending audio in " + guild.getName() + ". Nobody is listening.");
+        suspended = true;
+        closeOverlays();
+
+        if(internalPlayer.getPlayingTrack() != null && !internalPlayer.isPaused()){
+            internalPlayer.setPaused(true);
+            pausedBySuspend = true;
+        }
+
+        if(broadcastCursor != null){
+            suspendedBroadcast = broadcastCursor.getBroadcast().getIdentifier();
+            imanager.unsubscribe(broadcastCursor);
+            broadcastCursor = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether playback is stuck: something is meant to
+     * be playing but no frames have been sent since the last
+     * check, or the player is connected with nothing playing
+     * though nothing was stopped. A stall has to last the
+     * whole window before it's reported.
+     *
+     * @param window how long a stall must last before the
+     *               player is recovered, in milliseconds.
+     * @return the cause of the stall if the player should be
+     * recovered, otherwise {@code null}.
+     */
+    synchronized StallCause checkStalled(long window){
+        //Skipped silence counts: the clip is still moving.
+        long frames = metrics.getProvidedFrames() + metrics.getSuppressedFrames();
+        StallCause cause = null;
+
+        if(frames != watchedFrames)
+            failedRecoveries = 0;
+
+        if(!destroyed && !recovering && !suspended && isConnected()){
+            if(isExpectingAudio() && frames == watchedFrames)
+                cause = StallCause.NO_FRAMES;
+            else if(!isPlaying() && replay != null)
+                cause = StallCause.NO_TRACK;
+        }
+
+        watchedFrames = frames;
+        long now = System.currentTimeMillis();
+
+        if(cause != stallCause){
+            stallCause = cause;
+            stalledSince = now;
+            return null;
+        }
+
+        if(cause == null || now - stalledSince < window)
+            return null;
+
+        if(failedRecoveries == MAX_RECOVERIES){
+            LOG.error("Audio in " + guild.getName() + " is still stuck after " + MAX_RECOVERIES
+                    + " recoveries (" + cause.getDescription() + "). Giving up until played again.");
+            failedRecoveries++;
+            return null;
+        }
+
+        if(failedRecoveries > MAX_RECOVERIES)
+            return null;
+
+        failedRecoveries++;
+        stalledSince = now;
+        return cause;
+    }
+
+    /**
+     * Recovers stuck playback without blocking: replaces the
+     * internal player, reconnects to the voice channel and
+     * then starts again whatever was last played. Only this
+     * guild is affected.
+     *
+     * @param cause the cause of the stall.
+     * @return a future completed once reconnected.
+     */
+    synchronized CompletableFuture<VoiceChannel> recover(StallCause cause){
+        VoiceChannel channel = connection.getTarget();
+
+        if(channel == null)
+            channel = getConnectedChannel();
+
+        if(destroyed || channel == null)
+            return CompletableFuture.completedFuture(null);
+
+        LOG.warn("Recovering audio in " + guild.getName() + ": " + cause.getDescription());
+        Runnable replay = this.replay;
+        recovering = true;
+        replaceInternalPlayer();
+
+        return connectToVoice(channel, true).whenComplete((connected, e) -> {
+            recovering = false;
+
+            if(e != null)
+                LOG.error("Failed to recover audio in " + guild.getName(), e);
+
+            //Don't restart playback if something else was played or it was stopped meanwhile.
+            if(e == null && replay != null && this.replay == replay)
+                replay.run();
+        });
+    }
+
+    /**
+     * @return {@code true} if any overlays are playing.
+     */
+    boolean hasOverlays(){
+        return !overlays.isEmpty();
+    }
+
+    /**
+     * @return the overlays playing.
+     */
+    List<Overlay> getOverlays(){
+        return overlays;
+    }
+
+    /**
+     * Closes and removes overlays that have finished.
+     */
+    void removeFinishedOverlays(){
+        for(Overlay overlay : overlays){
+            if(overlay.isFinished()){
+                overlay.close();
+                overlays.remove(overlay);
+            }
+        }
     }
 
     /**
@@ -205,17 +706,170 @@ public class AudioPlayer {
      * to a voice channel within the current guild.
      */
     public boolean isConnected(){
-        return getAudioManager().getConnectionStatus() == ConnectionStatus.CONNECTED;
+        return connection.getState() == VoiceConnection.State.CONNECTED;
+    }
+
+    /**
+     * @return the state of the voice connection.
+     */
+    VoiceConnection.State getVoiceState(){
+        return connection.getState();
+    }
+
+    /**
+     * Marks the player as in use, unless it has already
+     * been destroyed.
+     *
+     * @return {@code false} if the player was destroyed
+     * and can't be used.
+     */
+    synchronized boolean touch(){
+        if(destroyed)
+            return false;
+
+        lastAccess = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Destroys the player if it's disconnected, not playing
+     * and hasn't been used within the idle time. Stops any
+     * playback, releases the internal player and uninstalls
+     * the send handler. A destroyed player can't be used again.
+     *
+     * @param idleTime how long the player can go unused
+     *                 before being destroyed, in milliseconds.
+     * @return {@code true} if the player was destroyed.
+     */
+    synchronized boolean destroyIfIdle(long idleTime){
+        if(destroyed || System.currentTimeMillis() - lastAccess < idleTime
+                || isPlaying() || connection.getState() != VoiceConnection.State.IDLE)
+            return false;
+
+        destroyed = true;
+        loopIdentifier = null;
+        loopPrototype = null;
+        clearShared();
+        closeOverlays();
+        internalPlayer.destroy();
+        playerHandle.release();
+
+        if(trackHandle != null)
+            trackHandle.release();
+
+        if(getAudioManager().getSendingHandler() == sendHandler)
+            getAudioManager().setSendingHandler(null);
+
+        return true;
+    }
+
+    /**
+     * @return {@code true} if audio is meant to be sent:
+     * something is playing and it isn't paused.
+     */
+    boolean isExpectingAudio(){
+        return !suspended && isPlaying() && !internalPlayer.isPaused();
+    }
+
+    /**
+     * @return the playback health of this player.
+     */
+    public PlaybackMetrics getPlaybackMetrics(){
+        return metrics;
     }
 
     /**
      * @return the audio send handler wrapper.
      */
     public JDAAudioSendHandler getSendHandler() {
-        return new JDAAudioSendHandler(internalPlayer);
+        return sendHandler;
+    }
+
+    /**
+     * Listens to the broadcast of the given audio resource
+     * (e.g. a stream URL). Guilds listening to the same
+     * resource share a single decoder and join at its
+     * live position.
+     *
+     * @param identifier the identifier of the resource.
+     */
+    public void broadcast(String identifier){
+        if(!getAudioManager().isConnected()){
+            LOG.warn("Attempt to broadcast when not connected to voice channel. Going ahead anyway");
+        }
+
+        replay = () -> broadcast(identifier);
+        loopIdentifier = null;
+        internalPlayer.stopTrack();
+        clearShared();
+        metrics.onPlay();
+        broadcastCursor = imanager.subscribe(identifier);
+    }
+
+    /**
+     * Plays the given audio files in turn, over and over,
+     * until stopped or something else is played. Each
+     * track is prepared while the one before it plays.
+     *
+     * @param files the audio files. Must not be empty.
+     * @param shuffle {@code true} to play the files in
+     *                random order.
+     */
+    public void playlist(List<AudioFile> files, boolean shuffle){
+        if(!getAudioManager().isConnected()){
+            LOG.warn("Attempt to play playlist when not connected to voice channel. Going ahead anyway");
+        }
+
+        LOG.debug("Playing playlist of " + files.size() + " files in guild: " + guild.getName());
+        replay = () -> playlist(files, shuffle);
+        loopIdentifier = null;
+        internalPlayer.stopTrack();
+        clearShared();
+        metrics.onPlay();
+        playlist = new Playlist(imanager, audioPlayerManager, files, shuffle, metrics);
     }
 
-    private int plays = 0;
+    /**
+     * @return the next frame of the looped clip, playlist
+     * or broadcast, or {@code null} if not playing any or paused.
+     */
+    byte[] provideSharedFrame(){
+        if(internalPlayer.isPaused())
+            return null;
+
+        OpusClip.Cursor clip = clipCursor;
+        if(clip != null)
+            return clip.next();
+
+        Playlist list = playlist;
+        if(list != null)
+            return list.next();
+
+        Broadcast.Cursor broadcast = broadcastCursor;
+        if(broadcast != null)
+            return broadcast.next();
+
+        return null;
+    }
+
+    /**
+     * Stops reading the looped clip, closes the playlist
+     * and leaves the broadcast being listened to, if any.
+     */
+    private synchronized void clearShared(){
+        clipCursor = null;
+        suspendedBroadcast = null;
+
+        if(playlist != null){
+            playlist.close();
+            playlist = null;
+        }
+
+        if(broadcastCursor != null){
+            imanager.unsubscribe(broadcastCursor);
+            broadcastCursor = null;
+        }
+    }
 
     /**
      * Loads and plays the given audio file.
@@ -224,17 +878,10 @@ public class AudioPlayer {
      *      *                   file or audio resource.
      */
     private void load(String identifier){
-        audioPlayerManager.loadItemOrdered(this, identifier, new AudioLoadResultHandler() {
+        audioPlayerManager.loadItemOrdered(this, imanager.getRemoteCache().resolve(identifier), new AudioLoadResultHandler() {
             @Override
             public void trackLoaded(AudioTrack track) {
                 LOG.debug("Playing audio track: " + track.getIdentifier());
-                if(plays > 99){
-                    LOG.info("100 Plays on audio track: " + track.getIdentifier());
-                    LOG.info("Reached given number of plays - performing memory clear.");
-                    memoryLeakFix1(track);
-                    plays = 0;
-                }
-                plays++;
                 internalPlay(track);
             }
 
@@ -262,37 +909,143 @@ public class AudioPlayer {
         });
     }
 
-    //The first attempt at fixing a weird
-    //memory leak expected to originate
-    //from the JDA player.
-    private void memoryLeakFix1(AudioTrack track){
-        AudioTrack clone = track.makeClone();
-        track.stop();
-        this.internalPlayer.stopTrack();
-        this.internalPlayer.playTrack(clone);
-        System.gc();
-    }
-
     /**
      * Internal play method.
      *
      * @param track the audio track to play.
      */
     private void internalPlay(AudioTrack track) {
+        clearShared();
         this.internalPlayer.stopTrack();
         this.internalPlayer.playTrack(track);
+        trackForLeaks(track);
     }
 
     /**
-     * Internal connect method.
+     * The single listener of the internal player. Restarts
+     * the looped track from its prototype when it ends.
+     */
+    private class LoopListener extends AudioEventAdapter {
+
+        @Override
+        public void onTrackEnd(com.sedmelluq.discord.lavaplayer.player.AudioPlayer player,
+                               AudioTrack track, AudioTrackEndReason endReason) {
+            String identifier = loopIdentifier;
+            AudioTrack prototype = loopPrototype;
+
+            //A played track ending isn't a stall.
+            if(identifier == null && endReason == AudioTrackEndReason.FINISHED && player == internalPlayer)
+                replay = null;
+
+            if(!endReason.mayStartNext || identifier == null
+                    || prototype == null || !identifier.equals(prototype.getUserData()))
+                return;
+
+            //Don't spin on a track that can't be played.
+            if(endReason == AudioTrackEndReason.LOAD_FAILED){
+                LOG.error("Looped track failed to play. Stopping loop: " + identifier);
+                loopIdentifier = null;
+                loopPrototype = null;
+                return;
+            }
+
+            AudioTrack clone = prototype.makeClone();
+            player.playTrack(clone);
+            metrics.onLoopRestart();
+            trackForLeaks(clone);
+        }
+    }
+
+    /**
+     * Swaps the internal player for a new one with the
+     * same listeners and destroys the old one.
+     */
+    private void replaceInternalPlayer(){
+        com.sedmelluq.discord.lavaplayer.player.AudioPlayer previous = internalPlayer;
+        com.sedmelluq.discord.lavaplayer.player.AudioPlayer replacement = audioPlayerManager.createPlayer();
+        replacement.addListener(new LoopListener());
+
+        for(AudioEventAdapter adapter : listeners)
+            replacement.addListener(adapter);
+
+        internalPlayer = replacement;
+        sendHandler.setAudioPlayer(replacement);
+        pausedBySuspend = false;
+        previous.destroy();
+    }
+
+    /**
+     * Releases the previously played track to the leak
+     * detector and starts tracking the given one.
      *
-     * @param channel the voice channel to connect to.
+     * @param track the track now playing.
      */
-    private void internalConnect(VoiceChannel channel){
-        internalPlayer.stopTrack();
-        getAudioManager().closeAudioConnection();
-        getAudioManager().openAudioConnection(channel);
-        LOG.info("Connected to voice channel: " + channel.getName() + " -> " + guild.getName());
+    private void trackForLeaks(AudioTrack track){
+        LeakDetector.Handle previous = trackHandle;
+        trackHandle = imanager.getLeakDetector().track(track, LeakDetector.Kind.TRACK);
+
+        if(previous != null)
+            previous.release();
+    }
+
+    /**
+     * Resumes suspended playback from where it was,
+     * rejoining a broadcast at its live position.
+     */
+    private void resume(){
+        LOG.info("Resuming audio in " + guild.getName() + ".");
+        suspended = false;
+
+        if(pausedBySuspend){
+            internalPlayer.setPaused(false);
+            pausedBySuspend = false;
+        }
+
+        if(suspendedBroadcast != null){
+            broadcastCursor = imanager.subscribe(suspendedBroadcast);
+            suspendedBroadcast = null;
+        }
+    }
+
+    /**
+     * Forgets any suspension, un-pausing the internal
+     * player if suspending paused it.
+     */
+    private synchronized void clearSuspension(){
+        if(pausedBySuspend)
+            internalPlayer.setPaused(false);
+
+        suspended = false;
+        pausedBySuspend = false;
+        emptySince = 0;
+    }
+
+    /**
+     * @return {@code true} if a human who isn't deafened
+     * is in the connected channel.
+     */
+    private boolean hasListeners(){
+        VoiceChannel channel = getConnectedChannel();
+
+        if(channel == null)
+            return false;
+
+        for(Member member : channel.getMembers()){
+            if(!member.getUser().isBot() && (member.getVoiceState() == null || !member.getVoiceState().isDeafened()))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Stops and removes every overlay.
+     */
+    private void closeOverlays(){
+        for(Overlay overlay : overlays){
+            overlay.close();
+            overlays.remove(overlay);
+        }
     }
 
     /**
@@ -0,0 +1,150 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonObject;
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+
+/**
+ * A named set of audio player manager settings, trading
+ * CPU and memory for audio quality.
+ * <p>
+ * Profiles are defined under {@code profiles} in the audio
+ * config and picked with {@code profile}, e.g.:
+ * <pre>
+ * "profile": "balanced",
+ * "profiles": {
+ *   "balanced": {
+ *     "opusQuality": 8,
+ *     "resamplingQuality": "MEDIUM",
+ *     "frameBufferDuration": 2500
+ *   }
+ * }
+ * </pre>
+ * Settings left out keep the lavaplayer defaults.
+ */
+final class AudioProfile {
+
+    /**
+     * Profile that leaves every setting at its default.
+     */
+    static final AudioProfile DEFAULT = new AudioProfile("default", -1, null, -1);
+
+    /**
+     * The profiles name.
+     */
+    private final String name;
+
+    /**
+     * Opus encoding quality (0-10) or {@code -1} for the default.
+     */
+    private final int opusQuality;
+
+    /**
+     * Resampling quality or {@code null} for the default.
+     */
+    private final AudioConfiguration.ResamplingQuality resamplingQuality;
+
+    /**
+     * Duration of audio buffered ahead by each guilds
+     * player, in milliseconds, or {@code -1} for the default.
+     */
+    private final int frameBufferDuration;
+
+    /**
+     * Constructs a new audio profile.
+     *
+     * @param name the profiles name.
+     * @param opusQuality Opus encoding quality or {@code -1}.
+     * @param resamplingQuality resampling quality or {@code null}.
+     * @param frameBufferDuration buffered audio in milliseconds or {@code -1}.
+     */
+    private AudioProfile(String name, int opusQuality, AudioConfiguration.ResamplingQuality resamplingQuality,
+                         int frameBufferDuration){
+        this.name = name;
+        this.opusQuality = opusQuality;
+        this.resamplingQuality = resamplingQuality;
+        this.frameBufferDuration = frameBufferDuration;
+    }
+
+    /**
+     * Reads the selected profile from the audio config.
+     *
+     * @param audioConfig the audio config.
+     * @return the selected profile, or {@link #DEFAULT} if none
+     * is selected.
+     * @throws IllegalArgumentException if the selected profile
+     * isn't defined or has invalid settings.
+     */
+    static AudioProfile fromConfig(JsonObject audioConfig){
+        if(!audioConfig.has("profile"))
+            return DEFAULT;
+
+        String name = audioConfig.get("profile").getAsString();
+        JsonObject profiles = audioConfig.getAsJsonObject("profiles");
+
+        if(profiles == null || !profiles.has(name))
+            throw new IllegalArgumentException("Audio profile not defined: " + name);
+
+        JsonObject profile = profiles.getAsJsonObject(name);
+        int opusQuality = profile.has("opusQuality") ? profile.get("opusQuality").getAsInt() : -1;
+
+        if(opusQuality > 10)
+            throw new IllegalArgumentException("Opus quality must be 0-10: " + opusQuality);
+
+        return new AudioProfile(name, opusQuality,
+                profile.has("resamplingQuality")
+                        ? AudioConfiguration.ResamplingQuality.valueOf(profile.get("resamplingQuality").getAsString())
+                        : null,
+                profile.has("frameBufferDuration") ? profile.get("frameBufferDuration").getAsInt() : -1);
+    }
+
+    /**
+     * Applies the profiles settings to a player manager.
+     * Must be called before any players are created.
+     *
+     * @param manager the player manager.
+     */
+    void apply(AudioPlayerManager manager){
+        if(opusQuality >= 0)
+            manager.getConfiguration().setOpusEncodingQuality(opusQuality);
+
+        if(resamplingQuality != null)
+            manager.getConfiguration().setResamplingQuality(resamplingQuality);
+
+        if(frameBufferDuration > 0)
+            manager.setFrameBufferDuration(frameBufferDuration);
+    }
+
+    /**
+     * @return the profiles name.
+     */
+    String getName(){
+        return name;
+    }
+
+    /**
+     * @return a description of the profiles settings.
+     */
+    @Override
+    public String toString(){
+        return name + " (opus quality: " + ((opusQuality < 0) ? "default" : opusQuality)
+                + ", resampling: " + ((resamplingQuality == null) ? "default" : resamplingQuality)
+                + ", frame buffer: " + ((frameBufferDuration < 0) ? "default" : frameBufferDuration + "ms") + ")";
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import net.lmelaia.teeto.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A single decoder of an audio resource shared by
+ * every guild listening to it.
+ * <p>
+ * The resource is played on one internal player which is
+ * polled every 20ms by {@link AudioManager}. Each frame is
+ * written into a ring buffer that any number of guild
+ * players read through their own {@link Cursor}. Cursors
+ * start at the live position and skip ahead if they fall
+ * more than the ring behind. The track is restarted when
+ * it ends so the broadcast keeps going until the last
+ * subscriber leaves.
+ */
+final class Broadcast {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Number of frames kept in the ring (5 seconds).
+     */
+    private static final int RING_SIZE = 250;
+
+    /**
+     * Frames behind the live position new cursors start at,
+     * to absorb jitter between the decoder and senders.
+     */
+    private static final int START_DELAY = 3;
+
+    /**
+     * The identifier of the broadcast resource.
+     */
+    private final String identifier;
+
+    /**
+     * The internal player decoding the resource.
+     */
+    private final AudioPlayer player;
+
+    /**
+     * The latest frames. Frame {@code n} is in slot
+     * {@code n % RING_SIZE}.
+     */
+    private final byte[][] ring = new byte[RING_SIZE][];
+
+    /**
+     * Sequence number of the next frame to be written.
+     * Written after the slot, so readers see the frame.
+     */
+    private volatile long head;
+
+    /**
+     * The loaded track, cloned to restart the broadcast.
+     */
+    private volatile AudioTrack prototype;
+
+    /**
+     * Number of subscribed guild players. Only changed
+     * while holding the broadcast registry entry.
+     */
+    private int subscribers;
+
+    /**
+     * Constructs a new broadcast and starts loading the
+     * resource.
+     *
+     * @param manager the player manager.
+     * @param identifier the identifier of the resource.
+     */
+    Broadcast(AudioPlayerManager manager, String identifier){
+        this.identifier = identifier;
+        this.player = manager.createPlayer();
+
+        player.addListener(new AudioEventAdapter() {
+            @Override
+            public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+                AudioTrack prototype = Broadcast.this.prototype;
+
+                if(endReason == AudioTrackEndReason.FINISHED && prototype != null)
+                    player.playTrack(prototype.makeClone());
+            }
+        });
+
+        manager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                LOG.info("Starting broadcast: " + identifier);
+                prototype = track;
+                player.playTrack(track.makeClone());
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                AudioTrack track = playlist.getSelectedTrack();
+                trackLoaded((track == null) ? playlist.getTracks().get(0) : track);
+            }
+
+            @Override
+            public void noMatches() {
+                LOG.warn("Broadcast resource not found: " + identifier);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                LOG.error("Failed to load broadcast resource: " + identifier, exception);
+            }
+        });
+    }
+
+    /**
+     * Polls the decoder for the next frame and writes it to
+     * the ring. Called every 20ms from a single thread.
+     */
+    void tick(){
+        AudioFrame frame = player.provide();
+
+        if(frame == null || frame.isTerminator())
+            return;
+
+        ring[(int) (head % RING_SIZE)] = frame.getData();
+        head = head + 1;
+    }
+
+    /**
+     * @return the identifier of the broadcast resource.
+     */
+    String getIdentifier(){
+        return identifier;
+    }
+
+    /**
+     * Adds a subscriber.
+     *
+     * @return a new cursor at the live position.
+     */
+    Cursor subscribe(){
+        subscribers++;
+        return new Cursor(this, Math.max(0, head - START_DELAY));
+    }
+
+    /**
+     * Removes a subscriber.
+     *
+     * @return {@code true} if no subscribers remain.
+     */
+    boolean unsubscribe(){
+        return --subscribers <= 0;
+    }
+
+    /**
+     * @return the number of subscribed guild players.
+     */
+    int getSubscriberCount(){
+        return subscribers;
+    }
+
+    /**
+     * Stops decoding and releases the internal player.
+     */
+    void stop(){
+        LOG.info("Stopping broadcast: " + identifier);
+        prototype = null;
+        player.destroy();
+    }
+
+    /**
+     * Position of a single guild player within a broadcast.
+     */
+    static final class Cursor {
+
+        /**
+         * The broadcast being read.
+         */
+        private final Broadcast broadcast;
+
+        /**
+         * Sequence number of the next frame.
+         */
+        private long position;
+
+        /**
+         * @param broadcast the broadcast to read.
+         * @param position the first frame to read.
+         */
+        private Cursor(Broadcast broadcast, long position){
+            this.broadcast = broadcast;
+            this.position = position;
+        }
+
+        /**
+         * @return the broadcast being read.
+         */
+        Broadcast getBroadcast(){
+            return broadcast;
+        }
+
+        /**
+         * Returns the next frame. The returned array is
+         * shared and must not be modified.
+         *
+         * @return the next Opus frame or {@code null} if
+         * the decoder hasn't produced it yet.
+         */
+        byte[] next(){
+            long head = broadcast.head;
+
+            if(position >= head)
+                return null;
+
+            //Fell more than the ring behind, skip to live.
+            if(head - position > RING_SIZE - 1)
+                position = head - START_DELAY;
+
+            return broadcast.ring[(int) (position++ % RING_SIZE)];
+        }
+    }
+}
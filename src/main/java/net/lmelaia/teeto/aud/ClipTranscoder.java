@@ -0,0 +1,276 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonObject;
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import net.lmelaia.teeto.Teeto;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Encodes audio files into Opus frames.
+ * <p>
+ * Used at runtime to encode audio files without a clip
+ * file, and offline (the {@code transcodeAudio} gradle task)
+ * to write a {@code .opc} clip file for every audio file
+ * in the audio library.
+ */
+final class ClipTranscoder {
+
+    /**
+     * Longest wait for the next frame while encoding
+     * a clip, in seconds.
+     */
+    private static final long ENCODE_FRAME_TIMEOUT = 10;
+
+    //Private constructor.
+    private ClipTranscoder(){}
+
+    /**
+     * Writes a clip file for every audio file in the audio
+     * library. Clip files newer than their audio file are
+     * skipped.
+     *
+     * @param args the audio config file, the audio folder
+     *             and the folder to write clips to.
+     * @throws Exception reason for failure if any.
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length != 3){
+            System.err.println("Usage: ClipTranscoder <audio config> <audio folder> <clip folder>");
+            System.exit(1);
+        }
+
+        File audioFolder = new File(args[1]);
+        File clipFolder = new File(args[2]);
+        //noinspection ResultOfMethodCallIgnored
+        clipFolder.mkdirs();
+
+        JsonObject audioConfig;
+        try(Reader reader = new FileReader(args[0])){
+            audioConfig = Teeto.GSON.fromJson(reader, JsonObject.class);
+        }
+
+        //Encoding is done once, offline, so always use the best quality.
+        AudioPlayerManager manager = new DefaultAudioPlayerManager();
+        manager.getConfiguration().setOpusEncodingQuality(10);
+        manager.getConfiguration().setResamplingQuality(AudioConfiguration.ResamplingQuality.HIGH);
+        AudioSourceManagers.registerLocalSource(manager);
+        int failed = 0;
+        long totalFrames = 0;
+        long totalSilent = 0;
+        long totalBytes = 0;
+        long totalSilentBytes = 0;
+
+        try {
+            for(AudioFile file : AudioLibrary.scan(audioConfig.getAsJsonArray("audioFiles"), audioFolder).getFiles()){
+                File audioFile = file.getAudioFile();
+                File clipFile = getClipFile(clipFolder, audioFile.getName());
+
+                if(clipFile.lastModified() >= audioFile.lastModified() && hasSilenceBitmap(clipFile)){
+                    System.out.println("Up to date: " + clipFile);
+                    continue;
+                }
+
+                try {
+                    List<byte[]> frames = encode(manager, audioFile);
+                    BitSet silent = SilenceDetector.detect(frames);
+                    write(OpusClip.toContainer(frames, silent), clipFile);
+
+                    long bytes = 0;
+                    long silentBytes = 0;
+                    for(int i = 0; i < frames.size(); i++){
+                        bytes += frames.get(i).length;
+
+                        if(silent.get(i))
+                            silentBytes += frames.get(i).length;
+                    }
+
+                    totalFrames += frames.size();
+                    totalSilent += silent.cardinality();
+                    totalBytes += bytes;
+                    totalSilentBytes += silentBytes;
+                    System.out.println("Transcoded: " + audioFile + " -> " + clipFile + " (" + frames.size()
+                            + " frames, " + silent.cardinality() + " silent, " + silentBytes + " of " + bytes
+                            + " bytes not sent)");
+                } catch (ExecutionException | IOException e) {
+                    System.err.println("Failed to transcode: " + audioFile + ": " + e.getMessage());
+                    failed++;
+                }
+            }
+        } finally {
+            manager.shutdown();
+        }
+
+        //Each skipped frame is a packet JDA doesn't encrypt or send.
+        if(totalFrames > 0)
+            System.out.println("Silence: " + totalSilent + " of " + totalFrames + " frames ("
+                    + totalSilent * 100 / totalFrames + "%) skipped, " + totalSilentBytes / 1024 + "KB of "
+                    + totalBytes / 1024 + "KB of Opus data not sent per play");
+
+        if(failed > 0)
+            System.exit(1);
+    }
+
+    /**
+     * @param clipFolder the folder clips are kept in.
+     * @param fileName the audio files name.
+     * @return the clip file of the audio file.
+     */
+    static File getClipFile(File clipFolder, String fileName){
+        return new File(clipFolder, fileName + OpusClip.EXTENSION);
+    }
+
+    /**
+     * @param clipFile a clip file.
+     * @return {@code true} if the clip file has a silence
+     * bitmap, {@code false} if it doesn't or can't be read.
+     */
+    private static boolean hasSilenceBitmap(File clipFile){
+        try {
+            return OpusClip.map(clipFile).hasSilenceBitmap();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Plays the audio file on a player that isn't sent
+     * anywhere and collects the Opus frames it provides.
+     *
+     * @param manager the player manager.
+     * @param audioFile the audio file to encode.
+     * @return the Opus frames in order.
+     * @throws ExecutionException if the file can't be
+     * loaded or encoded.
+     * @throws InterruptedException if interrupted while encoding.
+     */
+    static List<byte[]> encode(AudioPlayerManager manager, File audioFile)
+            throws ExecutionException, InterruptedException {
+        AudioTrack[] track = new AudioTrack[1];
+        String identifier = audioFile.getAbsolutePath();
+
+        manager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack loaded) {
+                track[0] = loaded;
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {}
+
+            @Override
+            public void noMatches() {}
+
+            @Override
+            public void loadFailed(FriendlyException exception) {}
+        }).get();
+
+        if(track[0] == null)
+            throw new ExecutionException("No track loaded from: " + identifier, null);
+
+        return encode(manager, track[0]);
+    }
+
+    /**
+     * Plays a loaded track on a player that isn't sent
+     * anywhere and collects the Opus frames it provides.
+     *
+     * @param manager the player manager.
+     * @param track the track to encode. Must not have
+     *              been played.
+     * @return the Opus frames in order.
+     * @throws ExecutionException if the track can't be encoded.
+     * @throws InterruptedException if interrupted while encoding.
+     */
+    static List<byte[]> encode(AudioPlayerManager manager, AudioTrack track)
+            throws ExecutionException, InterruptedException {
+        String identifier = track.getIdentifier();
+        AudioPlayer player = manager.createPlayer();
+        List<byte[]> frames = new ArrayList<>();
+
+        try {
+            player.playTrack(track);
+
+            //A null frame with the track still playing means decoding is behind.
+            while(player.getPlayingTrack() != null){
+                AudioFrame frame = player.provide(ENCODE_FRAME_TIMEOUT, TimeUnit.SECONDS);
+
+                if(frame != null && !frame.isTerminator())
+                    frames.add(frame.getData());
+            }
+        } catch (TimeoutException e) {
+            throw new ExecutionException("Timed out encoding: " + identifier, e);
+        } finally {
+            player.destroy();
+        }
+
+        return frames;
+    }
+
+    /**
+     * Writes a container to a temporary file and renames
+     * it over the clip file, so a running bot never maps
+     * a half written clip.
+     *
+     * @param container the container.
+     * @param clipFile the clip file.
+     * @throws IOException reason for failure if any.
+     */
+    private static void write(ByteBuffer container, File clipFile) throws IOException {
+        Path target = clipFile.toPath();
+        Path temp = target.resolveSibling(clipFile.getName() + ".tmp");
+
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(container.hasRemaining())
+                channel.write(container);
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
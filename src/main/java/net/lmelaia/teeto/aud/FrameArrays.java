@@ -0,0 +1,55 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+/**
+ * Reusable arrays for Opus frames, one per frame length.
+ * <p>
+ * JDA needs each frame as an array of exactly the frames
+ * length. Handing out the same array for every frame of a
+ * given length means nothing is allocated once every
+ * length has been seen. An array is only valid until the
+ * next frame of the same length is requested.
+ */
+final class FrameArrays {
+
+    /**
+     * Largest possible Opus frame in bytes.
+     */
+    static final int MAX_FRAME_SIZE = 1275;
+
+    /**
+     * Arrays to frame lengths. Created when first needed.
+     */
+    private final byte[][] arrays = new byte[MAX_FRAME_SIZE + 1][];
+
+    /**
+     * @param length the frame length.
+     * @return the reusable array for the frame length, or a
+     * new array if the length is larger than an Opus frame.
+     */
+    byte[] get(int length){
+        if(length > MAX_FRAME_SIZE)
+            return new byte[length];
+
+        byte[] array = arrays[length];
+        if(array == null)
+            array = arrays[length] = new byte[length];
+
+        return array;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sedmelluq.discord.lavaplayer.natives.opus.OpusDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Mixes Opus frames from several sources into one
+ * PCM frame for JDA to encode.
+ * <p>
+ * Each source is decoded with its own decoder (Opus
+ * decoders keep state between frames) into a reused
+ * sample buffer and summed. The sum is clamped to 16 bits
+ * without branching and written out big endian, the
+ * format JDA expects for PCM. All buffers are reused, so
+ * nothing is allocated per frame.
+ */
+final class FrameMixer {
+
+    /**
+     * Output sample rate.
+     */
+    static final int SAMPLE_RATE = 48000;
+
+    /**
+     * Output channels.
+     */
+    static final int CHANNELS = 2;
+
+    /**
+     * Samples per channel in a 20ms frame.
+     */
+    static final int FRAME_SAMPLES = SAMPLE_RATE / 50;
+
+    /**
+     * Samples in a 20ms frame, over all channels.
+     */
+    private static final int FRAME_LENGTH = FRAME_SAMPLES * CHANNELS;
+
+    /**
+     * Direct buffer Opus frames are copied into to be decoded.
+     */
+    private final ByteBuffer input = ByteBuffer.allocateDirect(FrameArrays.MAX_FRAME_SIZE);
+
+    /**
+     * Direct buffer frames are decoded into.
+     */
+    private final ShortBuffer output = ByteBuffer.allocateDirect(FRAME_LENGTH * 2)
+            .order(ByteOrder.nativeOrder()).asShortBuffer();
+
+    /**
+     * The last decoded frame.
+     */
+    private final short[] decoded = new short[FRAME_LENGTH];
+
+    /**
+     * Sum of the sources added so far.
+     */
+    private final int[] sum = new int[FRAME_LENGTH];
+
+    /**
+     * The mixed frame as big endian PCM.
+     */
+    private final byte[] pcm = new byte[FRAME_LENGTH * 2];
+
+    /**
+     * Starts a new frame.
+     */
+    void begin(){
+        Arrays.fill(sum, 0);
+    }
+
+    /**
+     * Decodes a sources frame and adds it to the mix.
+     * Frames that fail to decode are left out.
+     *
+     * @param decoder the sources decoder.
+     * @param frame the sources Opus frame.
+     * @return {@code false} if the frame failed to decode.
+     */
+    boolean add(OpusDecoder decoder, byte[] frame){
+        if(frame.length > input.capacity())
+            return false;
+
+        input.clear();
+        input.put(frame).flip();
+        output.clear();
+
+        int samples;
+        try {
+            samples = Math.min(decoder.decode(input, output), FRAME_SAMPLES) * CHANNELS;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+
+        output.position(0).limit(samples);
+        output.get(decoded, 0, samples);
+
+        for(int i = 0; i < samples; i++)
+            sum[i] += decoded[i];
+
+        return true;
+    }
+
+    /**
+     * @return the loudest sample of the mix so far,
+     * as an absolute value.
+     */
+    int getPeak(){
+        int peak = 0;
+
+        for(int i = 0; i < FRAME_LENGTH; i++)
+            peak = Math.max(peak, Math.abs(sum[i]));
+
+        return peak;
+    }
+
+    /**
+     * Clamps the mix to 16 bits and writes it out.
+     *
+     * @return the mixed frame as 16 bit big endian stereo
+     * PCM. Reused by the next frame.
+     */
+    byte[] finish(){
+        for(int i = 0; i < FRAME_LENGTH; i++){
+            int sample = sum[i];
+            int over = sample - Short.MAX_VALUE;
+            sample -= over & ~(over >> 31);
+            int under = sample - Short.MIN_VALUE;
+            sample -= under & (under >> 31);
+
+            pcm[i * 2] = (byte) (sample >> 8);
+            pcm[i * 2 + 1] = (byte) sample;
+        }
+
+        return pcm;
+    }
+
+    /**
+     * @return a new decoder for one source. Must be closed
+     * once the source is done with.
+     */
+    static OpusDecoder createDecoder(){
+        return new OpusDecoder(SAMPLE_RATE, CHANNELS);
+    }
+}
@@ -16,25 +16,91 @@
  */
 package net.lmelaia.teeto.aud;
 
+import com.sedmelluq.discord.lavaplayer.natives.opus.OpusDecoder;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
-import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
 import net.dv8tion.jda.core.audio.AudioSendHandler;
 
+import java.nio.ByteBuffer;
+
 /**
  * Wrapper class for the java discord API audio send
  * handler implementation.
+ * <p>
+ * One handler is created per guild player and installed
+ * once. Frames are provided into a single reusable frame
+ * and copied into {@link FrameArrays}, so nothing is
+ * allocated per frame once playing. While the guild player
+ * has overlays their frames are mixed in with a
+ * {@link FrameMixer} and sent as PCM for JDA to encode.
  */
 public class JDAAudioSendHandler implements AudioSendHandler {
 
+    /**
+     * Size of the reusable frame buffer in bytes.
+     */
+    private static final int FRAME_BUFFER_SIZE = 4096;
+
     /**
      * The audio player who's send handler we're wrapping.
+     * Replaced when the guild player is recovered.
+     */
+    private volatile AudioPlayer audioPlayer;
+
+    /**
+     * Guild player whose looped clip or broadcast frames are
+     * sent instead of the audio players frames, or {@code null}.
+     */
+    private final net.lmelaia.teeto.aud.AudioPlayer clipSource;
+
+    /**
+     * Reusable frame the audio player provides into.
+     */
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+
+    /**
+     * Reusable arrays frames are returned in.
+     */
+    private final FrameArrays arrays = new FrameArrays();
+
+    /**
+     * Mixes overlays with the guild players audio.
+     */
+    private final FrameMixer mixer = new FrameMixer();
+
+    /**
+     * Overlays with a frame to mix this frame.
+     */
+    private final Overlay[] overlaySources = new Overlay[net.lmelaia.teeto.aud.AudioPlayer.MAX_OVERLAYS];
+
+    /**
+     * The frames of {@link #overlaySources}.
+     */
+    private final byte[][] overlayFrames = new byte[net.lmelaia.teeto.aud.AudioPlayer.MAX_OVERLAYS][];
+
+    /**
+     * Decoder of the guild players audio while overlays
+     * are mixed in, or {@code null}.
      */
-    private final AudioPlayer audioPlayer;
+    private OpusDecoder mainDecoder;
 
     /**
-     * The latest audio frame to be played.
+     * The next frame to be played, or {@code null}
+     * if not polled yet.
      */
-    private AudioFrame lastFrame;
+    private byte[] nextFrame;
+
+    /**
+     * {@code true} if {@link #nextFrame} is Opus,
+     * {@code false} if it's mixed PCM.
+     */
+    private boolean nextIsOpus = true;
+
+    /**
+     * {@code true} if the last frame provided was Opus,
+     * {@code false} if it was mixed PCM.
+     */
+    private boolean lastIsOpus = true;
 
     /**
      * Constructs a new audio send handler wrapper.
@@ -43,6 +109,30 @@ public class JDAAudioSendHandler implements AudioSendHandler {
      *                    handler we're wrapping.
      */
     public JDAAudioSendHandler(AudioPlayer audioPlayer) {
+        this(audioPlayer, null);
+    }
+
+    /**
+     * Constructs a new audio send handler wrapper that
+     * sends the guild players clip or broadcast frames
+     * when it's playing one.
+     *
+     * @param audioPlayer the audio player who's send
+     *                    handler we're wrapping.
+     * @param clipSource the guild player.
+     */
+    JDAAudioSendHandler(AudioPlayer audioPlayer, net.lmelaia.teeto.aud.AudioPlayer clipSource) {
+        this.audioPlayer = audioPlayer;
+        this.clipSource = clipSource;
+        this.frame.setBuffer(ByteBuffer.allocate(FRAME_BUFFER_SIZE));
+    }
+
+    /**
+     * Replaces the audio player frames are read from.
+     *
+     * @param audioPlayer the new audio player.
+     */
+    void setAudioPlayer(AudioPlayer audioPlayer) {
         this.audioPlayer = audioPlayer;
     }
 
@@ -52,34 +142,177 @@ public class JDAAudioSendHandler implements AudioSendHandler {
      */
     @Override
     public boolean canProvide() {
-        if (lastFrame == null) {
-            lastFrame = audioPlayer.provide();
+        if (clipSource != null && clipSource.isSuspended()) {
+            return false;
+        }
+
+        if (nextFrame == null) {
+            nextFrame = poll();
+        }
+
+        //Not providing makes JDA send its silence marker and stop sending.
+        if (nextFrame == OpusClip.SILENCE) {
+            nextFrame = null;
+            onFrameSuppressed();
+            return false;
+        }
+
+        if (nextFrame == null && clipSource != null && clipSource.isExpectingAudio()) {
+            clipSource.getPlaybackMetrics().onFrameMissed();
         }
 
-        return lastFrame != null;
+        return nextFrame != null;
     }
 
     /**
      * @return the audio frame data as a byte array, or {@code null}
-     * if no audio can be provided.
+     * if no audio can be provided. The array is reused for later
+     * frames of the same length.
      */
     @Override
     public byte[] provide20MsAudio() {
-        if (lastFrame == null) {
-            lastFrame = audioPlayer.provide();
+        byte[] data = (nextFrame != null) ? nextFrame : poll();
+        nextFrame = null;
+        lastIsOpus = nextIsOpus;
+
+        if (data == OpusClip.SILENCE) {
+            data = null;
         }
 
-        byte[] data = lastFrame != null ? lastFrame.getData() : null;
-        lastFrame = null;
+        if (data != null) {
+            onFrameProvided();
+        }
 
         return data;
     }
 
     /**
-     * @return {@code true}.
+     * @return {@code true} if the last frame provided is
+     * Opus, {@code false} if it's mixed PCM for JDA to encode.
      */
     @Override
     public boolean isOpus() {
-        return true;
+        return lastIsOpus;
+    }
+
+    /**
+     * Gets the next frame. When overlays are playing their
+     * frames are mixed with the guild players frame. When
+     * only one source has a frame it's passed through as
+     * Opus without being decoded.
+     *
+     * @return the next frame, {@link OpusClip#SILENCE} if
+     * the guild players clip is silent and nothing is mixed
+     * over it, or {@code null} if there's none.
+     */
+    private byte[] poll() {
+        byte[] main = pollMain();
+        nextIsOpus = true;
+
+        if (clipSource == null || !clipSource.hasOverlays()) {
+            releaseMainDecoder();
+            return main;
+        }
+
+        //Overlays play over the silence.
+        boolean silent = main == OpusClip.SILENCE;
+        if (silent) {
+            main = null;
+        }
+
+        int count = 0;
+        for (Overlay overlay : clipSource.getOverlays()) {
+            byte[] data = (count < overlayFrames.length) ? overlay.provide() : null;
+
+            if (data != null) {
+                overlaySources[count] = overlay;
+                overlayFrames[count++] = data;
+            }
+        }
+
+        clipSource.removeFinishedOverlays();
+        byte[] frame = main;
+
+        if (count == 1 && main == null) {
+            frame = overlayFrames[0];
+        } else if (count > 0) {
+            mixer.begin();
+
+            if (main != null) {
+                if (mainDecoder == null) {
+                    mainDecoder = FrameMixer.createDecoder();
+                }
+
+                mixer.add(mainDecoder, main);
+            }
+
+            for (int i = 0; i < count; i++) {
+                overlaySources[i].mixInto(mixer, overlayFrames[i]);
+            }
+
+            frame = mixer.finish();
+            nextIsOpus = false;
+        }
+
+        //Don't hold on to finished overlays.
+        for (int i = 0; i < count; i++) {
+            overlaySources[i] = null;
+            overlayFrames[i] = null;
+        }
+
+        return (frame == null && silent) ? OpusClip.SILENCE : frame;
+    }
+
+    /**
+     * @return the guild players next Opus frame: its clip or
+     * broadcast frame if it's playing one, otherwise the audio
+     * players frame. {@code null} if there's none.
+     */
+    private byte[] pollMain() {
+        if (clipSource != null) {
+            byte[] clipFrame = clipSource.provideSharedFrame();
+
+            if (clipFrame != null) {
+                return clipFrame;
+            }
+        }
+
+        if (!audioPlayer.provide(frame)) {
+            return null;
+        }
+
+        byte[] data = arrays.get(frame.getDataLength());
+        frame.getData(data, 0);
+        return data;
+    }
+
+    /**
+     * Releases the decoder of the guild players audio
+     * once there's nothing to mix it with.
+     */
+    private void releaseMainDecoder() {
+        if (mainDecoder != null) {
+            mainDecoder.close();
+            mainDecoder = null;
+        }
+    }
+
+    /**
+     * Records a silent frame being skipped in the guild
+     * players metrics.
+     */
+    private void onFrameSuppressed() {
+        if (clipSource != null) {
+            clipSource.getPlaybackMetrics().onFrameSuppressed();
+        }
+    }
+
+    /**
+     * Records a frame being sent in the guild players metrics.
+     */
+    private void onFrameProvided() {
+        if (clipSource != null) {
+            clipSource.getPlaybackMetrics().onFrameProvided();
+        }
     }
 }
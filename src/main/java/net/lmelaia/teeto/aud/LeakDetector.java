@@ -0,0 +1,255 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.lmelaia.teeto.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches audio objects for leaks without forcing
+ * garbage collection.
+ * <p>
+ * Objects are tracked weakly and marked released once the
+ * bot is done with them (a track is replaced, a player is
+ * destroyed). Released objects still reachable long after
+ * several natural garbage collections would have freed them
+ * are counted as retained. The counts and the heap used after
+ * the last collection are sampled periodically, and a warning
+ * is logged if retained objects keep growing.
+ */
+final class LeakDetector {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * How often counts are sampled, in minutes.
+     */
+    private static final long SAMPLE_INTERVAL = 5;
+
+    /**
+     * How long a released object can stay reachable before
+     * it's counted as retained, in milliseconds.
+     */
+    private static final long RETAIN_GRACE = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Number of consecutive growing samples reported as a leak.
+     */
+    private static final int GROWTH_SAMPLES = 6;
+
+    /**
+     * The kinds of tracked objects.
+     */
+    enum Kind {
+        TRACK,
+        PLAYER
+    }
+
+    /**
+     * Objects currently tracked.
+     */
+    private final Set<Handle> tracked = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Queue collected objects are reported to.
+     */
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    /**
+     * Total retained objects at the latest samples, oldest first.
+     */
+    private final Deque<Integer> history = new ArrayDeque<>();
+
+    /**
+     * Retained object counts at the latest sample.
+     */
+    private volatile Map<Kind, Integer> retained = new EnumMap<>(Kind.class);
+
+    /**
+     * Samples the counts.
+     */
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "audio-leak-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a new leak detector and starts sampling.
+     */
+    LeakDetector(){
+        sampler.scheduleWithFixedDelay(this::sample, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Starts tracking an object.
+     *
+     * @param object the object.
+     * @param kind the kind of object.
+     * @return the handle used to mark the object released.
+     */
+    Handle track(Object object, Kind kind){
+        //Looped tracks are tracked every restart, so don't wait for the sample to drop collected ones.
+        expunge();
+        Handle handle = new Handle(object, kind, collected);
+        tracked.add(handle);
+        return handle;
+    }
+
+    /**
+     * @param kind the kind of object.
+     * @return the number of objects of the kind still
+     * reachable long after being released, at the
+     * latest sample.
+     */
+    int getRetainedCount(Kind kind){
+        return retained.getOrDefault(kind, 0);
+    }
+
+    /**
+     * Counts retained objects, logs the counts and warns if
+     * they've grown over the last samples.
+     */
+    private void sample(){
+        expunge();
+        long now = System.currentTimeMillis();
+        Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+        int total = 0;
+
+        for(Handle handle : tracked){
+            long released = handle.released;
+
+            if(released != 0 && now - released > RETAIN_GRACE){
+                counts.merge(handle.kind, 1, Integer::sum);
+                total++;
+            }
+        }
+
+        retained = counts;
+        long heap = getHeapUsedAfterGC();
+        LOG.debug("Audio objects tracked: " + tracked.size() + ", retained: " + counts
+                + ", heap after GC: " + heap / (1024 * 1024) + "MB");
+
+        history.addLast(total);
+        if(history.size() > GROWTH_SAMPLES)
+            history.removeFirst();
+
+        if(history.size() == GROWTH_SAMPLES && isGrowing()){
+            LOG.warn("Possible audio memory leak. Retained objects grew over the last "
+                    + GROWTH_SAMPLES * SAMPLE_INTERVAL + " minutes: " + counts
+                    + ", heap after GC: " + heap / (1024 * 1024) + "MB");
+        }
+    }
+
+    /**
+     * Stops tracking objects that have been collected.
+     */
+    private void expunge(){
+        Reference<?> reference;
+        while((reference = collected.poll()) != null)
+            //noinspection SuspiciousMethodCalls
+            tracked.remove(reference);
+    }
+
+    /**
+     * @return {@code true} if each sample in the history is
+     * larger than the one before.
+     */
+    private boolean isGrowing(){
+        int previous = -1;
+
+        for(int count : history){
+            if(count <= previous)
+                return false;
+            previous = count;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return bytes of heap in use after the last garbage
+     * collection of each heap pool.
+     */
+    private static long getHeapUsedAfterGC(){
+        long used = 0;
+
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            MemoryUsage usage = pool.getCollectionUsage();
+
+            if(pool.getType() == MemoryType.HEAP && usage != null)
+                used += usage.getUsed();
+        }
+
+        return used;
+    }
+
+    /**
+     * A weakly tracked object.
+     */
+    static final class Handle extends WeakReference<Object> {
+
+        /**
+         * The kind of object.
+         */
+        private final Kind kind;
+
+        /**
+         * Time the object was released, in milliseconds, or
+         * {@code 0} if still in use.
+         */
+        private volatile long released;
+
+        /**
+         * @param object the object.
+         * @param kind the kind of object.
+         * @param queue queue to report collection to.
+         */
+        private Handle(Object object, Kind kind, ReferenceQueue<Object> queue){
+            super(object, queue);
+            this.kind = kind;
+        }
+
+        /**
+         * Marks the object as no longer used by the bot.
+         */
+        void release(){
+            if(released == 0)
+                released = System.currentTimeMillis();
+        }
+    }
+}
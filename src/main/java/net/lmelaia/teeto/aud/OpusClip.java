@@ -0,0 +1,336 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An audio file encoded once into Opus frames, ready
+ * to be sent to discord as is.
+ * <p>
+ * Clips are kept in a simple container, either on the
+ * heap or memory mapped from a {@code .opc} file made
+ * by {@link ClipTranscoder}. The container (big endian) is:
+ * <pre>
+ * int    magic ("TOPC")
+ * int    version
+ * int    frame count
+ * int[]  frame index (offset of each frame)
+ * byte[] silence bitmap, one bit per frame (version 2)
+ * frames (unsigned short length, Opus data)
+ * </pre>
+ * Silent frames (see {@link SilenceDetector}) are found
+ * once, when the clip is encoded, and read back as
+ * {@link #SILENCE} so they're never sent. Version 1
+ * containers have no bitmap and no silent frames.
+ * <p>
+ * Clips are immutable and shared by every guild playing
+ * the audio file. Each guild reads through a clip with
+ * its own {@link Cursor}.
+ */
+final class OpusClip {
+
+    /**
+     * Container magic number ("TOPC").
+     */
+    static final int MAGIC = 0x544F5043;
+
+    /**
+     * Container format version.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Returned by cursors in place of a silent frame.
+     * Never sent.
+     */
+    static final byte[] SILENCE = new byte[0];
+
+    /**
+     * File extension of clip files.
+     */
+    static final String EXTENSION = ".opc";
+
+    /**
+     * Size of the container header in bytes.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The container.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * The number of frames in the clip.
+     */
+    private final int frameCount;
+
+    /**
+     * Offset of the silence bitmap or -1 if the
+     * container has none.
+     */
+    private final int silenceOffset;
+
+    /**
+     * The number of silent frames in the clip.
+     */
+    private final int silentFrameCount;
+
+    /**
+     * Constructs a clip from a container.
+     *
+     * @param data the container.
+     * @throws IOException if the container is malformed.
+     */
+    private OpusClip(ByteBuffer data) throws IOException {
+        if(data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC)
+            throw new IOException("Not an Opus clip");
+
+        int version = data.getInt(4);
+        if(version != 1 && version != VERSION)
+            throw new IOException("Unsupported Opus clip version: " + version);
+
+        this.data = data;
+        this.frameCount = data.getInt(8);
+
+        if(frameCount < 0 || HEADER_SIZE + (long) frameCount * 4
+                + ((version == 1) ? 0 : getBitmapSize(frameCount)) > data.limit())
+            throw new IOException("Malformed Opus clip index");
+
+        this.silenceOffset = (version == 1) ? -1 : HEADER_SIZE + frameCount * 4;
+        int silent = 0;
+
+        for(int i = 0; silenceOffset >= 0 && i < frameCount; i++){
+            if(isSilent(i))
+                silent++;
+        }
+
+        this.silentFrameCount = silent;
+
+        for(int i = 0; i < frameCount; i++){
+            int offset = data.getInt(HEADER_SIZE + i * 4);
+
+            if(offset < HEADER_SIZE || offset + 2 > data.limit()
+                    || offset + 2 + (data.getShort(offset) & 0xFFFF) > data.limit()
+                    || (data.getShort(offset) & 0xFFFF) > FrameArrays.MAX_FRAME_SIZE)
+                throw new IOException("Malformed Opus clip frame: " + i);
+        }
+    }
+
+    /**
+     * Creates a clip on the heap from encoded frames,
+     * finding its silent frames.
+     *
+     * @param frames the Opus frames in order.
+     * @return the clip.
+     */
+    static OpusClip fromFrames(List<byte[]> frames){
+        try {
+            return new OpusClip(toContainer(frames, SilenceDetector.detect(frames)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Memory maps a clip file. The frames stay in the
+     * page cache rather than on the heap.
+     *
+     * @param file the clip file.
+     * @return the clip.
+     * @throws IOException if the file can't be mapped or
+     * is malformed.
+     */
+    static OpusClip map(File file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            return new OpusClip(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes encoded frames into a new container.
+     *
+     * @param frames the Opus frames in order.
+     * @param silent indexes of the silent frames.
+     * @return the container, positioned at the start.
+     */
+    static ByteBuffer toContainer(List<byte[]> frames, BitSet silent){
+        int size = HEADER_SIZE + frames.size() * 4 + getBitmapSize(frames.size());
+
+        for(byte[] frame : frames){
+            if(frame.length > FrameArrays.MAX_FRAME_SIZE)
+                throw new IllegalArgumentException("Opus frame too large: " + frame.length);
+            size += 2 + frame.length;
+        }
+
+        ByteBuffer container = ByteBuffer.allocate(size);
+        container.putInt(MAGIC).putInt(VERSION).putInt(frames.size());
+
+        int offset = HEADER_SIZE + frames.size() * 4 + getBitmapSize(frames.size());
+        for(byte[] frame : frames){
+            container.putInt(offset);
+            offset += 2 + frame.length;
+        }
+
+        byte[] bitmap = new byte[getBitmapSize(frames.size())];
+        for(int i = silent.nextSetBit(0); i >= 0 && i < frames.size(); i = silent.nextSetBit(i + 1))
+            bitmap[i >> 3] |= 1 << (i & 7);
+        container.put(bitmap);
+
+        for(byte[] frame : frames)
+            container.putShort((short) frame.length).put(frame);
+
+        container.flip();
+        return container;
+    }
+
+    /**
+     * @return the number of frames in the clip.
+     */
+    int getFrameCount(){
+        return frameCount;
+    }
+
+    /**
+     * @return the number of silent frames in the clip.
+     */
+    int getSilentFrameCount(){
+        return silentFrameCount;
+    }
+
+    /**
+     * @return {@code true} if the clips silent frames have
+     * been found, {@code false} for version 1 containers.
+     */
+    boolean hasSilenceBitmap(){
+        return silenceOffset >= 0;
+    }
+
+    /**
+     * @param frame index of a frame.
+     * @return {@code true} if the frame is silent.
+     */
+    boolean isSilent(int frame){
+        return silenceOffset >= 0 && (data.get(silenceOffset + (frame >> 3)) & (1 << (frame & 7))) != 0;
+    }
+
+    /**
+     * @param frameCount the number of frames.
+     * @return size of the silence bitmap in bytes.
+     */
+    private static int getBitmapSize(int frameCount){
+        return (frameCount + 7) / 8;
+    }
+
+    /**
+     * @return the size of the container in bytes.
+     */
+    long getSize(){
+        return data.limit();
+    }
+
+    /**
+     * @return {@code true} if the clip is memory mapped.
+     */
+    boolean isMapped(){
+        return data.isDirect();
+    }
+
+    /**
+     * @return a new cursor at the start of the clip.
+     */
+    Cursor cursor(){
+        return new Cursor(this);
+    }
+
+    /**
+     * Position of a single guild within a clip. Wraps
+     * back to the start once the end is reached, so
+     * the clip loops without a gap.
+     * <p>
+     * Frames are copied out of the container into the
+     * cursors {@link FrameArrays}.
+     */
+    static final class Cursor {
+
+        /**
+         * The clip being read.
+         */
+        private final OpusClip clip;
+
+        /**
+         * The cursors own view of the container.
+         */
+        private final ByteBuffer view;
+
+        /**
+         * Reusable frame arrays.
+         */
+        private final FrameArrays arrays = new FrameArrays();
+
+        /**
+         * Index of the next frame.
+         */
+        private int position;
+
+        /**
+         * @param clip the clip to read.
+         */
+        private Cursor(OpusClip clip){
+            this.clip = clip;
+            this.view = clip.data.duplicate();
+        }
+
+        /**
+         * @return {@code true} if the clip has any frames.
+         */
+        boolean hasFrames(){
+            return clip.frameCount != 0;
+        }
+
+        /**
+         * Returns the next frame. The returned array is
+         * reused by later calls.
+         *
+         * @return the next Opus frame or {@link #SILENCE}
+         * if it's silent.
+         */
+        byte[] next(){
+            if(clip.isSilent(position)){
+                position = (position + 1) % clip.frameCount;
+                return SILENCE;
+            }
+
+            int offset = view.getInt(HEADER_SIZE + position * 4);
+            int length = view.getShort(offset) & 0xFFFF;
+
+            byte[] frame = arrays.get(length);
+            view.position(offset + 2);
+            view.get(frame);
+
+            position = (position + 1) % clip.frameCount;
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sedmelluq.discord.lavaplayer.natives.opus.OpusDecoder;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A short track played over whatever the guild
+ * player is playing (e.g. a soundboard clip).
+ * <p>
+ * Plays on its own internal player, whose Opus frames
+ * are either sent as they are, when nothing else is
+ * playing, or decoded with the overlays own decoder and
+ * mixed by the send handler.
+ */
+final class Overlay {
+
+    /**
+     * Size of the reusable frame buffer in bytes.
+     */
+    private static final int FRAME_BUFFER_SIZE = 4096;
+
+    /**
+     * The internal player the overlay plays on.
+     */
+    private final com.sedmelluq.discord.lavaplayer.player.AudioPlayer player;
+
+    /**
+     * Reusable frame the player provides into.
+     */
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+
+    /**
+     * Reusable arrays frames are returned in.
+     */
+    private final FrameArrays arrays = new FrameArrays();
+
+    /**
+     * Decoder of the overlays frames. Created when
+     * the overlay is first mixed.
+     */
+    private OpusDecoder decoder;
+
+    /**
+     * Set once the overlay is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Starts playing the track as an overlay.
+     *
+     * @param manager the player manager.
+     * @param track the track. Must not have been played.
+     */
+    Overlay(AudioPlayerManager manager, AudioTrack track){
+        this.player = manager.createPlayer();
+        this.frame.setBuffer(ByteBuffer.allocate(FRAME_BUFFER_SIZE));
+        this.player.playTrack(track);
+    }
+
+    /**
+     * @return the overlays next Opus frame or {@code null}
+     * if it has none (yet). The array is reused for later
+     * frames of the same length.
+     */
+    synchronized byte[] provide(){
+        if(closed || !player.provide(frame))
+            return null;
+
+        byte[] data = arrays.get(frame.getDataLength());
+        frame.getData(data, 0);
+        return data;
+    }
+
+    /**
+     * Decodes one of the overlays frames into the mix.
+     *
+     * @param mixer the mixer.
+     * @param data a frame from {@link #provide()}.
+     */
+    synchronized void mixInto(FrameMixer mixer, byte[] data){
+        if(closed)
+            return;
+
+        if(decoder == null)
+            decoder = FrameMixer.createDecoder();
+
+        mixer.add(decoder, data);
+    }
+
+    /**
+     * @return {@code true} if the overlay has finished
+     * playing or has been closed.
+     */
+    boolean isFinished(){
+        return closed || player.getPlayingTrack() == null;
+    }
+
+    /**
+     * Stops the overlay and releases its player and decoder.
+     * Does nothing if already closed.
+     */
+    synchronized void close(){
+        if(closed)
+            return;
+
+        closed = true;
+        player.destroy();
+
+        if(decoder != null)
+            decoder.close();
+    }
+}
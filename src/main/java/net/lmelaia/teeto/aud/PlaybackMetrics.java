@@ -0,0 +1,328 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Playback health of a guilds audio player.
+ * <p>
+ * Counts frames sent and frames missed while something was
+ * meant to be playing, and records underruns (runs of missed
+ * frames), the time from starting playback to the first frame,
+ * the gap when a looped track restarts and the gap when a
+ * playlist moves on to its next track. Silent clip frames
+ * that are skipped rather than sent are counted apart from
+ * sent frames, but otherwise treated as sent (they keep
+ * time). Updated by the send
+ * handler on every frame, so everything is kept to plain
+ * counters and fixed size histograms.
+ */
+public final class PlaybackMetrics {
+
+    /**
+     * Frames sent.
+     */
+    private volatile long providedFrames;
+
+    /**
+     * Frames that weren't ready while playing.
+     */
+    private volatile long missedFrames;
+
+    /**
+     * Number of underruns.
+     */
+    private volatile long underruns;
+
+    /**
+     * Silent frames skipped instead of sent.
+     */
+    private volatile long suppressedFrames;
+
+    /**
+     * Missed frames in the current underrun.
+     */
+    private int missedStreak;
+
+    /**
+     * Time playback was started, in nanoseconds, or
+     * {@code 0} once the first frame has been sent.
+     */
+    private volatile long playStarted;
+
+    /**
+     * Time a looped track was restarted, in nanoseconds,
+     * or {@code 0} once the first frame has been sent.
+     */
+    private volatile long loopRestarted;
+
+    /**
+     * Time a playlist track ended, in nanoseconds,
+     * or {@code 0} once the next track's first frame
+     * has been sent.
+     */
+    private volatile long trackChanged;
+
+    /**
+     * Time the last frame was sent, in nanoseconds.
+     */
+    private volatile long lastFrame;
+
+    /**
+     * Lengths of underruns, in frames.
+     */
+    private final Histogram underrunLengths = new Histogram();
+
+    /**
+     * Times from starting playback to the first frame, in milliseconds.
+     */
+    private final Histogram firstFrameTimes = new Histogram();
+
+    /**
+     * Silence between the end of a looped track and
+     * its restart, in milliseconds.
+     */
+    private final Histogram loopGaps = new Histogram();
+
+    /**
+     * Silence between the end of a playlist track and
+     * the start of the next one, in milliseconds.
+     */
+    private final Histogram transitionGaps = new Histogram();
+
+    /**
+     * Marks playback as started.
+     */
+    void onPlay(){
+        playStarted = System.nanoTime();
+        loopRestarted = 0;
+    }
+
+    /**
+     * Marks a looped track as restarted.
+     */
+    void onLoopRestart(){
+        loopRestarted = lastFrame;
+    }
+
+    /**
+     * Marks a playlist track as ended. The gap is recorded
+     * when the next frame is sent.
+     */
+    void onTrackTransition(){
+        if(trackChanged == 0)
+            trackChanged = lastFrame;
+    }
+
+    /**
+     * Records a frame being sent.
+     */
+    void onFrameProvided(){
+        onFrameReady();
+        providedFrames++;
+    }
+
+    /**
+     * Records a silent frame being skipped instead of sent.
+     */
+    void onFrameSuppressed(){
+        onFrameReady();
+        suppressedFrames++;
+    }
+
+    /**
+     * Records a frame being ready in time, ending any
+     * underrun and recording any gap it ends.
+     */
+    private void onFrameReady(){
+        long now = System.nanoTime();
+
+        if(missedStreak > 0){
+            underruns++;
+            underrunLengths.record(missedStreak);
+            missedStreak = 0;
+        }
+
+        long started = playStarted;
+        if(started != 0){
+            firstFrameTimes.record((now - started) / 1000000);
+            playStarted = 0;
+        }
+
+        long restarted = loopRestarted;
+        if(restarted != 0){
+            //One frame interval is expected between frames.
+            loopGaps.record(Math.max(0, (now - restarted) / 1000000 - 20));
+            loopRestarted = 0;
+        }
+
+        long changed = trackChanged;
+        if(changed != 0){
+            transitionGaps.record(Math.max(0, (now - changed) / 1000000 - 20));
+            trackChanged = 0;
+        }
+
+        lastFrame = now;
+    }
+
+    /**
+     * Records a frame not being ready while playing.
+     */
+    void onFrameMissed(){
+        missedStreak++;
+        missedFrames++;
+    }
+
+    /**
+     * @return frames sent.
+     */
+    public long getProvidedFrames(){
+        return providedFrames;
+    }
+
+    /**
+     * @return silent frames skipped instead of sent.
+     */
+    public long getSuppressedFrames(){
+        return suppressedFrames;
+    }
+
+    /**
+     * @return frames that weren't ready while playing.
+     */
+    public long getMissedFrames(){
+        return missedFrames;
+    }
+
+    /**
+     * @return number of underruns (runs of missed frames).
+     */
+    public long getUnderruns(){
+        return underruns;
+    }
+
+    /**
+     * @return lengths of underruns, in frames.
+     */
+    public Histogram getUnderrunLengths(){
+        return underrunLengths;
+    }
+
+    /**
+     * @return times from starting playback to the first
+     * frame, in milliseconds.
+     */
+    public Histogram getFirstFrameTimes(){
+        return firstFrameTimes;
+    }
+
+    /**
+     * @return gaps when looped tracks restart, in milliseconds.
+     */
+    public Histogram getLoopGaps(){
+        return loopGaps;
+    }
+
+    /**
+     * @return gaps when playlists move on to their next
+     * track, in milliseconds.
+     */
+    public Histogram getTransitionGaps(){
+        return transitionGaps;
+    }
+
+    /**
+     * Adds another players metrics to these.
+     *
+     * @param other the other players metrics.
+     */
+    void add(PlaybackMetrics other){
+        providedFrames += other.providedFrames;
+        missedFrames += other.missedFrames;
+        underruns += other.underruns;
+        suppressedFrames += other.suppressedFrames;
+        underrunLengths.add(other.underrunLengths);
+        firstFrameTimes.add(other.firstFrameTimes);
+        loopGaps.add(other.loopGaps);
+        transitionGaps.add(other.transitionGaps);
+    }
+
+    /**
+     * Histogram with power of two buckets. Bucket {@code n}
+     * holds values up to {@code 2^n}.
+     */
+    public static final class Histogram {
+
+        /**
+         * Number of buckets.
+         */
+        private static final int BUCKETS = 32;
+
+        /**
+         * Counts to buckets.
+         */
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        /**
+         * @param value the value to record.
+         */
+        void record(long value){
+            int bucket = (value <= 1) ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+            counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        /**
+         * @param other histogram whose counts to add.
+         */
+        void add(Histogram other){
+            for(int i = 0; i < BUCKETS; i++)
+                counts.addAndGet(i, other.counts.get(i));
+        }
+
+        /**
+         * @return the number of recorded values.
+         */
+        public long getCount(){
+            long count = 0;
+
+            for(int i = 0; i < BUCKETS; i++)
+                count += counts.get(i);
+
+            return count;
+        }
+
+        /**
+         * @param percentile the percentile (0-100).
+         * @return the upper bound of the bucket holding the
+         * percentile, or {@code 0} if nothing was recorded.
+         */
+        public long getPercentile(double percentile){
+            long count = getCount();
+            long seen = 0;
+
+            for(int i = 0; i < BUCKETS && count > 0; i++){
+                seen += counts.get(i);
+
+                if(seen >= Math.ceil(count * percentile / 100))
+                    return 1L << i;
+            }
+
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import net.lmelaia.teeto.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Plays a guilds playlist, in order or shuffled, over
+ * and over.
+ * <p>
+ * Frames are read by the send handler like a looped
+ * clip. While a track plays the next one is prepared in
+ * the background: an encoded clip just gets a cursor, any
+ * other file is loaded and started on its own paused
+ * internal player, so its first frames are decoded and
+ * buffered before it's needed. When the current track
+ * runs out the next one is switched to within the same
+ * frame, so nothing is loaded or decoded on the frame
+ * thread and there's no gap.
+ */
+final class Playlist {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * The audio manager.
+     */
+    private final AudioManager manager;
+
+    /**
+     * Player manager used to load and decode tracks.
+     */
+    private final AudioPlayerManager playerManager;
+
+    /**
+     * The audio files in the playlist.
+     */
+    private final AudioFile[] files;
+
+    /**
+     * {@code true} if the playlist is shuffled.
+     */
+    private final boolean shuffle;
+
+    /**
+     * The guild players metrics.
+     */
+    private final PlaybackMetrics metrics;
+
+    /**
+     * Order the files are played in this cycle.
+     */
+    private final int[] order;
+
+    /**
+     * Position in {@link #order} of the next file to prepare.
+     */
+    private int position;
+
+    /**
+     * The track playing, or {@code null} while waiting
+     * for the next track to be ready.
+     */
+    private Source current;
+
+    /**
+     * The next track, prepared in the background, or
+     * {@code null} if not ready yet.
+     */
+    private Source next;
+
+    /**
+     * Set once the playlist is closed.
+     */
+    private boolean closed;
+
+    /**
+     * Starts the playlist, preparing its first two tracks.
+     *
+     * @param manager the audio manager.
+     * @param playerManager player manager used to load and decode tracks.
+     * @param files the audio files. Must not be empty.
+     * @param shuffle {@code true} to shuffle the playlist.
+     * @param metrics the guild players metrics.
+     */
+    Playlist(AudioManager manager, AudioPlayerManager playerManager, List<AudioFile> files,
+             boolean shuffle, PlaybackMetrics metrics){
+        this.manager = manager;
+        this.playerManager = playerManager;
+        this.files = files.toArray(new AudioFile[0]);
+        this.shuffle = shuffle;
+        this.metrics = metrics;
+        this.order = new int[this.files.length];
+
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        if(shuffle)
+            shuffle(-1);
+
+        prepareNext();
+    }
+
+    /**
+     * Returns the next frame, moving on to the next track
+     * when the current one has ended. Called on the frame
+     * thread.
+     *
+     * @return the next Opus frame or {@code null} if none
+     * is ready. The array is reused by later calls.
+     */
+    synchronized byte[] next(){
+        if(closed)
+            return null;
+
+        if(current != null){
+            byte[] frame = current.next();
+
+            if(frame != null || !current.isFinished())
+                return frame;
+
+            current.close();
+            current = null;
+            metrics.onTrackTransition();
+        }
+
+        if(next == null)
+            return null;
+
+        current = next;
+        next = null;
+        current.start();
+        prepareNext();
+        return current.next();
+    }
+
+    /**
+     * @return the audio file playing or {@code null}
+     * if between tracks.
+     */
+    synchronized AudioFile getCurrentFile(){
+        return (current == null) ? null : current.file;
+    }
+
+    /**
+     * Stops the playlist and releases its players.
+     */
+    synchronized void close(){
+        closed = true;
+
+        if(current != null)
+            current.close();
+
+        if(next != null)
+            next.close();
+
+        current = null;
+        next = null;
+    }
+
+    /**
+     * Prepares the next file in the background.
+     */
+    private void prepareNext(){
+        if(position == order.length){
+            position = 0;
+
+            if(shuffle)
+                shuffle(order[order.length - 1]);
+        }
+
+        AudioFile file = files[order[position++]];
+        manager.prefetch(() -> {
+            Source source;
+
+            try {
+                source = prepare(file);
+            } catch (RuntimeException e) {
+                LOG.error("Failed to prepare playlist track: " + file.getId(), e);
+                source = new Source(file, playerManager.createPlayer());
+                source.fail();
+            }
+
+            synchronized (this){
+                if(closed)
+                    source.close();
+                else
+                    next = source;
+            }
+        });
+    }
+
+    /**
+     * Creates the source for a file: a cursor if it's been
+     * encoded, otherwise a paused player decoding its track.
+     *
+     * @param file the audio file.
+     * @return the prepared source.
+     */
+    private Source prepare(AudioFile file){
+        OpusClip clip = manager.getClip(file);
+
+        if(clip != null && clip.getFrameCount() > 0)
+            return new Source(file, clip);
+
+        Source source = new Source(file, playerManager.createPlayer());
+        AudioTrack prototype = manager.getPrototype(file);
+
+        if(prototype != null){
+            source.load(prototype.makeClone());
+            return source;
+        }
+
+        String identifier = file.getAudioFile().getAbsolutePath();
+        playerManager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                source.load(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                LOG.warn("Cannot play playlist in guild playlist: " + identifier);
+                source.fail();
+            }
+
+            @Override
+            public void noMatches() {
+                LOG.warn("Audio resource not found: " + identifier);
+                source.fail();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                LOG.error("Failed to load playlist track: " + identifier, exception);
+                source.fail();
+            }
+        });
+
+        return source;
+    }
+
+    /**
+     * Shuffles the play order, keeping the last file played
+     * from being played again straight away.
+     *
+     * @param last index of the file played last or -1.
+     */
+    private void shuffle(int last){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for(int i = order.length - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        if(order.length > 1 && order[0] == last){
+            order[0] = order[1];
+            order[1] = last;
+        }
+    }
+
+    /**
+     * A track of the playlist: either a cursor over an
+     * encoded clip, played once, or an internal player.
+     */
+    private static final class Source {
+
+        /**
+         * Size of the reusable frame buffer in bytes.
+         */
+        private static final int FRAME_BUFFER_SIZE = 4096;
+
+        /**
+         * The audio file.
+         */
+        private final AudioFile file;
+
+        /**
+         * Cursor over the clip or {@code null}.
+         */
+        private final OpusClip.Cursor cursor;
+
+        /**
+         * Frames in the clip.
+         */
+        private final int frameCount;
+
+        /**
+         * The internal player or {@code null}.
+         */
+        private final com.sedmelluq.discord.lavaplayer.player.AudioPlayer player;
+
+        /**
+         * Reusable frame the player provides into.
+         */
+        private final MutableAudioFrame frame;
+
+        /**
+         * Reusable arrays the players frames are returned in.
+         */
+        private final FrameArrays arrays;
+
+        /**
+         * Clip frames played.
+         */
+        private int played;
+
+        /**
+         * Set once the players track is loaded.
+         */
+        private volatile boolean loaded;
+
+        /**
+         * Set if the players track can't be loaded.
+         */
+        private volatile boolean failed;
+
+        /**
+         * @param file the audio file.
+         * @param clip the files encoded clip.
+         */
+        private Source(AudioFile file, OpusClip clip){
+            this.file = file;
+            this.cursor = clip.cursor();
+            this.frameCount = clip.getFrameCount();
+            this.player = null;
+            this.frame = null;
+            this.arrays = null;
+        }
+
+        /**
+         * @param file the audio file.
+         * @param player the internal player to play the track on.
+         */
+        private Source(AudioFile file, com.sedmelluq.discord.lavaplayer.player.AudioPlayer player){
+            this.file = file;
+            this.cursor = null;
+            this.frameCount = 0;
+            this.player = player;
+            this.frame = new MutableAudioFrame();
+            this.arrays = new FrameArrays();
+            this.frame.setBuffer(ByteBuffer.allocate(FRAME_BUFFER_SIZE));
+            this.player.setPaused(true);
+        }
+
+        /**
+         * Starts the track on the paused player, so it
+         * starts decoding into its buffer.
+         *
+         * @param track the track. Must not have been played.
+         */
+        private void load(AudioTrack track){
+            player.playTrack(track);
+            loaded = true;
+        }
+
+        /**
+         * Marks the track as unplayable.
+         */
+        private void fail(){
+            failed = true;
+        }
+
+        /**
+         * Un-pauses the player.
+         */
+        private void start(){
+            if(player != null)
+                player.setPaused(false);
+        }
+
+        /**
+         * @return the next Opus frame or {@code null} if
+         * none is ready or the track has ended.
+         */
+        private byte[] next(){
+            if(cursor != null){
+                if(played >= frameCount)
+                    return null;
+
+                played++;
+                return cursor.next();
+            }
+
+            if(!player.provide(frame))
+                return null;
+
+            byte[] data = arrays.get(frame.getDataLength());
+            frame.getData(data, 0);
+            return data;
+        }
+
+        /**
+         * @return {@code true} once the track has ended
+         * or failed to load.
+         */
+        private boolean isFinished(){
+            if(cursor != null)
+                return played >= frameCount;
+
+            return failed || (loaded && player.getPlayingTrack() == null);
+        }
+
+        /**
+         * Releases the internal player, if any.
+         */
+        private void close(){
+            if(player != null)
+                player.destroy();
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonObject;
+import net.lmelaia.teeto.LogManager;
+import net.lmelaia.teeto.Teeto;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of remote audio files, bounded by total size
+ * and evicting the least recently played file first.
+ * <p>
+ * Remote identifiers (http and https URLs) are looked up by
+ * the SHA-256 of the identifier. On a miss the identifier is
+ * played remotely as before and the file is downloaded into
+ * the cache in the background, so the next play is from disk.
+ * Pages and streams (html, text or without a length) aren't
+ * cached, and are remembered for a while so they're played
+ * remotely without being requested again.
+ * <p>
+ * Each entry is a {@code <key>.dat} data file and a
+ * {@code <key>.json} metadata file holding the identifier,
+ * size and SHA-256 of the data. Both are written to temporary
+ * files and renamed into place, data first, so an entry only
+ * exists once its metadata does. Data is checked against its
+ * checksum in the background after startup, and an entry is
+ * only played from disk once it has been.
+ */
+final class RemoteTrackCache {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Extension of entry data files.
+     */
+    private static final String DATA_EXTENSION = ".dat";
+
+    /**
+     * Extension of entry metadata files.
+     */
+    private static final String META_EXTENSION = ".json";
+
+    /**
+     * Extension of files still being written.
+     */
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * Connect and read timeout of downloads, in milliseconds.
+     */
+    private static final int TIMEOUT = 10000;
+
+    /**
+     * How long an identifier found not to be cacheable is
+     * played remotely without asking again, in milliseconds.
+     */
+    static final long UNCACHEABLE_EXPIRY = 60 * 60 * 1000;
+
+    /**
+     * Most identifiers remembered as not cacheable.
+     */
+    private static final int MAX_UNCACHEABLE = 1024;
+
+    /**
+     * The cache folder.
+     */
+    private final File folder;
+
+    /**
+     * Most bytes kept on disk.
+     */
+    private final long maxBytes;
+
+    /**
+     * Largest single file cached, in bytes.
+     */
+    private final long maxEntryBytes;
+
+    /**
+     * Cache entries to keys, least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Keys of identifiers found not to be cacheable to when
+     * they may be tried again, oldest first.
+     */
+    private final LinkedHashMap<String, Long> uncacheable = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_UNCACHEABLE;
+        }
+    };
+
+    /**
+     * Keys being downloaded.
+     */
+    private final Set<String> fetching = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Downloads files into the cache and checks entries read
+     * on startup, one at a time.
+     */
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "remote-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Total size of the cached data, in bytes.
+     */
+    private long totalBytes;
+
+    /**
+     * Remote plays served from disk.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Remote plays not in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Remote plays of identifiers known not to be cacheable.
+     */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Bytes not downloaded thanks to hits.
+     */
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Opens the cache, dropping partly written and
+     * malformed entries, and checks the rest in the
+     * background.
+     *
+     * @param folder the cache folder.
+     * @param maxBytes the most bytes to keep on disk.
+     */
+    RemoteTrackCache(File folder, long maxBytes){
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 4;
+
+        //noinspection ResultOfMethodCallIgnored
+        folder.mkdirs();
+        load();
+    }
+
+    /**
+     * Gets the identifier to load. Remote identifiers that
+     * are cached are swapped for the cached file. Those that
+     * aren't are queued to be downloaded.
+     *
+     * @param identifier the identifier played.
+     * @return the path of the cached file or the given
+     * identifier.
+     */
+    String resolve(String identifier){
+        if(!isRemote(identifier))
+            return identifier;
+
+        String key = key(identifier);
+        Entry entry;
+
+        synchronized (this){
+            entry = entries.get(key);
+
+            if(entry == null && isUncacheable(key)){
+                skipped.incrementAndGet();
+                return identifier;
+            }
+        }
+
+        if(entry != null && entry.verified){
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(entry.size);
+            //noinspection ResultOfMethodCallIgnored
+            dataFile(key).setLastModified(System.currentTimeMillis());
+            return dataFile(key).getAbsolutePath();
+        }
+
+        misses.incrementAndGet();
+
+        //Entries still being checked are played remotely, not downloaded again.
+        if(entry == null && fetching.add(key))
+            fetcher.execute(() -> fetch(identifier, key));
+
+        return identifier;
+    }
+
+    /**
+     * @return remote plays served from disk.
+     */
+    long getHits(){
+        return hits.get();
+    }
+
+    /**
+     * @return remote plays not in the cache.
+     */
+    long getMisses(){
+        return misses.get();
+    }
+
+    /**
+     * @return remote plays of identifiers known not
+     * to be cacheable.
+     */
+    long getSkipped(){
+        return skipped.get();
+    }
+
+    /**
+     * @return bytes not downloaded thanks to hits.
+     */
+    long getBytesSaved(){
+        return bytesSaved.get();
+    }
+
+    /**
+     * @return total size of the cached data, in bytes.
+     */
+    synchronized long getSize(){
+        return totalBytes;
+    }
+
+    /**
+     * @param identifier an identifier.
+     * @return {@code true} if the identifier is an http
+     * or https URL.
+     */
+    static boolean isRemote(String identifier){
+        return identifier.startsWith("http://") || identifier.startsWith("https://");
+    }
+
+    /**
+     * Downloads a remote file into the cache. Run on the fetcher.
+     *
+     * @param identifier the URL.
+     * @param key the entry key.
+     */
+    private void fetch(String identifier, String key){
+        Path data = new File(folder, key + DATA_EXTENSION + TEMP_EXTENSION).toPath();
+        Path meta = new File(folder, key + META_EXTENSION + TEMP_EXTENSION).toPath();
+        HttpURLConnection connection = null;
+
+        try {
+            connection = (HttpURLConnection) new URL(identifier).openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setInstanceFollowRedirects(true);
+
+            String type = connection.getContentType();
+            long length = connection.getContentLengthLong();
+
+            if(connection.getResponseCode() != HttpURLConnection.HTTP_OK || !isCacheable(type, length)){
+                LOG.debug("Not caching remote audio: " + identifier + " (" + connection.getResponseCode()
+                        + ", " + type + ", " + length + " bytes)");
+                markUncacheable(key);
+                return;
+            }
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = 0;
+
+            try(InputStream in = connection.getInputStream(); OutputStream out = Files.newOutputStream(data)){
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while((read = in.read(buffer)) != -1){
+                    size += read;
+
+                    if(size > maxEntryBytes){
+                        markUncacheable(key);
+                        throw new IOException("Remote audio larger than " + maxEntryBytes + " bytes");
+                    }
+
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            if(size != length)
+                throw new IOException("Remote audio truncated: " + size + " of " + length + " bytes");
+
+            JsonObject metadata = new JsonObject();
+            metadata.addProperty("identifier", identifier);
+            metadata.addProperty("size", size);
+            metadata.addProperty("sha256", hex(digest.digest()));
+            metadata.addProperty("contentType", type);
+            Files.write(meta, Teeto.GSON.toJson(metadata).getBytes(StandardCharsets.UTF_8));
+
+            move(data, dataFile(key).toPath());
+            move(meta, metaFile(key).toPath());
+
+            synchronized (this){
+                Entry previous = entries.put(key, new Entry(size, metadata.get("sha256").getAsString(), true));
+
+                if(previous != null)
+                    totalBytes -= previous.size;
+
+                totalBytes += size;
+                evict();
+            }
+
+            LOG.info("Cached remote audio: " + identifier + " (" + size / 1024 + "KB)");
+        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+            LOG.warn("Failed to cache remote audio: " + identifier, e);
+        } finally {
+            if(connection != null)
+                connection.disconnect();
+
+            deleteQuietly(data);
+            deleteQuietly(meta);
+            fetching.remove(key);
+        }
+    }
+
+    /**
+     * Remembers that an identifier isn't cacheable, so
+     * it isn't requested again for a while.
+     *
+     * @param key the entry key.
+     */
+    private synchronized void markUncacheable(String key){
+        uncacheable.remove(key);
+        uncacheable.put(key, System.currentTimeMillis() + UNCACHEABLE_EXPIRY);
+    }
+
+    /**
+     * @param key an entry key.
+     * @return {@code true} if the identifier was recently
+     * found not to be cacheable.
+     */
+    private boolean isUncacheable(String key){
+        Long expiry = uncacheable.get(key);
+
+        if(expiry == null)
+            return false;
+
+        if(expiry > System.currentTimeMillis())
+            return true;
+
+        uncacheable.remove(key);
+        return false;
+    }
+
+    /**
+     * Checks an entries data against its checksum. Entries
+     * that don't match are removed. Run on the fetcher.
+     *
+     * @param key the entry key.
+     * @param entry the entry.
+     */
+    private void verify(String key, Entry entry){
+        //Evicted since it was read.
+        if(!dataFile(key).exists())
+            return;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            try(InputStream in = Files.newInputStream(dataFile(key).toPath())){
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while((read = in.read(buffer)) != -1)
+                    digest.update(buffer, 0, read);
+            }
+
+            if(hex(digest.digest()).equals(entry.checksum)){
+                entry.verified = true;
+                return;
+            }
+
+            LOG.warn("Cached remote audio failed its checksum: " + key + ". Removing it.");
+        } catch (IOException | NoSuchAlgorithmException e) {
+            LOG.warn("Failed to read cached remote audio: " + key + ". Removing it.", e);
+        }
+
+        synchronized (this){
+            if(entries.get(key) == entry){
+                entries.remove(key);
+                totalBytes -= entry.size;
+                delete(key);
+            }
+        }
+    }
+
+    /**
+     * Reads the entries in the cache folder, least recently
+     * used first, and deletes anything that isn't a complete
+     * entry.
+     */
+    private synchronized void load(){
+        File[] files = folder.listFiles();
+
+        if(files == null)
+            return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for(File file : files){
+            String name = file.getName();
+
+            if(name.endsWith(TEMP_EXTENSION) || (name.endsWith(DATA_EXTENSION)
+                    && !metaFile(name.substring(0, name.length() - DATA_EXTENSION.length())).exists())){
+                deleteQuietly(file.toPath());
+                continue;
+            }
+
+            if(!name.endsWith(DATA_EXTENSION))
+                continue;
+
+            String key = name.substring(0, name.length() - DATA_EXTENSION.length());
+
+            try(Reader reader = new FileReader(metaFile(key))){
+                JsonObject metadata = Teeto.GSON.fromJson(reader, JsonObject.class);
+                long size = metadata.get("size").getAsLong();
+
+                if(size != file.length())
+                    throw new IOException("Size mismatch");
+
+                entries.put(key, new Entry(size, metadata.get("sha256").getAsString(), false));
+                totalBytes += size;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Malformed remote audio cache entry: " + key + ". Removing it.", e);
+                delete(key);
+            }
+        }
+
+        //Metadata files whose data file is gone.
+        for(File file : files){
+            String name = file.getName();
+
+            if(name.endsWith(META_EXTENSION)
+                    && !entries.containsKey(name.substring(0, name.length() - META_EXTENSION.length())))
+                deleteQuietly(file.toPath());
+        }
+
+        evict();
+
+        //Most recently used first, as they're the likeliest to be played soon.
+        List<Map.Entry<String, Entry>> loaded = new ArrayList<>(entries.entrySet());
+        Collections.reverse(loaded);
+
+        for(Map.Entry<String, Entry> entry : loaded){
+            String key = entry.getKey();
+            Entry value = entry.getValue();
+            fetcher.execute(() -> verify(key, value));
+        }
+
+        LOG.info("Remote audio cache: " + entries.size() + " files, " + totalBytes / 1024 + "KB");
+    }
+
+    /**
+     * Removes the least recently used entries until
+     * the cache is within its size.
+     */
+    private void evict(){
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        while(totalBytes > maxBytes && iterator.hasNext()){
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue().size;
+            delete(eldest.getKey());
+            LOG.debug("Evicted cached remote audio: " + eldest.getKey());
+        }
+    }
+
+    /**
+     * Deletes an entries files, metadata first so a half
+     * deleted entry is never read back.
+     *
+     * @param key the entry key.
+     */
+    private void delete(String key){
+        deleteQuietly(metaFile(key).toPath());
+        deleteQuietly(dataFile(key).toPath());
+    }
+
+    /**
+     * @param key an entry key.
+     * @return the entries data file.
+     */
+    private File dataFile(String key){
+        return new File(folder, key + DATA_EXTENSION);
+    }
+
+    /**
+     * @param key an entry key.
+     * @return the entries metadata file.
+     */
+    private File metaFile(String key){
+        return new File(folder, key + META_EXTENSION);
+    }
+
+    /**
+     * @param type the content type or {@code null}.
+     * @param length the content length or -1.
+     * @return {@code true} if the response looks like a
+     * whole audio file small enough to cache.
+     */
+    private boolean isCacheable(String type, long length){
+        if(length <= 0 || length > maxEntryBytes)
+            return false;
+
+        return type == null || !(type.startsWith("text/") || type.contains("html") || type.contains("mpegurl"));
+    }
+
+    /**
+     * @param identifier an identifier.
+     * @return the entry key of the identifier.
+     */
+    private static String key(String identifier){
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(identifier.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes bytes.
+     * @return the bytes as lower case hex.
+     */
+    private static String hex(byte[] bytes){
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for(byte b : bytes)
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+        return builder.toString();
+    }
+
+    /**
+     * Renames a file over another, atomically if possible.
+     *
+     * @param from the file to rename.
+     * @param to the file to replace.
+     * @throws IOException reason for failure if any.
+     */
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a file if it exists, logging any failure.
+     *
+     * @param path the file.
+     */
+    private static void deleteQuietly(Path path){
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete: " + path, e);
+        }
+    }
+
+    /**
+     * A cached file.
+     */
+    private static final class Entry {
+
+        /**
+         * Size of the data, in bytes.
+         */
+        private final long size;
+
+        /**
+         * SHA-256 of the data, as hex.
+         */
+        private final String checksum;
+
+        /**
+         * Set once the data has been checked against
+         * the checksum.
+         */
+        private volatile boolean verified;
+
+        /**
+         * @param size size of the data, in bytes.
+         * @param checksum SHA-256 of the data, as hex.
+         * @param verified if the data is known to be intact.
+         */
+        private Entry(long size, String checksum, boolean verified){
+            this.size = size;
+            this.checksum = checksum;
+            this.verified = verified;
+        }
+    }
+}
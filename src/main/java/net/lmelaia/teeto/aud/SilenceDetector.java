@@ -0,0 +1,88 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sedmelluq.discord.lavaplayer.natives.opus.OpusDecoder;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds the silent stretches of an encoded clip.
+ * <p>
+ * Every frame is decoded once, in order, and frames whose
+ * loudest sample is below the threshold are silent. Only
+ * runs of at least {@link #MIN_RUN} silent frames are
+ * kept: stopping and starting the stream costs discord
+ * five silence frames and a speaking update, which isn't
+ * worth it for a short pause. Silent frames are never
+ * sent, so JDA sends its silence marker instead and
+ * stops sending packets until the audio comes back.
+ */
+final class SilenceDetector {
+
+    /**
+     * Loudest sample of a silent frame (about -66dB).
+     */
+    static final int THRESHOLD = 16;
+
+    /**
+     * Fewest silent frames in a row worth skipping.
+     */
+    static final int MIN_RUN = 10;
+
+    //Private constructor.
+    private SilenceDetector(){}
+
+    /**
+     * Decodes the frames and marks the silent ones.
+     *
+     * @param frames the Opus frames in order.
+     * @return the indexes of frames in silent runs.
+     */
+    static BitSet detect(List<byte[]> frames){
+        BitSet silent = new BitSet(frames.size());
+        FrameMixer mixer = new FrameMixer();
+        OpusDecoder decoder = FrameMixer.createDecoder();
+
+        try {
+            int runStart = -1;
+
+            for(int i = 0; i <= frames.size(); i++){
+                boolean quiet = false;
+
+                if(i < frames.size()){
+                    mixer.begin();
+                    quiet = mixer.add(decoder, frames.get(i)) && mixer.getPeak() <= THRESHOLD;
+                }
+
+                if(quiet && runStart < 0){
+                    runStart = i;
+                } else if(!quiet && runStart >= 0){
+                    if(i - runStart >= MIN_RUN)
+                        silent.set(runStart, i);
+
+                    runStart = -1;
+                }
+            }
+        } finally {
+            decoder.close();
+        }
+
+        return silent;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+/**
+ * Reasons the playback watchdog found a guild player
+ * stuck and recovered it.
+ */
+public enum StallCause {
+    /**
+     * Something is meant to be playing, but no
+     * frames have been sent.
+     */
+    NO_FRAMES("playing but no frames sent"),
+
+    /**
+     * Connected to voice with nothing playing,
+     * though nothing was stopped.
+     */
+    NO_TRACK("connected with no track");
+
+    /**
+     * Description of the cause for the logs.
+     */
+    private final String description;
+
+    /**
+     * @param description description of the cause for the logs.
+     */
+    StallCause(String description){
+        this.description = description;
+    }
+
+    /**
+     * @return description of the cause for the logs.
+     */
+    public String getDescription() {
+        return description;
+    }
+}
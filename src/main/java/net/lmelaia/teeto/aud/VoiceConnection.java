@@ -0,0 +1,423 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.audio.hooks.ConnectionListener;
+import net.dv8tion.jda.core.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.dv8tion.jda.core.managers.AudioManager;
+import net.lmelaia.teeto.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Voice connection state machine for a guild.
+ * <p>
+ * Connects and disconnects without blocking, returning
+ * futures completed by JDAs voice connection events. A
+ * connection that fails or drops while still wanted is
+ * retried with jittered exponential backoff. A connection
+ * that can't be recovered (kicked, lost permission, channel
+ * deleted) or runs out of attempts fails the connect future.
+ * A disconnect that JDA never reports back is treated as
+ * finished after a timeout.
+ */
+final class VoiceConnection implements ConnectionListener {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Delay before the first retry, in milliseconds.
+     */
+    private static final long BASE_BACKOFF = 1000;
+
+    /**
+     * Longest delay between retries, in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Connection attempts before giving up.
+     */
+    private static final int MAX_ATTEMPTS = 6;
+
+    /**
+     * How long an attempt can take before it's retried, in milliseconds.
+     */
+    private static final long CONNECT_TIMEOUT = 10000;
+
+    /**
+     * How long a disconnect can take before it's treated as
+     * finished, in milliseconds.
+     */
+    private static final long DRAIN_TIMEOUT = 5000;
+
+    /**
+     * Runs retries and timeouts for every guild.
+     */
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+    /**
+     * Voice connection states.
+     */
+    public enum State {
+        /**
+         * Not connected and not wanting to be.
+         */
+        IDLE,
+
+        /**
+         * Waiting for a connection attempt to finish.
+         */
+        CONNECTING,
+
+        /**
+         * Connected to the target channel.
+         */
+        CONNECTED,
+
+        /**
+         * Waiting for a disconnect to finish.
+         */
+        DRAINING,
+
+        /**
+         * Waiting to retry a failed or dropped connection.
+         */
+        RECONNECTING
+    }
+
+    /**
+     * The guild.
+     */
+    private final Guild guild;
+
+    /**
+     * The current state.
+     */
+    private volatile State state = State.IDLE;
+
+    /**
+     * The channel to be connected to or {@code null}.
+     */
+    private VoiceChannel target;
+
+    /**
+     * Failed attempts since the last connection.
+     */
+    private int attempts;
+
+    /**
+     * Incremented on every attempt, so stale timeouts and
+     * retries can be ignored.
+     */
+    private long generation;
+
+    /**
+     * Completed when connected to the target.
+     */
+    private CompletableFuture<VoiceChannel> connected = new CompletableFuture<>();
+
+    /**
+     * Completed when disconnected.
+     */
+    private CompletableFuture<Void> disconnected = CompletableFuture.completedFuture(null);
+
+    /**
+     * The scheduled timeout or retry of the connection
+     * attempt, if any.
+     */
+    private ScheduledFuture<?> pending;
+
+    /**
+     * Constructs the state machine for a guild and installs
+     * it as the guilds connection listener.
+     *
+     * @param guild the guild.
+     */
+    VoiceConnection(Guild guild){
+        this.guild = guild;
+        getAudioManager().setConnectionListener(this);
+    }
+
+    /**
+     * Connects to the channel, moving if connected to
+     * another one.
+     *
+     * @param channel the channel.
+     * @return a future completed once connected.
+     */
+    synchronized CompletableFuture<VoiceChannel> connect(VoiceChannel channel){
+        if(state == State.CONNECTED && channel.equals(getAudioManager().getConnectedChannel()))
+            return CompletableFuture.completedFuture(channel);
+
+        if(connected.isDone())
+            connected = new CompletableFuture<>();
+
+        target = channel;
+        attempts = 0;
+        attempt();
+        return connected;
+    }
+
+    /**
+     * Disconnects from voice, cancelling any connection
+     * in progress.
+     *
+     * @return a future completed once disconnected.
+     */
+    synchronized CompletableFuture<Void> disconnect(){
+        target = null;
+        generation++;
+        cancelPending();
+
+        if(!connected.isDone())
+            connected.cancel(false);
+
+        if(state == State.IDLE && !getAudioManager().isConnected() && !getAudioManager().isAttemptingToConnect())
+            return CompletableFuture.completedFuture(null);
+
+        if(disconnected.isDone())
+            disconnected = new CompletableFuture<>();
+
+        long drainGeneration = generation;
+        state = State.DRAINING;
+        getAudioManager().closeAudioConnection();
+
+        //Closing while not fully connected might not report back.
+        if(!getAudioManager().isConnected() && !getAudioManager().isAttemptingToConnect()){
+            onDisconnected();
+            return disconnected;
+        }
+
+        //Nor might JDA, so don't leave waiters hanging.
+        pending = SCHEDULER.schedule(() -> {
+            synchronized (this){
+                if(generation == drainGeneration && state == State.DRAINING){
+                    LOG.warn("Voice disconnect in " + guild.getName() + " timed out. Treating as disconnected");
+                    onDisconnected();
+                }
+            }
+        }, DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        return disconnected;
+    }
+
+    /**
+     * Disconnects, then connects to the channel once
+     * disconnected.
+     *
+     * @param channel the channel.
+     * @return a future completed once connected.
+     */
+    CompletableFuture<VoiceChannel> reconnect(VoiceChannel channel){
+        return disconnect().thenCompose(v -> connect(channel));
+    }
+
+    /**
+     * @return the channel being connected or kept
+     * connected to, or {@code null} if disconnecting
+     * or idle.
+     */
+    synchronized VoiceChannel getTarget(){
+        return target;
+    }
+
+    /**
+     * @return the current state.
+     */
+    State getState(){
+        return state;
+    }
+
+    /**
+     * Moves the state machine on JDA voice status changes.
+     *
+     * @param status the new status.
+     */
+    @Override
+    public synchronized void onStatusChange(ConnectionStatus status) {
+        LOG.debug("Voice status in " + guild.getName() + ": " + status + " (" + state + ")");
+
+        switch (status){
+            case CONNECTED:
+                if(target == null){
+                    //Connected after being told to disconnect.
+                    getAudioManager().closeAudioConnection();
+                    return;
+                }
+
+                state = State.CONNECTED;
+                attempts = 0;
+                generation++;
+                cancelPending();
+                connected.complete(getAudioManager().getConnectedChannel());
+                return;
+            case NOT_CONNECTED:
+            case SHUTTING_DOWN:
+                if(target == null)
+                    onDisconnected();
+                else if(state == State.CONNECTED || state == State.CONNECTING)
+                    retry("connection closed");
+                return;
+            case DISCONNECTED_LOST_PERMISSION:
+            case DISCONNECTED_CHANNEL_DELETED:
+            case DISCONNECTED_REMOVED_FROM_GUILD:
+            case DISCONNECTED_KICKED_FROM_CHANNEL:
+                fail(status.name());
+                return;
+            default:
+                if(status.name().startsWith("CONNECTING"))
+                    return;
+
+                if(target != null && status.shouldReconnect())
+                    state = State.RECONNECTING;//JDA reconnects by itself.
+                else if(target != null)
+                    retry(status.name());
+        }
+    }
+
+    /**
+     * Ignored.
+     *
+     * @param ping -
+     */
+    @Override
+    public void onPing(long ping) {}
+
+    /**
+     * Ignored.
+     *
+     * @param user -
+     * @param speaking -
+     */
+    @Override
+    public void onUserSpeaking(User user, boolean speaking) {}
+
+    /**
+     * Starts a connection attempt to the target and
+     * schedules its timeout.
+     */
+    private void attempt(){
+        long attemptGeneration = ++generation;
+        state = State.CONNECTING;
+        getAudioManager().openAudioConnection(target);
+        LOG.info("Connecting to voice channel: " + target.getName() + " -> " + guild.getName());
+
+        pending = SCHEDULER.schedule(() -> {
+            synchronized (this){
+                if(generation == attemptGeneration && state != State.CONNECTED && target != null)
+                    retry("timed out");
+            }
+        }, CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules another attempt after a jittered exponential
+     * backoff, or fails once out of attempts.
+     *
+     * @param reason why the connection is being retried.
+     */
+    private void retry(String reason){
+        if(++attempts > MAX_ATTEMPTS){
+            fail(reason + " after " + MAX_ATTEMPTS + " attempts");
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << (attempts - 1));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        long retryGeneration = ++generation;
+
+        state = State.RECONNECTING;
+        LOG.warn("Voice connection in " + guild.getName() + " " + reason + ". Retrying in " + delay + "ms");
+
+        pending = SCHEDULER.schedule(() -> {
+            synchronized (this){
+                if(generation == retryGeneration && target != null)
+                    attempt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives up on the connection.
+     *
+     * @param reason why the connection failed.
+     */
+    private void fail(String reason){
+        LOG.error("Voice connection in " + guild.getName() + " failed: " + reason);
+        target = null;
+        generation++;
+        cancelPending();
+        state = State.IDLE;
+        connected.completeExceptionally(new IllegalStateException("Voice connection failed: " + reason));
+        getAudioManager().closeAudioConnection();
+        disconnected.complete(null);
+    }
+
+    /**
+     * Cancels the scheduled timeout or retry, if any, so
+     * it isn't held by the scheduler until it's due.
+     */
+    private void cancelPending(){
+        if(pending != null){
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * @return the scheduler for retries and timeouts, which
+     * drops cancelled tasks straight away.
+     */
+    private static ScheduledThreadPoolExecutor createScheduler(){
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "voice-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Finishes a disconnect.
+     */
+    private void onDisconnected(){
+        cancelPending();
+        state = State.IDLE;
+        disconnected.complete(null);
+    }
+
+    /**
+     * @return the guilds audio manager.
+     */
+    private AudioManager getAudioManager(){
+        return guild.getAudioManager();
+    }
+}
@@ -16,12 +16,14 @@
  */
 package net.lmelaia.teeto.command.commands;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonPrimitive;
-import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
-import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import net.dv8tion.jda.core.entities.Role;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.managers.GuildController;
@@ -33,9 +35,18 @@ import net.lmelaia.teeto.aud.AudioManager;
 import net.lmelaia.teeto.aud.AudioPlayer;
 import net.lmelaia.teeto.command.CommandHandler;
 import net.lmelaia.teeto.messaging.Responses;
+import net.lmelaia.teeto.schedule.Schedule;
+import net.lmelaia.teeto.schedule.Scheduler;
 import org.apache.logging.log4j.Logger;
 
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Commands related to audio.
@@ -57,6 +68,29 @@ public final class AudioCommands {
      */
     private static final Responses RESPONSES = Teeto.getTeeto().getResponses();
 
+    /**
+     * Most audio files listed in one message.
+     */
+    private static final int PAGE_SIZE = 25;
+
+    /**
+     * Longest list of audio files put in one message,
+     * leaving room for the rest of the response within
+     * discords 2000 character limit.
+     */
+    private static final int MAX_LIST_LENGTH = 1700;
+
+    /**
+     * Most member moves of a drag waiting on discord at once.
+     */
+    private static final int MAX_PARALLEL_MOVES = 5;
+
+    /**
+     * Shortest time between edits of a drags progress
+     * message, in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 2000;
+
     //Private constructor
     private AudioCommands(){}
 
@@ -94,18 +128,20 @@ public final class AudioCommands {
     public static String reset(Guild g){
         try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
         AudioPlayer guildPlayer = AUDIO_MANAGER.getAudioPlayer(g);
+        VoiceChannel channel = getDesignatedHellChannel(g);
         guildPlayer.stop();
-        guildPlayer.disconnectFromVoice();
 
-        try {
-            Thread.sleep(500);
-            guildPlayer.connectToVoice(getDesignatedHellChannel(g), true);
-            Thread.sleep(1000);
-            guildPlayer.stop();
-            guildPlayer.disconnectFromVoice();
-        } catch (InterruptedException e) {
-            //Should not happen.
-        }
+        //Cycle the connection in the background so the command thread isn't held up.
+        CompletableFuture<?> cycle = guildPlayer.disconnectFromVoice();
+        if(channel != null)
+            cycle = cycle.thenCompose(v -> guildPlayer.connectToVoice(channel, true))
+                    .thenCompose(c -> guildPlayer.disconnectFromVoice());
+
+        String guildName = g.getName();
+        cycle.exceptionally(e -> {
+            LOG.warn("Failed to reset voice connection in: " + guildName, e);
+            return null;
+        });
 
         return RESPONSES.getResponse("audio.reset").get();
     }
@@ -129,27 +165,86 @@ public final class AudioCommands {
             return RESPONSES.getResponse("audio.no_channel").get();
 
         guildPlayer.connectToVoice(channel, false);
+        GuildSettings.Snapshot settings = GuildSettings.getGuildSettings(g).getSnapshot();
+        List<AudioFile> playlist = getPlaylist(settings);
 
-        guildPlayer.addListener(new AudioEventAdapter() {
-            @Override
-            public void onTrackEnd(com.sedmelluq.discord.lavaplayer.player.AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason){
-                if(endReason.mayStartNext)
-                    guildPlayer.play(getAudioFile(g).getAudioFile().getAbsolutePath());
-            }
+        if(playlist.isEmpty())
+            guildPlayer.loop(getAudioFile(g));
+        else guildPlayer.playlist(playlist, settings.isShuffled());
 
-            @Override
-            public void onPlayerPause(com.sedmelluq.discord.lavaplayer.player.AudioPlayer player) {
-                super.onPlayerPause(player);
-            }
-        });
+        return RESPONSES.getResponse("audio.joined")
+                .setPlaceholder("{@channel}", channel.getName())
+                .get();
+    }
 
-        guildPlayer.play(getAudioFile(g).getAudioFile().getAbsolutePath());
+    /**
+     * Connects the bot to the designated hell channel
+     * and plays the broadcast of the given stream.
+     *
+     * @param g the guild we are acting on.
+     * @param args the command arguments.
+     * @return the response to the user.
+     */
+    @CommandHandler(".audio.broadcast")
+    public static String broadcast(Guild g, String[] args){
+        try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
 
-        return RESPONSES.getResponse("audio.joined")
+        if(args.length != 2)
+            return RESPONSES.getResponse("cmd.arg_length_error")
+                    .setPlaceholder("{@command}", "broadcast")
+                    .setPlaceholder("{@argLength}", String.valueOf(args.length - 1))
+                    .get();
+
+        VoiceChannel channel = getDesignatedHellChannel(g);
+
+        if(channel == null)
+            return RESPONSES.getResponse("audio.no_channel").get();
+
+        AudioPlayer guildPlayer = AUDIO_MANAGER.getAudioPlayer(g);
+        guildPlayer.connectToVoice(channel, false);
+        guildPlayer.broadcast(args[1]);
+
+        return RESPONSES.getResponse("audio.broadcasting")
+                .setPlaceholder("{@url}", args[1])
                 .setPlaceholder("{@channel}", channel.getName())
                 .get();
     }
 
+    /**
+     * Plays an audio file over the song playing in the
+     * designated hell channel, like a soundboard.
+     *
+     * @param g the guild we are acting on.
+     * @param args the command arguments.
+     * @return the response to the user.
+     */
+    @CommandHandler(".audio.overlay")
+    public static String overlay(Guild g, String[] args){
+        try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
+
+        if(args.length != 2)
+            return RESPONSES.getResponse("cmd.arg_length_error")
+                    .setPlaceholder("{@command}", "soundboard")
+                    .setPlaceholder("{@argLength}", String.valueOf(args.length - 1))
+                    .get();
+
+        AudioPlayer guildPlayer = AUDIO_MANAGER.getAudioPlayer(g);
+        AudioFile audioFile = AUDIO_MANAGER.getAudioFileFromName(args[1]);
+
+        if(!guildPlayer.isConnected())
+            return RESPONSES.getResponse("audio.not_connected").get();
+
+        if(audioFile == null)
+            return RESPONSES.getResponse("audio.song_not_found").get();
+
+        if(!guildPlayer.overlay(audioFile))
+            return RESPONSES.getResponse("audio.overlay_limit").get();
+
+        return RESPONSES.getResponse("audio.overlaid")
+                .setPlaceholder("{@name}", audioFile.getDisplayName())
+                .get();
+    }
+
     /**
      * Sets the song to play in the designated voice channel.
      *
@@ -182,6 +277,187 @@ public final class AudioCommands {
         return Teeto.getTeeto().getResponses().getResponse("audio.song_not_found").get();
     }
 
+    /**
+     * Shows or changes the guilds playlist, which is
+     * played in turn instead of the hell song.
+     * <p>
+     * Arguments: none (show), {@code add <song>},
+     * {@code remove <song>}, {@code clear}, {@code shuffle}
+     * or {@code order}.
+     *
+     * @param g the guild we are acting on.
+     * @param args the command arguments.
+     * @return the response to the user.
+     */
+    @CommandHandler(".audio.playlist")
+    public static String playlist(Guild g, String[] args){
+        try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
+
+        GuildSettings gs = GuildSettings.getGuildSettings(g);
+        GuildSettings.Snapshot settings = gs.getSnapshot();
+
+        if(args.length == 1){
+            if(settings.getPlaylist().isEmpty())
+                return RESPONSES.getResponse("audio.playlist_empty").get();
+
+            StringBuilder songs = new StringBuilder();
+            for(String song : settings.getPlaylist())
+                songs.append(song).append("\n");
+
+            return RESPONSES.getResponse("audio.playlist")
+                    .setPlaceholder("{@count}", String.valueOf(settings.getPlaylist().size()))
+                    .setPlaceholder("{@order}", settings.isShuffled() ? "shuffled" : "in order")
+                    .setPlaceholder("{@songs}", songs.toString())
+                    .get();
+        }
+
+        String action = args[1].toLowerCase();
+        boolean hasSong = action.equals("add") || action.equals("remove");
+
+        if(args.length != (hasSong ? 3 : 2))
+            return RESPONSES.getResponse("cmd.arg_length_error")
+                    .setPlaceholder("{@command}", "playlist")
+                    .setPlaceholder("{@argLength}", String.valueOf(args.length - 1))
+                    .get();
+
+        JsonArray playlist = new JsonArray();
+        for(String song : settings.getPlaylist())
+            playlist.add(song);
+
+        switch (action){
+            case "add":
+                if(!AUDIO_MANAGER.hasAudioFile(args[2]))
+                    return RESPONSES.getResponse("audio.song_not_found").get();
+
+                playlist.add(args[2]);
+                break;
+            case "remove":
+                if(!playlist.remove(new JsonPrimitive(args[2])))
+                    return RESPONSES.getResponse("audio.song_not_found").get();
+                break;
+            case "clear":
+                playlist = new JsonArray();
+                break;
+            case "shuffle":
+            case "order":
+                gs.setSetting(GuildSettings.Settings.SHUFFLE, new JsonPrimitive(action.equals("shuffle")));
+                break;
+            default:
+                return RESPONSES.getResponse("audio.playlist_usage").get();
+        }
+
+        gs.setSetting(GuildSettings.Settings.PLAYLIST, playlist);
+
+        if(AUDIO_MANAGER.getAudioPlayer(g).isConnected())
+            Teeto.getTeeto().getCommandManager().invokeCommand(".audio.play", g);
+
+        return (gs.save()) ? RESPONSES.getResponse("settings.saved").get()
+                : RESPONSES.getResponse("settings.not_saved").get();
+    }
+
+    /**
+     * Shows, adds or cancels the guilds schedules.
+     * <p>
+     * Arguments: none (show), {@code play <song> daily <HH:mm>},
+     * {@code play <song> in <duration>}, {@code disconnect daily <HH:mm>},
+     * {@code disconnect in <duration>} or {@code cancel <id>}.
+     *
+     * @param g the guild we are acting on.
+     * @param args the command arguments.
+     * @return the response to the user.
+     */
+    @CommandHandler(".audio.schedule")
+    public static String schedule(Guild g, String[] args){
+        try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
+
+        ZoneId zone = Teeto.getTeeto().getScheduler().getZone();
+        GuildSettings gs = GuildSettings.getGuildSettings(g);
+        List<Schedule> schedules = gs.getSnapshot().getSchedules();
+
+        if(args.length == 1){
+            if(schedules.isEmpty())
+                return RESPONSES.getResponse("audio.schedules_empty").get();
+
+            StringBuilder list = new StringBuilder();
+            for(Schedule schedule : schedules)
+                list.append(schedule.getId()).append(": ").append(schedule.describe(zone)).append("\n");
+
+            return RESPONSES.getResponse("audio.schedules")
+                    .setPlaceholder("{@zone}", zone.getId())
+                    .setPlaceholder("{@schedules}", list.toString())
+                    .get();
+        }
+
+        String action = args[1].toLowerCase();
+        JsonArray updated = new JsonArray();
+        String response;
+
+        if(action.equals("cancel") && args.length == 3){
+            boolean found = false;
+
+            for(Schedule schedule : schedules){
+                if(String.valueOf(schedule.getId()).equals(args[2]))
+                    found = true;
+                else updated.add(schedule.toJson());
+            }
+
+            if(!found)
+                return RESPONSES.getResponse("audio.schedule_not_found").get();
+
+            response = RESPONSES.getResponse("audio.schedule_cancelled").get();
+        } else {
+            Schedule.Action scheduled;
+            String song = null;
+
+            if(action.equals("play") && args.length == 5){
+                scheduled = Schedule.Action.PLAY;
+                song = args[2];
+
+                if(!AUDIO_MANAGER.hasAudioFile(song))
+                    return RESPONSES.getResponse("audio.song_not_found").get();
+            } else if(action.equals("disconnect") && args.length == 4){
+                scheduled = Schedule.Action.DISCONNECT;
+            } else return RESPONSES.getResponse("audio.schedule_usage").get();
+
+            if(schedules.size() >= Scheduler.MAX_SCHEDULES)
+                return RESPONSES.getResponse("audio.schedule_limit")
+                        .setPlaceholder("{@max}", String.valueOf(Scheduler.MAX_SCHEDULES))
+                        .get();
+
+            int id = 1;
+            for(Schedule schedule : schedules){
+                id = Math.max(id, schedule.getId() + 1);
+                updated.add(schedule.toJson());
+            }
+
+            String when = args[args.length - 2].toLowerCase();
+            String value = args[args.length - 1];
+            Schedule schedule;
+
+            if(when.equals("daily")){
+                LocalTime time = Schedule.parseTime(value);
+                schedule = (time == null) ? null : Schedule.daily(id, scheduled, song, time);
+            } else if(when.equals("in")){
+                long duration = Schedule.parseDuration(value);
+                schedule = (duration < 0) ? null
+                        : Schedule.once(id, scheduled, song, System.currentTimeMillis() + duration);
+            } else schedule = null;
+
+            if(schedule == null)
+                return RESPONSES.getResponse("audio.schedule_usage").get();
+
+            updated.add(schedule.toJson());
+            response = RESPONSES.getResponse("audio.scheduled")
+                    .setPlaceholder("{@id}", String.valueOf(id))
+                    .setPlaceholder("{@schedule}", schedule.describe(zone))
+                    .get();
+        }
+
+        gs.setSetting(GuildSettings.Settings.SCHEDULES, updated);
+
+        return (gs.save()) ? response : RESPONSES.getResponse("settings.not_saved").get();
+    }
+
     /**
      * Moves a user to the designated hell channel
      * and invokes the {@link #play(Guild)} command
@@ -196,16 +472,17 @@ public final class AudioCommands {
     public static String playWith(Guild g, User author){
         try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
         GuildController controller = new GuildController(g);
+        VoiceChannel hellChannel = getDesignatedHellChannel(g);
 
-        if(getDesignatedHellChannel(g) == null){
+        if(hellChannel == null){
             return RESPONSES.getResponse("audio.no_channel").get();
         }
 
         try{
-            controller.moveVoiceMember(g.getMemberById(author.getIdLong()), getDesignatedHellChannel(g)).queue();
+            controller.moveVoiceMember(g.getMemberById(author.getIdLong()), hellChannel).queue();
         } catch (IllegalStateException e){
             return RESPONSES.getResponse("audio.user_not_in_voice")
-                    .setPlaceholder("{@channel}", getDesignatedHellChannel(g).getName())
+                    .setPlaceholder("{@channel}", hellChannel.getName())
                     .get();
         }
 
@@ -249,23 +526,77 @@ public final class AudioCommands {
     }
 
     /**
-     * Lists all audio files.
+     * Lists a page of audio files. Pages are resumed from
+     * the ID of the last audio file on the previous page.
      *
      * @param g the guild the command was issued in.
-     * @return a list of all audio files.
+     * @param args the command name and optionally the
+     *             cursor of the page to list.
+     * @return a page of audio files.
      */
     @CommandHandler(".audio.list")
     @SuppressWarnings("UnusedAssignment")
-    public static String listAudio(Guild g){
+    public static String listAudio(Guild g, String[] args){
         try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
 
-        StringBuilder ret = new StringBuilder();
+        if(args.length > 2)
+            return RESPONSES.getResponse("cmd.arg_length_error")
+                    .setPlaceholder("{@command}", "list-audio")
+                    .setPlaceholder("{@argLength}", String.valueOf(args.length - 1))
+                    .get();
+
+        List<AudioFile> page = AUDIO_MANAGER.listAudioFiles((args.length == 2) ? args[1] : null, PAGE_SIZE);
 
-        for(AudioFile f : Teeto.getTeeto().getAudioManager().getAudioFiles()){
-            ret.append(f.getDisplayName()).append(" ").append(Arrays.toString(f.getAliases())).append("\n");
-        }
+        if(page.isEmpty())
+            return RESPONSES.getResponse("audio.list_empty").get();
+
+        StringBuilder files = new StringBuilder();
+        AudioFile last = appendAudioFiles(files, page);
 
-        return ret.toString();
+        String ret = RESPONSES.getResponse("audio.list")
+                .setPlaceholder("{@count}", String.valueOf(AUDIO_MANAGER.getAudioFileCount()))
+                .setPlaceholder("{@files}", files.toString())
+                .get();
+
+        if(AUDIO_MANAGER.hasAudioFilesAfter(last))
+            ret += RESPONSES.getResponse("audio.list_next")
+                    .setPlaceholder("{@cursor}", last.getId())
+                    .get();
+
+        return ret;
+    }
+
+    /**
+     * Finds audio files by name, matching the start
+     * of a name first and then anywhere in it.
+     *
+     * @param g the guild the command was issued in.
+     * @param args the command name and the text to search for.
+     * @return the matching audio files.
+     */
+    @CommandHandler(".audio.find")
+    @SuppressWarnings("UnusedAssignment")
+    public static String findAudio(Guild g, String[] args){
+        try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
+
+        if(args.length != 2)
+            return RESPONSES.getResponse("cmd.arg_length_error")
+                    .setPlaceholder("{@command}", "find-audio")
+                    .setPlaceholder("{@argLength}", String.valueOf(args.length - 1))
+                    .get();
+
+        List<AudioFile> found = AUDIO_MANAGER.searchAudioFiles(args[1], PAGE_SIZE);
+
+        if(found.isEmpty())
+            return RESPONSES.getResponse("audio.song_not_found").get();
+
+        StringBuilder files = new StringBuilder();
+        appendAudioFiles(files, found);
+
+        return RESPONSES.getResponse("audio.found")
+                .setPlaceholder("{@query}", args[1])
+                .setPlaceholder("{@files}", files.toString())
+                .get();
     }
 
     /**
@@ -293,17 +624,18 @@ public final class AudioCommands {
         for(Member member : g.getMembers()){
             if(member.getUser().getDiscriminator().equals(user)){
                 GuildController controller = new GuildController(g);
+                VoiceChannel hellChannel = getDesignatedHellChannel(g);
 
-                if(getDesignatedHellChannel(g) == null){
+                if(hellChannel == null){
                     return RESPONSES.getResponse("audio.no_channel").get();
                 }
 
                 try{
-                    controller.moveVoiceMember(member, getDesignatedHellChannel(g)).queue();
+                    controller.moveVoiceMember(member, hellChannel).queue();
                     Teeto.getTeeto().getCommandManager().invokeCommand(".audio.play", g);
                 } catch (IllegalStateException e){
                     return RESPONSES.getResponse("audio.cant_take")
-                            .setPlaceholder("{@channel}", getDesignatedHellChannel(g).getName())
+                            .setPlaceholder("{@channel}", hellChannel.getName())
                             .get();
                 }
 
@@ -314,20 +646,147 @@ public final class AudioCommands {
         return RESPONSES.getResponse("audio.user_not_found").get();
     }
 
+    /**
+     * Drags everyone in a voice channel, or everyone in
+     * voice with a role, into the designated hell channel
+     * and starts playing once the first of them is moved.
+     * Progress is shown by editing a single reply.
+     *
+     * @param g the guild we are acting on.
+     * @param channel the channel the command was sent in.
+     * @param args the command name and the name of the
+     *             voice channel or role (or a role mention).
+     * @return the response to the user, or {@code null}
+     * if the drag has started and replies itself.
+     */
+    @CommandHandler(".audio.drag")
+    public static String drag(Guild g, MessageChannel channel, String[] args){
+        try{g = getIfNotNull(g);} catch (NullPointerException e){return e.getMessage();}
+
+        if(args.length < 2)
+            return RESPONSES.getResponse("cmd.arg_length_error")
+                    .setPlaceholder("{@command}", "drag")
+                    .setPlaceholder("{@argLength}", String.valueOf(args.length - 1))
+                    .get();
+
+        VoiceChannel hellChannel = getDesignatedHellChannel(g);
+
+        if(hellChannel == null)
+            return RESPONSES.getResponse("audio.no_channel").get();
+
+        //Checked once here rather than failing every move.
+        if(!g.getSelfMember().hasPermission(hellChannel, Permission.VOICE_MOVE_OTHERS))
+            return RESPONSES.getResponse("audio.drag_no_permission")
+                    .setPlaceholder("{@channel}", hellChannel.getName())
+                    .get();
+
+        String name = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+        List<Member> members = getMembersToDrag(g, name);
+
+        if(members == null)
+            return RESPONSES.getResponse("audio.drag_not_found")
+                    .setPlaceholder("{@name}", name)
+                    .get();
+
+        members.removeIf(member -> member.getUser().isBot() || member.getVoiceState() == null
+                || !member.getVoiceState().inVoiceChannel() || hellChannel.equals(member.getVoiceState().getChannel()));
+
+        if(members.isEmpty())
+            return RESPONSES.getResponse("audio.drag_none").get();
+
+        new BulkMove(g, hellChannel, members).start(channel);
+        return null;
+    }
+
     /**
      * @param g the guild we are getting the channel from.
      * @return the guilds designated hell channel.
      */
     private static VoiceChannel getDesignatedHellChannel(Guild g){
-        GuildSettings settings = GuildSettings.getGuildSettings(g);
+        GuildSettings.Snapshot settings = GuildSettings.getGuildSettings(g).getSnapshot();
 
-        if(!settings.has(GuildSettings.Settings.HELL_CHANNEL)){
+        if(!settings.hasHellChannel()){
             return null;
         }
 
-        String channelName = settings.getSetting(GuildSettings.Settings.HELL_CHANNEL).getAsString();
+        return g.getVoiceChannelById(settings.getHellChannel());
+    }
+
+    /**
+     * Appends a line for each audio file, stopping early
+     * if the list would no longer fit in a message.
+     *
+     * @param builder the builder to append to.
+     * @param audioFiles the audio files.
+     * @return the last audio file appended.
+     */
+    private static AudioFile appendAudioFiles(StringBuilder builder, List<AudioFile> audioFiles){
+        AudioFile last = null;
+
+        for(AudioFile f : audioFiles){
+            String line = f.getDisplayName() + " " + Arrays.toString(f.getAliases()) + "\n";
 
-        return g.getVoiceChannelById(settings.getSetting(GuildSettings.Settings.HELL_CHANNEL).getAsLong());
+            if(last != null && builder.length() + line.length() > MAX_LIST_LENGTH)
+                break;
+
+            builder.append(line);
+            last = f;
+        }
+
+        return last;
+    }
+
+    /**
+     * Finds the members named by a drag: the members of the
+     * voice channel with the name, otherwise the members
+     * with the role with the name or mention.
+     *
+     * @param g the guild.
+     * @param name name of a voice channel or role, or a
+     *             role mention.
+     * @return a new list of the members, or {@code null}
+     * if there's no such voice channel or role.
+     */
+    private static List<Member> getMembersToDrag(Guild g, String name){
+        List<VoiceChannel> channels = g.getVoiceChannelsByName(name, true);
+
+        if(!channels.isEmpty())
+            return new ArrayList<>(channels.get(0).getMembers());
+
+        Role role = null;
+
+        if(name.startsWith("<@&") && name.endsWith(">")){
+            try {
+                role = g.getRoleById(Long.parseLong(name.substring(3, name.length() - 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            List<Role> roles = g.getRolesByName(name, true);
+
+            if(!roles.isEmpty())
+                role = roles.get(0);
+        }
+
+        return (role == null) ? null : new ArrayList<>(g.getMembersWithRoles(role));
+    }
+
+    /**
+     * @param settings the guilds settings.
+     * @return the audio files of the guilds playlist.
+     * Songs that no longer exist are left out.
+     */
+    private static List<AudioFile> getPlaylist(GuildSettings.Snapshot settings){
+        List<AudioFile> playlist = new ArrayList<>(settings.getPlaylist().size());
+
+        for(String song : settings.getPlaylist()){
+            AudioFile audioFile = AUDIO_MANAGER.getAudioFileFromName(song);
+
+            if(audioFile != null)
+                playlist.add(audioFile);
+        }
+
+        return playlist;
     }
 
     /**
@@ -335,13 +794,12 @@ public final class AudioCommands {
      * @return the audio file to use for this guild.
      */
     private static AudioFile getAudioFile(Guild g){
-        AudioFile ret = Teeto.getTeeto().getAudioManager().getAudioFileFromName("nyan");
+        String song = GuildSettings.getGuildSettings(g).getSnapshot().getHellSong();
 
-        if(!GuildSettings.getGuildSettings(g).has(GuildSettings.Settings.HELL_SONG))
-            return ret;
+        if(song == null)
+            return Teeto.getTeeto().getAudioManager().getAudioFileFromName("nyan");
         else
-            return Teeto.getTeeto().getAudioManager().getAudioFileFromName(GuildSettings.getGuildSettings(g)
-                    .getSetting(GuildSettings.Settings.HELL_SONG).getAsString());
+            return Teeto.getTeeto().getAudioManager().getAudioFileFromName(song);
     }
 
     /**
@@ -356,4 +814,246 @@ public final class AudioCommands {
                     Teeto.getTeeto().getResponses().getResponse("cmd.not_in_guild").get());
         return g;
     }
+
+    /**
+     * Moves a list of members into the hell channel.
+     * <p>
+     * Moves are sent in parallel, but at most
+     * {@link #MAX_PARALLEL_MOVES} wait on discord at once:
+     * every move goes through the guilds member update rate
+     * limit bucket, which JDA waits out, so sending more
+     * only queues them up behind each other and holds up
+     * other member updates in the guild. Each finished move
+     * sends the next one, so nothing blocks. Playback is
+     * started once, when the first member is moved. The
+     * reply is edited with the progress at most every
+     * {@link #PROGRESS_INTERVAL}, and once more when done.
+     */
+    private static final class BulkMove {
+
+        /**
+         * The guild.
+         */
+        private final Guild guild;
+
+        /**
+         * The hell channel.
+         */
+        private final VoiceChannel target;
+
+        /**
+         * Members not yet sent to be moved.
+         */
+        private final Queue<Member> pending;
+
+        /**
+         * Number of members to move.
+         */
+        private final int total;
+
+        /**
+         * Number of members moved.
+         */
+        private int moved;
+
+        /**
+         * Number of members that couldn't be moved.
+         */
+        private int failed;
+
+        /**
+         * Number of moves waiting on discord.
+         */
+        private int inFlight;
+
+        /**
+         * Set once playback has been started.
+         */
+        private boolean playing;
+
+        /**
+         * The progress reply or {@code null} if not sent (yet).
+         */
+        private Message reply;
+
+        /**
+         * Set while the reply is being edited.
+         */
+        private boolean editing;
+
+        /**
+         * Set if progress was made while the reply was
+         * being edited.
+         */
+        private boolean dirty;
+
+        /**
+         * Time the reply was last edited, in milliseconds.
+         */
+        private long lastEdit;
+
+        /**
+         * @param guild the guild.
+         * @param target the hell channel.
+         * @param members the members to move.
+         */
+        private BulkMove(Guild guild, VoiceChannel target, List<Member> members){
+            this.guild = guild;
+            this.target = target;
+            this.pending = new ArrayDeque<>(members);
+            this.total = members.size();
+        }
+
+        /**
+         * Sends the progress reply, then starts moving.
+         *
+         * @param channel channel to reply in or {@code null}.
+         */
+        private void start(MessageChannel channel){
+            if(channel == null){
+                next();
+                return;
+            }
+
+            channel.sendMessage(getProgress()).queue(message -> {
+                synchronized (this){
+                    reply = message;
+                    lastEdit = System.currentTimeMillis();
+                }
+
+                next();
+            }, e -> {
+                LOG.warn("Failed to send drag progress in guild: " + guild.getName(), e);
+                next();
+            });
+        }
+
+        /**
+         * Sends moves until the limit is waiting on discord.
+         * Moves that fail before being sent free their slot
+         * straight away, so this loops until the limit is
+         * waiting or nobody is left.
+         */
+        private void next(){
+            List<Member> toMove = new ArrayList<>();
+            GuildController controller = new GuildController(guild);
+
+            while(true){
+                synchronized (this){
+                    while(inFlight < MAX_PARALLEL_MOVES && !pending.isEmpty()){
+                        toMove.add(pending.poll());
+                        inFlight++;
+                    }
+                }
+
+                if(toMove.isEmpty())
+                    return;
+
+                for(Member member : toMove){
+                    try {
+                        controller.moveVoiceMember(member, target).queue(v -> onMoved(true), e -> onMoved(false));
+                    } catch (RuntimeException e) {
+                        //Left voice since the list was made, or missing permission in their channel.
+                        count(false);
+                    }
+                }
+
+                toMove.clear();
+            }
+        }
+
+        /**
+         * Counts a move discord finished and sends the next move.
+         *
+         * @param success {@code true} if the member was moved.
+         */
+        private void onMoved(boolean success){
+            count(success);
+            next();
+        }
+
+        /**
+         * Counts a finished move, starts playback on the first
+         * success and updates the progress.
+         *
+         * @param success {@code true} if the member was moved.
+         */
+        private void count(boolean success){
+            boolean play = false;
+
+            synchronized (this){
+                inFlight--;
+
+                if(success){
+                    moved++;
+                    play = !playing;
+                    playing = true;
+                } else failed++;
+            }
+
+            if(play)
+                Teeto.getTeeto().getCommandManager().invokeCommand(".audio.play", guild);
+
+            updateProgress();
+        }
+
+        /**
+         * Edits the reply with the progress if it hasn't been
+         * edited for the interval or the drag is done.
+         */
+        private void updateProgress(){
+            String progress;
+
+            synchronized (this){
+                if(reply == null)
+                    return;
+
+                boolean done = moved + failed == total;
+                long now = System.currentTimeMillis();
+
+                if(editing){
+                    dirty = true;
+                    return;
+                }
+
+                if(!done && now - lastEdit < PROGRESS_INTERVAL)
+                    return;
+
+                editing = true;
+                lastEdit = now;
+                progress = getProgress();
+            }
+
+            reply.editMessage(progress).queue(m -> onEdited(), e -> onEdited());
+        }
+
+        /**
+         * Edits the reply again if progress was made
+         * while it was being edited.
+         */
+        private void onEdited(){
+            boolean again;
+
+            synchronized (this){
+                editing = false;
+                again = dirty;
+                dirty = false;
+            }
+
+            if(again)
+                updateProgress();
+        }
+
+        /**
+         * @return the progress message.
+         */
+        private synchronized String getProgress(){
+            return RESPONSES.getResponse((moved + failed == total) ? "audio.drag_done" : "audio.drag_progress")
+                    .setPlaceholder("{@channel}", target.getName())
+                    .setPlaceholder("{@moved}", String.valueOf(moved))
+                    .setPlaceholder("{@failed}", String.valueOf(failed))
+                    .setPlaceholder("{@total}", String.valueOf(total))
+                    .get();
+        }
+    }
 }
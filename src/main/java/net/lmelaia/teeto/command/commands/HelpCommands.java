@@ -20,6 +20,9 @@ import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.lmelaia.teeto.LogManager;
 import net.lmelaia.teeto.Teeto;
+import net.lmelaia.teeto.aud.AudioManager;
+import net.lmelaia.teeto.aud.PlaybackMetrics;
+import net.lmelaia.teeto.aud.StallCause;
 import net.lmelaia.teeto.command.CommandHandler;
 import net.lmelaia.teeto.command.CommandInfo;
 import net.lmelaia.teeto.util.TemplateBuilder;
@@ -146,7 +149,40 @@ public final class HelpCommands {
      */
     @CommandHandler(".help.information")
     public static String information(){
-        return Teeto.getTeeto().getResponses().getResponse("cmd.not_implemented").get();
+        AudioManager audioManager = TEETO.getAudioManager();
+        PlaybackMetrics playback = audioManager.getPlaybackMetrics();
+        long cacheHits = audioManager.getRemoteCacheHits();
+        long cacheLookups = cacheHits + audioManager.getRemoteCacheMisses();
+        long silentRecoveries = audioManager.getRecoveryCount(StallCause.NO_FRAMES);
+        long idleRecoveries = audioManager.getRecoveryCount(StallCause.NO_TRACK);
+
+        return TEETO.getResponses().getResponse("help.information")
+                .setPlaceholder("{@name}", TEETO.getTeetoConfig().getName())
+                .setPlaceholder("{@version}", TEETO.getTeetoConfig().getVersion())
+                .setPlaceholder("{@livePlayers}", String.valueOf(audioManager.getLivePlayerCount()))
+                .setPlaceholder("{@createdPlayers}", String.valueOf(audioManager.getCreatedPlayerCount()))
+                .setPlaceholder("{@reapedPlayers}", String.valueOf(audioManager.getReapedPlayerCount()))
+                .setPlaceholder("{@suspendedPlayers}", String.valueOf(audioManager.getSuspendedPlayerCount()))
+                .setPlaceholder("{@broadcasts}", String.valueOf(audioManager.getBroadcastCount()))
+                .setPlaceholder("{@retainedTracks}", String.valueOf(audioManager.getRetainedTrackCount()))
+                .setPlaceholder("{@retainedPlayers}", String.valueOf(audioManager.getRetainedPlayerCount()))
+                .setPlaceholder("{@framesSent}", String.valueOf(playback.getProvidedFrames()))
+                .setPlaceholder("{@framesSuppressed}", String.valueOf(playback.getSuppressedFrames()))
+                .setPlaceholder("{@framesMissed}", String.valueOf(playback.getMissedFrames()))
+                .setPlaceholder("{@underruns}", String.valueOf(playback.getUnderruns()))
+                .setPlaceholder("{@recoveries}", String.valueOf(silentRecoveries + idleRecoveries))
+                .setPlaceholder("{@silentRecoveries}", String.valueOf(silentRecoveries))
+                .setPlaceholder("{@idleRecoveries}", String.valueOf(idleRecoveries))
+                .setPlaceholder("{@firstFrameP50}", String.valueOf(playback.getFirstFrameTimes().getPercentile(50)))
+                .setPlaceholder("{@firstFrameP99}", String.valueOf(playback.getFirstFrameTimes().getPercentile(99)))
+                .setPlaceholder("{@loopGapP99}", String.valueOf(playback.getLoopGaps().getPercentile(99)))
+                .setPlaceholder("{@transitionGapP99}", String.valueOf(playback.getTransitionGaps().getPercentile(99)))
+                .setPlaceholder("{@cacheHitRate}", String.valueOf((cacheLookups == 0) ? 0 : cacheHits * 100 / cacheLookups))
+                .setPlaceholder("{@cacheHits}", String.valueOf(cacheHits))
+                .setPlaceholder("{@cacheLookups}", String.valueOf(cacheLookups))
+                .setPlaceholder("{@cacheSaved}", String.valueOf(audioManager.getRemoteCacheBytesSaved() / 1024))
+                .setPlaceholder("{@cacheSize}", String.valueOf(audioManager.getRemoteCacheSize() / 1024))
+                .get();
     }
 
     /**
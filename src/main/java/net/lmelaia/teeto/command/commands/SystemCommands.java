@@ -18,6 +18,8 @@ package net.lmelaia.teeto.command.commands;
 
 import net.dv8tion.jda.core.entities.Game;
 import net.dv8tion.jda.core.entities.MessageChannel;
+import net.lmelaia.teeto.Constants;
+import net.lmelaia.teeto.GuildSettings;
 import net.lmelaia.teeto.LogManager;
 import net.lmelaia.teeto.Teeto;
 import net.lmelaia.teeto.command.CommandHandler;
@@ -124,4 +126,24 @@ public final class SystemCommands {
 
         return Teeto.getTeeto().getResponses().getResponse("system.updated").get();
     }
+
+    /**
+     * Exports every guilds settings as one json file
+     * per guild to the settings export folder.
+     *
+     * @return The response to the user.
+     */
+    @CommandHandler(".system.export_settings")
+    public static String exportSettings(){
+        try {
+            int exported = GuildSettings.exportSettings(Constants.getSettingsExportFolder());
+            return Teeto.getTeeto().getResponses().getResponse("settings.exported")
+                    .setPlaceholder("{@count}", String.valueOf(exported))
+                    .setPlaceholder("{@folder}", Constants.getSettingsExportFolder().getAbsolutePath())
+                    .get();
+        } catch (IOException e) {
+            LOG.error("Failed to export guild settings", e);
+            return Teeto.getTeeto().getResponses().getResponse("settings.not_exported").get();
+        }
+    }
 }
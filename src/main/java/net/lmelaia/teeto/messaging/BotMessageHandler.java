@@ -25,9 +25,12 @@ import net.dv8tion.jda.core.hooks.ListenerAdapter;
 import net.lmelaia.teeto.GuildSettings;
 import net.lmelaia.teeto.LogManager;
 import net.lmelaia.teeto.Teeto;
-import net.lmelaia.teeto.util.JsonUtil;
 import org.apache.logging.log4j.Logger;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Handles message sent by bots and people issuing
  * commands to bots and moves them to the appropriate
@@ -45,6 +48,12 @@ public class BotMessageHandler {
      */
     private static BotMessageHandler instance;
 
+    /**
+     * Lower case bot command prefixes to guild IDs.
+     * Rebuilt when a guilds settings change.
+     */
+    private final Map<Long, String[]> botCommandCache = new ConcurrentHashMap<>();
+
     /**
      * Initializes the bot message manager.
      *
@@ -70,6 +79,39 @@ public class BotMessageHandler {
      */
     private BotMessageHandler(JDA jda){
         jda.addEventListener(new BotMessageListener());
+        GuildSettings.addChangeListener(new GuildSettings.ChangeListener() {
+            @Override
+            public void onSettingsChanged(GuildSettings.Snapshot previous, GuildSettings.Snapshot current) {
+                if(!previous.getBotCommands().equals(current.getBotCommands()))
+                    botCommandCache.put(current.getGuildId(), toLowerCase(current.getBotCommands()));
+            }
+
+            @Override
+            public void onSettingsEvicted(long guildId) {
+                botCommandCache.remove(guildId);
+            }
+        });
+    }
+
+    /**
+     * @param settings the guilds settings.
+     * @return the guilds bot command prefixes in lower case.
+     */
+    private String[] getBotCommands(GuildSettings.Snapshot settings){
+        return botCommandCache.computeIfAbsent(settings.getGuildId(), id -> toLowerCase(settings.getBotCommands()));
+    }
+
+    /**
+     * @param commands list of bot command prefixes.
+     * @return the prefixes in lower case.
+     */
+    private static String[] toLowerCase(List<String> commands){
+        String[] lowerCase = new String[commands.size()];
+
+        for(int i = 0; i < lowerCase.length; i++)
+            lowerCase[i] = commands.get(i).toLowerCase();
+
+        return lowerCase;
     }
 
     /**
@@ -91,12 +133,12 @@ public class BotMessageHandler {
             Guild guild = event.getGuild();
             MessageChannel channel = event.getChannel();
             User author = event.getAuthor();
-            GuildSettings settings = GuildSettings.getGuildSettings(guild);
+            GuildSettings.Snapshot settings = GuildSettings.getGuildSettings(guild).getSnapshot();
 
-            if(!settings.has(GuildSettings.Settings.BOT_CHANNEL))
+            if(!settings.hasBotChannel())
                 return;//Do nothing if the guild doesn't have a bot channel.
 
-            MessageChannel botMsgChannel = guild.getTextChannelById(settings.getSetting(GuildSettings.Settings.BOT_CHANNEL).getAsLong());
+            MessageChannel botMsgChannel = guild.getTextChannelById(settings.getBotChannel());
 
             if(botMsgChannel == null){
                 LOG.warn("Bot message channel not found for guild: " + guild.getName());
@@ -116,12 +158,13 @@ public class BotMessageHandler {
                 return;//We're done
             }
 
-            if(!settings.has(GuildSettings.Settings.BOT_COMMANDS))
+            if(settings.getBotCommands().isEmpty())
                 return;//DO nothing. We can't continue.
 
-            for(String cmd : JsonUtil.jsonArrayToStringArray(
-                    settings.getSetting(GuildSettings.Settings.BOT_COMMANDS).getAsJsonArray())){
-                if(event.getMessage().getContentRaw().toLowerCase().startsWith(cmd.toLowerCase())){
+            String content = event.getMessage().getContentRaw().toLowerCase();
+
+            for(String cmd : getBotCommands(settings)){
+                if(content.startsWith(cmd)){
                     Message botMessageQuote = new MessageBuilder()
                             .append("")
                             .setEmbed(quoteUser(author, event.getMessage().getContentRaw())).build();
@@ -0,0 +1,308 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.schedule;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import net.lmelaia.teeto.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable guild schedule: an action run either every
+ * day at a set time or once at a set instant.
+ * <p>
+ * Schedules are stored in the guild settings as json
+ * objects: {@code {"id": 1, "action": "play", "song": "nyan",
+ * "daily": "20:00"}} or {@code {"id": 2, "action": "disconnect",
+ * "at": <epoch millis>}}.
+ */
+public final class Schedule {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Format of daily times.
+     */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+    /**
+     * Format of one-off times.
+     */
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /**
+     * Durations such as {@code 2h}, {@code 90m} or {@code 1h30m}.
+     */
+    private static final Pattern DURATION = Pattern.compile("(?:(\\d{1,4})h)?(?:(\\d{1,6})m)?");
+
+    /**
+     * Actions a schedule can run.
+     */
+    public enum Action {
+        /**
+         * Joins the hell channel and plays a song.
+         */
+        PLAY,
+
+        /**
+         * Disconnects from voice.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * ID of the schedule, unique within its guild.
+     */
+    private final int id;
+
+    /**
+     * The action to run.
+     */
+    private final Action action;
+
+    /**
+     * Name of the song to play or {@code null}.
+     */
+    private final String song;
+
+    /**
+     * Time of day to run at or {@code null} if
+     * the schedule only runs once.
+     */
+    private final LocalTime daily;
+
+    /**
+     * Instant to run at in epoch milliseconds, if
+     * the schedule only runs once.
+     */
+    private final long at;
+
+    /**
+     * @param id ID of the schedule.
+     * @param action the action to run.
+     * @param song name of the song to play or {@code null}.
+     * @param daily time of day to run at or {@code null}.
+     * @param at instant to run at in epoch milliseconds
+     *           if {@code daily} is {@code null}.
+     */
+    private Schedule(int id, Action action, String song, LocalTime daily, long at){
+        this.id = id;
+        this.action = action;
+        this.song = song;
+        this.daily = daily;
+        this.at = at;
+    }
+
+    /**
+     * @param id ID of the schedule.
+     * @param action the action to run.
+     * @param song name of the song to play or {@code null}.
+     * @param time time of day to run at.
+     * @return a schedule run every day.
+     */
+    public static Schedule daily(int id, Action action, String song, LocalTime time){
+        return new Schedule(id, action, song, time, 0);
+    }
+
+    /**
+     * @param id ID of the schedule.
+     * @param action the action to run.
+     * @param song name of the song to play or {@code null}.
+     * @param at instant to run at in epoch milliseconds.
+     * @return a schedule run once.
+     */
+    public static Schedule once(int id, Action action, String song, long at){
+        return new Schedule(id, action, song, null, at);
+    }
+
+    /**
+     * Decodes a schedule from its json form.
+     *
+     * @param jo the json schedule.
+     * @return the schedule or {@code null} if malformed.
+     */
+    public static Schedule fromJson(JsonObject jo){
+        try {
+            int id = jo.get("id").getAsInt();
+            Action action = Action.valueOf(jo.get("action").getAsString().toUpperCase(Locale.ROOT));
+            JsonElement song = jo.get("song");
+            String songName = (song == null || song.isJsonNull()) ? null : song.getAsString();
+
+            if(jo.has("daily"))
+                return daily(id, action, songName, LocalTime.parse(jo.get("daily").getAsString(), TIME_FORMAT));
+
+            return once(id, action, songName, jo.get("at").getAsLong());
+        } catch (RuntimeException e) {
+            LOG.warn("Ignoring malformed schedule: " + jo, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the schedule in its json form.
+     */
+    public JsonObject toJson(){
+        JsonObject jo = new JsonObject();
+        jo.addProperty("id", id);
+        jo.addProperty("action", action.name().toLowerCase(Locale.ROOT));
+
+        if(song != null)
+            jo.addProperty("song", song);
+
+        if(daily != null)
+            jo.addProperty("daily", daily.format(TIME_FORMAT));
+        else jo.addProperty("at", at);
+
+        return jo;
+    }
+
+    /**
+     * @param now the current time in epoch milliseconds.
+     * @param zone zone daily times are in.
+     * @return the time the schedule next runs after {@code now},
+     * in epoch milliseconds. For one-off schedules this
+     * is always their set time, which may have passed.
+     */
+    public long getNextRun(long now, ZoneId zone){
+        if(daily == null)
+            return at;
+
+        ZonedDateTime current = Instant.ofEpochMilli(now).atZone(zone);
+        ZonedDateTime next = current.with(daily);
+
+        if(!next.isAfter(current))
+            next = next.plusDays(1).with(daily);
+
+        return next.toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return the ID of the schedule.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the action to run.
+     */
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return name of the song to play or {@code null}.
+     */
+    public String getSong() {
+        return song;
+    }
+
+    /**
+     * @return {@code true} if the schedule runs every day.
+     */
+    public boolean isDaily(){
+        return daily != null;
+    }
+
+    /**
+     * @param zone zone to show times in.
+     * @return a short description of the schedule for users.
+     */
+    public String describe(ZoneId zone){
+        String what = (action == Action.PLAY) ? "play " + song : "disconnect";
+
+        if(daily != null)
+            return what + " every day at " + daily.format(TIME_FORMAT);
+
+        return what + " at " + Instant.ofEpochMilli(at).atZone(zone).format(DATE_TIME_FORMAT);
+    }
+
+    /**
+     * @param text a time of day ({@code HH:mm}).
+     * @return the time or {@code null} if malformed.
+     */
+    public static LocalTime parseTime(String text){
+        try {
+            return LocalTime.parse(text, TIME_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param text a duration in hours and/or minutes
+     *             (e.g. {@code 2h}, {@code 90m}, {@code 1h30m}).
+     * @return the duration in milliseconds or -1 if
+     * malformed or zero.
+     */
+    public static long parseDuration(String text){
+        Matcher matcher = DURATION.matcher(text.toLowerCase(Locale.ROOT));
+
+        if(!matcher.matches())
+            return -1;
+
+        long minutes = 0;
+
+        if(matcher.group(1) != null)
+            minutes += Long.parseLong(matcher.group(1)) * 60;
+
+        if(matcher.group(2) != null)
+            minutes += Long.parseLong(matcher.group(2));
+
+        return (minutes == 0) ? -1 : minutes * 60000;
+    }
+
+    /**
+     * @param o the object to compare to.
+     * @return {@code true} if the given object is
+     * an identical schedule.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+
+        if(!(o instanceof Schedule))
+            return false;
+
+        Schedule other = (Schedule) o;
+        return id == other.id && at == other.at && action == other.action
+                && Objects.equals(song, other.song) && Objects.equals(daily, other.daily);
+    }
+
+    /**
+     * @return hash code of the schedule.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, action, song, daily, at);
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.schedule;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParseException;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.lmelaia.teeto.Constants;
+import net.lmelaia.teeto.GuildSettings;
+import net.lmelaia.teeto.LogManager;
+import net.lmelaia.teeto.Teeto;
+import net.lmelaia.teeto.TeetoConfig;
+import net.lmelaia.teeto.aud.AudioFile;
+import net.lmelaia.teeto.aud.AudioManager;
+import net.lmelaia.teeto.aud.AudioPlayer;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs guild schedules (e.g. "play nyan every day at
+ * 20:00" or "disconnect in 2 hours").
+ * <p>
+ * Schedules are kept in the guild settings, so they
+ * survive restarts, and each schedule is put on a single
+ * shared {@link TimerWheel}. The guilds with schedules are
+ * listed in an index file, so only their settings are read
+ * on startup. Without the index (or with a shared store,
+ * which is already in memory) every guild is read, in
+ * batches on the runner thread so startup doesn't wait,
+ * and the index is written. Changes to the settings
+ * (including ones made by other processes) replace the
+ * guilds timeouts. Each run is delayed by a random jitter
+ * so schedules set for the same time don't all hit discord
+ * at once.
+ */
+public final class Scheduler implements GuildSettings.ChangeListener {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Most schedules a guild can have.
+     */
+    public static final int MAX_SCHEDULES = 25;
+
+    /**
+     * Longest a one-off schedule can be overdue on startup
+     * and still run, in milliseconds. Older ones are dropped.
+     */
+    private static final long MISSED_GRACE = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Guilds read per runner task when reading every guild.
+     */
+    private static final int SCAN_BATCH = 100;
+
+    /**
+     * Length of a wheel tick in milliseconds.
+     */
+    private static final long TICK = 1000;
+
+    /**
+     * Number of wheel buckets.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * The java discord api.
+     */
+    private final JDA jda;
+
+    /**
+     * The audio manager.
+     */
+    private final AudioManager audioManager;
+
+    /**
+     * Zone daily times are in.
+     */
+    private final ZoneId zone;
+
+    /**
+     * Longest random delay added to each run, in milliseconds.
+     */
+    private final long jitter;
+
+    /**
+     * Runs due schedules, off the wheel thread.
+     */
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "schedule-runner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The timer wheel.
+     */
+    private final TimerWheel wheel;
+
+    /**
+     * Waiting timeouts of each guild, by schedule.
+     */
+    private final Map<Long, Map<Schedule, TimerWheel.Timeout>> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * Number of schedules run.
+     */
+    private final AtomicLong runs = new AtomicLong();
+
+    /**
+     * File listing the guilds with schedules, or {@code null}
+     * if the settings store is shared.
+     */
+    private final File indexFile;
+
+    /**
+     * Set while a write of the index is waiting to run.
+     */
+    private final AtomicBoolean indexDirty = new AtomicBoolean();
+
+    /**
+     * @param jda the java discord api.
+     * @param audioManager the audio manager.
+     * @param config the bot config.
+     * @param indexFile file listing the guilds with
+     *                  schedules, or {@code null}.
+     */
+    private Scheduler(JDA jda, AudioManager audioManager, TeetoConfig config, File indexFile){
+        this.jda = jda;
+        this.indexFile = indexFile;
+        this.audioManager = audioManager;
+        this.zone = getZone(config.getScheduleTimeZone());
+        this.jitter = TimeUnit.SECONDS.toMillis(config.getScheduleJitterSeconds());
+        this.wheel = new TimerWheel("schedule-wheel", TICK, TimeUnit.MILLISECONDS, WHEEL_SIZE, runner);
+    }
+
+    /**
+     * Creates the scheduler and schedules every guilds
+     * saved schedules: now for the guilds in the index, or
+     * in the background if every guild has to be read.
+     *
+     * @param jda the java discord api. Must be ready.
+     * @param audioManager the audio manager.
+     * @param config the bot config.
+     * @return the scheduler.
+     */
+    public static Scheduler init(JDA jda, AudioManager audioManager, TeetoConfig config){
+        boolean shared = GuildSettings.isStoreShared();
+        Scheduler scheduler = new Scheduler(jda, audioManager, config,
+                shared ? null : Constants.getScheduleIndexFile());
+        GuildSettings.addChangeListener(scheduler);
+
+        Set<Long> indexed = shared ? null : readIndex(scheduler.indexFile);
+
+        if(indexed == null){
+            List<Guild> guilds = new ArrayList<>(jda.getGuilds());
+            LOG.info("Reading the settings of " + guilds.size() + " guilds for schedules in the background");
+            scheduler.runner.execute(() -> scheduler.scan(guilds, 0));
+            return scheduler;
+        }
+
+        for(long guildId : indexed){
+            Guild g = jda.getGuildById(guildId);
+
+            if(g != null)
+                scheduler.reschedule(GuildSettings.getGuildSettings(g).getSnapshot());
+        }
+
+        LOG.info("Scheduled " + scheduler.getScheduledCount() + " schedules of "
+                + indexed.size() + " indexed guilds");
+
+        //Drops guilds left or without schedules anymore.
+        scheduler.markIndexDirty();
+        return scheduler;
+    }
+
+    /**
+     * Replaces the guilds timeouts if its schedules changed.
+     *
+     * @param previous the settings before the change.
+     * @param current the settings after the change.
+     */
+    @Override
+    public void onSettingsChanged(GuildSettings.Snapshot previous, GuildSettings.Snapshot current) {
+        if(!previous.getSchedules().equals(current.getSchedules()))
+            reschedule(current);
+    }
+
+    /**
+     * @return zone daily times are in.
+     */
+    public ZoneId getZone(){
+        return zone;
+    }
+
+    /**
+     * @return the number of schedules waiting to run.
+     */
+    public int getScheduledCount(){
+        return wheel.size();
+    }
+
+    /**
+     * @return the number of schedules run.
+     */
+    public long getRunCount(){
+        return runs.get();
+    }
+
+    /**
+     * Stops the scheduler. Schedules stay in the settings.
+     */
+    public void shutdown(){
+        GuildSettings.removeChangeListener(this);
+        wheel.stop();
+        runner.shutdown();
+    }
+
+    /**
+     * Brings the guilds timeouts in line with its schedules,
+     * cancelling removed ones and adding new ones. Unchanged
+     * schedules keep their timeouts.
+     *
+     * @param settings the guilds settings.
+     */
+    private synchronized void reschedule(GuildSettings.Snapshot settings){
+        long guildId = settings.getGuildId();
+        List<Schedule> schedules = settings.getSchedules();
+        boolean had = timeouts.containsKey(guildId);
+
+        //Guilds without schedules never get an entry.
+        if(!had && schedules.isEmpty())
+            return;
+
+        Map<Schedule, TimerWheel.Timeout> guildTimeouts = timeouts.computeIfAbsent(guildId, id -> new HashMap<>());
+
+        Iterator<Map.Entry<Schedule, TimerWheel.Timeout>> it = guildTimeouts.entrySet().iterator();
+        while(it.hasNext()){
+            Map.Entry<Schedule, TimerWheel.Timeout> entry = it.next();
+
+            if(!schedules.contains(entry.getKey())){
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+
+        for(Schedule schedule : schedules){
+            if(!guildTimeouts.containsKey(schedule))
+                add(guildId, guildTimeouts, schedule);
+        }
+
+        if(guildTimeouts.isEmpty())
+            timeouts.remove(guildId);
+
+        if(had != timeouts.containsKey(guildId))
+            markIndexDirty();
+    }
+
+    /**
+     * Reads a batch of guilds settings and schedules them,
+     * then queues the next batch on the runner, so schedules
+     * due meanwhile aren't held up. Writes the index once
+     * every guild has been read.
+     *
+     * @param guilds the guilds to read.
+     * @param from index of the first guild of the batch.
+     */
+    private void scan(List<Guild> guilds, int from){
+        int to = Math.min(guilds.size(), from + SCAN_BATCH);
+
+        for(Guild g : guilds.subList(from, to))
+            reschedule(GuildSettings.getGuildSettings(g).getSnapshot());
+
+        if(to < guilds.size()){
+            runner.execute(() -> scan(guilds, to));
+            return;
+        }
+
+        LOG.info("Scheduled " + getScheduledCount() + " schedules after reading " + guilds.size() + " guilds");
+        markIndexDirty();
+    }
+
+    /**
+     * Queues a write of the index on the runner, unless one
+     * is already waiting.
+     */
+    private void markIndexDirty(){
+        if(indexFile != null && indexDirty.compareAndSet(false, true))
+            runner.execute(this::writeIndex);
+    }
+
+    /**
+     * Writes the guilds with schedules to a temporary file
+     * and renames it over the index file.
+     */
+    private void writeIndex(){
+        indexDirty.set(false);
+        Path target = indexFile.toPath();
+        Path temp = target.resolveSibling(indexFile.getName() + ".tmp");
+
+        try {
+            Files.write(temp, Teeto.GSON.toJson(new ArrayList<>(timeouts.keySet())).getBytes(StandardCharsets.UTF_8));
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to write schedule index", e);
+        }
+    }
+
+    /**
+     * @param indexFile the index file.
+     * @return the guilds in the index, or {@code null} if
+     * there's no index or it can't be read.
+     */
+    private static Set<Long> readIndex(File indexFile){
+        if(!indexFile.exists())
+            return null;
+
+        try {
+            long[] guildIds = Teeto.GSON.fromJson(new String(Files.readAllBytes(indexFile.toPath()),
+                    StandardCharsets.UTF_8), long[].class);
+            if(guildIds == null)
+                return null;
+
+            Set<Long> indexed = new HashSet<>();
+
+            for(long guildId : guildIds)
+                indexed.add(guildId);
+
+            return indexed;
+        } catch (IOException | JsonParseException e) {
+            LOG.error("Failed to read schedule index. Reading every guild instead.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Puts the next run of a schedule on the wheel.
+     *
+     * @param guildId the guilds ID.
+     * @param guildTimeouts the guilds timeouts.
+     * @param schedule the schedule.
+     */
+    private void add(long guildId, Map<Schedule, TimerWheel.Timeout> guildTimeouts, Schedule schedule){
+        long now = System.currentTimeMillis();
+        long delay = schedule.getNextRun(now, zone) - now;
+
+        if(!schedule.isDaily() && delay < -MISSED_GRACE){
+            LOG.info("Dropping missed schedule " + schedule.getId() + " of guild: " + guildId);
+            runner.execute(() -> remove(guildId, schedule));
+            return;
+        }
+
+        delay = Math.max(0, delay) + ((jitter == 0) ? 0 : ThreadLocalRandom.current().nextLong(jitter));
+        guildTimeouts.put(schedule, wheel.schedule(() -> run(guildId, schedule), delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Runs a due schedule, then puts its next run on the
+     * wheel if daily or removes it from the settings if not.
+     *
+     * @param guildId the guilds ID.
+     * @param schedule the schedule.
+     */
+    private void run(long guildId, Schedule schedule){
+        synchronized (this){
+            Map<Schedule, TimerWheel.Timeout> guildTimeouts = timeouts.get(guildId);
+
+            //Cancelled after it expired.
+            if(guildTimeouts == null || guildTimeouts.remove(schedule) == null)
+                return;
+
+            if(schedule.isDaily())
+                add(guildId, guildTimeouts, schedule);
+            else if(guildTimeouts.isEmpty())
+                timeouts.remove(guildId);
+        }
+
+        Guild g = jda.getGuildById(guildId);
+
+        if(g == null)
+            return;
+
+        runs.incrementAndGet();
+        LOG.info("Running schedule " + schedule.getId() + " in guild: " + g.getName());
+
+        try {
+            perform(g, schedule);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to run schedule " + schedule.getId() + " in guild: " + g.getName(), e);
+        }
+
+        if(!schedule.isDaily())
+            remove(guildId, schedule);
+    }
+
+    /**
+     * Runs the action of a schedule.
+     *
+     * @param g the guild.
+     * @param schedule the schedule.
+     */
+    private void perform(Guild g, Schedule schedule){
+        AudioPlayer player = audioManager.getAudioPlayer(g);
+
+        switch (schedule.getAction()){
+            case PLAY: {
+                GuildSettings.Snapshot settings = GuildSettings.getGuildSettings(g).getSnapshot();
+                VoiceChannel channel = settings.hasHellChannel()
+                        ? g.getVoiceChannelById(settings.getHellChannel()) : null;
+                AudioFile audioFile = audioManager.getAudioFileFromName(schedule.getSong());
+
+                if(channel == null || audioFile == null){
+                    LOG.warn("Cannot run schedule " + schedule.getId() + " in guild " + g.getName()
+                            + ": missing hell channel or song " + schedule.getSong());
+                    return;
+                }
+
+                player.connectToVoice(channel, false);
+                player.loop(audioFile);
+                break;
+            }
+            case DISCONNECT:
+                if(player.isConnected())
+                    player.disconnectFromVoice();
+                break;
+        }
+    }
+
+    /**
+     * Removes a one-off schedule from the guilds settings.
+     *
+     * @param guildId the guilds ID.
+     * @param schedule the schedule.
+     */
+    private void remove(long guildId, Schedule schedule){
+        Guild g = jda.getGuildById(guildId);
+
+        if(g == null)
+            return;
+
+        GuildSettings gs = GuildSettings.getGuildSettings(g);
+        JsonArray schedules = new JsonArray();
+
+        for(Schedule s : gs.getSnapshot().getSchedules()){
+            if(!s.equals(schedule))
+                schedules.add(s.toJson());
+        }
+
+        gs.setSetting(GuildSettings.Settings.SCHEDULES, schedules);
+        gs.save();
+    }
+
+    /**
+     * @param name name of a time zone or {@code null}.
+     * @return the zone or the system zone if not
+     * set or unknown.
+     */
+    private static ZoneId getZone(String name){
+        if(name == null)
+            return ZoneId.systemDefault();
+
+        try {
+            return ZoneId.of(name);
+        } catch (DateTimeException e) {
+            LOG.error("Unknown schedule time zone: " + name + ". Using the system zone.", e);
+            return ZoneId.systemDefault();
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.schedule;
+
+import net.lmelaia.teeto.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Hashed timer wheel.
+ * <p>
+ * Time is split into ticks and timeouts are hashed into
+ * one of a fixed ring of buckets by the tick they expire
+ * on, along with the number of turns of the wheel left
+ * before they do. A single worker thread wakes up once a
+ * tick and only walks the bucket for that tick, so any
+ * number of timeouts can be waiting on one thread.
+ * <p>
+ * Scheduling and cancelling are O(1): both only add the
+ * timeout to a queue, which the worker drains at the
+ * start of the next tick, linking or unlinking it from
+ * its bucket. Expired tasks are run on the given executor,
+ * not the worker, and fire up to a tick late.
+ */
+final class TimerWheel {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Most new timeouts moved into the wheel in one tick.
+     */
+    static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    /**
+     * Timeout is waiting.
+     */
+    private static final int WAITING = 0;
+
+    /**
+     * Timeout was cancelled.
+     */
+    private static final int CANCELLED = 1;
+
+    /**
+     * Timeout has expired.
+     */
+    private static final int EXPIRED = 2;
+
+    /**
+     * Length of a tick in nanoseconds.
+     */
+    private final long tickNanos;
+
+    /**
+     * The wheel. Its length is a power of two.
+     */
+    private final Bucket[] buckets;
+
+    /**
+     * Mask of a tick to its bucket index.
+     */
+    private final int mask;
+
+    /**
+     * Timeouts scheduled since the last tick.
+     */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timeouts cancelled since the last tick.
+     */
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of waiting timeouts.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Runs expired tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * Source of the time in nanoseconds.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * The worker thread, or {@code null} if ticks are run
+     * by the caller.
+     */
+    private final Thread worker;
+
+    /**
+     * Time the wheel started, from the clock.
+     */
+    private final long startTime;
+
+    /**
+     * Ticks since the wheel started. Only used by the
+     * thread running ticks.
+     */
+    private long tick;
+
+    /**
+     * Set once the wheel is stopped.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Creates and starts a timer wheel.
+     *
+     * @param name name of the worker thread.
+     * @param tickDuration length of a tick.
+     * @param unit unit of the tick length.
+     * @param wheelSize number of buckets. Rounded up
+     *                  to a power of two.
+     * @param executor runs expired tasks.
+     */
+    TimerWheel(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor executor){
+        this(name, tickDuration, unit, wheelSize, executor, System::nanoTime);
+    }
+
+    /**
+     * Creates a timer wheel on the given clock without a
+     * worker thread. Ticks are run by calling
+     * {@link #nextTick(long)} (e.g. from a test).
+     *
+     * @param tickDuration length of a tick.
+     * @param unit unit of the tick length.
+     * @param wheelSize number of buckets. Rounded up
+     *                  to a power of two.
+     * @param executor runs expired tasks.
+     * @param clock source of the time in nanoseconds.
+     */
+    TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, Executor executor, LongSupplier clock){
+        this(null, tickDuration, unit, wheelSize, executor, clock);
+    }
+
+    /**
+     * @param name name of the worker thread, or {@code null}
+     *             to not start one.
+     * @param tickDuration length of a tick.
+     * @param unit unit of the tick length.
+     * @param wheelSize number of buckets.
+     * @param executor runs expired tasks.
+     * @param clock source of the time in nanoseconds.
+     */
+    private TimerWheel(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor executor,
+                       LongSupplier clock){
+        if(tickDuration <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+
+        int length = Integer.highestOneBit(wheelSize);
+        if(length < wheelSize)
+            length <<= 1;
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Bucket[length];
+        this.mask = length - 1;
+        this.executor = executor;
+
+        for(int i = 0; i < length; i++)
+            buckets[i] = new Bucket();
+
+        this.clock = clock;
+        this.startTime = clock.getAsLong();
+
+        if(name == null){
+            this.worker = null;
+            return;
+        }
+
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     *
+     * @param task the task.
+     * @param delay the delay. Negative delays are
+     *              treated as zero.
+     * @param unit unit of the delay.
+     * @return the timeout, which can be cancelled.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit){
+        if(stopped)
+            throw new IllegalStateException("Timer wheel stopped");
+
+        long deadline = clock.getAsLong() - startTime + unit.toNanos(Math.max(0, delay));
+
+        Timeout timeout = new Timeout(task, deadline);
+        size.incrementAndGet();
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return the number of waiting timeouts.
+     */
+    int size(){
+        return size.get();
+    }
+
+    /**
+     * Stops the worker. Waiting timeouts never expire.
+     */
+    void stop(){
+        stopped = true;
+
+        if(worker != null)
+            worker.interrupt();
+    }
+
+    /**
+     * @return the number of timeouts scheduled or cancelled
+     * since the last tick, not yet linked into or unlinked
+     * from their bucket.
+     */
+    int getQueuedCount(){
+        return pending.size() + cancelled.size();
+    }
+
+    /**
+     * Runs the current tick: unlinks cancelled timeouts,
+     * links new ones and expires the bucket of the tick.
+     * Called once a tick by the worker.
+     *
+     * @param now the time since the wheel started, in
+     *            nanoseconds. At least the end of the tick.
+     * @return the tick that was run.
+     */
+    long nextTick(long now){
+        removeCancelled();
+        transferPending();
+        expire(buckets[(int) (tick & mask)], now);
+        return tick++;
+    }
+
+    /**
+     * Worker thread body. Runs each tick once it's over.
+     */
+    private void run(){
+        while(!stopped){
+            long now = waitForNextTick();
+
+            if(now < 0)
+                return;
+
+            nextTick(now);
+        }
+    }
+
+    /**
+     * Sleeps until the end of the current tick.
+     *
+     * @return the time since the wheel started in
+     * nanoseconds, or -1 if stopped.
+     */
+    private long waitForNextTick(){
+        long deadline = tickNanos * (tick + 1);
+
+        while(true){
+            long now = clock.getAsLong() - startTime;
+            long sleep = (deadline - now + 999999) / 1000000;
+
+            if(sleep <= 0)
+                return now;
+
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                if(stopped)
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * Unlinks timeouts cancelled since the last tick.
+     */
+    private void removeCancelled(){
+        Timeout timeout;
+
+        while((timeout = cancelled.poll()) != null){
+            if(timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    /**
+     * Links timeouts scheduled since the last tick
+     * into the bucket they expire in.
+     */
+    private void transferPending(){
+        for(int i = 0; i < MAX_TRANSFERS_PER_TICK; i++){
+            Timeout timeout = pending.poll();
+
+            if(timeout == null)
+                return;
+
+            if(timeout.state.get() != WAITING)
+                continue;
+
+            long expiresOn = timeout.deadline / tickNanos;
+            timeout.rounds = (expiresOn - tick) / buckets.length;
+
+            //Timeouts already due go in the current bucket.
+            buckets[(int) (Math.max(expiresOn, tick) & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Expires the timeouts in a bucket that are due
+     * this turn of the wheel.
+     *
+     * @param bucket the bucket of the current tick.
+     * @param deadline the time since the wheel started.
+     */
+    private void expire(Bucket bucket, long deadline){
+        Timeout timeout = bucket.head;
+
+        while(timeout != null){
+            Timeout next = timeout.next;
+
+            if(timeout.state.get() != WAITING){
+                bucket.remove(timeout);
+            } else if(timeout.rounds <= 0 && timeout.deadline <= deadline){
+                bucket.remove(timeout);
+                timeout.expire();
+            } else {
+                timeout.rounds--;
+            }
+
+            timeout = next;
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    final class Timeout {
+
+        /**
+         * The task.
+         */
+        private final Runnable task;
+
+        /**
+         * Time the timeout expires, in nanoseconds
+         * since the wheel started.
+         */
+        private final long deadline;
+
+        /**
+         * State of the timeout.
+         */
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        /**
+         * Turns of the wheel left before the timeout expires.
+         */
+        private long rounds;
+
+        /**
+         * Bucket the timeout is linked into, or {@code null}.
+         */
+        private Bucket bucket;
+
+        /**
+         * Previous timeout in the bucket.
+         */
+        private Timeout prev;
+
+        /**
+         * Next timeout in the bucket.
+         */
+        private Timeout next;
+
+        /**
+         * @param task the task.
+         * @param deadline time the timeout expires, in
+         *                 nanoseconds since the wheel started.
+         */
+        private Timeout(Runnable task, long deadline){
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout.
+         *
+         * @return {@code true} if the timeout was waiting
+         * and won't run.
+         */
+        boolean cancel(){
+            if(!state.compareAndSet(WAITING, CANCELLED))
+                return false;
+
+            size.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * @return {@code true} if the timeout is linked into
+         * a bucket of the wheel.
+         */
+        boolean isLinked(){
+            return bucket != null;
+        }
+
+        /**
+         * @return {@code true} if the timeout was cancelled.
+         */
+        boolean isCancelled(){
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * Hands the task to the executor unless the timeout
+         * was cancelled.
+         */
+        private void expire(){
+            if(!state.compareAndSet(WAITING, EXPIRED))
+                return;
+
+            size.decrementAndGet();
+
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Expired task rejected", e);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts hashed to a
+     * slot of the wheel. Only used by the thread running
+     * ticks.
+     */
+    private static final class Bucket {
+
+        /**
+         * First timeout or {@code null}.
+         */
+        private Timeout head;
+
+        /**
+         * Last timeout or {@code null}.
+         */
+        private Timeout tail;
+
+        /**
+         * Links a timeout at the end of the bucket.
+         *
+         * @param timeout the timeout.
+         */
+        private void add(Timeout timeout){
+            timeout.bucket = this;
+
+            if(head == null){
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        /**
+         * Unlinks a timeout from the bucket.
+         *
+         * @param timeout the timeout.
+         */
+        private void remove(Timeout timeout){
+            if(timeout.bucket != this)
+                return;
+
+            if(timeout.prev != null)
+                timeout.prev.next = timeout.next;
+            else head = timeout.next;
+
+            if(timeout.next != null)
+                timeout.next.prev = timeout.prev;
+            else tail = timeout.prev;
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Gate for benchmarks and soak tests, which are slow, print their
+ * results and depend on the machine and JVM they run on. They're
+ * skipped unless the {@code teeto.benchmarks} system property is
+ * set, which {@code gradle test -Pbenchmarks} does.
+ */
+public final class Benchmarks {
+
+    /**
+     * System property that enables benchmarks and soak tests.
+     */
+    private static final String PROPERTY = "teeto.benchmarks";
+
+    private Benchmarks(){}
+
+    /**
+     * Skips the calling test class unless benchmarks are
+     * enabled. Called from a {@code @BeforeClass} method.
+     */
+    public static void assumeEnabled(){
+        assumeTrue("benchmarks are only run with -Pbenchmarks", Boolean.getBoolean(PROPERTY));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Cold start and write throughput of the {@link LogSettingsStore}
+ * against the per-guild json files of the {@link FileSettingsStore},
+ * at 10k and 100k guilds.
+ * <p>
+ * Writes are synced to disk one at a time, as the persister does,
+ * so the write numbers depend heavily on the disk. Only run with
+ * {@code -Pbenchmarks}.
+ */
+public class LogSettingsStoreBenchmark {
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void tenThousandGuilds() throws IOException {
+        run(10_000);
+    }
+
+    @Test
+    public void hundredThousandGuilds() throws IOException {
+        run(100_000);
+    }
+
+    /**
+     * Writes the given number of guilds to both stores, then
+     * reopens each and loads every guild, printing the times.
+     *
+     * @param guilds the number of guilds.
+     * @throws IOException reason for failure if any.
+     */
+    private static void run(int guilds) throws IOException {
+        File logFolder = Files.createTempDirectory("teeto-bench-log").toFile();
+        File fileFolder = Files.createTempDirectory("teeto-bench-files").toFile();
+
+        try {
+            LogSettingsStore log = new LogSettingsStore(logFolder);
+            FileSettingsStore files = new FileSettingsStore(fileFolder);
+
+            long logWrite = time(() -> {
+                for(long id = 1; id <= guilds; id++)
+                    log.write(id, settings(id));
+            });
+            log.close();
+
+            long fileWrite = time(() -> {
+                for(long id = 1; id <= guilds; id++)
+                    files.write(id, settings(id));
+            });
+
+            int[] loaded = new int[2];
+            long logStart = time(() -> {
+                LogSettingsStore reopened = new LogSettingsStore(logFolder);
+                loaded[0] = reopened.loadAll().size();
+                reopened.close();
+            });
+            long fileStart = time(() -> loaded[1] = new FileSettingsStore(fileFolder).loadAll().size());
+
+            assertEquals(guilds, loaded[0]);
+            assertEquals(guilds, loaded[1]);
+
+            System.out.println(String.format("%,d guilds | log: write %,d/s, cold start %,dms"
+                            + " | json files: write %,d/s, cold start %,dms", guilds,
+                    guilds * 1000L / Math.max(1, logWrite), logStart,
+                    guilds * 1000L / Math.max(1, fileWrite), fileStart));
+        } finally {
+            delete(logFolder);
+            delete(fileFolder);
+        }
+    }
+
+    /**
+     * @param task the task to time.
+     * @return how long the task took, in milliseconds.
+     * @throws IOException reason for failure if any.
+     */
+    private static long time(IOTask task) throws IOException {
+        long start = System.nanoTime();
+        task.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * @param id the guild ID.
+     * @return typical settings for the guild.
+     */
+    private static JsonObject settings(long id){
+        JsonObject settings = new JsonObject();
+        settings.add("id", new JsonPrimitive(id));
+        settings.add("hell_channel", new JsonPrimitive("hell"));
+        settings.add("hell_song", new JsonPrimitive("hell-song"));
+        settings.add("loop", new JsonPrimitive(true));
+        return settings;
+    }
+
+    /**
+     * @param folder folder to delete along with its files.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void delete(File folder){
+        File[] files = folder.listFiles();
+
+        if(files != null)
+            for(File f : files)
+                f.delete();
+
+        folder.delete();
+    }
+
+    /**
+     * Timed task that may throw an {@link IOException}.
+     */
+    private interface IOTask {
+
+        /**
+         * @throws IOException reason for failure if any.
+         */
+        void run() throws IOException;
+    }
+}
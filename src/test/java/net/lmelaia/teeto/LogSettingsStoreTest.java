@@ -0,0 +1,229 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogSettingsStore}.
+ */
+public class LogSettingsStoreTest {
+
+    /**
+     * Small segment size so tests roll segments quickly.
+     */
+    private static final long SEGMENT_SIZE = 4 * 1024;
+
+    /**
+     * Folder the log is kept in for the test.
+     */
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("teeto-log-store").toFile();
+    }
+
+    @After
+    public void tearDown(){
+        File[] files = folder.listFiles();
+
+        if(files != null)
+            for(File f : files)
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+
+        //noinspection ResultOfMethodCallIgnored
+        folder.delete();
+    }
+
+    @Test
+    public void reopenedLogLoadsLatestRecords() throws IOException {
+        LogSettingsStore store = new LogSettingsStore(folder, SEGMENT_SIZE);
+
+        for(int round = 0; round < 5; round++)
+            for(long id = 1; id <= 100; id++)
+                store.write(id, settings(id, round));
+
+        store.close();
+        store = new LogSettingsStore(folder, SEGMENT_SIZE);
+
+        for(long id = 1; id <= 100; id++)
+            assertEquals(4, store.load(id).get("round").getAsInt());
+
+        Map<Long, JsonObject> all = store.loadAll();
+        assertEquals(100, all.size());
+        assertEquals(4, all.get(50L).get("round").getAsInt());
+        assertNull(store.load(101));
+        store.close();
+    }
+
+    @Test
+    public void compactionKeepsLatestRecords() throws IOException {
+        LogSettingsStore store = new LogSettingsStore(folder, SEGMENT_SIZE);
+
+        for(int round = 0; round < 20; round++)
+            for(long id = 1; id <= 50; id++)
+                store.write(id, settings(id, round));
+
+        int before = segmentCount();
+        store.compactIfNeeded();
+
+        assertTrue("no segments were merged", segmentCount() < before);
+
+        for(long id = 1; id <= 50; id++)
+            assertEquals(19, store.load(id).get("round").getAsInt());
+
+        store.close();
+        store = new LogSettingsStore(folder, SEGMENT_SIZE);
+        assertEquals(50, store.loadAll().size());
+        assertEquals(19, store.load(7).get("round").getAsInt());
+        store.close();
+    }
+
+    @Test
+    public void loadDuringCompactionNeverReturnsAnotherGuild() throws Exception {
+        LogSettingsStore store = new LogSettingsStore(folder, SEGMENT_SIZE);
+
+        for(long id = 1; id <= 200; id++)
+            store.write(id, settings(id, 0));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread loader = new Thread(() -> {
+            try {
+                while(running.get()){
+                    for(long id = 1; id <= 200; id++){
+                        JsonObject loaded = store.load(id);
+                        if(loaded.get("id").getAsLong() != id)
+                            throw new AssertionError("Loaded guild " + loaded.get("id") + " for " + id);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        loader.start();
+
+        for(int round = 1; round < 15 && failure.get() == null; round++){
+            for(long id = 1; id <= 200; id++)
+                store.write(id, settings(id, round));
+
+            store.compactIfNeeded();
+        }
+
+        running.set(false);
+        loader.join();
+        store.close();
+
+        if(failure.get() != null)
+            throw new AssertionError("Load failed during compaction", failure.get());
+    }
+
+    @Test
+    public void loadAllLeavesARecordBeingAppendedAlone() throws IOException {
+        LogSettingsStore store = new LogSettingsStore(folder, SEGMENT_SIZE);
+
+        for(long id = 1; id <= 5; id++)
+            store.write(id, settings(id, 0));
+
+        //The first half of a record, as seen while another thread appends it.
+        File segment = new File(folder, "segment-1.log");
+        long length = segment.length();
+
+        try(RandomAccessFile file = new RandomAccessFile(segment, "rw")){
+            file.seek(length);
+            file.write(new byte[]{0, 0, 0, 100, 0, 0, 0});
+        }
+
+        Map<Long, JsonObject> all = store.loadAll();
+
+        assertEquals(5, all.size());
+        assertEquals("loadAll cut off the record being appended", length + 7, segment.length());
+        store.close();
+    }
+
+    @Test
+    public void corruptRecordIsSkippedByIndexAndReplayAlike() throws IOException {
+        LogSettingsStore store = new LogSettingsStore(folder, SEGMENT_SIZE);
+
+        for(long id = 1; id <= 10; id++)
+            store.write(id, settings(id, 0));
+
+        store.close();
+
+        //Flip a byte in the json of the sixth record.
+        File segment = new File(folder, "segment-1.log");
+        long recordSize = segment.length() / 10;
+
+        try(RandomAccessFile file = new RandomAccessFile(segment, "rw")){
+            long position = recordSize * 5 + 20;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xFF);
+        }
+
+        store = new LogSettingsStore(folder, SEGMENT_SIZE);
+        Map<Long, JsonObject> all = store.loadAll();
+
+        for(long id = 1; id <= 10; id++){
+            JsonObject loaded = store.load(id);
+            assertEquals("load and loadAll disagree for guild " + id, all.get(id), loaded);
+        }
+
+        assertEquals(5, all.size());
+        store.close();
+    }
+
+    /**
+     * @param id the guild ID.
+     * @param round the write round.
+     * @return settings for the guild, padded so records
+     * fill segments quickly.
+     */
+    private static JsonObject settings(long id, int round){
+        JsonObject settings = new JsonObject();
+        settings.add("id", new JsonPrimitive(id));
+        settings.add("round", new JsonPrimitive(round));
+        settings.add("hell_song", new JsonPrimitive("hell-song-" + id));
+        return settings;
+    }
+
+    /**
+     * @return the number of segment files in the folder.
+     */
+    private int segmentCount(){
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".log"));
+        return (files == null) ? 0 : files.length;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RedisSettingsStore} against an in-process
+ * {@link RespStandIn} server.
+ */
+public class RedisSettingsStoreTest {
+
+    /**
+     * Latency added to every command by the latency test, in milliseconds.
+     */
+    private static final long LATENCY = 20;
+
+    /**
+     * The stand-in server.
+     */
+    private RespStandIn server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RespStandIn();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void writtenSettingsLoadSinglyAndInBulk() throws IOException {
+        RedisSettingsStore store = new RedisSettingsStore(server.getUri());
+
+        for(long id = 1; id <= 2500; id++)
+            store.write(id, settings(id, "song-" + id));
+
+        assertEquals("song-7", store.load(7).get("hell_song").getAsString());
+        assertNull(store.load(9999));
+
+        Map<Long, JsonObject> all = store.loadAll();
+        assertEquals(2500, all.size());
+        assertEquals("song-2500", all.get(2500L).get("hell_song").getAsString());
+        assertTrue(store.isShared());
+        store.close();
+    }
+
+    @Test
+    public void changesReachOtherProcessesOnly() throws Exception {
+        RedisSettingsStore first = new RedisSettingsStore(server.getUri());
+        RedisSettingsStore second = new RedisSettingsStore(server.getUri());
+        Listener firstListener = new Listener();
+        Listener secondListener = new Listener();
+        first.setRemoteChangeListener(firstListener);
+        second.setRemoteChangeListener(secondListener);
+        server.awaitSubscribers(2);
+
+        first.write(42, settings(42, "changed"));
+
+        JsonObject received = secondListener.changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull("change never reached the other process", received);
+        assertEquals("changed", received.get("hell_song").getAsString());
+        assertNull("process was told about its own change", firstListener.changes.poll(200, TimeUnit.MILLISECONDS));
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void storeIsSubscribedOnceOpened() throws Exception {
+        RedisSettingsStore reader = new RedisSettingsStore(server.getUri());
+        assertEquals("opened before subscribing", 1, server.getSubscriberCount());
+
+        //Written straight after opening, as another process could while this one preloads.
+        Listener listener = new Listener();
+        reader.setRemoteChangeListener(listener);
+        RedisSettingsStore writer = new RedisSettingsStore(server.getUri());
+        writer.write(7, settings(7, "early"));
+
+        JsonObject received = listener.changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull("change made right after opening was missed", received);
+        assertEquals(1, listener.resynced.getCount());
+
+        reader.close();
+        writer.close();
+    }
+
+    @Test
+    public void droppedSubscriptionResyncs() throws Exception {
+        RedisSettingsStore store = new RedisSettingsStore(server.getUri());
+        Listener listener = new Listener();
+        store.setRemoteChangeListener(listener);
+        server.awaitSubscribers(1);
+
+        server.dropSubscribers();
+
+        assertTrue("no resync after the subscription dropped", listener.resynced.await(5, TimeUnit.SECONDS));
+        server.awaitSubscribers(1);
+        store.close();
+    }
+
+    @Test
+    public void changesArriveWithinAFewRoundTrips() throws Exception {
+        RedisSettingsStore writer = new RedisSettingsStore(server.getUri());
+        RedisSettingsStore reader = new RedisSettingsStore(server.getUri());
+        Listener listener = new Listener();
+        reader.setRemoteChangeListener(listener);
+        server.awaitSubscribers(2);
+        server.setLatency(LATENCY);
+
+        long worst = 0;
+        long total = 0;
+
+        for(int i = 0; i < 20; i++){
+            long start = System.nanoTime();
+            writer.write(1, settings(1, "song-" + i));
+            JsonObject received = listener.changes.poll(5, TimeUnit.SECONDS);
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+            assertNotNull(received);
+            assertEquals("song-" + i, received.get("hell_song").getAsString());
+            worst = Math.max(worst, elapsed);
+            total += elapsed;
+        }
+
+        //A write is SET then PUBLISH; the change is pushed with the PUBLISH.
+        System.out.println("Change propagation with " + LATENCY + "ms per command: avg "
+                + (total / 20) + "ms, worst " + worst + "ms");
+        assertTrue("change took " + worst + "ms to arrive", worst < LATENCY * 2 + 200);
+
+        writer.close();
+        reader.close();
+    }
+
+    /**
+     * @param id the guild ID.
+     * @param song the hell song.
+     * @return settings for the guild.
+     */
+    private static JsonObject settings(long id, String song){
+        JsonObject settings = new JsonObject();
+        settings.add("id", new JsonPrimitive(id));
+        settings.add("hell_song", new JsonPrimitive(song));
+        return settings;
+    }
+
+    /**
+     * Records the remote changes and resyncs it's told about.
+     */
+    private static final class Listener implements SettingsStore.RemoteChangeListener {
+
+        /**
+         * Remote changes received.
+         */
+        private final BlockingQueue<JsonObject> changes = new LinkedBlockingQueue<>();
+
+        /**
+         * Counted down on resync.
+         */
+        private final CountDownLatch resynced = new CountDownLatch(1);
+
+        @Override
+        public void onRemoteChange(long guildId, JsonObject settings) {
+            changes.add(settings);
+        }
+
+        @Override
+        public void onResync() {
+            resynced.countDown();
+        }
+    }
+}
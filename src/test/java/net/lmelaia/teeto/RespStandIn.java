@@ -0,0 +1,386 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process stand-in for a Redis server, speaking just
+ * enough of the protocol for the {@link RedisSettingsStore}:
+ * {@code GET}, {@code SET}, {@code MGET}, {@code SCAN} (one
+ * batch), {@code PUBLISH}, {@code SUBSCRIBE}, {@code AUTH}
+ * and {@code SELECT}.
+ */
+class RespStandIn implements Closeable {
+
+    /**
+     * The listening socket.
+     */
+    private final ServerSocket server;
+
+    /**
+     * Stored values to keys.
+     */
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribed connections.
+     */
+    private final List<Client> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Every open connection.
+     */
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    /**
+     * Delay added before answering each command, in milliseconds.
+     */
+    private volatile long latency;
+
+    /**
+     * Starts listening on a free local port.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    RespStandIn() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(this::accept, "resp-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the URI to connect to.
+     */
+    URI getUri(){
+        return URI.create("redis://127.0.0.1:" + server.getLocalPort());
+    }
+
+    /**
+     * @param latency delay added before answering each
+     *                command, in milliseconds.
+     */
+    void setLatency(long latency){
+        this.latency = latency;
+    }
+
+    /**
+     * Waits until the given number of connections are subscribed.
+     *
+     * @param count the number of subscribers to wait for.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void awaitSubscribers(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while(subscribers.size() < count){
+            if(System.currentTimeMillis() > deadline)
+                throw new AssertionError("Only " + subscribers.size() + " of " + count + " subscribed");
+
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return the number of connections subscribed.
+     */
+    int getSubscriberCount(){
+        return subscribers.size();
+    }
+
+    /**
+     * Closes every subscribed connection, as a server
+     * restart or network drop would.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    void dropSubscribers() throws IOException {
+        for(Client client : subscribers){
+            subscribers.remove(client);
+            client.socket.close();
+        }
+    }
+
+    /**
+     * Stops listening and closes every connection.
+     *
+     * @throws IOException reason for failure if any.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+
+        for(Client client : clients)
+            client.socket.close();
+    }
+
+    /**
+     * Accepts connections until closed.
+     */
+    private void accept(){
+        while(!server.isClosed()){
+            try {
+                Client client = new Client(server.accept());
+                clients.add(client);
+
+                Thread thread = new Thread(() -> serve(client), "resp-stand-in-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers commands from a connection until it closes.
+     *
+     * @param client the connection.
+     */
+    private void serve(Client client){
+        try {
+            while(true){
+                List<String> command = readCommand(client.in);
+
+                if(command == null)
+                    return;
+
+                if(latency > 0)
+                    Thread.sleep(latency);
+
+                answer(client, command);
+                client.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            //Connection closed.
+        } finally {
+            subscribers.remove(client);
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * @param client the connection.
+     * @param command the command and its arguments.
+     * @throws IOException reason for failure if any.
+     */
+    private void answer(Client client, List<String> command) throws IOException {
+        switch (command.get(0).toUpperCase()){
+            case "AUTH":
+            case "SELECT":
+                client.write("+OK\r\n");
+                break;
+            case "GET":
+                client.writeBulk(values.get(command.get(1)));
+                break;
+            case "SET":
+                values.put(command.get(1), command.get(2).getBytes(StandardCharsets.UTF_8));
+                client.write("+OK\r\n");
+                break;
+            case "MGET": {
+                List<byte[]> reply = new ArrayList<>();
+                for(String key : command.subList(1, command.size()))
+                    reply.add(values.get(key));
+                client.writeArray(reply);
+                break;
+            }
+            case "SCAN": {
+                String prefix = command.get(3).substring(0, command.get(3).indexOf('['));
+                List<byte[]> keys = new ArrayList<>();
+
+                for(String key : values.keySet())
+                    if(key.startsWith(prefix) && key.length() > prefix.length()
+                            && Character.isDigit(key.charAt(prefix.length())))
+                        keys.add(key.getBytes(StandardCharsets.UTF_8));
+
+                synchronized (client){
+                    client.write("*2\r\n");
+                    client.writeBulk("0".getBytes(StandardCharsets.UTF_8));
+                    client.writeArray(keys);
+                }
+                break;
+            }
+            case "PUBLISH": {
+                int received = 0;
+
+                for(Client subscriber : subscribers){
+                    try {
+                        List<byte[]> message = new ArrayList<>();
+                        message.add("message".getBytes(StandardCharsets.UTF_8));
+                        message.add(command.get(1).getBytes(StandardCharsets.UTF_8));
+                        message.add(command.get(2).getBytes(StandardCharsets.UTF_8));
+                        subscriber.writeArray(message);
+                        subscriber.flush();
+                        received++;
+                    } catch (IOException e) {
+                        subscribers.remove(subscriber);
+                    }
+                }
+
+                client.write(":" + received + "\r\n");
+                break;
+            }
+            case "SUBSCRIBE":
+                synchronized (client){
+                    client.write("*3\r\n");
+                    client.writeBulk("subscribe".getBytes(StandardCharsets.UTF_8));
+                    client.writeBulk(command.get(1).getBytes(StandardCharsets.UTF_8));
+                    client.write(":1\r\n");
+                }
+                subscribers.add(client);
+                break;
+            default:
+                client.write("-ERR unknown command '" + command.get(0) + "'\r\n");
+        }
+    }
+
+    /**
+     * @param in the connection input.
+     * @return the next command and its arguments, or
+     * {@code null} if the connection closed.
+     * @throws IOException reason for failure if any.
+     */
+    private static List<String> readCommand(DataInputStream in) throws IOException {
+        int type = in.read();
+
+        if(type == -1)
+            return null;
+
+        if(type != '*')
+            throw new IOException("Expected array");
+
+        int length = Integer.parseInt(readLine(in));
+        List<String> command = new ArrayList<>(length);
+
+        for(int i = 0; i < length; i++){
+            if(in.read() != '$')
+                throw new IOException("Expected bulk string");
+
+            byte[] arg = new byte[Integer.parseInt(readLine(in))];
+            in.readFully(arg);
+            readLine(in);
+            command.add(new String(arg, StandardCharsets.UTF_8));
+        }
+
+        return command;
+    }
+
+    /**
+     * @param in the connection input.
+     * @return the next CRLF terminated line, without the CRLF.
+     * @throws IOException reason for failure if any.
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while((c = in.read()) != '\r'){
+            if(c == -1)
+                throw new EOFException();
+            line.append((char) c);
+        }
+
+        in.read();
+        return line.toString();
+    }
+
+    /**
+     * A client connection.
+     */
+    private static final class Client {
+
+        /**
+         * The socket.
+         */
+        private final Socket socket;
+
+        /**
+         * Socket input.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Buffered socket output.
+         */
+        private final OutputStream out;
+
+        /**
+         * @param socket the socket.
+         * @throws IOException reason for failure if any.
+         */
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Sends everything written so far.
+         *
+         * @throws IOException reason for failure if any.
+         */
+        private synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * @param text raw protocol text to write.
+         * @throws IOException reason for failure if any.
+         */
+        private synchronized void write(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @param value bulk string to write, or {@code null}.
+         * @throws IOException reason for failure if any.
+         */
+        private synchronized void writeBulk(byte[] value) throws IOException {
+            if(value == null){
+                write("$-1\r\n");
+                return;
+            }
+
+            write("$" + value.length + "\r\n");
+            out.write(value);
+            write("\r\n");
+        }
+
+        /**
+         * @param values bulk strings to write as an array.
+         * @throws IOException reason for failure if any.
+         */
+        private synchronized void writeArray(List<byte[]> values) throws IOException {
+            write("*" + values.size() + "\r\n");
+
+            for(byte[] value : values)
+                writeBulk(value);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto;
+
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SettingsPersister}, writing to a store that
+ * fails a given number of writes.
+ */
+public class SettingsPersisterTest {
+
+    /**
+     * The store.
+     */
+    private FailingStore store;
+
+    /**
+     * The persister under test.
+     */
+    private SettingsPersister persister;
+
+    @Before
+    public void setUp(){
+        store = new FailingStore();
+        persister = new SettingsPersister(store, 10, 10);
+    }
+
+    @After
+    public void tearDown(){
+        persister.shutdown();
+    }
+
+    @Test
+    public void failedWritesAreRetried() throws Exception {
+        store.failures.set(3);
+        CompletableFuture<Void> write = persister.markDirty(1, settings(1));
+
+        write.get(5, TimeUnit.SECONDS);
+        assertEquals(1, store.written.get(1L).get("round").getAsInt());
+        assertEquals(4, store.attempts.get());
+        assertNull(persister.getPending(1));
+    }
+
+    @Test
+    public void failedFlushKeepsTheSettingsPending(){
+        store.failures.set(Integer.MAX_VALUE);
+        persister.markDirty(1, settings(1));
+
+        assertFalse(persister.flush(1));
+        assertEquals(1, persister.getPending(1).get("round").getAsInt());
+
+        store.failures.set(0);
+        assertTrue(persister.flush(1));
+        assertEquals(1, store.written.get(1L).get("round").getAsInt());
+    }
+
+    @Test
+    public void newerSettingsReplaceAFailedWrite() throws Exception {
+        store.failures.set(1);
+        CompletableFuture<Void> first = persister.writeNow(1, settings(1));
+
+        //Wait for the failure, then save again before the retry.
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while(store.attempts.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        CompletableFuture<Void> second = persister.markDirty(1, settings(2));
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(2, store.written.get(1L).get("round").getAsInt());
+    }
+
+    /**
+     * @param round the save round.
+     * @return settings for the round.
+     */
+    private static JsonObject settings(int round){
+        JsonObject settings = new JsonObject();
+        settings.addProperty("round", round);
+        return settings;
+    }
+
+    /**
+     * Store that fails writes while it has failures left.
+     */
+    private static final class FailingStore implements SettingsStore {
+
+        /**
+         * Writes left to fail.
+         */
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * Writes attempted.
+         */
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        /**
+         * Settings written to guild IDs.
+         */
+        private final Map<Long, JsonObject> written = new ConcurrentHashMap<>();
+
+        @Override
+        public Map<Long, JsonObject> loadAll(){
+            return written;
+        }
+
+        @Override
+        public JsonObject load(long guildId){
+            return written.get(guildId);
+        }
+
+        @Override
+        public void write(long guildId, JsonObject settings) throws IOException {
+            attempts.incrementAndGet();
+
+            if(failures.getAndDecrement() > 0)
+                throw new IOException("Disk full");
+
+            written.put(guildId, settings);
+        }
+    }
+}
@@ -0,0 +1,998 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import net.dv8tion.jda.core.audio.AudioSendHandler;
+import net.dv8tion.jda.core.audio.hooks.ConnectionListener;
+import net.dv8tion.jda.core.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.lmelaia.teeto.Teeto;
+import net.lmelaia.teeto.TeetoConfig;
+
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless harness for driving guild audio players without
+ * Discord or real audio.
+ * <p>
+ * Lavaplayer and JDA are replaced by stand-ins built with
+ * {@link Proxy}, so only the methods the bot calls are
+ * modelled:
+ * <ul>
+ *     <li>Tracks are a fixed number of small frames. Loading
+ *     one is counted, so tests can tell a load from a clone.</li>
+ *     <li>Players hand out frames when polled through the guilds
+ *     send handler and end the track (firing track end to their
+ *     listeners) once its frames run out, like lavaplayer.</li>
+ *     <li>Voice connections report {@code CONNECTED} on another
+ *     thread shortly after opening and {@code NOT_CONNECTED}
+ *     while closing, like JDA.</li>
+ * </ul>
+ * Players, tracks and listeners are tracked weakly so tests can
+ * count how many are still reachable after garbage collection.
+ */
+final class AudioHarness implements Closeable {
+
+    /**
+     * Frames in every track unless set otherwise.
+     */
+    static final int TRACK_FRAMES = 5;
+
+    /**
+     * Identifiers starting with this aren't found.
+     */
+    static final String MISSING = "missing:";
+
+    /**
+     * The frame every track provides.
+     */
+    private static final byte[] FRAME = new byte[120];
+
+    /**
+     * Folder the audio config and cache are kept in.
+     */
+    private final File folder;
+
+    /**
+     * Delivers voice connection events, like JDAs threads.
+     */
+    private final ExecutorService voiceEvents = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "harness-voice");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Number of tracks loaded (not cloned) by guild players.
+     */
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * Number of tracks loaded in the background, to be
+     * indexed or encoded.
+     */
+    private final AtomicInteger probes = new AtomicInteger();
+
+    /**
+     * Every player created.
+     */
+    private final List<WeakReference<FakePlayer>> players = new CopyOnWriteArrayList<>();
+
+    /**
+     * Every track created, loaded or cloned.
+     */
+    private final List<WeakReference<AudioTrack>> tracks = new CopyOnWriteArrayList<>();
+
+    /**
+     * Voice stand-ins to guild IDs.
+     */
+    private final Map<Long, FakeVoice> voices = new ConcurrentHashMap<>();
+
+    /**
+     * The audio manager under test.
+     */
+    private final AudioManager manager;
+
+    /**
+     * Folder clip files are kept in.
+     */
+    private final File clipFolder;
+
+    /**
+     * Frames in tracks loaded from now on.
+     */
+    private volatile int trackFrames = TRACK_FRAMES;
+
+    /**
+     * Creates an audio manager around the stand-ins.
+     *
+     * @param config the bot config as json, e.g. {@code {}}
+     *               for the defaults.
+     * @param audioFiles names of audio files to create and
+     *                   list in the audio config. Each is
+     *                   also its ID and only alias.
+     * @throws IOException reason for failure if any.
+     */
+    AudioHarness(String config, String... audioFiles) throws IOException {
+        this(config, (AudioPlayerManager) null, audioFiles);
+    }
+
+    /**
+     * Creates an audio manager around the given player
+     * manager (e.g. a real lavaplayer one) and the voice
+     * stand-ins.
+     *
+     * @param config the bot config as json.
+     * @param playerManager the player manager, or {@code null}
+     *                      for the lavaplayer stand-in.
+     * @param audioFiles names of audio files to create and
+     *                   list in the audio config.
+     * @throws IOException reason for failure if any.
+     */
+    AudioHarness(String config, AudioPlayerManager playerManager, String... audioFiles) throws IOException {
+        folder = Files.createTempDirectory("teeto-audio-harness").toFile();
+        JsonArray configured = new JsonArray();
+
+        for(String name : audioFiles){
+            Files.write(new File(folder, name).toPath(), new byte[FRAME.length]);
+
+            JsonObject entry = new JsonObject();
+            JsonArray names = new JsonArray();
+            names.add(name);
+            entry.addProperty("id", name);
+            entry.add("names", names);
+            entry.addProperty("displayName", name);
+            entry.addProperty("fileName", name);
+            configured.add(entry);
+        }
+
+        JsonObject audioConfigJson = new JsonObject();
+        audioConfigJson.add("audioFiles", configured);
+        File audioConfig = new File(folder, "audio.config.json");
+        Files.write(audioConfig.toPath(), Teeto.GSON.toJson(audioConfigJson).getBytes(StandardCharsets.UTF_8));
+
+        AudioMap audioMap = new AudioMap(audioConfig, folder);
+        clipFolder = new File(folder, "clips");
+        //noinspection ResultOfMethodCallIgnored
+        clipFolder.mkdir();
+        audioMap.loadClips(clipFolder);
+
+        if(playerManager == null)
+            playerManager = proxy(AudioPlayerManager.class, new FakePlayerManager());
+
+        audioMap.loadIndex(playerManager, getIndexFile());
+
+        manager = new AudioManager(Teeto.GSON.fromJson(config, TeetoConfig.class), playerManager,
+                audioMap, new RemoteTrackCache(new File(folder, "cache"), 1024 * 1024));
+    }
+
+    /**
+     * Creates an audio file without a clip file, so looping
+     * it plays a lavaplayer track.
+     *
+     * @param name the audio file name and ID.
+     * @return the audio file.
+     * @throws IOException reason for failure if any.
+     */
+    AudioFile file(String name) throws IOException {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), new byte[FRAME.length]);
+        return new AudioFile(name, name, file, new String[]{name});
+    }
+
+    /**
+     * Creates an audio file with an up to date clip file,
+     * so looping it plays the shared clip.
+     *
+     * @param name the audio file name and ID.
+     * @param frames the number of frames in the clip.
+     * @param frameSize the size of each frame in bytes.
+     * @return the audio file.
+     * @throws IOException reason for failure if any.
+     */
+    AudioFile clip(String name, int frames, int frameSize) throws IOException {
+        return clip(name, frames, frameSize, new BitSet());
+    }
+
+    /**
+     * Creates an audio file with an up to date clip file
+     * whose given frames are marked silent.
+     *
+     * @param name the audio file name and ID.
+     * @param frames the number of frames in the clip.
+     * @param frameSize the size of each frame in bytes.
+     * @param silent indexes of the silent frames.
+     * @return the audio file.
+     * @throws IOException reason for failure if any.
+     */
+    AudioFile clip(String name, int frames, int frameSize, BitSet silent) throws IOException {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), new byte[frameSize]);
+
+        Random random = new Random(name.hashCode());
+        List<byte[]> encoded = new ArrayList<>(frames);
+
+        for(int i = 0; i < frames; i++){
+            byte[] frame = new byte[frameSize];
+            random.nextBytes(frame);
+            encoded.add(frame);
+        }
+
+        ByteBuffer container = OpusClip.toContainer(encoded, silent);
+        File clipFile = ClipTranscoder.getClipFile(clipFolder, name);
+
+        try(FileChannel channel = FileChannel.open(clipFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+            channel.write(container);
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        clipFile.setLastModified(file.lastModified() + 1000);
+        return new AudioFile(name, name, file, new String[]{name});
+    }
+
+    /**
+     * @return the audio index file.
+     */
+    File getIndexFile(){
+        return new File(folder, "audio.index.json");
+    }
+
+    /**
+     * @return the audio manager under test.
+     */
+    AudioManager getManager(){
+        return manager;
+    }
+
+    /**
+     * @param id the guild ID.
+     * @return a new guild stand-in with a voice channel.
+     */
+    Guild guild(long id){
+        FakeVoice voice = new FakeVoice();
+        Guild guild = proxy(Guild.class, (self, method, args) -> {
+            switch (method.getName()){
+                case "getIdLong":
+                    return id;
+                case "getId":
+                    return String.valueOf(id);
+                case "getName":
+                    return "guild-" + id;
+                case "getAudioManager":
+                    return voice.manager;
+                default:
+                    return identity(self, method, args);
+            }
+        });
+
+        voice.guild = guild;
+        voice.manager = proxy(net.dv8tion.jda.core.managers.AudioManager.class, voice);
+        voice.channel = proxy(VoiceChannel.class, (self, method, args) -> {
+            switch (method.getName()){
+                case "getName":
+                    return "hell";
+                case "getIdLong":
+                    return id + 1;
+                case "getGuild":
+                    return guild;
+                case "getMembers":
+                    return Collections.emptyList();
+                default:
+                    return identity(self, method, args);
+            }
+        });
+
+        voices.put(id, voice);
+        return guild;
+    }
+
+    /**
+     * @param guild a guild from {@link #guild(long)}.
+     * @return the guilds voice channel.
+     */
+    VoiceChannel channel(Guild guild){
+        return voices.get(guild.getIdLong()).channel;
+    }
+
+    /**
+     * Makes the guilds voice connection never report back
+     * when closed, and stay connected, as if JDA lost the
+     * close.
+     *
+     * @param guild a guild from {@link #guild(long)}.
+     * @param stuck {@code true} to lose closes.
+     */
+    void setCloseLost(Guild guild, boolean stuck){
+        voices.get(guild.getIdLong()).closeLost = stuck;
+    }
+
+    /**
+     * Polls the guilds send handler as JDA would every 20ms,
+     * without waiting.
+     *
+     * @param guild a guild from {@link #guild(long)}.
+     * @param frames the number of polls.
+     * @return the number of frames provided.
+     */
+    int pump(Guild guild, int frames){
+        AudioSendHandler handler = voices.get(guild.getIdLong()).sendHandler;
+        int provided = 0;
+
+        for(int i = 0; i < frames && handler != null; i++){
+            if(handler.canProvide() && handler.provide20MsAudio() != null)
+                provided++;
+        }
+
+        return provided;
+    }
+
+    /**
+     * @param trackFrames frames in tracks loaded or cloned
+     *                    from now on.
+     */
+    void setTrackFrames(int trackFrames){
+        this.trackFrames = trackFrames;
+    }
+
+    /**
+     * Polls a lavaplayer player stand-in directly, without
+     * a guild player or send handler, so the stand-ins own
+     * cost can be told apart from the bots.
+     *
+     * @param frames the number of polls.
+     * @return the number of frames provided.
+     */
+    int pollStandIn(int frames){
+        FakePlayer player = new FakePlayer();
+        player.self = proxy(com.sedmelluq.discord.lavaplayer.player.AudioPlayer.class, player);
+        player.self.playTrack(track("stand-in"));
+
+        MutableAudioFrame frame = new MutableAudioFrame();
+        frame.setBuffer(ByteBuffer.allocate(FRAME.length));
+        int provided = 0;
+
+        for(int i = 0; i < frames; i++){
+            if(player.self.provide(frame))
+                provided++;
+        }
+
+        return provided;
+    }
+
+    /**
+     * @return the number of tracks loaded (not cloned)
+     * by guild players.
+     */
+    int getLoadCount(){
+        return loads.get();
+    }
+
+    /**
+     * @return the number of tracks loaded in the background,
+     * to be indexed or encoded.
+     */
+    int getProbeCount(){
+        return probes.get();
+    }
+
+    /**
+     * @return the number of tracks still reachable.
+     */
+    int getLiveTrackCount(){
+        return countLive(tracks);
+    }
+
+    /**
+     * @return the number of lavaplayer players still reachable
+     * and not destroyed.
+     */
+    int getLivePlayerCount(){
+        int live = 0;
+
+        for(WeakReference<FakePlayer> reference : players){
+            FakePlayer player = reference.get();
+            if(player != null && !player.destroyed)
+                live++;
+        }
+
+        return live;
+    }
+
+    /**
+     * @return the number of listeners on lavaplayer players
+     * that are still reachable and not destroyed.
+     */
+    int getListenerCount(){
+        int listeners = 0;
+
+        for(WeakReference<FakePlayer> reference : players){
+            FakePlayer player = reference.get();
+            if(player != null && !player.destroyed)
+                listeners += player.listeners.size();
+        }
+
+        return listeners;
+    }
+
+    /**
+     * Deletes the harness folder. Background threads are
+     * daemons and left to die with the test run.
+     */
+    @Override
+    public void close(){
+        voiceEvents.shutdownNow();
+        delete(folder);
+    }
+
+    /**
+     * Runs garbage collection until the heap stops shrinking.
+     * Only for tests: the bot itself never forces collection.
+     *
+     * @return bytes of heap used afterwards.
+     */
+    static long collectGarbage(){
+        long used = Long.MAX_VALUE;
+
+        for(int i = 0; i < 10; i++){
+            System.gc();
+            System.runFinalization();
+
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            if(heap.getUsed() >= used)
+                return heap.getUsed();
+
+            used = heap.getUsed();
+        }
+
+        return used;
+    }
+
+    /**
+     * Takes a histogram of the live heap through the
+     * HotSpot diagnostic command MBean.
+     *
+     * @param prefix only classes whose names start with
+     *               this are included.
+     * @return instance counts to class names, empty if
+     * the JVM doesn't support the command.
+     */
+    static Map<String, Long> histogram(String prefix){
+        Map<String, Long> counts = new TreeMap<>();
+        String histogram;
+
+        try {
+            histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+                    new Object[]{null}, new String[]{String[].class.getName()});
+        } catch (Exception e) {
+            return counts;
+        }
+
+        for(String line : histogram.split("\n")){
+            String[] columns = line.trim().split("\\s+");
+
+            if(columns.length >= 4 && columns[0].endsWith(":") && columns[3].startsWith(prefix))
+                counts.put(columns[3], Long.parseLong(columns[1]));
+        }
+
+        return counts;
+    }
+
+    /**
+     * @param references weak references.
+     * @param <T> the referenced type.
+     * @return the number still reachable. Cleared
+     * references are removed.
+     */
+    private static <T> int countLive(List<WeakReference<T>> references){
+        references.removeIf(reference -> reference.get() == null);
+        return references.size();
+    }
+
+    /**
+     * @param type the interface.
+     * @param handler the method handler.
+     * @param <T> the interface type.
+     * @return a stand-in implementing the interface.
+     */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler){
+        return type.cast(Proxy.newProxyInstance(AudioHarness.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Handles the {@link Object} methods of a stand-in by
+     * identity. Anything else returns a default value.
+     *
+     * @param self the stand-in.
+     * @param method the method called.
+     * @param args the arguments.
+     * @return the result.
+     */
+    private static Object identity(Object self, Method method, Object[] args){
+        switch (method.getName()){
+            case "equals":
+                return self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            case "toString":
+                return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(self);
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * @param type a return type.
+     * @return the default value of the type.
+     */
+    private static Object defaultValue(Class<?> type){
+        if(type == boolean.class)
+            return false;
+        if(type == int.class)
+            return 0;
+        if(type == long.class)
+            return 0L;
+        if(type == float.class)
+            return 0f;
+        if(type == double.class)
+            return 0d;
+        if(type == short.class)
+            return (short) 0;
+        if(type == byte.class)
+            return (byte) 0;
+        if(type == char.class)
+            return (char) 0;
+
+        return null;
+    }
+
+    /**
+     * @param file file or folder to delete.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void delete(File file){
+        File[] children = file.listFiles();
+
+        if(children != null)
+            for(File child : children)
+                delete(child);
+
+        file.delete();
+    }
+
+    /**
+     * Stand-in for lavaplayers player manager. Loads
+     * complete straight away on the calling thread.
+     */
+    private final class FakePlayerManager implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()){
+                case "createPlayer": {
+                    FakePlayer player = new FakePlayer();
+                    player.self = proxy(com.sedmelluq.discord.lavaplayer.player.AudioPlayer.class, player);
+                    players.add(new WeakReference<>(player));
+                    return player.self;
+                }
+                case "loadItemOrdered":
+                    loads.incrementAndGet();
+                    return load((String) args[1], (AudioLoadResultHandler) args[2]);
+                case "loadItem":
+                    probes.incrementAndGet();
+                    return load((String) args[0], (AudioLoadResultHandler) args[1]);
+                default:
+                    return identity(self, method, args);
+            }
+        }
+
+        /**
+         * @param identifier the identifier to load.
+         * @param handler told the result.
+         * @return a completed future.
+         */
+        private CompletableFuture<Void> load(String identifier, AudioLoadResultHandler handler){
+            if(identifier.startsWith(MISSING))
+                handler.noMatches();
+            else
+                handler.trackLoaded(track(identifier));
+
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * @param identifier the tracks identifier.
+     * @return a new track stand-in.
+     */
+    private AudioTrack track(String identifier){
+        FakeTrack track = new FakeTrack(identifier);
+        track.self = proxy(AudioTrack.class, track);
+
+        //Loops clone a track every restart; don't let the references pile up.
+        if(tracks.size() > 1000)
+            countLive(tracks);
+
+        tracks.add(new WeakReference<>(track.self));
+        return track.self;
+    }
+
+    /**
+     * Stand-in for a lavaplayer track.
+     */
+    private final class FakeTrack implements InvocationHandler {
+
+        /**
+         * The track identifier.
+         */
+        private final String identifier;
+
+        /**
+         * The stand-in.
+         */
+        private AudioTrack self;
+
+        /**
+         * Frames in the track.
+         */
+        private final int frames = trackFrames;
+
+        /**
+         * Frames left to play.
+         */
+        private int remaining = frames;
+
+        /**
+         * Set once played. Lavaplayer refuses to play a track twice.
+         */
+        private boolean played;
+
+        /**
+         * User data attached to the track.
+         */
+        private Object userData;
+
+        /**
+         * @param identifier the track identifier.
+         */
+        private FakeTrack(String identifier){
+            this.identifier = identifier;
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()){
+                case "getIdentifier":
+                    return identifier;
+                case "makeClone":
+                    return track(identifier);
+                case "setUserData":
+                    userData = args[0];
+                    return null;
+                case "getUserData":
+                    return userData;
+                case "getDuration":
+                    return frames * 20L;
+                case "getInfo":
+                    return new AudioTrackInfo(identifier, "harness", frames * 20L, identifier, false, identifier);
+                default:
+                    return identity(self, method, args);
+            }
+        }
+    }
+
+    /**
+     * Stand-in for a lavaplayer player.
+     */
+    private final class FakePlayer implements InvocationHandler {
+
+        /**
+         * The stand-in.
+         */
+        private com.sedmelluq.discord.lavaplayer.player.AudioPlayer self;
+
+        /**
+         * Listeners added to the player.
+         */
+        private final List<Object> listeners = new CopyOnWriteArrayList<>();
+
+        /**
+         * The playing track or {@code null}.
+         */
+        private volatile AudioTrack playing;
+
+        /**
+         * Set while paused.
+         */
+        private volatile boolean paused;
+
+        /**
+         * Set once destroyed.
+         */
+        private volatile boolean destroyed;
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()){
+                case "addListener":
+                    listeners.add(args[0]);
+                    return null;
+                case "removeListener":
+                    listeners.remove(args[0]);
+                    return null;
+                case "getPlayingTrack":
+                    return playing;
+                case "playTrack":
+                    play((AudioTrack) args[0]);
+                    return null;
+                case "startTrack":
+                    if((Boolean) args[1] && playing != null)
+                        return false;
+                    play((AudioTrack) args[0]);
+                    return true;
+                case "stopTrack":
+                    end(AudioTrackEndReason.STOPPED);
+                    return null;
+                case "isPaused":
+                    return paused;
+                case "setPaused":
+                    paused = (Boolean) args[0];
+                    return null;
+                case "destroy":
+                    end(AudioTrackEndReason.CLEANUP);
+                    destroyed = true;
+                    return null;
+                case "getVolume":
+                    return 100;
+                case "provide":
+                    if(args != null && args.length == 1 && args[0] instanceof MutableAudioFrame)
+                        return provide((MutableAudioFrame) args[0]);
+                    return provideFrame();
+                default:
+                    return identity(self, method, args);
+            }
+        }
+
+        /**
+         * @param track the track to play, replacing any playing.
+         */
+        private void play(AudioTrack track){
+            FakeTrack fake = (FakeTrack) Proxy.getInvocationHandler(track);
+
+            if(fake.played)
+                throw new IllegalStateException("Cannot play the same instance of a track twice, use track.makeClone().");
+
+            fake.played = true;
+            end(AudioTrackEndReason.REPLACED);
+            playing = track;
+        }
+
+        /**
+         * Fills the frame from the playing track. A track that
+         * runs out ends, and polling goes on with whatever the
+         * listeners play next.
+         *
+         * @param frame the frame to fill.
+         * @return {@code true} if the frame was filled.
+         */
+        private boolean provide(MutableAudioFrame frame){
+            if(paused)
+                return false;
+
+            AudioTrack track;
+            while((track = playing) != null){
+                FakeTrack fake = (FakeTrack) Proxy.getInvocationHandler(track);
+
+                if(fake.remaining > 0){
+                    fake.remaining--;
+                    frame.store(FRAME, 0, FRAME.length);
+                    return true;
+                }
+
+                end(AudioTrackEndReason.FINISHED);
+            }
+
+            return false;
+        }
+
+        /**
+         * @return a new frame from the playing track, or
+         * {@code null} if nothing is playing.
+         */
+        private AudioFrame provideFrame(){
+            MutableAudioFrame frame = new MutableAudioFrame();
+            frame.setBuffer(ByteBuffer.allocate(FRAME.length));
+
+            if(!provide(frame))
+                return null;
+
+            return proxy(AudioFrame.class, (self, method, args) -> {
+                switch (method.getName()){
+                    case "getData":
+                        return FRAME.clone();
+                    case "getDataLength":
+                        return FRAME.length;
+                    default:
+                        return identity(self, method, args);
+                }
+            });
+        }
+
+        /**
+         * Ends the playing track, if any, telling the listeners.
+         *
+         * @param reason why the track ended.
+         */
+        private void end(AudioTrackEndReason reason){
+            AudioTrack track = playing;
+
+            if(track == null)
+                return;
+
+            playing = null;
+
+            for(Object listener : listeners){
+                if(listener instanceof AudioEventAdapter)
+                    ((AudioEventAdapter) listener).onTrackEnd(self, track, reason);
+            }
+        }
+    }
+
+    /**
+     * Stand-in for a guilds JDA audio manager.
+     */
+    private final class FakeVoice implements InvocationHandler {
+
+        /**
+         * The guild.
+         */
+        private Guild guild;
+
+        /**
+         * The stand-in.
+         */
+        private net.dv8tion.jda.core.managers.AudioManager manager;
+
+        /**
+         * The guilds voice channel.
+         */
+        private VoiceChannel channel;
+
+        /**
+         * The connection listener.
+         */
+        private volatile ConnectionListener listener;
+
+        /**
+         * The installed send handler.
+         */
+        private volatile AudioSendHandler sendHandler;
+
+        /**
+         * The connected channel or {@code null}.
+         */
+        private volatile VoiceChannel connected;
+
+        /**
+         * Channel being connected to or {@code null}.
+         */
+        private volatile VoiceChannel attempting;
+
+        /**
+         * Set to lose closes.
+         */
+        private volatile boolean closeLost;
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) {
+            switch (method.getName()){
+                case "setConnectionListener":
+                    listener = (ConnectionListener) args[0];
+                    return null;
+                case "getConnectionListener":
+                    return listener;
+                case "setSendingHandler":
+                    sendHandler = (AudioSendHandler) args[0];
+                    return null;
+                case "getSendingHandler":
+                    return sendHandler;
+                case "openAudioConnection":
+                    open((VoiceChannel) args[0]);
+                    return null;
+                case "closeAudioConnection":
+                    close();
+                    return null;
+                case "isConnected":
+                    return connected != null;
+                case "isAttemptingToConnect":
+                    return attempting != null;
+                case "getConnectedChannel":
+                    return connected;
+                case "getQueuedAudioConnection":
+                    return attempting;
+                case "getGuild":
+                    return guild;
+                default:
+                    return identity(self, method, args);
+            }
+        }
+
+        /**
+         * Starts connecting. Connects on the event thread.
+         *
+         * @param target the channel.
+         */
+        private void open(VoiceChannel target){
+            attempting = target;
+
+            voiceEvents.execute(() -> {
+                if(attempting != target)
+                    return;
+
+                attempting = null;
+                connected = target;
+                listener.onStatusChange(ConnectionStatus.CONNECTED);
+            });
+        }
+
+        /**
+         * Closes the connection, reporting on the calling
+         * thread as JDA does, unless closes are being lost.
+         */
+        private void close(){
+            if(closeLost)
+                return;
+
+            attempting = null;
+            connected = null;
+            listener.onStatusChange(ConnectionStatus.NOT_CONNECTED);
+        }
+    }
+}
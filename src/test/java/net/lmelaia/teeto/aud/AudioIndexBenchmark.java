@@ -0,0 +1,166 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.lmelaia.teeto.Benchmarks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time to first frame of a guilds first loop, with the audio file
+ * probed by lavaplayer against started from its indexed prototype.
+ * <p>
+ * The lavaplayer stand-in loads instantly, so the times only cover
+ * the bots side. What the index saves on top is one lavaplayer load
+ * (file open and container probe) per start, counted here. Only
+ * run with {@code -Pbenchmarks}; the index entries themselves are
+ * checked in {@link AudioMapTest}.
+ */
+public class AudioIndexBenchmark {
+
+    /**
+     * Guilds started for each path.
+     */
+    private static final int GUILDS = 2000;
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    /**
+     * The audio file.
+     */
+    private AudioFile hell;
+
+    /**
+     * ID of the next guild.
+     */
+    private long nextGuild = 1;
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}", "hell.mp3");
+        hell = harness.getManager().getAudioFileFromName("hell.mp3");
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void indexedStartsSkipTheProbe() throws Exception {
+        String path = hell.getAudioFile().getAbsolutePath();
+
+        //Warm up both paths.
+        firstFrameTimes(player -> player.loop(path));
+        awaitPrototype();
+        firstFrameTimes(player -> player.loop(hell));
+
+        int loads = harness.getLoadCount();
+        long[] probed = firstFrameTimes(player -> player.loop(path));
+        int probedLoads = harness.getLoadCount() - loads;
+
+        loads = harness.getLoadCount();
+        long[] indexed = firstFrameTimes(player -> player.loop(hell));
+        int indexedLoads = harness.getLoadCount() - loads;
+
+        System.out.println(String.format("Time to first frame over %,d guilds | probed: mean %,dns, p99 %,dns,"
+                        + " %,d lavaplayer loads | indexed: mean %,dns, p99 %,dns, %,d lavaplayer loads",
+                GUILDS, mean(probed), percentile(probed, 0.99), probedLoads,
+                mean(indexed), percentile(indexed, 0.99), indexedLoads));
+
+        assertEquals(GUILDS, probedLoads);
+        assertEquals(0, indexedLoads);
+    }
+
+    /**
+     * Waits for the audio file to be probed and indexed
+     * in the background.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void awaitPrototype() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while(harness.getManager().getPrototype(hell) == null){
+            if(System.currentTimeMillis() > deadline)
+                fail("Audio file was never indexed");
+
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Starts a loop in new guilds, timing each from the
+     * call to its first frame.
+     *
+     * @param start starts the loop in a guilds player.
+     * @return the times in nanoseconds.
+     */
+    private long[] firstFrameTimes(Consumer<AudioPlayer> start){
+        long[] times = new long[GUILDS];
+
+        for(int i = 0; i < GUILDS; i++){
+            Guild guild = harness.guild(nextGuild++);
+            AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+
+            long begin = System.nanoTime();
+            start.accept(player);
+            assertEquals(1, harness.pump(guild, 1));
+            times[i] = System.nanoTime() - begin;
+
+            player.stop();
+        }
+
+        return times;
+    }
+
+    /**
+     * @param times times in nanoseconds.
+     * @return the mean time.
+     */
+    private static long mean(long[] times){
+        return (long) Arrays.stream(times).average().orElse(0);
+    }
+
+    /**
+     * @param times times in nanoseconds.
+     * @param percentile the percentile, from 0 to 1.
+     * @return the time at the percentile.
+     */
+    private static long percentile(long[] times, double percentile){
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
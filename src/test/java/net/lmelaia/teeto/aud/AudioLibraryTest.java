@@ -0,0 +1,214 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * The audio library's sidecar index and its alias searches.
+ */
+public class AudioLibraryTest {
+
+    /**
+     * The audio folder.
+     */
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("teeto-audio-library").toFile();
+    }
+
+    @After
+    public void tearDown(){
+        File[] files = folder.listFiles();
+
+        for(File file : (files == null) ? new File[0] : files)
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+
+        //noinspection ResultOfMethodCallIgnored
+        folder.delete();
+    }
+
+    @Test
+    public void sidecarsAreOnlyReadAgainWhenChanged() throws IOException {
+        File song = audio("song.mp3", "{\"id\": \"song\", \"displayName\": \"Song\", \"names\": [\"tune\"]}");
+        audio("plain.mp3", null);
+
+        AudioLibrary library = AudioLibrary.scan(null, folder);
+        assertEquals("Song", library.getById("song").getDisplayName());
+        assertNotNull(library.getByAlias("plain"));
+        assertTrue(new File(folder, AudioLibrary.INDEX_FILE_NAME).exists());
+
+        //Same size and time: the index is used, so the sidecar isn't read.
+        File sidecar = sidecar(song);
+        long modified = sidecar.lastModified();
+        Files.write(sidecar.toPath(), "{\"id\": \"s0ng\", \"displayName\": \"S0ng\", \"names\": [\"t0ne\"]}"
+                .getBytes(StandardCharsets.UTF_8));
+        assertTrue(sidecar.setLastModified(modified));
+
+        library = AudioLibrary.scan(null, folder);
+        assertEquals("Song", library.getById("song").getDisplayName());
+        assertNotNull(library.getByAlias("tune"));
+
+        //Changed: read again.
+        assertTrue(sidecar.setLastModified(modified + 2000));
+        library = AudioLibrary.scan(null, folder);
+        assertNull(library.getById("song"));
+        assertEquals("S0ng", library.getById("s0ng").getDisplayName());
+
+        //A sidecar added later is read.
+        Files.write(sidecar(new File(folder, "plain.mp3")).toPath(),
+                "{\"id\": \"plain\", \"names\": [\"flat\"]}".getBytes(StandardCharsets.UTF_8));
+        library = AudioLibrary.scan(null, folder);
+        assertNotNull(library.getByAlias("flat"));
+        assertNull(library.getByAlias("plain"));
+
+        //A removed file leaves the index.
+        assertTrue(song.delete());
+        library = AudioLibrary.scan(null, folder);
+        assertEquals(1, library.size());
+        assertFalse(new String(Files.readAllBytes(new File(folder, AudioLibrary.INDEX_FILE_NAME).toPath()),
+                StandardCharsets.UTF_8).contains("song.mp3"));
+    }
+
+    @Test
+    public void malformedIndexIsRebuilt() throws IOException {
+        audio("song.mp3", "{\"id\": \"song\", \"names\": [\"tune\"]}");
+        Files.write(new File(folder, AudioLibrary.INDEX_FILE_NAME).toPath(),
+                "{\"song.mp3\": {\"modified\": 0}}".getBytes(StandardCharsets.UTF_8));
+
+        AudioLibrary library = AudioLibrary.scan(null, folder);
+        assertNotNull(library.getByAlias("tune"));
+    }
+
+    @Test
+    public void searchMatchesAScanOfEveryAlias() throws IOException {
+        Random random = new Random(42);
+        List<String> aliases = new ArrayList<>();
+
+        for(int i = 0; i < 300; i++){
+            String alias = word(random);
+            aliases.add(alias);
+            audio("file" + i + ".mp3", "{\"id\": \"" + i + "\", \"names\": [\"" + alias + "\", \""
+                    + alias.toUpperCase(Locale.ROOT) + " " + word(random) + "\"]}");
+        }
+
+        AudioLibrary library = AudioLibrary.scan(null, folder);
+        List<String> queries = new ArrayList<>(Arrays.asList("a", "b", "ab", "ba", "abc", "c a", "zz", " "));
+
+        for(String alias : aliases)
+            queries.add(alias.substring(random.nextInt(alias.length())));
+
+        for(String query : queries)
+            for(int limit : new int[]{1, 5, 1000})
+                assertEquals(query + " (" + limit + ")", scan(library, query, limit),
+                        library.search(query, limit));
+    }
+
+    /**
+     * Search as it was before the suffix index: prefix
+     * matches in alias order, then every alias containing
+     * the query in alias order.
+     *
+     * @param library the library.
+     * @param query the query.
+     * @param limit the most files to return.
+     * @return the matching files.
+     */
+    private static List<AudioFile> scan(AudioLibrary library, String query, int limit){
+        String text = query.trim().toLowerCase(Locale.ROOT);
+        List<String> aliases = new ArrayList<>();
+        Set<AudioFile> found = new LinkedHashSet<>();
+
+        for(AudioFile file : library.getFiles())
+            for(String alias : file.getAliases())
+                if(library.getByAlias(alias) == file)
+                    aliases.add(alias.trim().toLowerCase(Locale.ROOT));
+
+        aliases.sort(null);
+
+        if(text.isEmpty())
+            return new ArrayList<>();
+
+        for(String alias : aliases)
+            if(alias.startsWith(text) && found.size() < limit)
+                found.add(library.getByAlias(alias));
+
+        for(String alias : aliases)
+            if(alias.contains(text) && found.size() < limit)
+                found.add(library.getByAlias(alias));
+
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * @param random the random source.
+     * @return a short word over a small alphabet, so
+     * substrings are shared between aliases.
+     */
+    private static String word(Random random){
+        char[] word = new char[2 + random.nextInt(8)];
+
+        for(int i = 0; i < word.length; i++)
+            word[i] = "abcd".charAt(random.nextInt(4));
+
+        return new String(word);
+    }
+
+    /**
+     * @param name the audio file name.
+     * @param sidecar contents of its sidecar or {@code null}
+     *                for none.
+     * @return the audio file.
+     * @throws IOException reason for failure if any.
+     */
+    private File audio(String name, String sidecar) throws IOException {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), new byte[1]);
+
+        if(sidecar != null)
+            Files.write(sidecar(file).toPath(), sidecar.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    /**
+     * @param file an audio file.
+     * @return its sidecar file.
+     */
+    private static File sidecar(File file){
+        return new File(file.getParentFile(), file.getName() + AudioLibrary.SIDECAR_EXTENSION);
+    }
+}
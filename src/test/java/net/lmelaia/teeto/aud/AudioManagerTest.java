@@ -0,0 +1,103 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Audio manager bookkeeping over the {@link AudioHarness}.
+ */
+public class AudioManagerTest {
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}");
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void sendHandlerIsKeptAcrossLookups(){
+        Guild guild = harness.guild(1);
+        AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+        player.play("/audio/hell.mp3");
+        harness.pump(guild, 10);
+
+        assertSame("send handler was replaced on lookup", player.getSendHandler(),
+                harness.getManager().getAudioPlayer(guild).getSendHandler());
+    }
+
+    @Test
+    public void reapedPlayersKeepTheirMetrics() throws IOException {
+        AudioManager manager = harness.getManager();
+        AudioFile clip = harness.clip("nyan.aud", 50, 160);
+        Guild guild = harness.guild(1);
+
+        AudioPlayer player = manager.getAudioPlayer(guild);
+        player.loop(clip);
+        assertEquals(10, harness.pump(guild, 10));
+        player.stop();
+
+        long provided = manager.getPlaybackMetrics().getProvidedFrames();
+        long firstFrames = manager.getPlaybackMetrics().getFirstFrameTimes().getCount();
+        assertEquals(10, provided);
+
+        manager.reapIdlePlayers(0);
+        assertEquals(0, manager.getLivePlayerCount());
+        assertEquals(1, manager.getReapedPlayerCount());
+
+        assertEquals(provided, manager.getPlaybackMetrics().getProvidedFrames());
+        assertEquals(firstFrames, manager.getPlaybackMetrics().getFirstFrameTimes().getCount());
+    }
+
+    @Test
+    public void recoveredPlayersAreWatchedAgainAfterALostClose() throws Exception {
+        AudioFile clip = harness.clip("nyan.aud", 50, 160);
+        Guild guild = harness.guild(1);
+        AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+
+        player.connectToVoice(harness.channel(guild), false).get(5, TimeUnit.SECONDS);
+        harness.setCloseLost(guild, true);
+
+        //Never polled, so no frames are sent.
+        player.loop(clip);
+        assertNull(player.checkStalled(0));
+        assertEquals(StallCause.NO_FRAMES, player.checkStalled(0));
+
+        player.recover(StallCause.NO_FRAMES).get(15, TimeUnit.SECONDS);
+
+        //The watchdog may have run while recovering, restarting the stall.
+        player.checkStalled(0);
+        assertEquals("recovered player isn't watched", StallCause.NO_FRAMES, player.checkStalled(0));
+    }
+}
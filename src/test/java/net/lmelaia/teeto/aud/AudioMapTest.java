@@ -0,0 +1,100 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonObject;
+import net.lmelaia.teeto.Teeto;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * The audio index entries and the codec detection they record.
+ */
+public class AudioMapTest {
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    /**
+     * The audio file.
+     */
+    private AudioFile hell;
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}", "hell.mp3");
+        hell = harness.getManager().getAudioFileFromName("hell.mp3");
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void indexEntriesRecordContainerAndCodec() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while((harness.getManager().getPrototype(hell) == null || !harness.getIndexFile().exists())
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertNotNull("Audio file was never indexed", harness.getManager().getPrototype(hell));
+
+        JsonObject entry = Teeto.GSON.fromJson(new String(Files.readAllBytes(harness.getIndexFile().toPath()),
+                StandardCharsets.UTF_8), JsonObject.class).getAsJsonObject(hell.getId());
+
+        //The stand-in isn't a local track, so lavaplayer's container name isn't known.
+        assertEquals(AudioMap.UNKNOWN, entry.get("container").getAsString());
+        assertEquals(AudioMap.UNKNOWN, entry.get("codec").getAsString());
+        assertEquals(AudioHarness.TRACK_FRAMES * 20L, entry.get("duration").getAsLong());
+        assertTrue(entry.has("track"));
+    }
+
+    @Test
+    public void codecIsFoundInContainerHeaders() throws IOException {
+        assertEquals("mp3", AudioMap.detectCodec("mp3", hell.getAudioFile()));
+        assertEquals("pcm", AudioMap.detectCodec("wav", hell.getAudioFile()));
+        assertEquals("opus", AudioMap.detectCodec("ogg", header("a.ogg", "OggS\u0000\u0002OpusHead")));
+        assertEquals("vorbis", AudioMap.detectCodec("ogg", header("b.ogg", "OggS\u0000\u0002\u0001vorbis")));
+        assertEquals("opus", AudioMap.detectCodec("matroska/webm", header("c.webm", "\u001aE\u00df\u00a3webmA_OPUS")));
+        assertEquals("aac", AudioMap.detectCodec("mp4", header("d.m4a", "ftypM4A moovstsdmp4a")));
+        assertEquals(AudioMap.UNKNOWN, AudioMap.detectCodec("ogg", header("e.ogg", "OggS")));
+    }
+
+    /**
+     * @param name the file name.
+     * @param header the start of the file.
+     * @return an audio file with the given start.
+     * @throws IOException reason for failure if any.
+     */
+    private File header(String name, String header) throws IOException {
+        File file = harness.file(name).getAudioFile();
+        Files.write(file.toPath(), header.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+}
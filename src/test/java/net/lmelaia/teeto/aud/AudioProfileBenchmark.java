@@ -0,0 +1,243 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.google.gson.JsonObject;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import net.lmelaia.teeto.Benchmarks;
+import net.lmelaia.teeto.Teeto;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * CPU and heap per concurrent guild for each audio profile in the
+ * shipped audio config, using real lavaplayer players.
+ * <p>
+ * Each guild plays its own track of a generated 44.1kHz wav file, so
+ * every frame is decoded, resampled to 48kHz and Opus encoded: the
+ * work the profiles trade off. Frames are polled as fast as lavaplayer
+ * provides them; CPU is reported per second of audio. Only run with
+ * {@code -Pbenchmarks}.
+ */
+public class AudioProfileBenchmark {
+
+    /**
+     * Length of the generated audio file, in seconds.
+     */
+    private static final int AUDIO_SECONDS = 30;
+
+    /**
+     * Frames polled from each guild while measuring: ten seconds of audio.
+     */
+    private static final int FRAMES = 500;
+
+    /**
+     * Concurrent guilds measured for each profile.
+     */
+    private static final int[] GUILDS = {1, 10, 50};
+
+    /**
+     * The generated audio file.
+     */
+    private static File audio;
+
+    @BeforeClass
+    public static void createAudio() throws IOException {
+        Benchmarks.assumeEnabled();
+        audio = Files.createTempFile("teeto-profile-bench", ".wav").toFile();
+        writeWav(audio, 44100, AUDIO_SECONDS);
+    }
+
+    @AfterClass
+    public static void deleteAudio(){
+        //Not created if benchmarks are skipped.
+        if(audio != null)
+            //noinspection ResultOfMethodCallIgnored
+            audio.delete();
+    }
+
+    @Test
+    public void lowCpu() throws Exception {
+        run("low-cpu");
+    }
+
+    @Test
+    public void balanced() throws Exception {
+        run("balanced");
+    }
+
+    @Test
+    public void hifi() throws Exception {
+        run("hifi");
+    }
+
+    /**
+     * Measures the profile at each guild count, printing
+     * the CPU and heap used per guild.
+     *
+     * @param profileName the profile in the shipped audio config.
+     * @throws Exception reason for failure if any.
+     */
+    private static void run(String profileName) throws Exception {
+        JsonObject config = Teeto.GSON.fromJson(new String(Files.readAllBytes(
+                new File("config/audio.config.json").toPath()), StandardCharsets.UTF_8), JsonObject.class);
+        config.addProperty("profile", profileName);
+        AudioProfile profile = AudioProfile.fromConfig(config);
+
+        for(int guilds : GUILDS){
+            AudioPlayerManager manager = new DefaultAudioPlayerManager();
+            profile.apply(manager);
+            AudioSourceManagers.registerLocalSource(manager);
+
+            try {
+                measure(profile, manager, guilds);
+            } finally {
+                manager.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @param profile the applied profile.
+     * @param manager the player manager.
+     * @param guilds the number of concurrent guilds.
+     * @throws Exception reason for failure if any.
+     */
+    private static void measure(AudioProfile profile, AudioPlayerManager manager, int guilds) throws Exception {
+        AudioTrack prototype = load(manager);
+        AudioPlayer[] players = new AudioPlayer[guilds];
+        long heapBefore = AudioHarness.collectGarbage();
+
+        for(int i = 0; i < guilds; i++){
+            players[i] = manager.createPlayer();
+            players[i].playTrack(prototype.makeClone());
+        }
+
+        //Let every player fill its frame buffer.
+        poll(players, 1);
+        Thread.sleep(2000);
+        long heapPerGuild = (AudioHarness.collectGarbage() - heapBefore) / guilds;
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        poll(players, FRAMES);
+        long cpu = os.getProcessCpuTime() - cpuBefore;
+
+        for(AudioPlayer player : players)
+            player.destroy();
+
+        double seconds = FRAMES / 50d;
+        System.out.println(String.format("%s | %,d guilds | CPU per guild: %.2fms per second of audio"
+                        + " (%.2f%% of a core) | heap per guild: %,dKB", profile, guilds,
+                cpu / 1e6 / guilds / seconds, cpu / 1e7 / guilds / seconds, heapPerGuild / 1024));
+    }
+
+    /**
+     * @param players the players.
+     * @param frames frames to poll from each player.
+     * @throws Exception reason for failure if any.
+     */
+    private static void poll(AudioPlayer[] players, int frames) throws Exception {
+        for(int frame = 0; frame < frames; frame++)
+            for(AudioPlayer player : players)
+                assertNotNull("player fell behind", player.provide(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @param manager the player manager.
+     * @return the generated audio file loaded as a track.
+     * @throws Exception reason for failure if any.
+     */
+    private static AudioTrack load(AudioPlayerManager manager) throws Exception {
+        AudioTrack[] track = new AudioTrack[1];
+
+        manager.loadItem(audio.getAbsolutePath(), new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack loaded) {
+                track[0] = loaded;
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {}
+
+            @Override
+            public void noMatches() {}
+
+            @Override
+            public void loadFailed(FriendlyException exception) {}
+        }).get();
+
+        assertNotNull("generated audio file wasn't loaded", track[0]);
+        return track[0];
+    }
+
+    /**
+     * Writes a 16 bit stereo wav file of a sweeping tone.
+     *
+     * @param file the file.
+     * @param sampleRate samples per second.
+     * @param seconds length of the audio.
+     * @throws IOException reason for failure if any.
+     */
+    private static void writeWav(File file, int sampleRate, int seconds) throws IOException {
+        int samples = sampleRate * seconds;
+        int dataSize = samples * 4;
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + dataSize));
+            out.writeBytes("WAVEfmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeInt(Integer.reverseBytes(sampleRate));
+            out.writeInt(Integer.reverseBytes(sampleRate * 4));
+            out.writeShort(Short.reverseBytes((short) 4));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(dataSize));
+
+            for(int i = 0; i < samples; i++){
+                double t = i / (double) sampleRate;
+                short sample = (short) (Math.sin(2 * Math.PI * (220 + 220 * t / seconds) * t) * 8000);
+                out.writeShort(Short.reverseBytes(sample));
+                out.writeShort(Short.reverseBytes(sample));
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.lmelaia.teeto.Benchmarks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives guild audio players through thousands of play, loop, reset
+ * and disconnect cycles through the {@link AudioHarness}, sampling
+ * live object counts and a heap histogram at intervals and failing if
+ * retained objects grow.
+ * <p>
+ * The old {@code memoryLeakFix1} forced a garbage collection every
+ * 100 plays. What it was aimed at was the play command adding a new
+ * replaying listener to the player on every play: listeners are held
+ * strongly by the player, so no collection could free them. The
+ * control test repeats that pattern to show the soak catches it.
+ * <p>
+ * Samples are taken after forced collections, so the numbers depend
+ * on the GC. Only run with {@code -Pbenchmarks}.
+ */
+public class AudioSoakTest {
+
+    /**
+     * Guilds cycled through.
+     */
+    private static final int GUILDS = 5;
+
+    /**
+     * Cycles run across all guilds.
+     */
+    private static final int CYCLES = 3000;
+
+    /**
+     * Cycles between samples.
+     */
+    private static final int SAMPLE_INTERVAL = 500;
+
+    /**
+     * Instances of a class allowed above the first sample.
+     */
+    private static final long COUNT_SLACK = 50;
+
+    /**
+     * Heap growth allowed above the first sample, in bytes.
+     */
+    private static final long HEAP_SLACK = 4 * 1024 * 1024;
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    /**
+     * Audio file played through lavaplayer.
+     */
+    private AudioFile song;
+
+    /**
+     * Audio file played as a shared clip.
+     */
+    private AudioFile clip;
+
+    /**
+     * The guilds.
+     */
+    private final List<Guild> guilds = new ArrayList<>();
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}", "song.mp3");
+        song = harness.getManager().getAudioFileFromName("song.mp3");
+        clip = harness.clip("nyan.aud", 50, 160);
+
+        for(int i = 1; i <= GUILDS; i++)
+            guilds.add(harness.guild(i));
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void playLoopResetCyclesDoNotRetainObjects() throws Exception {
+        List<Map<String, Long>> samples = soak(false);
+        List<String> grown = findGrowth(samples);
+
+        assertTrue("retained objects grew: " + grown, grown.isEmpty());
+        assertEquals("players were created beyond one per guild", GUILDS, harness.getLivePlayerCount());
+    }
+
+    @Test
+    public void stackedListenersAreCaught() throws Exception {
+        List<Map<String, Long>> samples = soak(true);
+        List<String> grown = findGrowth(samples);
+
+        assertTrue("listener growth wasn't caught: " + grown, grown.contains("listeners"));
+    }
+
+    /**
+     * Runs the cycles, sampling every {@link #SAMPLE_INTERVAL}.
+     *
+     * @param stackListeners {@code true} to add a new listener
+     *                       every play, as the old play
+     *                       command did.
+     * @return the samples in order.
+     * @throws Exception reason for failure if any.
+     */
+    private List<Map<String, Long>> soak(boolean stackListeners) throws Exception {
+        List<Map<String, Long>> samples = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for(int cycle = 1; cycle <= CYCLES; cycle++){
+            Guild guild = guilds.get(cycle % GUILDS);
+            AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+
+            if(stackListeners)
+                player.addListener(new AudioEventAdapter() {});
+
+            cycle(guild, player, cycle);
+
+            if(cycle % SAMPLE_INTERVAL == 0)
+                samples.add(sample());
+        }
+
+        System.out.println(String.format("%,d soak cycles over %d guilds in %,dms%s", CYCLES, GUILDS,
+                (System.nanoTime() - start) / 1_000_000, stackListeners ? " (stacking listeners)" : ""));
+
+        for(Map<String, Long> sample : samples)
+            System.out.println("  " + sample);
+
+        return samples;
+    }
+
+    /**
+     * Connects, plays, loops, resets and disconnects,
+     * as the audio commands do.
+     *
+     * @param guild the guild.
+     * @param player the guilds player.
+     * @param cycle the cycle number.
+     * @throws Exception reason for failure if any.
+     */
+    private void cycle(Guild guild, AudioPlayer player, int cycle) throws Exception {
+        VoiceChannel channel = harness.channel(guild);
+        player.connectToVoice(channel, false).get(5, TimeUnit.SECONDS);
+
+        player.play(song.getAudioFile().getAbsolutePath());
+        harness.pump(guild, 3);
+
+        player.loop((cycle % 2 == 0) ? song : clip);
+        harness.pump(guild, 12);
+
+        //The reset command.
+        player.stop();
+        player.disconnectFromVoice()
+                .thenCompose(v -> player.connectToVoice(channel, true))
+                .thenCompose(c -> player.disconnectFromVoice())
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return live object counts after garbage collection.
+     */
+    private Map<String, Long> sample(){
+        Map<String, Long> sample = new LinkedHashMap<>();
+        sample.put("heap", AudioHarness.collectGarbage());
+        sample.put("tracks", (long) harness.getLiveTrackCount());
+        sample.put("listeners", (long) harness.getListenerCount());
+        sample.put("players", (long) harness.getLivePlayerCount());
+
+        Map<String, Long> histogram = AudioHarness.histogram("net.lmelaia.teeto.aud.");
+        histogram.putAll(AudioHarness.histogram("java.nio.HeapByteBuffer"));
+
+        for(Map.Entry<String, Long> entry : histogram.entrySet())
+            sample.put(entry.getKey().replace("net.lmelaia.teeto.aud.", ""), entry.getValue());
+
+        return sample;
+    }
+
+    /**
+     * @param samples the samples in order.
+     * @return the names of counts that grew at every sample
+     * and by more than the slack overall.
+     */
+    private static List<String> findGrowth(List<Map<String, Long>> samples){
+        Map<String, Long> first = samples.get(0);
+        Map<String, Long> last = samples.get(samples.size() - 1);
+        List<String> grown = new ArrayList<>();
+
+        for(String name : last.keySet()){
+            long slack = name.equals("heap") ? HEAP_SLACK : COUNT_SLACK;
+            long previous = -1;
+            boolean growing = true;
+
+            for(Map<String, Long> sample : samples){
+                long count = sample.getOrDefault(name, 0L);
+                growing &= count > previous;
+                previous = count;
+            }
+
+            if(growing && last.get(name) - first.getOrDefault(name, 0L) > slack)
+                grown.add(name);
+        }
+
+        return grown;
+    }
+}
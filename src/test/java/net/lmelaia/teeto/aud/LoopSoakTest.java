@@ -0,0 +1,106 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.lmelaia.teeto.Benchmarks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loops one track for 100k restarts through the {@link AudioHarness},
+ * checking the clones of the one load aren't held on to and the heap
+ * stays flat. Heap measurements depend on the GC, so this only runs
+ * with {@code -Pbenchmarks}; {@link LoopTest} covers the loop itself.
+ */
+public class LoopSoakTest {
+
+    /**
+     * Loop restarts in the soak.
+     */
+    private static final int RESTARTS = 100_000;
+
+    /**
+     * Restarts before the heap is first measured.
+     */
+    private static final int WARM_UP = 10_000;
+
+    /**
+     * Heap growth allowed between the first and last
+     * measurement, in bytes.
+     */
+    private static final long HEAP_SLACK = 4 * 1024 * 1024;
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}");
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void loopRestartsFromClonesWithoutGrowing() throws Exception {
+        Guild guild = harness.guild(1);
+        AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+        player.connectToVoice(harness.channel(guild), false).get(5, TimeUnit.SECONDS);
+
+        player.loop("/audio/hell.mp3");
+        PlaybackMetrics metrics = player.getPlaybackMetrics();
+
+        long start = System.nanoTime();
+        assertEquals(WARM_UP * AudioHarness.TRACK_FRAMES, harness.pump(guild, WARM_UP * AudioHarness.TRACK_FRAMES));
+        long warmHeap = AudioHarness.collectGarbage();
+
+        int remaining = (RESTARTS - WARM_UP) * AudioHarness.TRACK_FRAMES;
+        assertEquals(remaining, harness.pump(guild, remaining));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        long finalHeap = AudioHarness.collectGarbage();
+
+        System.out.println(String.format("%,d loop restarts in %,dms | heap after %,d: %,d bytes, after %,d: %,d bytes"
+                        + " | live tracks: %d | loop gap p99: %dms", RESTARTS, elapsed,
+                WARM_UP, warmHeap, RESTARTS, finalHeap, harness.getLiveTrackCount(),
+                metrics.getLoopGaps().getPercentile(0.99)));
+
+        assertEquals("track was loaded again instead of cloned", 1, harness.getLoadCount());
+        //The prototype, the playing clone and at most a few not yet collected.
+        assertTrue(harness.getLiveTrackCount() + " tracks still reachable", harness.getLiveTrackCount() <= 4);
+        assertTrue("heap grew by " + (finalHeap - warmHeap) + " bytes", finalHeap - warmHeap < HEAP_SLACK);
+
+        player.stop();
+        player.disconnectFromVoice().get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loops tracks through the {@link AudioHarness}, checking the loop
+ * stays gapless and plays clones of the one load from one listener.
+ * {@link LoopSoakTest} runs the same loop for long enough to check
+ * nothing is held on to.
+ */
+public class LoopTest {
+
+    /**
+     * Loop restarts.
+     */
+    private static final int RESTARTS = 1000;
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}");
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void loopRestartsFromClones() throws Exception {
+        Guild guild = harness.guild(1);
+        AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+        player.connectToVoice(harness.channel(guild), false).get(5, TimeUnit.SECONDS);
+
+        player.loop("/audio/hell.mp3");
+        PlaybackMetrics metrics = player.getPlaybackMetrics();
+        int frames = RESTARTS * AudioHarness.TRACK_FRAMES;
+        assertEquals(frames, harness.pump(guild, frames));
+
+        assertEquals("track was loaded again instead of cloned", 1, harness.getLoadCount());
+        assertEquals(1, harness.getListenerCount());
+        assertEquals(0, metrics.getMissedFrames());
+        assertEquals(frames, metrics.getProvidedFrames());
+        assertTrue("loop restarted " + metrics.getLoopGaps().getCount() + " times",
+                metrics.getLoopGaps().getCount() >= RESTARTS - 1);
+
+        player.stop();
+        player.disconnectFromVoice().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void loopingTheLoopedTrackAgainDoesNotReload() throws Exception {
+        Guild guild = harness.guild(2);
+        AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+
+        for(int i = 0; i < 1000; i++){
+            player.loop("/audio/hell.mp3");
+            harness.pump(guild, 2);
+        }
+
+        assertEquals(1, harness.getLoadCount());
+        assertEquals(1, harness.getListenerCount());
+        assertEquals(0, player.getPlaybackMetrics().getMissedFrames());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * The remote audio cache against a local HTTP stand-in, which
+ * counts the requests made for each path.
+ */
+public class RemoteTrackCacheTest {
+
+    /**
+     * Longest wait for the fetcher, in milliseconds.
+     */
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Most bytes the cache keeps.
+     */
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    /**
+     * The served audio file.
+     */
+    private static final byte[] AUDIO = new byte[64 * 1024];
+
+    static {
+        new Random(1).nextBytes(AUDIO);
+    }
+
+    /**
+     * The HTTP stand-in.
+     */
+    private HttpServer server;
+
+    /**
+     * Requests made to each path.
+     */
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    /**
+     * The cache folder.
+     */
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+        folder = Files.createTempDirectory("teeto-remote-cache").toFile();
+    }
+
+    @After
+    public void tearDown(){
+        server.stop(0);
+        File[] files = folder.listFiles();
+
+        for(File file : (files == null) ? new File[0] : files)
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+
+        //noinspection ResultOfMethodCallIgnored
+        folder.delete();
+    }
+
+    @Test
+    public void filesAreDownloadedOnceAndPlayedFromDisk() throws Exception {
+        RemoteTrackCache cache = new RemoteTrackCache(folder, MAX_BYTES);
+        String url = url("/clip.mp3");
+
+        assertEquals(url, cache.resolve(url));
+        await("the file was never cached", () -> !cache.resolve(url).equals(url));
+
+        for(int i = 0; i < 10; i++)
+            assertArrayEquals(AUDIO, Files.readAllBytes(new File(cache.resolve(url)).toPath()));
+
+        assertEquals(1, requests("/clip.mp3"));
+        assertEquals(AUDIO.length, cache.getSize());
+        assertTrue(cache.getHits() >= 10);
+    }
+
+    @Test
+    public void uncacheableUrlsAreOnlyRequestedOnce() throws Exception {
+        RemoteTrackCache cache = new RemoteTrackCache(folder, MAX_BYTES);
+        String page = url("/page.html");
+        String stream = url("/stream.mp3");
+        String missing = url("/missing.mp3");
+
+        for(String url : new String[]{page, stream, missing}){
+            assertEquals(url, cache.resolve(url));
+            long skipped = cache.getSkipped();
+            await("the fetch of " + url + " never finished", () -> {
+                cache.resolve(url);
+                return cache.getSkipped() > skipped;
+            });
+        }
+
+        long misses = cache.getMisses();
+
+        for(int i = 0; i < 10; i++)
+            for(String url : new String[]{page, stream, missing})
+                assertEquals(url, cache.resolve(url));
+
+        assertEquals("known uncacheable plays were counted as misses", misses, cache.getMisses());
+        assertEquals(1, requests("/page.html"));
+        assertEquals(1, requests("/stream.mp3"));
+        assertEquals(1, requests("/missing.mp3"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void entriesAreCheckedInTheBackgroundOnLoad() throws Exception {
+        RemoteTrackCache first = new RemoteTrackCache(folder, MAX_BYTES);
+        String intact = url("/clip.mp3");
+        String corrupt = url("/other.mp3");
+
+        for(String url : new String[]{intact, corrupt}){
+            first.resolve(url);
+            await("the file was never cached", () -> !first.resolve(url).equals(url));
+        }
+
+        //Same size, different bytes.
+        File corruptFile = new File(first.resolve(corrupt));
+        byte[] bytes = Files.readAllBytes(corruptFile.toPath());
+        bytes[0]++;
+        Files.write(corruptFile.toPath(), bytes);
+
+        RemoteTrackCache second = new RemoteTrackCache(folder, MAX_BYTES);
+        await("the intact file was never checked", () -> !second.resolve(intact).equals(intact));
+        await("the corrupt file was never removed", () -> !corruptFile.exists());
+
+        assertEquals(AUDIO.length, second.getSize());
+        assertEquals(corrupt, second.resolve(corrupt));
+    }
+
+    /**
+     * @param path a path on the stand-in.
+     * @return the URL of the path.
+     */
+    private String url(String path){
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * @param path a path on the stand-in.
+     * @return requests made to the path.
+     */
+    private int requests(String path){
+        AtomicInteger count = requests.get(path);
+        return (count == null) ? 0 : count.get();
+    }
+
+    /**
+     * Waits for the condition to hold.
+     *
+     * @param message the failure message.
+     * @param condition the condition.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void await(String message, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while(!condition.getAsBoolean()){
+            if(System.currentTimeMillis() > deadline)
+                fail(message);
+
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Serves a page, a stream without a length, a missing
+     * file or the audio file.
+     *
+     * @param exchange the request.
+     * @throws IOException if the client hung up.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+
+        try(OutputStream out = exchange.getResponseBody()){
+            switch (path) {
+                case "/page.html":
+                    exchange.getResponseHeaders().set("Content-Type", "text/html");
+                    exchange.sendResponseHeaders(200, 6);
+                    out.write("<html>".getBytes());
+                    break;
+                case "/stream.mp3":
+                    //No length: sent chunked.
+                    exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+                    exchange.sendResponseHeaders(200, 0);
+                    out.write(Arrays.copyOf(AUDIO, 1024));
+                    break;
+                case "/missing.mp3":
+                    exchange.sendResponseHeaders(404, -1);
+                    break;
+                default:
+                    exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+                    exchange.sendResponseHeaders(200, AUDIO.length);
+                    out.write(AUDIO);
+            }
+        }
+    }
+}
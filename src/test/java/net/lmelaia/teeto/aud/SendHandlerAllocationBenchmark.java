@@ -0,0 +1,130 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import com.sun.management.ThreadMXBean;
+import net.dv8tion.jda.core.entities.Guild;
+import net.lmelaia.teeto.Benchmarks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Bytes allocated per frame by the guild send handler in steady
+ * state, for lavaplayer tracks and for shared clips.
+ * <p>
+ * The lavaplayer stand-in allocates on every call (proxy argument
+ * arrays), so it's measured on its own and subtracted to leave the
+ * send handlers share. How much the JIT optimizes away depends on
+ * what ran before, so the numbers are reported, not asserted. Only
+ * run with {@code -Pbenchmarks}.
+ */
+public class SendHandlerAllocationBenchmark {
+
+    /**
+     * Frames polled while measuring.
+     */
+    private static final int FRAMES = 200_000;
+
+    /**
+     * Measured rounds per task.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}");
+        harness.setTrackFrames(Integer.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void lavaplayerTrack(){
+        Guild guild = harness.guild(1);
+        AudioPlayer player = harness.getManager().getAudioPlayer(guild);
+        player.play("/audio/hell.mp3");
+
+        double perFrame = allocatedPerFrame(() -> harness.pump(guild, FRAMES));
+        double standIn = allocatedPerFrame(() -> harness.pollStandIn(FRAMES));
+
+        System.out.println(String.format("Lavaplayer track: %.2f bytes per frame, %.2f of them the stand-in's"
+                + " (send handler: %.2f)", perFrame, standIn, Math.max(0, perFrame - standIn)));
+    }
+
+    @Test
+    public void sharedClip() throws IOException {
+        AudioFile nyan = harness.clip("nyan.aud", 3000, 160);
+        Guild guild = harness.guild(2);
+        harness.getManager().getAudioPlayer(guild).loop(nyan);
+
+        double perFrame = allocatedPerFrame(() -> harness.pump(guild, FRAMES));
+
+        System.out.println(String.format("Shared clip: %.2f bytes per frame", perFrame));
+    }
+
+    /**
+     * Runs the task once to warm up, then again a few times
+     * while counting the bytes this thread allocates.
+     * <p>
+     * How much of the stand-ins proxy calls the JIT manages to
+     * optimize away varies with what ran before, which only
+     * ever adds allocation, so the lowest round is used.
+     *
+     * @param task polls frames, returning the number provided.
+     * @return bytes allocated per frame provided in the
+     * lowest round.
+     */
+    private static double allocatedPerFrame(IntSupplier task){
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double lowest = Double.MAX_VALUE;
+
+        assertEquals(FRAMES, task.getAsInt());
+
+        for(int round = 0; round < ROUNDS; round++){
+            long before = threads.getThreadAllocatedBytes(thread);
+            int frames = task.getAsInt();
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            assertEquals(FRAMES, frames);
+            lowest = Math.min(lowest, allocated / (double) frames);
+        }
+
+        return lowest;
+    }
+}
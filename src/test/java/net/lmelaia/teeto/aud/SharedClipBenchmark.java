@@ -0,0 +1,140 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.lmelaia.teeto.Benchmarks;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * CPU and heap per guild of looping one shared {@link OpusClip}
+ * at 1, 100 and 1000 concurrent guild players.
+ * <p>
+ * Every guild reads the same clip through its own cursor, so the
+ * cost per guild is the frame copy alone and should stay flat as
+ * guilds are added. Frames are polled as fast as possible rather
+ * than every 20ms; CPU is reported per second of audio sent.
+ * Only run with {@code -Pbenchmarks}.
+ */
+public class SharedClipBenchmark {
+
+    /**
+     * Frames in the clip: one minute of audio.
+     */
+    private static final int CLIP_FRAMES = 3000;
+
+    /**
+     * Size of each frame: about 64kbps Opus.
+     */
+    private static final int FRAME_SIZE = 160;
+
+    /**
+     * Frames sent by each guild while measuring: ten seconds of audio.
+     */
+    private static final int TICKS = 500;
+
+    /**
+     * Frames sent across all guilds before measuring.
+     */
+    private static final int WARM_UP = 100_000;
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void oneGuild() throws IOException {
+        run(1);
+    }
+
+    @Test
+    public void hundredGuilds() throws IOException {
+        run(100);
+    }
+
+    @Test
+    public void thousandGuilds() throws IOException {
+        run(1000);
+    }
+
+    /**
+     * Loops the clip in the given number of guilds and
+     * prints the CPU and heap used per guild.
+     *
+     * @param guilds the number of guilds.
+     * @throws IOException reason for failure if any.
+     */
+    private static void run(int guilds) throws IOException {
+        try(AudioHarness harness = new AudioHarness("{\"audioStallSeconds\": 3600}")){
+            AudioFile nyan = harness.clip("nyan.aud", CLIP_FRAMES, FRAME_SIZE);
+            OpusClip clip = harness.getManager().getClip(nyan);
+            Guild[] playing = new Guild[guilds];
+
+            long heapBefore = AudioHarness.collectGarbage();
+
+            for(int i = 0; i < guilds; i++){
+                playing[i] = harness.guild(i + 1);
+                AudioPlayer player = harness.getManager().getAudioPlayer(playing[i]);
+                player.loop(nyan);
+                assertSame(clip, harness.getManager().getClip(nyan));
+            }
+
+            long heapPerGuild = (AudioHarness.collectGarbage() - heapBefore) / guilds;
+
+            //Warm up the frame path before measuring.
+            pumpAll(harness, playing, Math.max(TICKS, WARM_UP / guilds));
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long cpuBefore = threads.getCurrentThreadCpuTime();
+            long sent = pumpAll(harness, playing, TICKS);
+            long cpu = threads.getCurrentThreadCpuTime() - cpuBefore;
+
+            assertEquals((long) guilds * TICKS, sent);
+
+            double seconds = TICKS / 50d;
+            System.out.println(String.format("%,d guilds | CPU per guild: %.1fus per second of audio"
+                            + " (%.3f%% of a core) | heap per guild player: %,d bytes | shared clip: %,d bytes",
+                    guilds, cpu / 1000d / guilds / seconds, cpu / 1e7 / guilds / seconds,
+                    heapPerGuild, clip.getSize()));
+        }
+    }
+
+    /**
+     * @param harness the harness.
+     * @param guilds the guilds.
+     * @param ticks frames to poll from each guild.
+     * @return frames sent.
+     */
+    private static long pumpAll(AudioHarness harness, Guild[] guilds, int ticks){
+        long sent = 0;
+
+        for(int tick = 0; tick < ticks; tick++)
+            for(Guild guild : guilds)
+                sent += harness.pump(guild, 1);
+
+        return sent;
+    }
+}
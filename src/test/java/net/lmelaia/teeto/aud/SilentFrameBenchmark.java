@@ -0,0 +1,161 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.lmelaia.teeto.Benchmarks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packets, bytes and send handler CPU for a shared clip with
+ * silent stretches, with the silence skipped against sent.
+ * <p>
+ * The clip is ten seconds of 160 byte frames (64kbps) with three
+ * one second pauses, like a soundboard clip with a lead in, a
+ * break and a tail. Both guilds play a clip of that shape; only
+ * one clip has its silence bitmap. Only run with {@code -Pbenchmarks}.
+ */
+public class SilentFrameBenchmark {
+
+    /**
+     * Frames in the clip.
+     */
+    private static final int CLIP_FRAMES = 500;
+
+    /**
+     * Size of each frame in bytes.
+     */
+    private static final int FRAME_SIZE = 160;
+
+    /**
+     * Frames polled while measuring: an hour of audio.
+     */
+    private static final int FRAMES = 180_000;
+
+    /**
+     * Bytes added to each packet on the wire: RTP header,
+     * encryption MAC, UDP and IPv4 headers.
+     */
+    private static final int PACKET_OVERHEAD = 12 + 16 + 8 + 20;
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    @BeforeClass
+    public static void onlyWhenBenchmarking(){
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}");
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void silentFramesAreNotSent() throws IOException {
+        BitSet silent = new BitSet();
+        silent.set(0, 50);
+        silent.set(225, 275);
+        silent.set(450, 500);
+
+        Guild skipping = harness.guild(1);
+        Guild sending = harness.guild(2);
+        harness.getManager().getAudioPlayer(skipping).loop(harness.clip("pause.aud", CLIP_FRAMES, FRAME_SIZE, silent));
+        harness.getManager().getAudioPlayer(sending).loop(harness.clip("speech.aud", CLIP_FRAMES, FRAME_SIZE));
+
+        //Warm up both before measuring either.
+        for(int i = 0; i < 3; i++){
+            harness.pump(skipping, FRAMES);
+            harness.pump(sending, FRAMES);
+        }
+
+        Result skipped = measure(skipping);
+        Result sent = measure(sending);
+
+        System.out.println(String.format("Silence sent: %,d packets, %,dKB on the wire, %.0fns CPU per frame",
+                sent.packets, sent.packets * (FRAME_SIZE + PACKET_OVERHEAD) / 1024, sent.cpuPerFrame));
+        System.out.println(String.format("Silence skipped: %,d packets, %,dKB on the wire, %.0fns CPU per frame"
+                        + " (%,d frames skipped, %.1f%% fewer packets)",
+                skipped.packets, skipped.packets * (FRAME_SIZE + PACKET_OVERHEAD) / 1024, skipped.cpuPerFrame,
+                skipped.suppressed, 100d * (sent.packets - skipped.packets) / sent.packets));
+
+        assertEquals(FRAMES, sent.packets);
+        assertEquals(FRAMES * 3 / 10, skipped.suppressed);
+        assertEquals(FRAMES, skipped.packets + skipped.suppressed);
+    }
+
+    /**
+     * Polls the guilds looped clip while measuring.
+     *
+     * @param guild the guild.
+     * @return what was sent.
+     */
+    private Result measure(Guild guild){
+        PlaybackMetrics metrics = harness.getManager().getAudioPlayer(guild).getPlaybackMetrics();
+        long provided = metrics.getProvidedFrames();
+        long suppressed = metrics.getSuppressedFrames();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpu = threads.getCurrentThreadCpuTime();
+        harness.pump(guild, FRAMES);
+        cpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        Result result = new Result();
+        result.packets = metrics.getProvidedFrames() - provided;
+        result.suppressed = metrics.getSuppressedFrames() - suppressed;
+        result.cpuPerFrame = cpu / (double) FRAMES;
+        return result;
+    }
+
+    /**
+     * What a guild sent while measuring.
+     */
+    private static final class Result {
+
+        /**
+         * Frames sent.
+         */
+        private long packets;
+
+        /**
+         * Silent frames skipped.
+         */
+        private long suppressed;
+
+        /**
+         * Send handler CPU per frame polled, in nanoseconds.
+         */
+        private double cpuPerFrame;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.aud;
+
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Voice connections whose closes JDA never reports back,
+ * over the {@link AudioHarness}.
+ */
+public class VoiceConnectionTest {
+
+    /**
+     * The harness.
+     */
+    private AudioHarness harness;
+
+    /**
+     * The guild.
+     */
+    private Guild guild;
+
+    /**
+     * The guilds player.
+     */
+    private AudioPlayer player;
+
+    @Before
+    public void setUp() throws Exception {
+        harness = new AudioHarness("{\"audioStallSeconds\": 3600}");
+        guild = harness.guild(1);
+        player = harness.getManager().getAudioPlayer(guild);
+        player.connectToVoice(harness.channel(guild), false).get(5, TimeUnit.SECONDS);
+        harness.setCloseLost(guild, true);
+    }
+
+    @After
+    public void tearDown(){
+        harness.close();
+    }
+
+    @Test
+    public void lostDisconnectTimesOut() throws Exception {
+        player.disconnectFromVoice().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void recoveryFinishesWhenACloseIsLost() throws Exception {
+        //Recovery is only marked finished once this completes.
+        VoiceChannel channel = player.recover(StallCause.NO_FRAMES).get(15, TimeUnit.SECONDS);
+
+        assertEquals(harness.channel(guild), channel);
+        assertTrue(player.isConnected());
+    }
+}
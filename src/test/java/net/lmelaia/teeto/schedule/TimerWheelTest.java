@@ -0,0 +1,188 @@
+/*
+ *  This file is part of TeetoBot4J.
+ *
+ *  TeetoBot4J is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  TeetoBot4J is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with TeetoBot4J.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.lmelaia.teeto.schedule;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Timer wheel scheduling, cancelling and expiry on a fake clock,
+ * with ticks run by the test and expired tasks run in place.
+ */
+public class TimerWheelTest {
+
+    /**
+     * Length of a tick in nanoseconds.
+     */
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Number of buckets.
+     */
+    private static final int WHEEL_SIZE = 8;
+
+    /**
+     * The fake time in nanoseconds.
+     */
+    private long now;
+
+    /**
+     * Ticks expired tasks were run on, in order.
+     */
+    private final List<Long> fired = new ArrayList<>();
+
+    /**
+     * The tick being run.
+     */
+    private long tick;
+
+    /**
+     * The wheel.
+     */
+    private TimerWheel wheel;
+
+    @Before
+    public void setUp(){
+        wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, WHEEL_SIZE, Runnable::run, () -> now);
+    }
+
+    @Test
+    public void timeoutsFireOnTheTickTheyExpire(){
+        schedule(0);
+        schedule(3);
+        schedule(WHEEL_SIZE - 1);
+
+        runTo(WHEEL_SIZE);
+        assertEquals(Arrays.asList(0L, 3L, (long) WHEEL_SIZE - 1), fired);
+    }
+
+    @Test
+    public void timeoutsWaitOutTheirRounds(){
+        //Same bucket (5), zero, one and two turns of the wheel away.
+        schedule(5);
+        schedule(WHEEL_SIZE + 5);
+        schedule(2 * WHEEL_SIZE + 5);
+        //Exactly one turn: bucket 0, but not on tick 0.
+        schedule(WHEEL_SIZE);
+
+        runTo(3 * WHEEL_SIZE);
+        assertEquals(Arrays.asList(5L, (long) WHEEL_SIZE, WHEEL_SIZE + 5L, 2L * WHEEL_SIZE + 5), fired);
+    }
+
+    @Test
+    public void roundsCountFromTheTickTheyreLinkedOn(){
+        runTo(6);
+
+        //Linked on tick 6: into the current bucket a turn away, and into bucket 0 one and two turns away.
+        schedule(WHEEL_SIZE);
+        schedule(2);
+        schedule(WHEEL_SIZE + 2);
+
+        runTo(6 + 2 * WHEEL_SIZE);
+        assertEquals(Arrays.asList(8L, 6L + WHEEL_SIZE, 16L), fired);
+    }
+
+    @Test
+    public void overdueTimeoutsFireOnTheTickTheyreLinked(){
+        //One more than a tick links, so the last is linked a tick after it's due.
+        int transfers = TimerWheel.MAX_TRANSFERS_PER_TICK;
+
+        for(int i = 0; i <= transfers; i++)
+            schedule(0);
+
+        runTo(1);
+        assertEquals(transfers, fired.size());
+
+        runTo(2);
+        assertEquals(transfers + 1, fired.size());
+        assertEquals(Long.valueOf(1), fired.get(transfers));
+    }
+
+    @Test
+    public void schedulingAndCancellingOnlyQueue(){
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+
+        for(int i = 0; i < 100000; i++)
+            timeouts.add(schedule(i % (4 * WHEEL_SIZE) + 1));
+
+        assertEquals(100000, wheel.size());
+        assertEquals(100000, wheel.getQueuedCount());
+        assertFalse(timeouts.get(0).isLinked());
+
+        runTo(1);
+        assertEquals(0, wheel.getQueuedCount());
+        assertTrue(timeouts.get(0).isLinked());
+
+        for(TimerWheel.Timeout timeout : timeouts)
+            assertTrue(timeout.cancel());
+
+        //Unlinked on the next tick, without walking the buckets.
+        assertEquals(0, wheel.size());
+        assertEquals(100000, wheel.getQueuedCount());
+        assertTrue(timeouts.get(0).isLinked());
+
+        runTo(2);
+        assertEquals(0, wheel.getQueuedCount());
+        assertFalse(timeouts.get(0).isLinked());
+
+        runTo(8 * WHEEL_SIZE);
+        assertTrue(fired.isEmpty());
+    }
+
+    @Test
+    public void cancelledBeforeLinkingNeverFires(){
+        TimerWheel.Timeout timeout = schedule(1);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+
+        runTo(2 * WHEEL_SIZE);
+        assertTrue(fired.isEmpty());
+        assertFalse(timeout.isLinked());
+    }
+
+    /**
+     * Schedules a task recording the tick it runs on.
+     *
+     * @param ticks the delay in ticks from now.
+     * @return the timeout.
+     */
+    private TimerWheel.Timeout schedule(long ticks){
+        return wheel.schedule(() -> fired.add(tick), ticks * TICK, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs ticks, each at its end as the worker would,
+     * until the given tick is next.
+     *
+     * @param end the next tick to be run afterwards.
+     */
+    private void runTo(long end){
+        while(tick < end){
+            now = (tick + 1) * TICK;
+            assertEquals(tick, wheel.nextTick(now));
+            tick++;
+        }
+    }
+}